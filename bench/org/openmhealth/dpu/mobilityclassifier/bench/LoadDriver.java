@@ -0,0 +1,391 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.joda.time.DateTimeZone;
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+import org.openmhealth.dpu.mobilityclassifier.io.JsonResultSink;
+import org.openmhealth.dpu.mobilityclassifier.io.SensorDataPointReader;
+import org.openmhealth.dpu.mobilityclassifier.metrics.LatencyHistogram;
+import org.openmhealth.dpu.mobilityclassifier.service.ClassificationSession;
+
+/**
+ * An end-to-end load and soak driver. Many simulated users upload batches of
+ * newline-delimited JSON, which are parsed with SensorDataPointReader, 
+ * classified by each user's ClassificationSession, and written with a 
+ * JsonResultSink to a stream that discards the output. Run it with 
+ * <code>ant load</code>.
+ * 
+ * The uploads are a fixed corpus generated up front, so generation does not
+ * count towards the measurement. Each upload switches between activities 
+ * every few points, and each run of one activity has its own window size 
+ * (sampling rate) and number of access points, from none to 150. Users
+ * replay the corpus from different offsets.
+ * 
+ * After a warmup the driver reports sustained points per second, upload 
+ * latency percentiles, the heap high-water mark (sampled every 100 ms), and
+ * the total and share of time spent in garbage collection. If a thresholds
+ * file is given the run fails with exit code 1 when any result is worse than
+ * its threshold. All settings are system properties:
+ * 
+ * <ul>
+ * <li>load.points: the number of points to measure, default 1000000.</li>
+ * <li>load.seconds: stop measuring after this many seconds, for soak runs; 
+ * 0, the default, for no limit.</li>
+ * <li>load.warmupPoints: the number of points before measuring, default 
+ * 200000.</li>
+ * <li>load.users: the number of users, default 64.</li>
+ * <li>load.threads: the number of worker threads, default the number of 
+ * processors.</li>
+ * <li>load.uploads: the number of uploads in the corpus, default 64.</li>
+ * <li>load.uploadSize: the number of points per upload, default 100.</li>
+ * <li>load.seed: the seed of the corpus, default 42.</li>
+ * <li>load.thresholds: a properties file with any of min.pointsPerSecond, 
+ * max.p99Millis, max.peakHeapMegabytes, max.gcMillis, and max.gcPercent.</li>
+ * </ul>
+ */
+public class LoadDriver {
+	private static final int[] WINDOW_SIZES = { 32, 64, 128, 256 };
+	private static final int[] ACCESS_POINTS = { 0, 3, 10, 40, 100, 150 };
+	private static final String[] TIMEZONES = { "UTC", "America/Los_Angeles", "America/New_York", "Europe/Berlin", "Asia/Kolkata" };
+	private static final long HEAP_SAMPLE_MILLIS = 100L;
+	
+	private final List<byte[]> uploads;
+	private final int uploadSize;
+	private final int numberOfUsers;
+	private final int numberOfThreads;
+	
+	/**
+	 * Creates a driver and generates its corpus.
+	 * 
+	 * @param numberOfUploads the number of uploads in the corpus
+	 * 
+	 * @param uploadSize the number of points per upload
+	 * 
+	 * @param numberOfUsers the number of simulated users
+	 * 
+	 * @param numberOfThreads the number of worker threads
+	 * 
+	 * @param seed the seed of the corpus
+	 */
+	public LoadDriver(final int numberOfUploads, final int uploadSize, final int numberOfUsers, 
+			final int numberOfThreads, final long seed) {
+		
+		if(numberOfUploads <= 0 || uploadSize <= 0 || numberOfUsers <= 0 || numberOfThreads <= 0) {
+			throw new IllegalArgumentException("uploads, uploadSize, users, and threads must be positive");
+		}
+		
+		this.uploadSize = uploadSize;
+		this.numberOfUsers = numberOfUsers;
+		this.numberOfThreads = numberOfThreads;
+		this.uploads = new ArrayList<byte[]>(numberOfUploads);
+		
+		Random random = new Random(seed);
+		TraceGenerator.Activity[] activities = TraceGenerator.Activity.values();
+		for(int i = 0; i < numberOfUploads; i++) {
+			TraceGenerator generator = new TraceGenerator(random.nextLong(), 
+				DateTimeZone.forID(TIMEZONES[i % TIMEZONES.length]), 1331258104686L + i * 86400000L);
+			
+			List<SensorDataPoint> points = new ArrayList<SensorDataPoint>(uploadSize);
+			while(points.size() < uploadSize) {
+				TraceGenerator.Activity activity = activities[random.nextInt(activities.length)];
+				int windowSize = WINDOW_SIZES[random.nextInt(WINDOW_SIZES.length)];
+				int accessPoints = ACCESS_POINTS[random.nextInt(ACCESS_POINTS.length)];
+				int length = Math.min(5 + random.nextInt(30), uploadSize - points.size());
+				
+				points.addAll(generator.trace(activity, length, windowSize, accessPoints, true));
+			}
+			
+			try {
+				uploads.add(TraceGenerator.toJson(points, true).getBytes("UTF-8"));
+			}
+			catch(UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+	
+	/**
+	 * Runs a warmup, then a measured phase, and prints the report.
+	 * 
+	 * @return the results of the measured phase
+	 */
+	public Results run(long warmupPoints, long points, long maximumMillis) throws InterruptedException {
+		if(warmupPoints > 0) {
+			System.out.println("Warming up with " + warmupPoints + " points");
+			drive(warmupPoints, 0);
+		}
+		
+		System.out.println("Measuring " + points + " points on " + numberOfThreads + " threads for " 
+			+ numberOfUsers + " users");
+		Results results = drive(points, maximumMillis);
+		System.out.println(results);
+		return results;
+	}
+	
+	/**
+	 * Pushes uploads through the pipeline until the provided number of points
+	 * or milliseconds is reached.
+	 */
+	private Results drive(long points, long maximumMillis) throws InterruptedException {
+		final long uploadsToProcess = (points + uploadSize - 1) / uploadSize;
+		final AtomicLong nextUpload = new AtomicLong();
+		final AtomicLong processedPoints = new AtomicLong();
+		final LatencyHistogram latencies = new LatencyHistogram();
+		final long deadline = maximumMillis > 0 ? System.currentTimeMillis() + maximumMillis : Long.MAX_VALUE;
+		final List<Throwable> failures = new ArrayList<Throwable>();
+		
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		long gcCount = 0;
+		long gcMillis = 0;
+		for(GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			gcCount -= Math.max(collector.getCollectionCount(), 0);
+			gcMillis -= Math.max(collector.getCollectionTime(), 0);
+		}
+		
+		Thread[] workers = new Thread[numberOfThreads];
+		for(int t = 0; t < numberOfThreads; t++) {
+			final int thread = t;
+			workers[t] = new Thread("load-" + t) {
+				public void run() {
+					// Each user is driven by exactly one thread
+					List<ClassificationSession> sessions = new ArrayList<ClassificationSession>();
+					for(int user = thread; user < numberOfUsers; user += numberOfThreads) {
+						sessions.add(new ClassificationSession());
+					}
+					if(sessions.isEmpty()) {
+						return;
+					}
+					
+					try {
+						long upload;
+						while((upload = nextUpload.getAndIncrement()) < uploadsToProcess 
+								&& System.currentTimeMillis() < deadline) {
+							
+							int user = (int) (upload % sessions.size());
+							byte[] json = uploads.get((int) ((upload + user * 7) % uploads.size()));
+							
+							long start = System.nanoTime();
+							processedPoints.addAndGet(process(sessions.get(user), json));
+							latencies.record(System.nanoTime() - start);
+						}
+					}
+					catch(Throwable e) {
+						synchronized(failures) {
+							failures.add(e);
+						}
+						nextUpload.set(uploadsToProcess);
+					}
+				}
+			};
+		}
+		
+		long start = System.nanoTime();
+		for(Thread worker : workers) {
+			worker.start();
+		}
+		
+		long peakHeap = memory.getHeapMemoryUsage().getUsed();
+		for(Thread worker : workers) {
+			while(worker.isAlive()) {
+				worker.join(HEAP_SAMPLE_MILLIS);
+				peakHeap = Math.max(peakHeap, memory.getHeapMemoryUsage().getUsed());
+			}
+		}
+		long elapsedNanos = System.nanoTime() - start;
+		
+		if(! failures.isEmpty()) {
+			throw new IllegalStateException("A worker failed", failures.get(0));
+		}
+		
+		for(GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			gcCount += Math.max(collector.getCollectionCount(), 0);
+			gcMillis += Math.max(collector.getCollectionTime(), 0);
+		}
+		
+		return new Results(processedPoints.get(), elapsedNanos, latencies, peakHeap, gcCount, gcMillis);
+	}
+	
+	private static int process(ClassificationSession session, byte[] json) throws IOException {
+		SensorDataPointReader reader = new SensorDataPointReader(new ByteArrayInputStream(json));
+		JsonResultSink sink = new JsonResultSink(NullOutputStream.INSTANCE, true, true);
+		
+		try {
+			return session.classify(reader, sink);
+		}
+		finally {
+			sink.close();
+		}
+	}
+	
+	/**
+	 * The results of one measured phase.
+	 */
+	public static final class Results {
+		private final long points;
+		private final long elapsedNanos;
+		private final LatencyHistogram latencies;
+		private final long peakHeapBytes;
+		private final long gcCount;
+		private final long gcMillis;
+		
+		private Results(final long points, final long elapsedNanos, final LatencyHistogram latencies, 
+				final long peakHeapBytes, final long gcCount, final long gcMillis) {
+			
+			this.points = points;
+			this.elapsedNanos = elapsedNanos;
+			this.latencies = latencies;
+			this.peakHeapBytes = peakHeapBytes;
+			this.gcCount = gcCount;
+			this.gcMillis = gcMillis;
+		}
+		
+		public double getPointsPerSecond() {
+			return points * 1e9D / elapsedNanos;
+		}
+		
+		public double getLatencyMillis(double quantile) {
+			return latencies.getQuantile(quantile) / 1e6D;
+		}
+		
+		public double getPeakHeapMegabytes() {
+			return peakHeapBytes / (1024.0D * 1024.0D);
+		}
+		
+		public long getGcMillis() {
+			return gcMillis;
+		}
+		
+		public double getGcPercent() {
+			return gcMillis * 1e8D / elapsedNanos;
+		}
+		
+		/**
+		 * Checks the results against thresholds.
+		 * 
+		 * @return a description of each threshold that was exceeded
+		 */
+		public List<String> check(Properties thresholds) {
+			List<String> violations = new ArrayList<String>();
+			checkMinimum(violations, thresholds, "min.pointsPerSecond", getPointsPerSecond());
+			checkMaximum(violations, thresholds, "max.p99Millis", getLatencyMillis(0.99D));
+			checkMaximum(violations, thresholds, "max.peakHeapMegabytes", getPeakHeapMegabytes());
+			checkMaximum(violations, thresholds, "max.gcMillis", gcMillis);
+			checkMaximum(violations, thresholds, "max.gcPercent", getGcPercent());
+			return violations;
+		}
+		
+		private static void checkMinimum(List<String> violations, Properties thresholds, String key, double value) {
+			String threshold = thresholds.getProperty(key);
+			if(threshold != null && value < Double.parseDouble(threshold.trim())) {
+				violations.add(key + ": " + format(value) + " is below " + threshold.trim());
+			}
+		}
+		
+		private static void checkMaximum(List<String> violations, Properties thresholds, String key, double value) {
+			String threshold = thresholds.getProperty(key);
+			if(threshold != null && value > Double.parseDouble(threshold.trim())) {
+				violations.add(key + ": " + format(value) + " is above " + threshold.trim());
+			}
+		}
+		
+		@Override
+		public String toString() {
+			return "points:            " + points + "\n"
+				+ "elapsed:           " + format(elapsedNanos / 1e9D) + " s\n"
+				+ "points/sec:        " + format(getPointsPerSecond()) + "\n"
+				+ "upload latency:    p50 " + format(getLatencyMillis(0.5D)) + " ms, p99 " 
+					+ format(getLatencyMillis(0.99D)) + " ms, p99.9 " + format(getLatencyMillis(0.999D)) 
+					+ " ms, max " + format(latencies.getMax() / 1e6D) + " ms\n"
+				+ "peak heap:         " + format(getPeakHeapMegabytes()) + " MB\n"
+				+ "gc:                " + gcCount + " collections, " + gcMillis + " ms, " 
+					+ format(getGcPercent()) + "% of elapsed";
+		}
+		
+		private static String format(double value) {
+			return String.format("%.1f", value);
+		}
+	}
+	
+	/**
+	 * Discards everything written to it, so output encoding is measured 
+	 * without disk I/O.
+	 */
+	private static final class NullOutputStream extends OutputStream {
+		private static final NullOutputStream INSTANCE = new NullOutputStream();
+		
+		@Override
+		public void write(int b) {
+			
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) {
+			
+		}
+	}
+	
+	public static void main(String[] args) throws Exception {
+		LoadDriver driver = new LoadDriver(
+			Integer.getInteger("load.uploads", 64),
+			Integer.getInteger("load.uploadSize", 100),
+			Integer.getInteger("load.users", 64),
+			Integer.getInteger("load.threads", Runtime.getRuntime().availableProcessors()),
+			Long.getLong("load.seed", 42L));
+		
+		Results results = driver.run(
+			Long.getLong("load.warmupPoints", 200000L), 
+			Long.getLong("load.points", 1000000L), 
+			Long.getLong("load.seconds", 0L) * 1000L);
+		
+		String thresholdsFile = System.getProperty("load.thresholds");
+		if(thresholdsFile != null && thresholdsFile.trim().length() > 0) {
+			Properties thresholds = new Properties();
+			InputStream in = new FileInputStream(new File(thresholdsFile.trim()));
+			try {
+				thresholds.load(in);
+			}
+			finally {
+				in.close();
+			}
+			
+			List<String> violations = results.check(thresholds);
+			for(String violation : violations) {
+				System.out.println("FAILED " + violation);
+			}
+			if(! violations.isEmpty()) {
+				System.exit(1);
+			}
+			System.out.println("All thresholds in " + thresholdsFile.trim() + " met");
+		}
+	}
+}
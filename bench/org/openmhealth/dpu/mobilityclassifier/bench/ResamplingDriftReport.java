@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.bench;
+
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import org.joda.time.DateTimeZone;
+import org.openmhealth.dpu.mobilityclassifier.domain.AccelerometerData;
+import org.openmhealth.dpu.mobilityclassifier.domain.ClassifiedPoint;
+import org.openmhealth.dpu.mobilityclassifier.domain.Mode;
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+import org.openmhealth.dpu.mobilityclassifier.io.SensorDataPointReader;
+import org.openmhealth.dpu.mobilityclassifier.service.AccelerometerResampler;
+import org.openmhealth.dpu.mobilityclassifier.service.ClassificationSession;
+import org.openmhealth.dpu.mobilityclassifier.service.MobilityClassifierEngine;
+
+import edu.ucla.cens.mobilityclassifier.AccessPoint;
+import edu.ucla.cens.mobilityclassifier.WifiScan;
+
+/**
+ * Reports how far mode assignments drift when windows are resampled with
+ * AccelerometerResampler, and what it saves. For each target size the 
+ * validation set is classified with and without resampling, and the report
+ * shows the share of points whose mode is unchanged, a confusion matrix of 
+ * original against resampled modes, and the classification time per point.
+ * 
+ * Usage: ResamplingDriftReport [validation.json [target ...]]
+ * 
+ * The validation set is a JSON array or NDJSON file in the format of 
+ * example.json. Without one, TraceGenerator traces of every activity with 
+ * 256 and 512 sample windows, i.e., recorded at 50 to 100 Hz, are used, 
+ * together with windows whose third FFT term lies between a quarter of and 
+ * four times the walk/run threshold. The synthetic traces are far from that
+ * threshold, so the boundary windows are where any drift left after the 
+ * engine rescales the FFT terms of resampled windows shows. Both passes 
+ * classify with MobilityClassifierEngine. The default targets are 32, 64, 
+ * and 128.
+ */
+public class ResamplingDriftReport {
+	private static final Mode[] MODES = Mode.values();
+	private static final double GRAVITY = 9.80665D;
+	// The library's threshold on the third FFT term between walk and run
+	private static final double WALK_FFT_THRESHOLD = 16.840921D;
+	
+	public static void main(String[] args) throws Exception {
+		List<SensorDataPoint> points = new ArrayList<SensorDataPoint>();
+		if(args.length > 0) {
+			SensorDataPointReader reader = new SensorDataPointReader(new FileInputStream(args[0]));
+			try {
+				for(SensorDataPoint point : reader) {
+					points.add(point);
+				}
+			}
+			finally {
+				reader.close();
+			}
+		}
+		else {
+			TraceGenerator generator = new TraceGenerator(42);
+			for(int windowSize : new int[] { 256, 512 }) {
+				for(TraceGenerator.Activity activity : TraceGenerator.Activity.values()) {
+					points.addAll(generator.trace(activity, 500, windowSize, 10, true));
+				}
+				points.addAll(boundaryTrace(windowSize, 500));
+			}
+		}
+		
+		int[] targets = { 32, 64, 128 };
+		if(args.length > 1) {
+			targets = new int[args.length - 1];
+			for(int i = 1; i < args.length; i++) {
+				targets[i - 1] = Integer.parseInt(args[i]);
+			}
+		}
+		
+		// Classify twice so the reported times are not dominated by warmup
+		classify(points, null);
+		long start = System.nanoTime();
+		List<ClassifiedPoint> original = classify(points, null);
+		double originalNanos = (double) (System.nanoTime() - start) / points.size();
+		
+		System.out.println(points.size() + " points, " + String.format("%.0f", originalNanos) + " ns/point without resampling");
+		
+		for(int target : targets) {
+			AccelerometerResampler resampler = new AccelerometerResampler(target);
+			classify(points, resampler);
+			start = System.nanoTime();
+			List<ClassifiedPoint> resampled = classify(points, resampler);
+			double resampledNanos = (double) (System.nanoTime() - start) / points.size();
+			
+			int[][] confusion = new int[MODES.length][MODES.length];
+			int same = 0;
+			for(int i = 0; i < points.size(); i++) {
+				Mode from = original.get(i).getMode();
+				Mode to = resampled.get(i).getMode();
+				confusion[from.ordinal()][to.ordinal()]++;
+				if(from == to) {
+					same++;
+				}
+			}
+			
+			System.out.println();
+			System.out.println("target " + target + ": " + String.format("%.2f", 100.0D * same / points.size()) 
+				+ "% of modes unchanged, " + String.format("%.0f", resampledNanos) + " ns/point");
+			System.out.print(String.format("%-10s", "original"));
+			for(Mode mode : MODES) {
+				System.out.print(String.format("%9s", mode.getValue()));
+			}
+			System.out.println();
+			for(Mode from : MODES) {
+				System.out.print(String.format("%-10s", from.getValue()));
+				for(Mode to : MODES) {
+					System.out.print(String.format("%9d", confusion[from.ordinal()][to.ordinal()]));
+				}
+				System.out.println();
+			}
+		}
+	}
+	
+	/**
+	 * Generates windows with a strong seven cycle component, so they are not
+	 * still, and a three cycle component whose power, the third FFT term, 
+	 * ranges from a quarter of to four times the walk/run threshold.
+	 */
+	private static List<SensorDataPoint> boundaryTrace(int windowSize, int numberOfPoints) {
+		List<SensorDataPoint> points = new ArrayList<SensorDataPoint>(numberOfPoints);
+		WifiScan wifiScan = new WifiScan(0L, Collections.<AccessPoint>emptyList());
+		
+		for(int p = 0; p < numberOfPoints; p++) {
+			double power = WALK_FFT_THRESHOLD * Math.pow(16.0D, (double) p / (numberOfPoints - 1)) / 4.0D;
+			double amplitude = 2.0D * Math.sqrt(power) / windowSize;
+			
+			double[] x = new double[windowSize];
+			double[] y = new double[windowSize];
+			double[] z = new double[windowSize];
+			for(int i = 0; i < windowSize; i++) {
+				z[i] = GRAVITY * (1.0D + amplitude * Math.sin(2 * Math.PI * 3 * i / windowSize) 
+						+ 0.3D * Math.sin(2 * Math.PI * 7 * i / windowSize));
+			}
+			
+			points.add(new SensorDataPoint(UUID.randomUUID(), 1.0D, DateTimeZone.UTC, wifiScan, 
+					AccelerometerData.wrap(x, y, z)));
+		}
+		
+		return points;
+	}
+	
+	private static List<ClassifiedPoint> classify(List<SensorDataPoint> points, AccelerometerResampler resampler) {
+		ClassificationSession session = new ClassificationSession();
+		session.setEngine(new MobilityClassifierEngine());
+		session.setResampler(resampler);
+		return session.classify(points);
+	}
+}
@@ -0,0 +1,251 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import org.joda.time.DateTimeZone;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openmhealth.dpu.mobilityclassifier.domain.AccelerometerData;
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+
+import edu.ucla.cens.mobilityclassifier.AccessPoint;
+import edu.ucla.cens.mobilityclassifier.Sample;
+import edu.ucla.cens.mobilityclassifier.WifiScan;
+
+/**
+ * Generates synthetic, reproducible sensor data traces for benchmarks and load
+ * tests. Each activity produces accelerometer windows and wifi scans that the
+ * classifier assigns to the corresponding mode:
+ * 
+ * <ul>
+ * <li>still: gravity plus sensor noise, a stable set of access points.</li>
+ * <li>walk: a strong, slow periodic signal.</li>
+ * <li>run: a stronger, faster periodic signal.</li>
+ * <li>drive: vibration only, a high speed, and access points that change on 
+ * every scan.</li>
+ * </ul>
+ * 
+ * Instances are not thread-safe.
+ */
+public class TraceGenerator {
+	private static final double GRAVITY = 9.80665D;
+	private static final long SCAN_INTERVAL_MILLIS = 60000L;
+	
+	/**
+	 * The activities a trace may simulate.
+	 */
+	public enum Activity {
+		STILL(0.02D, 1, 0.0D),
+		WALK(3.0D, 2, 1.4D),
+		RUN(9.0D, 3, 3.0D),
+		DRIVE(0.05D, 9, 15.0D);
+		
+		private final double amplitude;
+		private final int cycles;
+		private final double speed;
+		
+		private Activity(final double amplitude, final int cycles, final double speed) {
+			this.amplitude = amplitude;
+			this.cycles = cycles;
+			this.speed = speed;
+		}
+	}
+	
+	private final Random random;
+	private final DateTimeZone timezone;
+	private long time;
+	private int ssidCounter;
+	private List<AccessPoint> accessPoints;
+	
+	/**
+	 * Creates a generator whose traces start at a fixed time in UTC.
+	 * 
+	 * @param seed the seed for the pseudo-random generator
+	 */
+	public TraceGenerator(final long seed) {
+		this(seed, DateTimeZone.UTC, 1331258104686L);
+	}
+	
+	/**
+	 * Creates a generator.
+	 * 
+	 * @param seed the seed for the pseudo-random generator
+	 * 
+	 * @param timezone the timezone of the generated points
+	 * 
+	 * @param startTime the time of the first wifi scan in milliseconds since 
+	 * the epoch
+	 */
+	public TraceGenerator(final long seed, final DateTimeZone timezone, final long startTime) {
+		if(timezone == null) {
+			throw new IllegalArgumentException("timezone is required");
+		}
+		
+		this.random = new Random(seed);
+		this.timezone = timezone;
+		this.time = startTime;
+		this.accessPoints = new ArrayList<AccessPoint>();
+	}
+	
+	/**
+	 * Generates consecutive points of a single activity.
+	 * 
+	 * @param activity the activity to simulate
+	 * 
+	 * @param numberOfPoints the number of points to generate
+	 * 
+	 * @param windowSize the number of accelerometer samples per point
+	 * 
+	 * @param numberOfAccessPoints the number of access points per scan
+	 * 
+	 * @param columnar true to back points with AccelerometerData, false to 
+	 * back them with Lists of Samples
+	 * 
+	 * @return the generated points
+	 */
+	public List<SensorDataPoint> trace(Activity activity, int numberOfPoints, int windowSize, 
+			int numberOfAccessPoints, boolean columnar) {
+		
+		List<SensorDataPoint> points = new ArrayList<SensorDataPoint>(numberOfPoints);
+		for(int i = 0; i < numberOfPoints; i++) {
+			points.add(next(activity, windowSize, numberOfAccessPoints, columnar));
+		}
+		return points;
+	}
+	
+	/**
+	 * Generates the next point of a trace. Scans are one minute apart.
+	 * 
+	 * @param activity the activity to simulate
+	 * 
+	 * @param windowSize the number of accelerometer samples in the point
+	 * 
+	 * @param numberOfAccessPoints the number of access points in the scan
+	 * 
+	 * @param columnar true to back the point with AccelerometerData, false to
+	 * back it with a List of Samples
+	 * 
+	 * @return the generated point
+	 */
+	public SensorDataPoint next(Activity activity, int windowSize, int numberOfAccessPoints, boolean columnar) {
+		if(activity == null) {
+			throw new IllegalArgumentException("activity is required");
+		}
+		
+		double[] x = new double[windowSize];
+		double[] y = new double[windowSize];
+		double[] z = new double[windowSize];
+		double phase = random.nextDouble() * 2 * Math.PI;
+		
+		for(int i = 0; i < windowSize; i++) {
+			double wave = activity.amplitude * Math.sin(phase + 2 * Math.PI * activity.cycles * i / windowSize);
+			x[i] = random.nextGaussian() * activity.amplitude / 10;
+			y[i] = random.nextGaussian() * activity.amplitude / 10;
+			z[i] = GRAVITY + wave;
+		}
+		
+		if(activity == Activity.DRIVE || accessPoints.size() != numberOfAccessPoints) {
+			accessPoints = new ArrayList<AccessPoint>(numberOfAccessPoints);
+			for(int i = 0; i < numberOfAccessPoints; i++) {
+				accessPoints.add(new AccessPoint(String.format("02:00:00:%02x:%02x:%02x", 
+						(ssidCounter >> 16) & 0xff, (ssidCounter >> 8) & 0xff, ssidCounter & 0xff), 
+						-40 - random.nextInt(55)));
+				ssidCounter++;
+			}
+		}
+		
+		WifiScan wifiScan = new WifiScan(time, accessPoints);
+		double speed = activity.speed * (0.8D + random.nextDouble() * 0.4D);
+		time += SCAN_INTERVAL_MILLIS;
+		
+		if(columnar) {
+			return new SensorDataPoint(UUID.randomUUID(), speed, timezone, wifiScan, AccelerometerData.wrap(x, y, z));
+		}
+		
+		List<Sample> samples = new ArrayList<Sample>(windowSize);
+		for(int i = 0; i < windowSize; i++) {
+			samples.add(new Sample(x[i], y[i], z[i]));
+		}
+		return new SensorDataPoint(UUID.randomUUID(), speed, timezone, wifiScan, samples);
+	}
+	
+	/**
+	 * Serializes points in the JSON format read by SensorDataPointReader.
+	 * 
+	 * @param points the points to serialize
+	 * 
+	 * @param ndjson true to write one point per line, false to write a JSON
+	 * array
+	 * 
+	 * @return the serialized points
+	 */
+	public static String toJson(List<SensorDataPoint> points, boolean ndjson) {
+		StringBuilder builder = new StringBuilder();
+		
+		try {
+			if(! ndjson) {
+				builder.append('[');
+			}
+			
+			for(int i = 0; i < points.size(); i++) {
+				if(i > 0 && ! ndjson) {
+					builder.append(',');
+				}
+				builder.append(toJson(points.get(i)));
+				if(ndjson) {
+					builder.append('\n');
+				}
+			}
+			
+			if(! ndjson) {
+				builder.append(']');
+			}
+		}
+		catch(JSONException e) {
+			throw new IllegalStateException(e);
+		}
+		
+		return builder.toString();
+	}
+	
+	private static JSONObject toJson(SensorDataPoint point) throws JSONException {
+		AccelerometerData data = point.getAccelerometerData();
+		JSONArray accelData = new JSONArray();
+		for(int i = 0; i < data.size(); i++) {
+			accelData.put(new JSONObject().put("x", data.getX(i)).put("y", data.getY(i)).put("z", data.getZ(i)));
+		}
+		
+		JSONArray scan = new JSONArray();
+		for(AccessPoint accessPoint : point.getWifiScan().getAccessPoints()) {
+			scan.put(new JSONObject().put("ssid", accessPoint.getSsid()).put("strength", accessPoint.getStrength().intValue()));
+		}
+		
+		return new JSONObject()
+			.put("id", point.getId().toString())
+			.put("accel_data", accelData)
+			.put("speed", point.getSpeed())
+			.put("wifi_data", new JSONObject()
+				.put("timezone", point.getTimezone().getID())
+				.put("time", point.getWifiScan().getTime())
+				.put("scan", scan));
+	}
+}
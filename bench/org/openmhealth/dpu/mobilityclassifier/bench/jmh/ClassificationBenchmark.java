@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.bench.jmh;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openmhealth.dpu.mobilityclassifier.bench.TraceGenerator;
+import org.openmhealth.dpu.mobilityclassifier.domain.ClassifiedPoint;
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+import org.openmhealth.dpu.mobilityclassifier.service.ClassificationSession;
+import org.openmhealth.dpu.mobilityclassifier.service.MobilityClassifierEngine;
+
+/**
+ * Measures classifying a batch of synthetic points with the library or the
+ * in-tree engine. 
+ * Every operation is one point, so throughput is reported in points per 
+ * second, average time (-bm avgt -tu ns) in nanoseconds per point, and the 
+ * gc profiler's gc.alloc.rate.norm (-prof gc) in bytes allocated per point.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ClassificationBenchmark {
+	static final int POINTS = 256;
+	
+	@Param({ "STILL", "WALK", "RUN", "DRIVE" })
+	public TraceGenerator.Activity activity;
+	
+	@Param({ "32", "128", "512" })
+	public int windowSize;
+	
+	@Param({ "0", "10", "100" })
+	public int accessPoints;
+	
+	@Param({ "false", "true" })
+	public boolean columnar;
+	
+	// library uses the 1.2.9 jar, engine and cascade the in-tree engine
+	@Param({ "library", "engine", "cascade" })
+	public String classifier;
+	
+	private List<SensorDataPoint> points;
+	
+	@Setup
+	public void setUp() {
+		points = new TraceGenerator(42).trace(activity, POINTS, windowSize, accessPoints, columnar);
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(POINTS)
+	public List<ClassifiedPoint> classify() {
+		ClassificationSession session = new ClassificationSession();
+		if(! "library".equals(classifier)) {
+			session.setEngine(new MobilityClassifierEngine("cascade".equals(classifier)));
+		}
+		return session.classify(points);
+	}
+}
@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.bench.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openmhealth.dpu.mobilityclassifier.bench.TraceGenerator;
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+
+import edu.ucla.cens.mobilityclassifier.Classification;
+import edu.ucla.cens.mobilityclassifier.MobilityClassifier;
+import edu.ucla.cens.mobilityclassifier.WifiScan;
+
+/**
+ * Measures the MobilityClassifier on a single point, i.e., magnitude, mean, 
+ * variance and Goertzel feature extraction plus the wifi comparison against 
+ * the previous scan, without any of the service's bookkeeping.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FeatureExtractionBenchmark {
+	@Param({ "WALK", "DRIVE" })
+	public TraceGenerator.Activity activity;
+	
+	@Param({ "32", "128", "512" })
+	public int windowSize;
+	
+	@Param({ "0", "10", "100" })
+	public int accessPoints;
+	
+	private final MobilityClassifier mobilityClassifier = new MobilityClassifier();
+	private SensorDataPoint point;
+	private WifiScan previousWifiScan;
+	
+	@Setup
+	public void setUp() {
+		TraceGenerator generator = new TraceGenerator(42);
+		previousWifiScan = generator.next(activity, windowSize, accessPoints, false).getWifiScan();
+		point = generator.next(activity, windowSize, accessPoints, false);
+	}
+	
+	@Benchmark
+	public Classification classifyPoint() {
+		return mobilityClassifier.classify(point.getAccelerometerSamples(), point.getSpeed(), 
+				point.getWifiScan(), previousWifiScan, null);
+	}
+}
@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.bench.jmh;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openmhealth.dpu.mobilityclassifier.bench.TraceGenerator;
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+import org.openmhealth.dpu.mobilityclassifier.service.FeatureKernel;
+import org.openmhealth.dpu.mobilityclassifier.service.ScalarFeatureKernel;
+
+/**
+ * Measures batch feature extraction with the scalar kernel and with the 
+ * kernel FeatureKernel.create() selects. Every operation is one window. The
+ * vector kernel is only selected if the forked JVMs get the incubator 
+ * module, e.g., with -Djmh.args="FeatureKernelBenchmark -jvmArgsAppend 
+ * --add-modules=jdk.incubator.vector" after "ant vector-javac".
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FeatureKernelBenchmark {
+	static final int WINDOWS = 256;
+	
+	@Param({ "32", "128", "512" })
+	public int windowSize;
+	
+	@Param({ "scalar", "preferred" })
+	public String kernel;
+	
+	private FeatureKernel featureKernel;
+	private List<SensorDataPoint> points;
+	private double[] features;
+	
+	@Setup
+	public void setUp() {
+		featureKernel = "scalar".equals(kernel) ? new ScalarFeatureKernel() : FeatureKernel.create();
+		
+		TraceGenerator generator = new TraceGenerator(42);
+		points = new ArrayList<SensorDataPoint>(WINDOWS);
+		for(TraceGenerator.Activity activity : TraceGenerator.Activity.values()) {
+			points.addAll(generator.trace(activity, WINDOWS / 4, windowSize, 0, true));
+		}
+		features = new double[WINDOWS * FeatureKernel.FEATURES_PER_WINDOW];
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(WINDOWS)
+	public double[] extract() {
+		featureKernel.extract(points, features);
+		return features;
+	}
+}
@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.bench.jmh;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openmhealth.dpu.mobilityclassifier.bench.TraceGenerator;
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+import org.openmhealth.dpu.mobilityclassifier.io.ParallelSensorDataPointReader;
+import org.openmhealth.dpu.mobilityclassifier.io.SensorDataPointReader;
+
+/**
+ * Measures parsing the example.json format with SensorDataPointReader, and 
+ * with ParallelSensorDataPointReader on one thread per processor. Every
+ * operation is one point, as in ClassificationBenchmark.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IngestBenchmark {
+	static final int POINTS = 256;
+	
+	@Param({ "32", "128", "512" })
+	public int windowSize;
+	
+	@Param({ "0", "10", "100" })
+	public int accessPoints;
+	
+	@Param({ "false", "true" })
+	public boolean ndjson;
+	
+	private String json;
+	private byte[] bytes;
+	private ExecutorService executorService;
+	
+	@Setup
+	public void setUp() throws UnsupportedEncodingException {
+		TraceGenerator generator = new TraceGenerator(42);
+		json = TraceGenerator.toJson(generator.trace(TraceGenerator.Activity.WALK, POINTS, windowSize, accessPoints, true), ndjson);
+		bytes = json.getBytes("UTF-8");
+		executorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+	}
+	
+	@TearDown
+	public void tearDown() {
+		executorService.shutdownNow();
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(POINTS)
+	public void read(Blackhole blackhole) throws JSONException {
+		SensorDataPointReader reader = new SensorDataPointReader(new StringReader(json));
+		SensorDataPoint point = reader.read();
+		
+		while(point != null) {
+			blackhole.consume(point);
+			point = reader.read();
+		}
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(POINTS)
+	public void readParallel(Blackhole blackhole) throws JSONException {
+		ParallelSensorDataPointReader reader = new ParallelSensorDataPointReader(new ByteArrayInputStream(bytes), executorService, 64);
+		SensorDataPoint point = reader.read();
+		
+		while(point != null) {
+			blackhole.consume(point);
+			point = reader.read();
+		}
+	}
+}
@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.vector;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import org.openmhealth.dpu.mobilityclassifier.service.FeatureKernel;
+
+/**
+ * Extracts features with the JDK's incubating Vector API. Magnitudes and the
+ * sums behind the average and variance are computed several samples per 
+ * instruction. The Goertzel recurrence is sequential in the samples, so the
+ * ten FFT terms are instead computed side by side, one term per lane.
+ * 
+ * Every operation is evaluated in the same order as in the 1.2.9 
+ * MobilityClassifier, without fused multiply-adds, so magnitudes and, given 
+ * the same average, FFT terms are identical to the library's. Only the 
+ * order in which the lanes' partial sums are added differs, which keeps the 
+ * average and variance within {@link FeatureKernel#TOLERANCE}.
+ * 
+ * This class is compiled separately for Java 17 or later and needs the JVM 
+ * option <code>--add-modules jdk.incubator.vector</code>; use 
+ * {@link FeatureKernel#create()} rather than referring to it directly.
+ */
+public class VectorFeatureKernel extends FeatureKernel {
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+	private static final int LANES = SPECIES.length();
+	private static final int PADDED_TERMS = (NUMBER_OF_FFT_TERMS + LANES - 1) / LANES * LANES;
+	private static final double GRAVITY = 9.80665D;
+	private static final double TWO_PI = 6.283185307179586D;
+	
+	private final double[] coefficients = new double[PADDED_TERMS];
+	private final double[] terms = new double[PADDED_TERMS];
+	private double[] magnitudes = new double[128];
+	
+	@Override
+	public boolean isVectorized() {
+		return true;
+	}
+	
+	@Override
+	public void extract(double[] x, double[] y, double[] z, int[] offsets, int[] sizes, int count, double[] features) {
+		checkWindows(x, y, z, offsets, sizes, count, features);
+		
+		for(int w = 0; w < count; w++) {
+			int n = sizes[w];
+			int offset = offsets[w];
+			if(magnitudes.length < n) {
+				magnitudes = new double[Math.max(n, 2 * magnitudes.length)];
+			}
+			double[] magnitudes = this.magnitudes;
+			
+			int bound = SPECIES.loopBound(n);
+			DoubleVector sums = DoubleVector.zero(SPECIES);
+			int i = 0;
+			for(; i < bound; i += LANES) {
+				DoubleVector vx = DoubleVector.fromArray(SPECIES, x, offset + i).div(GRAVITY);
+				DoubleVector vy = DoubleVector.fromArray(SPECIES, y, offset + i).div(GRAVITY);
+				DoubleVector vz = DoubleVector.fromArray(SPECIES, z, offset + i).div(GRAVITY);
+				DoubleVector magnitude = vx.mul(vx).add(vy.mul(vy)).add(vz.mul(vz)).sqrt();
+				magnitude.intoArray(magnitudes, i);
+				sums = sums.add(magnitude);
+			}
+			double sum = sums.reduceLanes(VectorOperators.ADD);
+			for(; i < n; i++) {
+				double vx = x[offset + i] / GRAVITY;
+				double vy = y[offset + i] / GRAVITY;
+				double vz = z[offset + i] / GRAVITY;
+				magnitudes[i] = Math.sqrt(vx * vx + vy * vy + vz * vz);
+				sum += magnitudes[i];
+			}
+			
+			double size = n;
+			double average = sum / size;
+			
+			sums = DoubleVector.zero(SPECIES);
+			for(i = 0; i < bound; i += LANES) {
+				DoubleVector deviation = DoubleVector.fromArray(SPECIES, magnitudes, i).sub(average);
+				sums = sums.add(deviation.mul(deviation));
+			}
+			sum = sums.reduceLanes(VectorOperators.ADD);
+			for(; i < n; i++) {
+				double deviation = magnitudes[i] - average;
+				sum += deviation * deviation;
+			}
+			
+			int base = w * FEATURES_PER_WINDOW;
+			features[base + AVERAGE] = average;
+			features[base + VARIANCE] = sum / size;
+			
+			goertzel(n, size);
+			System.arraycopy(terms, 0, features, base + FFT, NUMBER_OF_FFT_TERMS);
+		}
+	}
+	
+	/**
+	 * Runs the Goertzel recurrence for every FFT term at once, one term per 
+	 * lane.
+	 */
+	private void goertzel(int n, double size) {
+		for(int k = 1; k <= PADDED_TERMS; k++) {
+			coefficients[k - 1] = 2.0D * Math.cos(TWO_PI * k / size);
+		}
+		
+		double[] magnitudes = this.magnitudes;
+		for(int lane = 0; lane < PADDED_TERMS; lane += LANES) {
+			DoubleVector coefficient = DoubleVector.fromArray(SPECIES, coefficients, lane);
+			DoubleVector s1 = DoubleVector.zero(SPECIES);
+			DoubleVector s2 = DoubleVector.zero(SPECIES);
+			
+			for(int i = 0; i < n; i++) {
+				DoubleVector s = coefficient.mul(s1).add(magnitudes[i]).sub(s2);
+				s2 = s1;
+				s1 = s;
+			}
+			
+			s2.mul(s2).add(s1.mul(s1)).sub(coefficient.mul(s2).mul(s1)).intoArray(terms, lane);
+		}
+	}
+}
@@ -0,0 +1,250 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.aggregation;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+import org.openmhealth.dpu.mobilityclassifier.domain.ClassifiedPoint;
+import org.openmhealth.dpu.mobilityclassifier.domain.DailySummary;
+import org.openmhealth.dpu.mobilityclassifier.domain.Mode;
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+import org.openmhealth.dpu.mobilityclassifier.service.ResultSink;
+
+/**
+ * Incrementally accumulates one user's time in each mode per local day as 
+ * points are classified, so dashboards get {@link DailySummary}s without a 
+ * separate pass over stored results:
+ * 
+ * <pre>
+ * DailySummaryAggregator aggregator = new DailySummaryAggregator(userId, summarySink, 600000L);
+ * session.classify(reader, aggregator);
+ * aggregator.flush();
+ * </pre>
+ * 
+ * A point's time is its wifi scan time and its day is the calendar date at
+ * that time in the point's own timezone. Each point counts towards the time
+ * until the next point, capped at maximumGapMillis so that a device that was
+ * switched off does not report hours in its last mode. Time that crosses a 
+ * local midnight is split between the two days; midnight is computed by the
+ * timezone's rules, so days with a daylight saving transition have their
+ * real length. The last point of the stream adds a count but no time.
+ * 
+ * A westward timezone change can return the user to a date that already 
+ * ended, e.g., a flight that leaves Tokyo after midnight and lands in the 
+ * evening of the same date in San Francisco. The points on that date are 
+ * merged into its existing summary, so each date is summarized once. A day 
+ * is therefore only emitted once it has ended in every timezone, i.e., at 
+ * its midnight in UTC-12, or on {@link #flush()}; the summary's timezone is
+ * that of the day's last point.
+ * 
+ * The points must be in time order. Only the days that have not ended in 
+ * every timezone are held in memory, which is at most three. Instances are 
+ * not thread-safe.
+ */
+public class DailySummaryAggregator implements ResultSink {
+	private static final int NUMBER_OF_MODES = Mode.values().length;
+	// The timezone in which every date ends last
+	private static final DateTimeZone LAST_TIMEZONE = DateTimeZone.forOffsetHours(-12);
+	
+	private final String userId;
+	private final DailySummarySink sink;
+	private final long maximumGapMillis;
+	
+	private final TreeMap<LocalDate, OpenDay> openDays;
+	
+	private LocalDate date;
+	private OpenDay day;
+	private long dayEnd;
+	
+	private boolean hasPrevious;
+	private long previousTime;
+	private Mode previousMode;
+	private DateTimeZone previousTimezone;
+	
+	private long summaries;
+	
+	/**
+	 * Creates an aggregator.
+	 * 
+	 * @param userId the user the points belong to
+	 * 
+	 * @param sink receives each day's summary once the day is closed
+	 * 
+	 * @param maximumGapMillis the most time a single point counts towards
+	 * 
+	 * @throws IllegalArgumentException if the user id or sink is null or 
+	 * maximumGapMillis is negative
+	 */
+	public DailySummaryAggregator(final String userId, final DailySummarySink sink, final long maximumGapMillis) {
+		if(userId == null) {
+			throw new IllegalArgumentException("userId is required");
+		}
+		if(sink == null) {
+			throw new IllegalArgumentException("sink is required");
+		}
+		if(maximumGapMillis < 0) {
+			throw new IllegalArgumentException("maximumGapMillis must not be negative");
+		}
+		
+		this.userId = userId;
+		this.sink = sink;
+		this.maximumGapMillis = maximumGapMillis;
+		this.openDays = new TreeMap<LocalDate, OpenDay>();
+	}
+	
+	/**
+	 * Adds the next classified point.
+	 * 
+	 * @throws IllegalArgumentException if the point is earlier than the 
+	 * previous one
+	 * 
+	 * @throws IOException if the summary sink fails
+	 */
+	public void accept(SensorDataPoint sensorDataPoint, ClassifiedPoint classifiedPoint) throws IOException {
+		long time = sensorDataPoint.getWifiScan().getTime();
+		DateTimeZone pointTimezone = sensorDataPoint.getTimezone();
+		
+		if(hasPrevious) {
+			if(time < previousTime) {
+				throw new IllegalArgumentException("sensorDataPoint is earlier than the previous point");
+			}
+			addDuration(previousTime, Math.min(time, previousTime + maximumGapMillis));
+		}
+		
+		if(date == null || ! date.equals(new LocalDate(time, pointTimezone))) {
+			startDay(time, pointTimezone);
+		}
+		else {
+			// The same date in another timezone still ends at this one's midnight
+			day.timezone = pointTimezone;
+			dayEnd = nextMidnight(date, pointTimezone);
+		}
+		
+		day.counts[classifiedPoint.getMode().ordinal()]++;
+		
+		hasPrevious = true;
+		previousTime = time;
+		previousMode = classifiedPoint.getMode();
+		previousTimezone = pointTimezone;
+		
+		emitEndedDays(time);
+	}
+	
+	/**
+	 * Ends the stream, emitting every open day.
+	 * 
+	 * @throws IOException if the summary sink fails
+	 */
+	public void flush() throws IOException {
+		emitEndedDays(Long.MAX_VALUE);
+		
+		date = null;
+		day = null;
+		hasPrevious = false;
+		previousMode = null;
+		previousTimezone = null;
+	}
+	
+	/**
+	 * @return the number of summaries emitted
+	 */
+	public long getSummaries() {
+		return summaries;
+	}
+	
+	/**
+	 * Attributes [start, end) to the previous point's mode, splitting it at 
+	 * each local midnight.
+	 */
+	private void addDuration(long start, long end) {
+		int mode = previousMode.ordinal();
+		
+		while(start < end) {
+			if(start >= dayEnd) {
+				// Days without points of their own are still summarized if 
+				// the previous point's time reaches into them
+				startDay(start, previousTimezone);
+			}
+			
+			long sliceEnd = Math.min(end, dayEnd);
+			day.durationMillis[mode] += sliceEnd - start;
+			start = sliceEnd;
+		}
+	}
+	
+	/**
+	 * Makes the date at the provided time the current day, reopening it if 
+	 * it is still held.
+	 */
+	private void startDay(long time, DateTimeZone dayTimezone) {
+		date = new LocalDate(time, dayTimezone);
+		dayEnd = nextMidnight(date, dayTimezone);
+		
+		day = openDays.get(date);
+		if(day == null) {
+			day = new OpenDay();
+			openDays.put(date, day);
+		}
+		day.timezone = dayTimezone;
+	}
+	
+	/**
+	 * Emits, in date order, every held day that ended in every timezone 
+	 * before the provided time. No later point can fall on such a day.
+	 */
+	private void emitEndedDays(long time) throws IOException {
+		Iterator<Map.Entry<LocalDate, OpenDay>> iterator = openDays.entrySet().iterator();
+		while(iterator.hasNext()) {
+			Map.Entry<LocalDate, OpenDay> entry = iterator.next();
+			if(time != Long.MAX_VALUE && (! entry.getKey().isBefore(date) || time < nextMidnight(entry.getKey(), LAST_TIMEZONE))) {
+				break;
+			}
+			
+			OpenDay openDay = entry.getValue();
+			sink.accept(new DailySummary(userId, entry.getKey(), openDay.timezone, openDay.durationMillis, openDay.counts));
+			summaries++;
+			iterator.remove();
+		}
+	}
+	
+	/**
+	 * Returns the start of the day after the provided date, which is not 
+	 * always 24 hours after the start of the date and, in some timezones, is
+	 * not at 00:00.
+	 */
+	private static long nextMidnight(LocalDate date, DateTimeZone timezone) {
+		return date.plusDays(1).toDateTimeAtStartOfDay(timezone).getMillis();
+	}
+	
+	/**
+	 * The counters of a day that has not been summarized yet.
+	 */
+	private static final class OpenDay {
+		private final long[] durationMillis;
+		private final int[] counts;
+		private DateTimeZone timezone;
+		
+		private OpenDay() {
+			this.durationMillis = new long[NUMBER_OF_MODES];
+			this.counts = new int[NUMBER_OF_MODES];
+		}
+	}
+}
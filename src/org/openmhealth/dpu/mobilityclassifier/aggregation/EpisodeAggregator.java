@@ -0,0 +1,222 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.aggregation;
+
+import java.io.IOException;
+
+import org.joda.time.DateTimeZone;
+import org.openmhealth.dpu.mobilityclassifier.domain.ClassifiedPoint;
+import org.openmhealth.dpu.mobilityclassifier.domain.MobilityEpisode;
+import org.openmhealth.dpu.mobilityclassifier.domain.Mode;
+import org.openmhealth.dpu.mobilityclassifier.domain.ResultDetail;
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+import org.openmhealth.dpu.mobilityclassifier.service.ResultSink;
+
+/**
+ * Incrementally merges consecutive points with the same mode into 
+ * {@link MobilityEpisode}s as they are classified, so a long stream can be 
+ * summarized without keeping its ClassifiedPoints:
+ * 
+ * <pre>
+ * EpisodeAggregator aggregator = new EpisodeAggregator(episodeSink, 1, false);
+ * session.classify(reader, aggregator);
+ * aggregator.flush();
+ * </pre>
+ * 
+ * A blip is a run of at most maximumBlipLength points whose mode differs from
+ * the mode on both sides of it, e.g., a single walk point inside a drive. 
+ * Blips are absorbed into the surrounding episode instead of splitting it in
+ * three. Because a run can only be judged once the next run starts, an 
+ * episode is emitted at most maximumBlipLength points after it ends.
+ * 
+ * The points must be in time order. Only the current episode and at most one
+ * candidate blip are held in memory. Instances are not thread-safe.
+ */
+public class EpisodeAggregator implements ResultSink {
+	private final MobilityEpisodeSink sink;
+	private final int maximumBlipLength;
+	private final boolean summarizeFeatures;
+	
+	private Run current;
+	private Run candidate;
+	private long episodes;
+	
+	/**
+	 * Creates an aggregator.
+	 * 
+	 * @param sink receives each episode once it is closed
+	 * 
+	 * @param maximumBlipLength the longest run that is absorbed into the
+	 * surrounding episode, or 0 to split on every change of mode
+	 * 
+	 * @param summarizeFeatures true to compute the mean average and variance
+	 * of each episode from the points that kept their features
+	 * 
+	 * @throws IllegalArgumentException if the sink is null or 
+	 * maximumBlipLength is negative
+	 */
+	public EpisodeAggregator(final MobilityEpisodeSink sink, final int maximumBlipLength, final boolean summarizeFeatures) {
+		if(sink == null) {
+			throw new IllegalArgumentException("sink is required");
+		}
+		if(maximumBlipLength < 0) {
+			throw new IllegalArgumentException("maximumBlipLength must not be negative");
+		}
+		
+		this.sink = sink;
+		this.maximumBlipLength = maximumBlipLength;
+		this.summarizeFeatures = summarizeFeatures;
+		this.current = new Run();
+		this.candidate = new Run();
+	}
+	
+	/**
+	 * Adds the next classified point.
+	 * 
+	 * @throws IOException if the episode sink fails
+	 */
+	public void accept(SensorDataPoint sensorDataPoint, ClassifiedPoint classifiedPoint) throws IOException {
+		Mode mode = classifiedPoint.getMode();
+		long time = sensorDataPoint.getWifiScan().getTime();
+		
+		if(current.count == 0) {
+			current.start(mode, time, sensorDataPoint.getTimezone());
+		}
+		else if(mode == current.mode) {
+			if(candidate.count > 0) {
+				// The candidate was surrounded by the current mode
+				current.absorb(candidate);
+				candidate.clear();
+			}
+		}
+		else {
+			if(candidate.count > 0 && mode != candidate.mode) {
+				// The candidate is followed by a third mode, so it is not a
+				// blip of the current episode
+				promoteCandidate();
+			}
+			
+			if(candidate.count == 0) {
+				candidate.start(mode, time, sensorDataPoint.getTimezone());
+			}
+			candidate.add(classifiedPoint, time);
+			
+			if(candidate.count > maximumBlipLength) {
+				promoteCandidate();
+			}
+			return;
+		}
+		
+		current.add(classifiedPoint, time);
+	}
+	
+	/**
+	 * Ends the stream, emitting the current episode and any trailing run.
+	 * 
+	 * @throws IOException if the episode sink fails
+	 */
+	public void flush() throws IOException {
+		if(current.count > 0) {
+			emit(current);
+		}
+		if(candidate.count > 0) {
+			emit(candidate);
+		}
+		
+		current.clear();
+		candidate.clear();
+	}
+	
+	/**
+	 * @return the number of episodes emitted
+	 */
+	public long getEpisodes() {
+		return episodes;
+	}
+	
+	/**
+	 * Closes the current episode and makes the candidate the current one.
+	 */
+	private void promoteCandidate() throws IOException {
+		emit(current);
+		
+		Run closed = current;
+		current = candidate;
+		candidate = closed;
+		candidate.clear();
+	}
+	
+	private void emit(Run run) throws IOException {
+		double meanAverage = Double.NaN;
+		double meanVariance = Double.NaN;
+		if(run.featureCount > 0) {
+			meanAverage = run.sumAverage / run.featureCount;
+			meanVariance = run.sumVariance / run.featureCount;
+		}
+		
+		sink.accept(new MobilityEpisode(run.mode, run.startTime, run.endTime, run.timezone, run.count, meanAverage, meanVariance));
+		episodes++;
+	}
+	
+	/**
+	 * A mutable run of points that is reused for many episodes.
+	 */
+	private final class Run {
+		private Mode mode;
+		private long startTime;
+		private long endTime;
+		private DateTimeZone timezone;
+		private int count;
+		private double sumAverage;
+		private double sumVariance;
+		private int featureCount;
+		
+		private void start(Mode mode, long time, DateTimeZone timezone) {
+			this.mode = mode;
+			this.startTime = time;
+			this.endTime = time;
+			this.timezone = timezone;
+		}
+		
+		private void add(ClassifiedPoint classifiedPoint, long time) {
+			endTime = time;
+			count++;
+			
+			if(summarizeFeatures && classifiedPoint.hasFeatures() && classifiedPoint.getResultDetail() != ResultDetail.MODE) {
+				sumAverage += classifiedPoint.getAverage();
+				sumVariance += classifiedPoint.getVariance();
+				featureCount++;
+			}
+		}
+		
+		private void absorb(Run run) {
+			endTime = run.endTime;
+			count += run.count;
+			sumAverage += run.sumAverage;
+			sumVariance += run.sumVariance;
+			featureCount += run.featureCount;
+		}
+		
+		private void clear() {
+			mode = null;
+			timezone = null;
+			count = 0;
+			sumAverage = 0;
+			sumVariance = 0;
+			featureCount = 0;
+		}
+	}
+}
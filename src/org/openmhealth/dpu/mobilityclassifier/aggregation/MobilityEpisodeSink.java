@@ -0,0 +1,35 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.aggregation;
+
+import java.io.IOException;
+
+import org.openmhealth.dpu.mobilityclassifier.domain.MobilityEpisode;
+
+/**
+ * Receives mobility episodes as they are closed.
+ */
+public interface MobilityEpisodeSink {
+	
+	/**
+	 * Accepts the next episode.
+	 * 
+	 * @param mobilityEpisode the episode
+	 * 
+	 * @throws IOException if the episode cannot be written
+	 */
+	void accept(MobilityEpisode mobilityEpisode) throws IOException;
+}
@@ -0,0 +1,552 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.batch;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONException;
+import org.openmhealth.dpu.mobilityclassifier.batch.CheckpointManifest.Entry;
+import org.openmhealth.dpu.mobilityclassifier.batch.CheckpointManifest.Status;
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+import org.openmhealth.dpu.mobilityclassifier.io.JsonResultSink;
+import org.openmhealth.dpu.mobilityclassifier.io.SensorDataPointReader;
+import org.openmhealth.dpu.mobilityclassifier.service.ClassificationSession;
+
+/**
+ * Classifies every *.json and *.ndjson file below an input directory, each 
+ * file as one stream, writing the results of input/a/b.json as NDJSON with
+ * features to output/a/b.json.classified.ndjson.
+ * 
+ * Files are classified concurrently, largest first, so that a few large 
+ * files do not end up running alone at the end of a backfill. Each output is
+ * written to a .part file that is renamed once the whole input has been 
+ * classified, so an output file is always complete.
+ * 
+ * Progress is kept in a {@link CheckpointManifest} in the output directory.
+ * Every checkpointInterval points the runner syncs the .part file and 
+ * records how many points it holds along with the session's previous mode
+ * and wifi scan. A rerun skips files that were completed and have not 
+ * changed since, and resumes interrupted or failed files from their last 
+ * checkpoint by truncating the .part file, skipping the points already 
+ * classified, and restoring the session. A file whose size or modification
+ * time has changed is classified from the start.
+ */
+public class BatchRunner {
+	public static final String MANIFEST_NAME = "checkpoint.manifest";
+	public static final String OUTPUT_SUFFIX = ".classified.ndjson";
+	public static final String PART_SUFFIX = ".part";
+	
+	private static final int DEFAULT_CHECKPOINT_INTERVAL = 10000;
+	private static final long DEFAULT_PROGRESS_INTERVAL_MILLIS = 10000;
+	
+	private final File inputDirectory;
+	private final File outputDirectory;
+	private final int threads;
+	private final int checkpointInterval;
+	
+	private PrintStream progress;
+	private long progressIntervalMillis;
+	
+	private final AtomicInteger completedFiles = new AtomicInteger();
+	private final AtomicInteger skippedFiles = new AtomicInteger();
+	private final AtomicInteger failedFiles = new AtomicInteger();
+	private final AtomicLong points = new AtomicLong();
+	private final AtomicLong inputBytes = new AtomicLong();
+	
+	/**
+	 * Creates a runner.
+	 * 
+	 * @param inputDirectory the directory to search for input files
+	 * 
+	 * @param outputDirectory the directory to write results and the manifest
+	 * to
+	 * 
+	 * @param threads the number of files to classify concurrently
+	 * 
+	 * @param checkpointInterval the number of points between checkpoints
+	 * 
+	 * @throws IllegalArgumentException if either directory is null or threads
+	 * or checkpointInterval is not positive
+	 */
+	public BatchRunner(final File inputDirectory, final File outputDirectory, final int threads, 
+			final int checkpointInterval) {
+		
+		if(inputDirectory == null) {
+			throw new IllegalArgumentException("inputDirectory is required");
+		}
+		if(outputDirectory == null) {
+			throw new IllegalArgumentException("outputDirectory is required");
+		}
+		if(threads <= 0) {
+			throw new IllegalArgumentException("threads must be positive");
+		}
+		if(checkpointInterval <= 0) {
+			throw new IllegalArgumentException("checkpointInterval must be positive");
+		}
+		
+		this.inputDirectory = inputDirectory;
+		this.outputDirectory = outputDirectory;
+		this.threads = threads;
+		this.checkpointInterval = checkpointInterval;
+	}
+	
+	/**
+	 * Reports progress and throughput to the provided stream while running.
+	 * 
+	 * @param progress the stream to report to, or null to report nothing
+	 * 
+	 * @param progressIntervalMillis the time between reports
+	 * 
+	 * @throws IllegalArgumentException if the interval is not positive
+	 */
+	public void setProgress(PrintStream progress, long progressIntervalMillis) {
+		if(progressIntervalMillis <= 0) {
+			throw new IllegalArgumentException("progressIntervalMillis must be positive");
+		}
+		
+		this.progress = progress;
+		this.progressIntervalMillis = progressIntervalMillis;
+	}
+	
+	/**
+	 * Classifies every input file that has not already been completed.
+	 * 
+	 * @return the outcome of this run
+	 * 
+	 * @throws IOException if the directories or the manifest cannot be 
+	 * accessed. Failures of individual files are recorded in the manifest
+	 * and counted in the summary instead.
+	 * 
+	 * @throws InterruptedException if interrupted while waiting for the 
+	 * files to be classified
+	 */
+	public Summary run() throws IOException, InterruptedException {
+		if(! inputDirectory.isDirectory()) {
+			throw new IOException("Not a directory: " + inputDirectory);
+		}
+		if(! outputDirectory.isDirectory() && ! outputDirectory.mkdirs()) {
+			throw new IOException("Could not create " + outputDirectory);
+		}
+		
+		List<File> files = new ArrayList<File>();
+		findInputs(inputDirectory, files);
+		Collections.sort(files, new Comparator<File>() {
+			public int compare(File left, File right) {
+				long leftLength = left.length();
+				long rightLength = right.length();
+				return leftLength > rightLength ? -1 : leftLength < rightLength ? 1 : left.compareTo(right);
+			}
+		});
+		
+		long totalBytes = 0;
+		for(File file : files) {
+			totalBytes += file.length();
+		}
+		
+		final CheckpointManifest manifest = new CheckpointManifest(new File(outputDirectory, MANIFEST_NAME));
+		final Queue<File> queue = new ConcurrentLinkedQueue<File>(files);
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		ScheduledExecutorService reporter = null;
+		long startNanos = System.nanoTime();
+		
+		try {
+			if(progress != null) {
+				reporter = Executors.newSingleThreadScheduledExecutor();
+				reporter.scheduleAtFixedRate(new ProgressReport(files.size(), totalBytes, startNanos), 
+						progressIntervalMillis, progressIntervalMillis, TimeUnit.MILLISECONDS);
+			}
+			
+			// Every worker takes the largest remaining file whenever it 
+			// finishes one, so the pool stays busy until the queue is empty
+			for(int i = 0; i < threads; i++) {
+				workers.execute(new Runnable() {
+					public void run() {
+						File file;
+						while((file = queue.poll()) != null) {
+							process(file, manifest);
+						}
+					}
+				});
+			}
+			
+			workers.shutdown();
+			while(! workers.awaitTermination(1, TimeUnit.SECONDS)) {
+				// keep waiting
+			}
+		}
+		finally {
+			workers.shutdownNow();
+			if(reporter != null) {
+				reporter.shutdownNow();
+			}
+			manifest.close();
+		}
+		
+		Summary summary = new Summary(completedFiles.get(), skippedFiles.get(), failedFiles.get(), points.get(), 
+				System.nanoTime() - startNanos);
+		if(progress != null) {
+			progress.println(summary);
+		}
+		return summary;
+	}
+	
+	private void findInputs(File directory, List<File> files) throws IOException {
+		File[] children = directory.listFiles();
+		if(children == null) {
+			throw new IOException("Could not list " + directory);
+		}
+		
+		for(File child : children) {
+			if(child.isDirectory()) {
+				if(! child.getCanonicalFile().equals(outputDirectory.getCanonicalFile())) {
+					findInputs(child, files);
+				}
+			}
+			else if(child.getName().endsWith(".json") || child.getName().endsWith(".ndjson")) {
+				files.add(child);
+			}
+		}
+	}
+	
+	private String relativePath(File file) {
+		return inputDirectory.toURI().relativize(file.toURI()).getPath();
+	}
+	
+	/**
+	 * Classifies one file, recording the outcome in the manifest.
+	 */
+	private void process(File file, CheckpointManifest manifest) {
+		String path = relativePath(file);
+		long size = file.length();
+		long lastModified = file.lastModified();
+		File output = new File(outputDirectory, path + OUTPUT_SUFFIX);
+		File part = new File(outputDirectory, path + PART_SUFFIX);
+		
+		Entry entry = manifest.get(path);
+		if(entry != null && entry.matches(file) && entry.getStatus() == Status.COMPLETED && output.exists()) {
+			skippedFiles.incrementAndGet();
+			inputBytes.addAndGet(size);
+			return;
+		}
+		
+		// Resume from the last checkpoint if the input has not changed and 
+		// the output written up to it is still there
+		Entry checkpoint;
+		if(entry != null && entry.matches(file) && entry.getStatus() != Status.COMPLETED 
+				&& part.length() >= entry.getOutputBytes()) {
+			
+			checkpoint = entry;
+		}
+		else {
+			checkpoint = new Entry(path, size, lastModified, Status.IN_PROGRESS, 0, 0, 
+					new ClassificationSession().snapshot());
+		}
+		
+		CountingInputStream in = null;
+		try {
+			in = new CountingInputStream(new FileInputStream(file));
+			checkpoint = classify(in, part, checkpoint, manifest);
+			
+			output.delete();
+			if(! part.renameTo(output)) {
+				throw new IOException("Could not rename " + part + " to " + output);
+			}
+			
+			manifest.record(new Entry(path, size, lastModified, Status.COMPLETED, checkpoint.getPoints(), 
+					checkpoint.getOutputBytes(), checkpoint.getSnapshot()));
+			completedFiles.incrementAndGet();
+		}
+		catch(IOException e) {
+			fail(file, checkpoint, manifest, e);
+		}
+		catch(JSONException e) {
+			fail(file, checkpoint, manifest, e);
+		}
+		catch(RuntimeException e) {
+			fail(file, checkpoint, manifest, e);
+		}
+		finally {
+			if(in != null) {
+				// count whatever was not read, such as the rest of a failed file
+				inputBytes.addAndGet(size - in.count);
+				try {
+					in.close();
+				}
+				catch(IOException e) {
+					// the input has been read
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Classifies the points of a file after the checkpoint, appending the 
+	 * results to the .part file.
+	 * 
+	 * @return the checkpoint after the last point
+	 */
+	private Entry classify(CountingInputStream in, File part, Entry checkpoint, CheckpointManifest manifest) 
+			throws IOException, JSONException {
+		
+		File parent = part.getParentFile();
+		if(! parent.isDirectory() && ! parent.mkdirs()) {
+			throw new IOException("Could not create " + parent);
+		}
+		
+		RandomAccessFile file = new RandomAccessFile(part, "rw");
+		FileChannel channel = file.getChannel();
+		JsonResultSink sink = new JsonResultSink(channel, true, true);
+		
+		try {
+			channel.truncate(checkpoint.getOutputBytes());
+			channel.position(checkpoint.getOutputBytes());
+			
+			SensorDataPointReader reader = new SensorDataPointReader(in);
+			ClassificationSession session = ClassificationSession.restore(checkpoint.getSnapshot());
+			
+			for(long skipped = 0; skipped < checkpoint.getPoints(); skipped++) {
+				if(reader.read() == null) {
+					throw new IOException("The input has fewer points than its checkpoint");
+				}
+			}
+			
+			long count = checkpoint.getPoints();
+			SensorDataPoint point;
+			
+			while((point = reader.read()) != null) {
+				sink.accept(point, session.classify(point));
+				count++;
+				points.incrementAndGet();
+				
+				if(count % checkpointInterval == 0) {
+					checkpoint = checkpoint(sink, channel, session, checkpoint, count);
+					manifest.record(checkpoint);
+				}
+			}
+			
+			return checkpoint(sink, channel, session, checkpoint, count);
+		}
+		finally {
+			sink.close();
+			file.close();
+		}
+	}
+	
+	private static Entry checkpoint(JsonResultSink sink, FileChannel channel, ClassificationSession session, 
+			Entry previous, long count) throws IOException {
+		
+		sink.flush();
+		channel.force(false);
+		
+		return new Entry(previous.getPath(), previous.getSize(), previous.getLastModified(), Status.IN_PROGRESS, 
+				count, channel.position(), session.snapshot());
+	}
+	
+	private void fail(File file, Entry checkpoint, CheckpointManifest manifest, Exception cause) {
+		failedFiles.incrementAndGet();
+		
+		Entry latest = manifest.get(checkpoint.getPath());
+		if(latest == null || latest.getSize() != checkpoint.getSize() 
+				|| latest.getLastModified() != checkpoint.getLastModified()) {
+			
+			latest = checkpoint;
+		}
+		
+		try {
+			manifest.record(new Entry(latest.getPath(), latest.getSize(), latest.getLastModified(), Status.FAILED, 
+					latest.getPoints(), latest.getOutputBytes(), latest.getSnapshot()));
+		}
+		catch(IOException e) {
+			// the file is retried from its last recorded checkpoint
+		}
+		
+		if(progress != null) {
+			progress.println("Failed to classify " + file + ": " + cause);
+		}
+	}
+	
+	/**
+	 * Runs a batch. Arguments are the input directory, the output directory,
+	 * and optionally the number of threads and the checkpoint interval.
+	 * Exits with status 1 if any file failed.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if(args.length < 2) {
+			System.err.println("Usage: BatchRunner <input directory> <output directory> [threads] [checkpoint interval]");
+			System.exit(2);
+		}
+		
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		int checkpointInterval = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_CHECKPOINT_INTERVAL;
+		
+		BatchRunner runner = new BatchRunner(new File(args[0]), new File(args[1]), threads, checkpointInterval);
+		runner.setProgress(System.out, Long.getLong("mobility.batch.progressIntervalMillis", 
+				DEFAULT_PROGRESS_INTERVAL_MILLIS));
+		
+		if(runner.run().getFailed() > 0) {
+			System.exit(1);
+		}
+	}
+	
+	/**
+	 * The outcome of a run.
+	 */
+	public static final class Summary {
+		private final int completed;
+		private final int skipped;
+		private final int failed;
+		private final long points;
+		private final long elapsedNanos;
+		
+		private Summary(final int completed, final int skipped, final int failed, final long points, 
+				final long elapsedNanos) {
+			
+			this.completed = completed;
+			this.skipped = skipped;
+			this.failed = failed;
+			this.points = points;
+			this.elapsedNanos = elapsedNanos;
+		}
+		
+		/**
+		 * @return the number of files classified by this run
+		 */
+		public int getCompleted() {
+			return completed;
+		}
+		
+		/**
+		 * @return the number of files already completed by an earlier run
+		 */
+		public int getSkipped() {
+			return skipped;
+		}
+		
+		/**
+		 * @return the number of files that could not be classified
+		 */
+		public int getFailed() {
+			return failed;
+		}
+		
+		/**
+		 * @return the number of points classified by this run
+		 */
+		public long getPoints() {
+			return points;
+		}
+		
+		public long getElapsedNanos() {
+			return elapsedNanos;
+		}
+		
+		@Override
+		public String toString() {
+			return String.format(Locale.US, "completed %d, skipped %d, failed %d files; %d points in %.1f s", 
+					completed, skipped, failed, points, elapsedNanos / 1e9);
+		}
+	}
+	
+	private final class ProgressReport implements Runnable {
+		private final int totalFiles;
+		private final long totalBytes;
+		private final long startNanos;
+		private long lastNanos;
+		private long lastPoints;
+		
+		private ProgressReport(final int totalFiles, final long totalBytes, final long startNanos) {
+			this.totalFiles = totalFiles;
+			this.totalBytes = totalBytes;
+			this.startNanos = startNanos;
+			this.lastNanos = startNanos;
+		}
+		
+		public void run() {
+			long now = System.nanoTime();
+			long currentPoints = points.get();
+			int done = completedFiles.get() + skippedFiles.get() + failedFiles.get();
+			
+			progress.println(String.format(Locale.US, 
+					"%d/%d files, %d points, %.0f points/s (%.0f recent), %.1f%% of input", 
+					done, totalFiles, currentPoints, 
+					currentPoints / ((now - startNanos) / 1e9), 
+					(currentPoints - lastPoints) / ((now - lastNanos) / 1e9), 
+					totalBytes == 0 ? 100.0 : 100.0 * inputBytes.get() / totalBytes));
+			
+			lastNanos = now;
+			lastPoints = currentPoints;
+		}
+	}
+	
+	/**
+	 * Counts the bytes read from a file towards the progress of the run.
+	 */
+	private final class CountingInputStream extends FilterInputStream {
+		private long count;
+		
+		private CountingInputStream(final InputStream in) {
+			super(in);
+		}
+		
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if(b >= 0) {
+				count++;
+				inputBytes.incrementAndGet();
+			}
+			return b;
+		}
+		
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			int read = super.read(buffer, offset, length);
+			if(read > 0) {
+				count += read;
+				inputBytes.addAndGet(read);
+			}
+			return read;
+		}
+		
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count += skipped;
+			inputBytes.addAndGet(skipped);
+			return skipped;
+		}
+	}
+}
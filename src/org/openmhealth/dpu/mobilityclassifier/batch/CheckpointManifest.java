@@ -0,0 +1,341 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.batch;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * The checkpoint manifest of a {@link BatchRunner}: for every input file, its
+ * size and modification time when it was processed, its status, and the 
+ * last checkpoint, i.e., how many points have been classified, how many 
+ * bytes of output they produced, and a {@link 
+ * org.openmhealth.dpu.mobilityclassifier.service.ClassificationSession} 
+ * snapshot holding the previous mode and wifi scan.
+ * 
+ * The manifest is an append-only journal of tab-separated lines, one per 
+ * recorded entry, with the snapshot in hex and a CRC-32 of the line. Each 
+ * line is synced to disk before {@link #record(Entry)} returns, so a crash
+ * loses at most the line being written, which fails its check and is 
+ * ignored when the manifest is loaded. On loading, the journal is compacted to the latest entry per file
+ * and atomically replaced.
+ * 
+ * Instances are thread-safe.
+ */
+public class CheckpointManifest implements Closeable {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final String HEADER = "# mobility classifier checkpoint manifest v1";
+	private static final int NUMBER_OF_FIELDS = 8;
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	
+	/**
+	 * The state of an input file.
+	 */
+	public enum Status {
+		IN_PROGRESS,
+		COMPLETED,
+		FAILED
+	}
+	
+	/**
+	 * An immutable manifest entry.
+	 */
+	public static final class Entry {
+		private final String path;
+		private final long size;
+		private final long lastModified;
+		private final Status status;
+		private final long points;
+		private final long outputBytes;
+		private final byte[] snapshot;
+		
+		/**
+		 * Creates an entry.
+		 * 
+		 * @param path the input file's path relative to the input directory
+		 * 
+		 * @param size the input file's size in bytes
+		 * 
+		 * @param lastModified the input file's modification time
+		 * 
+		 * @param status the file's status
+		 * 
+		 * @param points the number of points classified at the checkpoint
+		 * 
+		 * @param outputBytes the number of bytes of output written at the 
+		 * checkpoint
+		 * 
+		 * @param snapshot the session snapshot at the checkpoint
+		 * 
+		 * @throws IllegalArgumentException if the path, status, or snapshot 
+		 * is null or points or outputBytes is negative
+		 */
+		public Entry(final String path, final long size, final long lastModified, final Status status, 
+				final long points, final long outputBytes, final byte[] snapshot) {
+			
+			if(path == null) {
+				throw new IllegalArgumentException("path is required");
+			}
+			if(status == null) {
+				throw new IllegalArgumentException("status is required");
+			}
+			if(snapshot == null) {
+				throw new IllegalArgumentException("snapshot is required");
+			}
+			if(points < 0 || outputBytes < 0) {
+				throw new IllegalArgumentException("points and outputBytes must not be negative");
+			}
+			
+			this.path = path;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.status = status;
+			this.points = points;
+			this.outputBytes = outputBytes;
+			this.snapshot = snapshot.clone();
+		}
+
+		public String getPath() {
+			return path;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		public Status getStatus() {
+			return status;
+		}
+
+		public long getPoints() {
+			return points;
+		}
+
+		public long getOutputBytes() {
+			return outputBytes;
+		}
+
+		public byte[] getSnapshot() {
+			return snapshot.clone();
+		}
+		
+		/**
+		 * @return true if this entry describes the provided file as it is now
+		 */
+		public boolean matches(File file) {
+			return size == file.length() && lastModified == file.lastModified();
+		}
+	}
+	
+	private final File file;
+	private final Map<String, Entry> entries;
+	private FileOutputStream out;
+	
+	/**
+	 * Loads a manifest, creating it if it does not exist.
+	 * 
+	 * @param file the manifest file
+	 * 
+	 * @throws IOException if the manifest cannot be read or compacted
+	 * 
+	 * @throws IllegalArgumentException if the file is null
+	 */
+	public CheckpointManifest(final File file) throws IOException {
+		if(file == null) {
+			throw new IllegalArgumentException("file is required");
+		}
+		
+		this.file = file;
+		this.entries = new LinkedHashMap<String, Entry>();
+		
+		if(file.exists()) {
+			load();
+		}
+		compact();
+		
+		this.out = new FileOutputStream(file, true);
+	}
+	
+	/**
+	 * @return the latest entry for the provided path, or null if there is 
+	 * none
+	 */
+	public synchronized Entry get(String path) {
+		return entries.get(path);
+	}
+	
+	/**
+	 * @return the number of files in the manifest
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+	
+	/**
+	 * Appends an entry and syncs it to disk.
+	 * 
+	 * @throws IOException if the entry cannot be written
+	 * 
+	 * @throws IllegalStateException if the manifest has been closed
+	 */
+	public synchronized void record(Entry entry) throws IOException {
+		if(out == null) {
+			throw new IllegalStateException("The manifest has been closed");
+		}
+		
+		write(out, entry);
+		out.flush();
+		out.getFD().sync();
+		
+		entries.put(entry.getPath(), entry);
+	}
+	
+	public synchronized void close() throws IOException {
+		if(out != null) {
+			out.close();
+			out = null;
+		}
+	}
+	
+	private void load() throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8));
+		
+		try {
+			String line;
+			while((line = reader.readLine()) != null) {
+				if(line.length() == 0 || line.startsWith("#")) {
+					continue;
+				}
+				
+				Entry entry = parse(line);
+				if(entry != null) {
+					entries.put(entry.getPath(), entry);
+				}
+			}
+		}
+		finally {
+			reader.close();
+		}
+	}
+	
+	/**
+	 * Atomically replaces the journal with the latest entry per file.
+	 */
+	private void compact() throws IOException {
+		File temporary = new File(file.getPath() + ".tmp");
+		FileOutputStream compacted = new FileOutputStream(temporary);
+		
+		try {
+			compacted.write((HEADER + "\n").getBytes(UTF_8));
+			for(Entry entry : entries.values()) {
+				write(compacted, entry);
+			}
+			compacted.flush();
+			compacted.getFD().sync();
+		}
+		finally {
+			compacted.close();
+		}
+		
+		if(! temporary.renameTo(file)) {
+			throw new IOException("Could not replace " + file + " with " + temporary);
+		}
+	}
+	
+	private static void write(OutputStream out, Entry entry) throws IOException {
+		StringBuilder builder = new StringBuilder();
+		builder.append(escape(entry.getPath())).append('\t')
+			.append(entry.getSize()).append('\t')
+			.append(entry.getLastModified()).append('\t')
+			.append(entry.getStatus().name()).append('\t')
+			.append(entry.getPoints()).append('\t')
+			.append(entry.getOutputBytes()).append('\t');
+		
+		for(byte b : entry.snapshot) {
+			builder.append(HEX[(b >> 4) & 0xf]).append(HEX[b & 0xf]);
+		}
+		builder.append('\t').append(Long.toHexString(checksum(builder.toString()))).append('\n');
+		
+		out.write(builder.toString().getBytes(UTF_8));
+	}
+	
+	/**
+	 * Parses a line, returning null if it is incomplete or malformed.
+	 */
+	private static Entry parse(String line) {
+		String[] fields = line.split("\t", -1);
+		if(fields.length != NUMBER_OF_FIELDS || fields[6].length() % 2 != 0) {
+			return null;
+		}
+		
+		try {
+			String checked = line.substring(0, line.lastIndexOf('\t') + 1);
+			if(Long.parseLong(fields[7], 16) != checksum(checked)) {
+				return null;
+			}
+			
+			byte[] snapshot = new byte[fields[6].length() / 2];
+			for(int i = 0; i < snapshot.length; i++) {
+				snapshot[i] = (byte) Integer.parseInt(fields[6].substring(2 * i, 2 * i + 2), 16);
+			}
+			
+			return new Entry(unescape(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2]), 
+				Status.valueOf(fields[3]), Long.parseLong(fields[4]), Long.parseLong(fields[5]), snapshot);
+		}
+		catch(IllegalArgumentException e) {
+			return null;
+		}
+	}
+	
+	private static long checksum(String line) {
+		CRC32 crc = new CRC32();
+		crc.update(line.getBytes(UTF_8));
+		return crc.getValue();
+	}
+	
+	private static String escape(String path) {
+		return path.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+	}
+	
+	private static String unescape(String path) {
+		StringBuilder builder = new StringBuilder(path.length());
+		for(int i = 0; i < path.length(); i++) {
+			char c = path.charAt(i);
+			if(c == '\\' && i + 1 < path.length()) {
+				char next = path.charAt(++i);
+				builder.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+			}
+			else {
+				builder.append(c);
+			}
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,307 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.domain;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+import edu.ucla.cens.mobilityclassifier.Sample;
+
+/**
+ * An immutable, columnar representation of a window of triaxial 
+ * accelerometer samples. Each axis is stored in its own primitive array so a
+ * window costs three array headers instead of one object and three boxed 
+ * doubles per sample. A window may also be a read-only view of a range of 
+ * larger arrays, e.g., a decoding buffer, so it can be created without 
+ * copying.
+ * 
+ * @see SensorDataPoint
+ */
+public class AccelerometerData {
+	private final double[] x;
+	private final double[] y;
+	private final double[] z;
+	private final int offset;
+	private final int length;
+	
+	// Computed on first use; 0 until then
+	private int hash;
+	
+	/**
+	 * Creates a window of accelerometer samples from per-axis columns. The 
+	 * arrays are copied.
+	 * 
+	 * @param x the x axis of each sample
+	 * 
+	 * @param y the y axis of each sample
+	 * 
+	 * @param z the z axis of each sample
+	 * 
+	 * @throws IllegalArgumentException if any of the provided arrays are null
+	 * or if they are not all the same length
+	 */
+	public AccelerometerData(final double[] x, final double[] y, final double[] z) {
+		this(x, y, z, true);
+	}
+	
+	private AccelerometerData(final double[] x, final double[] y, final double[] z, final boolean copy) {
+		this(x, y, z, 0, checkLengths(x, y, z), copy);
+	}
+	
+	private AccelerometerData(final double[] x, final double[] y, final double[] z, final int offset, 
+			final int length, final boolean copy) {
+		
+		this.x = copy ? x.clone() : x;
+		this.y = copy ? y.clone() : y;
+		this.z = copy ? z.clone() : z;
+		this.offset = offset;
+		this.length = length;
+	}
+	
+	private static int checkLengths(final double[] x, final double[] y, final double[] z) {
+		if(x == null) {
+			throw new IllegalArgumentException("x is required");
+		}
+		if(y == null) {
+			throw new IllegalArgumentException("y is required");
+		}
+		if(z == null) {
+			throw new IllegalArgumentException("z is required");
+		}
+		if(x.length != y.length || x.length != z.length) {
+			throw new IllegalArgumentException("x, y, and z must be the same length");
+		}
+		return x.length;
+	}
+	
+	/**
+	 * Creates a window of accelerometer samples that takes ownership of the
+	 * provided arrays instead of copying them. The caller must not modify the
+	 * arrays afterwards.
+	 * 
+	 * @param x the x axis of each sample
+	 * 
+	 * @param y the y axis of each sample
+	 * 
+	 * @param z the z axis of each sample
+	 * 
+	 * @return the window
+	 * 
+	 * @throws IllegalArgumentException if any of the provided arrays are null
+	 * or if they are not all the same length
+	 */
+	public static AccelerometerData wrap(double[] x, double[] y, double[] z) {
+		return new AccelerometerData(x, y, z, false);
+	}
+	
+	/**
+	 * Creates a window that is a read-only view of the same range of each of
+	 * the provided arrays, e.g., one window of a longer recording, without 
+	 * copying it. The caller must not modify the range afterwards.
+	 * 
+	 * @param x the x axis of each sample
+	 * 
+	 * @param y the y axis of each sample
+	 * 
+	 * @param z the z axis of each sample
+	 * 
+	 * @param offset the index of the first sample in each array
+	 * 
+	 * @param length the number of samples
+	 * 
+	 * @return the window
+	 * 
+	 * @throws IllegalArgumentException if any of the provided arrays are null
+	 * or if the range is not within all of them
+	 */
+	public static AccelerometerData wrap(double[] x, double[] y, double[] z, int offset, int length) {
+		if(x == null) {
+			throw new IllegalArgumentException("x is required");
+		}
+		if(y == null) {
+			throw new IllegalArgumentException("y is required");
+		}
+		if(z == null) {
+			throw new IllegalArgumentException("z is required");
+		}
+		if(offset < 0 || length < 0 || offset > Math.min(x.length, Math.min(y.length, z.length)) - length) {
+			throw new IllegalArgumentException("offset and length must be within x, y, and z");
+		}
+		
+		return new AccelerometerData(x, y, z, offset, length, false);
+	}
+	
+	/**
+	 * Creates a columnar copy of a list of samples.
+	 * 
+	 * @param samples the samples to copy
+	 * 
+	 * @return the columnar representation of the samples
+	 * 
+	 * @throws IllegalArgumentException if the provided list is null or 
+	 * contains null
+	 */
+	public static AccelerometerData fromSamples(List<Sample> samples) {
+		if(samples == null) {
+			throw new IllegalArgumentException("samples is required");
+		}
+		
+		int size = samples.size();
+		double[] x = new double[size];
+		double[] y = new double[size];
+		double[] z = new double[size];
+		
+		int i = 0;
+		for(Sample sample : samples) {
+			if(sample == null) {
+				throw new IllegalArgumentException("samples contains null");
+			}
+			
+			x[i] = sample.getX();
+			y[i] = sample.getY();
+			z[i] = sample.getZ();
+			i++;
+		}
+		
+		return new AccelerometerData(x, y, z, false);
+	}
+	
+	/**
+	 * @return the number of samples in this window
+	 */
+	public int size() {
+		return length;
+	}
+	
+	public double getX(int index) {
+		return x[checkIndex(index)];
+	}
+	
+	public double getY(int index) {
+		return y[checkIndex(index)];
+	}
+	
+	public double getZ(int index) {
+		return z[checkIndex(index)];
+	}
+	
+	private int checkIndex(int index) {
+		if(index < 0 || index >= length) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + length);
+		}
+		return offset + index;
+	}
+	
+	/**
+	 * Returns a read-only list view of this window for APIs that require 
+	 * Samples, e.g., the MobilityClassifier. No list of Samples is built; 
+	 * each Sample is created when it is read and is not retained by the view.
+	 * 
+	 * @return an unmodifiable list view of this window
+	 */
+	public List<Sample> asSampleList() {
+		return new SampleListView();
+	}
+	
+	@Override
+	public String toString() {
+		return "AccelerometerData [size=" + length + "]";
+	}
+
+	/**
+	 * Returns the same hash as a window holding copies of the same samples. 
+	 * It is computed once, on first use.
+	 */
+	@Override
+	public int hashCode() {
+		int result = hash;
+		if(result == 0) {
+			final int prime = 31;
+			result = 1;
+			result = prime * result + hashCode(x, offset, length);
+			result = prime * result + hashCode(y, offset, length);
+			result = prime * result + hashCode(z, offset, length);
+			hash = result;
+		}
+		return result;
+	}
+	
+	/**
+	 * Arrays.hashCode(double[]) of a range.
+	 */
+	private static int hashCode(double[] array, int offset, int length) {
+		int result = 1;
+		for(int i = offset; i < offset + length; i++) {
+			long bits = Double.doubleToLongBits(array[i]);
+			result = 31 * result + (int) (bits ^ (bits >>> 32));
+		}
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		AccelerometerData other = (AccelerometerData) obj;
+		if (length != other.length)
+			return false;
+		if (hash != 0 && other.hash != 0 && hash != other.hash)
+			return false;
+		if (!equals(x, offset, other.x, other.offset, length))
+			return false;
+		if (!equals(y, offset, other.y, other.offset, length))
+			return false;
+		if (!equals(z, offset, other.z, other.offset, length))
+			return false;
+		return true;
+	}
+	
+	/**
+	 * Arrays.equals(double[], double[]) of two ranges of the same length.
+	 */
+	private static boolean equals(double[] left, int leftOffset, double[] right, int rightOffset, int length) {
+		if(left == right && leftOffset == rightOffset) {
+			return true;
+		}
+		for(int i = 0; i < length; i++) {
+			if(Double.doubleToLongBits(left[leftOffset + i]) != Double.doubleToLongBits(right[rightOffset + i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Adapts the columns to the List of Samples expected by the classifier.
+	 */
+	private class SampleListView extends AbstractList<Sample> implements RandomAccess {
+		@Override
+		public Sample get(int index) {
+			int i = checkIndex(index);
+			return new Sample(x[i], y[i], z[i]);
+		}
+
+		@Override
+		public int size() {
+			return length;
+		}
+	}
+}
@@ -15,6 +15,9 @@
  ******************************************************************************/
 package org.openmhealth.dpu.mobilityclassifier.domain;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.UUID;
 
 import edu.ucla.cens.mobilityclassifier.Classification;
@@ -24,15 +27,32 @@ import edu.ucla.cens.mobilityclassifier.Classification;
  * mode of still, walk, run, or drive and a set of features extracted from
  * sensor data.
  * 
+ * The {@link ResultDetail} determines how much of the classification is 
+ * kept. FULL keeps the classifier's Classification. FEATURES keeps the modes
+ * as enum constants and the average, variance, and FFT in one double array.
+ * MODE keeps only the modes, which is what most consumers need and is a 
+ * fraction of the size.
+ * 
  * @author Joshua Selsky
  * @see org.openmhealth.dpu.mobilityclassifier.SensorData
  */
 public class ClassifiedPoint {
+	private static final int AVERAGE = 0;
+	private static final int VARIANCE = 1;
+	private static final int FFT = 2;
+	
 	private final UUID id;
+	private final ResultDetail resultDetail;
+	private final Mode mode;
+	private final Mode wifiMode;
+	private final boolean hasFeatures;
+	// average, variance, then the FFT; only kept for FEATURES
+	private final double[] features;
+	// only kept for FULL
 	private final Classification classification;
 	
 	/**
-	 * Creates a classified mobility point.
+	 * Creates a classified mobility point that keeps the full classification.
 	 * 
 	 * @param id a UUID identifying this point
 	 * 
@@ -40,29 +60,179 @@ public class ClassifiedPoint {
 	 * and classifier output
 	 */
 	public ClassifiedPoint(final UUID id, final Classification classification) {
+		this(id, classification, ResultDetail.FULL);
+	}
+	
+	/**
+	 * Creates a classified mobility point.
+	 * 
+	 * @param id a UUID identifying this point
+	 * 
+	 * @param classification a Classification containing the mobility mode 
+	 * and classifier output
+	 * 
+	 * @param resultDetail how much of the classification to keep
+	 * 
+	 * @throws IllegalArgumentException if any parameter is null
+	 */
+	public ClassifiedPoint(final UUID id, final Classification classification, final ResultDetail resultDetail) {
 		if(id == null) {
 			throw new IllegalArgumentException("id is required");
 		}
 		if(classification == null) {
 			throw new IllegalArgumentException("classification is required");
 		}
+		if(resultDetail == null) {
+			throw new IllegalArgumentException("resultDetail is required");
+		}
 		
 		this.id = id;
-		this.classification = classification;
+		this.resultDetail = resultDetail;
+		// A mode from a newer classifier is unknown rather than an error; the
+		// classification, if kept, still has the original string
+		this.mode = Mode.forClassifierValue(classification.getMode());
+		this.wifiMode = Mode.forClassifierValue(classification.getWifiMode());
+		this.hasFeatures = classification.hasFeatures();
+		this.features = resultDetail == ResultDetail.FEATURES && hasFeatures ? toFeatures(classification) : null;
+		this.classification = resultDetail == ResultDetail.FULL ? classification : null;
+	}
+	
+	private static double[] toFeatures(Classification classification) {
+		List<Double> fft = classification.getFft();
+		int fftLength = fft == null ? 0 : fft.size();
+		double[] features = new double[FFT + fftLength];
+		
+		features[AVERAGE] = toDouble(classification.getAverage());
+		features[VARIANCE] = toDouble(classification.getVariance());
+		for(int i = 0; i < fftLength; i++) {
+			features[FFT + i] = toDouble(fft.get(i));
+		}
+		
+		return features;
+	}
+	
+	private static double toDouble(Double value) {
+		return value == null ? Double.NaN : value.doubleValue();
 	}
 
 	public UUID getId() {
 		return id;
 	}
+	
+	public ResultDetail getResultDetail() {
+		return resultDetail;
+	}
+	
+	/**
+	 * @return the mobility mode
+	 */
+	public Mode getMode() {
+		return mode;
+	}
+	
+	/**
+	 * @return the mode derived from wifi alone, or null if the classifier did
+	 * not get that far
+	 */
+	public Mode getWifiMode() {
+		return wifiMode;
+	}
+	
+	/**
+	 * @return true if the classifier extracted features for this point. The
+	 * features are only available if they were kept.
+	 */
+	public boolean hasFeatures() {
+		return hasFeatures;
+	}
+	
+	/**
+	 * @return the mean accelerometer magnitude
+	 * 
+	 * @throws IllegalStateException if the features were not kept
+	 */
+	public double getAverage() {
+		if(classification != null && hasFeatures) {
+			return toDouble(classification.getAverage());
+		}
+		return checkFeatures()[AVERAGE];
+	}
+	
+	/**
+	 * @return the variance of the accelerometer magnitudes
+	 * 
+	 * @throws IllegalStateException if the features were not kept
+	 */
+	public double getVariance() {
+		if(classification != null && hasFeatures) {
+			return toDouble(classification.getVariance());
+		}
+		return checkFeatures()[VARIANCE];
+	}
+	
+	/**
+	 * @return a copy of the FFT of the accelerometer magnitudes
+	 * 
+	 * @throws IllegalStateException if the features were not kept
+	 */
+	public double[] getFft() {
+		if(classification != null && hasFeatures) {
+			List<Double> fft = classification.getFft();
+			double[] values = new double[fft == null ? 0 : fft.size()];
+			for(int i = 0; i < values.length; i++) {
+				values[i] = toDouble(fft.get(i));
+			}
+			return values;
+		}
+		return Arrays.copyOfRange(checkFeatures(), FFT, features.length);
+	}
+	
+	private double[] checkFeatures() {
+		if(features == null) {
+			throw new IllegalStateException(hasFeatures ? "The features of " + id + " were not kept" 
+					: "No features were extracted for " + id);
+		}
+		return features;
+	}
 
+	/**
+	 * Returns the classification. If the full classification was kept, it is
+	 * returned as is. Otherwise an equivalent Classification is rebuilt from
+	 * what was kept; if the features were dropped, it has no features.
+	 * 
+	 * @return the classification
+	 */
 	public Classification getClassification() {
-		return classification;
+		if(classification != null) {
+			return classification;
+		}
+		
+		Classification rebuilt = new Classification();
+		rebuilt.setMode(mode == null ? null : mode.getValue());
+		rebuilt.setWifiMode(wifiMode == null ? null : wifiMode.getValue());
+		
+		if(features != null) {
+			List<Double> fft = new ArrayList<Double>(features.length - FFT);
+			for(int i = FFT; i < features.length; i++) {
+				fft.add(features[i]);
+			}
+			rebuilt.setAverage(features[AVERAGE]);
+			rebuilt.setVariance(features[VARIANCE]);
+			rebuilt.setFft(fft);
+			rebuilt.setHasFeatures(true);
+		}
+		
+		return rebuilt;
 	}
 
 	@Override
 	public String toString() {
-		return "ClassifiedPoint [id=" + id + ", classification="
-				+ classification + "]";
+		if(classification != null) {
+			return "ClassifiedPoint [id=" + id + ", classification="
+					+ classification + "]";
+		}
+		return "ClassifiedPoint [id=" + id + ", mode=" + mode + ", wifiMode="
+				+ wifiMode + ", features=" + Arrays.toString(features) + "]";
 	}
 
 	@Override
@@ -72,6 +242,11 @@ public class ClassifiedPoint {
 		result = prime * result
 				+ ((classification == null) ? 0 : classification.hashCode());
 		result = prime * result + ((id == null) ? 0 : id.hashCode());
+		result = prime * result + ((mode == null) ? 0 : mode.hashCode());
+		result = prime * result + ((wifiMode == null) ? 0 : wifiMode.hashCode());
+		result = prime * result + (hasFeatures ? 1231 : 1237);
+		result = prime * result + Arrays.hashCode(features);
+		result = prime * result + resultDetail.hashCode();
 		return result;
 	}
 
@@ -94,6 +269,16 @@ public class ClassifiedPoint {
 				return false;
 		} else if (!id.equals(other.id))
 			return false;
+		if (resultDetail != other.resultDetail)
+			return false;
+		if (mode != other.mode)
+			return false;
+		if (wifiMode != other.wifiMode)
+			return false;
+		if (hasFeatures != other.hasFeatures)
+			return false;
+		if (!Arrays.equals(features, other.features))
+			return false;
 		return true;
 	}
 }
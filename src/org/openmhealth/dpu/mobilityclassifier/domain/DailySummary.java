@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.domain;
+
+import java.util.Arrays;
+
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+
+/**
+ * An immutable summary of one user's mobility during one local day: the time
+ * spent in and the number of points classified as each mode. Days are 
+ * calendar days in the user's timezone, so a day with a daylight saving
+ * transition is 23 or 25 hours long.
+ * 
+ * @see org.openmhealth.dpu.mobilityclassifier.aggregation.DailySummaryAggregator
+ */
+public class DailySummary {
+	private static final Mode[] MODES = Mode.values();
+	
+	private final String userId;
+	private final LocalDate date;
+	private final DateTimeZone timezone;
+	private final long[] durationMillis;
+	private final int[] counts;
+	
+	/**
+	 * Creates a summary.
+	 * 
+	 * @param userId the user the summary belongs to
+	 * 
+	 * @param date the local date
+	 * 
+	 * @param timezone the timezone the date is local to
+	 * 
+	 * @param durationMillis the milliseconds spent in each mode, indexed by 
+	 * {@link Mode#ordinal()}. The array is copied.
+	 * 
+	 * @param counts the number of points classified as each mode, indexed by
+	 * {@link Mode#ordinal()}. The array is copied.
+	 * 
+	 * @throws IllegalArgumentException if any parameter is null or an array
+	 * does not have one element per mode
+	 */
+	public DailySummary(final String userId, final LocalDate date, final DateTimeZone timezone, 
+			final long[] durationMillis, final int[] counts) {
+		
+		if(userId == null) {
+			throw new IllegalArgumentException("userId is required");
+		}
+		if(date == null) {
+			throw new IllegalArgumentException("date is required");
+		}
+		if(timezone == null) {
+			throw new IllegalArgumentException("timezone is required");
+		}
+		if(durationMillis == null || durationMillis.length != MODES.length) {
+			throw new IllegalArgumentException("durationMillis must have one element per mode");
+		}
+		if(counts == null || counts.length != MODES.length) {
+			throw new IllegalArgumentException("counts must have one element per mode");
+		}
+		
+		this.userId = userId;
+		this.date = date;
+		this.timezone = timezone;
+		this.durationMillis = durationMillis.clone();
+		this.counts = counts.clone();
+	}
+
+	public String getUserId() {
+		return userId;
+	}
+
+	public LocalDate getDate() {
+		return date;
+	}
+
+	public DateTimeZone getTimezone() {
+		return timezone;
+	}
+	
+	/**
+	 * @return the milliseconds spent in the provided mode
+	 */
+	public long getDurationMillis(Mode mode) {
+		return durationMillis[mode.ordinal()];
+	}
+	
+	/**
+	 * @return the number of points classified as the provided mode
+	 */
+	public int getCount(Mode mode) {
+		return counts[mode.ordinal()];
+	}
+	
+	/**
+	 * @return the milliseconds spent in any mode
+	 */
+	public long getTotalDurationMillis() {
+		long total = 0;
+		for(long duration : durationMillis) {
+			total += duration;
+		}
+		return total;
+	}
+	
+	/**
+	 * @return the number of points in the day
+	 */
+	public int getNumberOfPoints() {
+		int total = 0;
+		for(int count : counts) {
+			total += count;
+		}
+		return total;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("DailySummary [userId=").append(userId).append(", date=").append(date)
+			.append(", timezone=").append(timezone);
+		for(Mode mode : MODES) {
+			if(counts[mode.ordinal()] > 0 || durationMillis[mode.ordinal()] > 0) {
+				builder.append(", ").append(mode.getValue()).append('=').append(durationMillis[mode.ordinal()])
+					.append("ms/").append(counts[mode.ordinal()]);
+			}
+		}
+		return builder.append(']').toString();
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + userId.hashCode();
+		result = prime * result + date.hashCode();
+		result = prime * result + timezone.hashCode();
+		result = prime * result + Arrays.hashCode(durationMillis);
+		result = prime * result + Arrays.hashCode(counts);
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		DailySummary other = (DailySummary) obj;
+		if (!userId.equals(other.userId))
+			return false;
+		if (!date.equals(other.date))
+			return false;
+		if (!timezone.equals(other.timezone))
+			return false;
+		if (!Arrays.equals(durationMillis, other.durationMillis))
+			return false;
+		if (!Arrays.equals(counts, other.counts))
+			return false;
+		return true;
+	}
+}
@@ -0,0 +1,178 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.domain;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+/**
+ * An immutable run of consecutive points classified with the same mobility
+ * mode, e.g., "walk from 10:02 to 10:17". The start and end are the wifi 
+ * scan times of the first and last point of the run.
+ * 
+ * @see org.openmhealth.dpu.mobilityclassifier.aggregation.EpisodeAggregator
+ */
+public class MobilityEpisode {
+	private final Mode mode;
+	private final long startTime;
+	private final long endTime;
+	private final DateTimeZone timezone;
+	private final int numberOfPoints;
+	private final double meanAverage;
+	private final double meanVariance;
+	
+	/**
+	 * Creates an episode.
+	 * 
+	 * @param mode the mobility mode of the episode
+	 * 
+	 * @param startTime the time of the first point in milliseconds since the
+	 * epoch
+	 * 
+	 * @param endTime the time of the last point in milliseconds since the 
+	 * epoch
+	 * 
+	 * @param timezone the timezone of the first point
+	 * 
+	 * @param numberOfPoints the number of points in the episode
+	 * 
+	 * @param meanAverage the mean of the points' average magnitudes, or NaN 
+	 * if features were not summarized
+	 * 
+	 * @param meanVariance the mean of the points' magnitude variances, or NaN
+	 * if features were not summarized
+	 * 
+	 * @throws IllegalArgumentException if the mode or timezone is null or 
+	 * numberOfPoints is not positive
+	 */
+	public MobilityEpisode(final Mode mode, final long startTime, final long endTime, final DateTimeZone timezone,
+			final int numberOfPoints, final double meanAverage, final double meanVariance) {
+		
+		if(mode == null) {
+			throw new IllegalArgumentException("mode is required");
+		}
+		if(timezone == null) {
+			throw new IllegalArgumentException("timezone is required");
+		}
+		if(numberOfPoints <= 0) {
+			throw new IllegalArgumentException("numberOfPoints must be positive");
+		}
+		
+		this.mode = mode;
+		this.startTime = startTime;
+		this.endTime = endTime;
+		this.timezone = timezone;
+		this.numberOfPoints = numberOfPoints;
+		this.meanAverage = meanAverage;
+		this.meanVariance = meanVariance;
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	public long getStartTime() {
+		return startTime;
+	}
+
+	public long getEndTime() {
+		return endTime;
+	}
+	
+	public DateTimeZone getTimezone() {
+		return timezone;
+	}
+	
+	/**
+	 * @return the start in the episode's timezone
+	 */
+	public DateTime getStart() {
+		return new DateTime(startTime, timezone);
+	}
+	
+	/**
+	 * @return the end in the episode's timezone
+	 */
+	public DateTime getEnd() {
+		return new DateTime(endTime, timezone);
+	}
+	
+	public long getDurationMillis() {
+		return endTime - startTime;
+	}
+
+	public int getNumberOfPoints() {
+		return numberOfPoints;
+	}
+
+	public double getMeanAverage() {
+		return meanAverage;
+	}
+
+	public double getMeanVariance() {
+		return meanVariance;
+	}
+
+	@Override
+	public String toString() {
+		return "MobilityEpisode [mode=" + mode + ", start=" + getStart()
+				+ ", end=" + getEnd() + ", numberOfPoints=" + numberOfPoints
+				+ ", meanAverage=" + meanAverage + ", meanVariance="
+				+ meanVariance + "]";
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + mode.hashCode();
+		result = prime * result + (int) (startTime ^ (startTime >>> 32));
+		result = prime * result + (int) (endTime ^ (endTime >>> 32));
+		result = prime * result + timezone.hashCode();
+		result = prime * result + numberOfPoints;
+		long temp = Double.doubleToLongBits(meanAverage);
+		result = prime * result + (int) (temp ^ (temp >>> 32));
+		temp = Double.doubleToLongBits(meanVariance);
+		result = prime * result + (int) (temp ^ (temp >>> 32));
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		MobilityEpisode other = (MobilityEpisode) obj;
+		if (mode != other.mode)
+			return false;
+		if (startTime != other.startTime)
+			return false;
+		if (endTime != other.endTime)
+			return false;
+		if (!timezone.equals(other.timezone))
+			return false;
+		if (numberOfPoints != other.numberOfPoints)
+			return false;
+		if (Double.doubleToLongBits(meanAverage) != Double.doubleToLongBits(other.meanAverage))
+			return false;
+		if (Double.doubleToLongBits(meanVariance) != Double.doubleToLongBits(other.meanVariance))
+			return false;
+		return true;
+	}
+}
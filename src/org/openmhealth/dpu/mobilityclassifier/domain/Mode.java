@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.domain;
+
+/**
+ * The mobility modes reported by the classifier. Storing a mode as an enum
+ * constant instead of the classifier's string costs a single reference.
+ */
+public enum Mode {
+	STILL("still"),
+	WALK("walk"),
+	RUN("run"),
+	DRIVE("drive"),
+	UNKNOWN("unknown");
+	
+	private final String value;
+	
+	private Mode(final String value) {
+		this.value = value;
+	}
+	
+	/**
+	 * @return the string the classifier uses for this mode
+	 */
+	public String getValue() {
+		return value;
+	}
+	
+	/**
+	 * Returns the mode for a string produced by the classifier, treating 
+	 * values this version does not know, e.g., a mode added by a newer 
+	 * classifier, as {@link #UNKNOWN}. Case is ignored, because the 
+	 * classifier passes a previous mode of "STILL" or "DRIVE" through 
+	 * unchanged when a point's wifi scan is the previous one.
+	 * 
+	 * @param value the classifier's mode, e.g., "walk"
+	 * 
+	 * @return the mode, or null if the provided value is null
+	 */
+	public static Mode forClassifierValue(String value) {
+		if(value == null) {
+			return null;
+		}
+		
+		for(Mode mode : values()) {
+			if(mode.value.equalsIgnoreCase(value)) {
+				return mode;
+			}
+		}
+		
+		return UNKNOWN;
+	}
+}
@@ -0,0 +1,38 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.domain;
+
+/**
+ * How much of a classification a {@link ClassifiedPoint} retains.
+ */
+public enum ResultDetail {
+	
+	/**
+	 * Only the mode and wifi mode. The features are dropped.
+	 */
+	MODE,
+	
+	/**
+	 * The mode, wifi mode, and features, with the features stored in a 
+	 * single primitive array instead of boxed values.
+	 */
+	FEATURES,
+	
+	/**
+	 * The classifier's Classification itself.
+	 */
+	FULL
+}
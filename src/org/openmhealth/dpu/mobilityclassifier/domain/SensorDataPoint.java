@@ -24,7 +24,23 @@ import edu.ucla.cens.mobilityclassifier.Sample;
 import edu.ucla.cens.mobilityclassifier.WifiScan;
 
 /**
- * An immutable wrapper for a sensor data point.
+ * An immutable wrapper for a sensor data point. The accelerometer samples are
+ * held either as the List of Samples provided by the caller or, for points 
+ * created from {@link AccelerometerData}, as primitive columns.
+ * 
+ * By default two points are equal if all of their data are equal. For 
+ * points backed by columnar data, which cannot change, the hash code walks 
+ * the samples once and is then cached. For points backed by the caller's 
+ * List of Samples it is recomputed on each call, so it follows any change 
+ * to the list, as equals does. Where points are
+ * only keyed by their ids, e.g., when removing duplicate uploads, 
+ * {@link #withIdIdentity()} gives a point that is equal to another only if 
+ * their ids are equal and that never walks its data.
+ * 
+ * A point whose window was resampled, see 
+ * {@link #withResampledData(AccelerometerData)}, remembers how many samples
+ * the window was recorded with, because the classifier's FFT features grow
+ * with the number of samples.
  * 
  * @author Joshua Selsky
  */
@@ -34,6 +50,13 @@ public class SensorDataPoint {
 	private final DateTimeZone timezone;
 	private final WifiScan wifiScan;
 	private final List<Sample> accelerometerSamples;
+	private final AccelerometerData accelerometerData;
+	private final boolean idIdentity;
+	// The number of samples recorded, or 0 if the window was not resampled
+	private final int recordedWindowSize;
+	
+	// Computed on first use; 0 until then
+	private int hash;
 	
 	/**
 	 * Creates an immutable representation of sensor data at a particular 
@@ -79,6 +102,118 @@ public class SensorDataPoint {
 		this.timezone = timezone;
 		this.wifiScan = wifiScan;
 		this.accelerometerSamples = accelerometerSamples;
+		this.accelerometerData = null;
+		this.idIdentity = false;
+		this.recordedWindowSize = 0;
+	}
+	
+	/**
+	 * Creates an immutable representation of sensor data at a particular 
+	 * instance in time backed by columnar accelerometer data.
+	 * 
+	 * @param id a UUID identifying this instance
+	 * 
+	 * @param speed a speed at which a device was moving
+	 * 
+	 * @param timezone a timezone a device was running in
+	 *  
+	 * @param wifiScan a scan of wifi access points and the time at which the 
+	 * points were collected
+	 * 
+	 * @param accelerometerData a window of triaxial accelerometer points
+	 * 
+	 * @throws IllegalArgumentException if any of the provided parameters are 
+	 * null 
+	 */
+	public SensorDataPoint(final UUID id, final Double speed, 
+			final DateTimeZone timezone, 
+			final WifiScan wifiScan,
+			final AccelerometerData accelerometerData) {
+		
+		if(id == null) {
+			throw new IllegalArgumentException("id is required");
+		}
+		if(speed == null) {
+			throw new IllegalArgumentException("speed is required");
+		}
+		if(timezone == null) {
+			throw new IllegalArgumentException("timezone is required");
+		}
+		if(wifiScan == null) {
+			throw new IllegalArgumentException("wifiScan is required");
+		}
+		if(accelerometerData == null) {
+			throw new IllegalArgumentException("accelerometerData is required");
+		}
+		
+		this.id = id;
+		this.speed = speed;
+		this.timezone = timezone;
+		this.wifiScan = wifiScan;
+		this.accelerometerSamples = accelerometerData.asSampleList();
+		this.accelerometerData = accelerometerData;
+		this.idIdentity = false;
+		this.recordedWindowSize = 0;
+	}
+	
+	private SensorDataPoint(final SensorDataPoint sensorDataPoint, final boolean idIdentity) {
+		this.id = sensorDataPoint.id;
+		this.speed = sensorDataPoint.speed;
+		this.timezone = sensorDataPoint.timezone;
+		this.wifiScan = sensorDataPoint.wifiScan;
+		this.accelerometerSamples = sensorDataPoint.accelerometerSamples;
+		this.accelerometerData = sensorDataPoint.accelerometerData;
+		this.idIdentity = idIdentity;
+		this.recordedWindowSize = sensorDataPoint.recordedWindowSize;
+	}
+	
+	private SensorDataPoint(final SensorDataPoint sensorDataPoint, final AccelerometerData accelerometerData) {
+		this.id = sensorDataPoint.id;
+		this.speed = sensorDataPoint.speed;
+		this.timezone = sensorDataPoint.timezone;
+		this.wifiScan = sensorDataPoint.wifiScan;
+		this.accelerometerSamples = accelerometerData.asSampleList();
+		this.accelerometerData = accelerometerData;
+		this.idIdentity = sensorDataPoint.idIdentity;
+		this.recordedWindowSize = sensorDataPoint.getRecordedWindowSize();
+	}
+	
+	/**
+	 * Returns this point with its window replaced by a resampled one. The 
+	 * returned point keeps the id, speed, timezone, wifi scan, and identity 
+	 * of this point and the number of samples this point's window was 
+	 * recorded with.
+	 * 
+	 * @param accelerometerData the resampled window
+	 * 
+	 * @return a point with the resampled window
+	 * 
+	 * @throws IllegalArgumentException if the data are null
+	 */
+	public SensorDataPoint withResampledData(AccelerometerData accelerometerData) {
+		if(accelerometerData == null) {
+			throw new IllegalArgumentException("accelerometerData is required");
+		}
+		
+		return new SensorDataPoint(this, accelerometerData);
+	}
+	
+	/**
+	 * Returns this point with identity based on its id alone: it is equal to
+	 * another point with id identity and the same id, and its hash code is 
+	 * that of its id. The data are shared, not copied.
+	 * 
+	 * @return a point with the same data and id identity
+	 */
+	public SensorDataPoint withIdIdentity() {
+		return idIdentity ? this : new SensorDataPoint(this, true);
+	}
+	
+	/**
+	 * @return true if this point's identity is based on its id alone
+	 */
+	public boolean hasIdIdentity() {
+		return idIdentity;
 	}
 
 	public UUID getId() {
@@ -97,31 +232,88 @@ public class SensorDataPoint {
 		return wifiScan;
 	}
 
+	/**
+	 * @return the accelerometer samples. For points backed by columnar data 
+	 * this is a read-only view that creates each Sample as it is read.
+	 */
 	public List<Sample> getAccelerometerSamples() {
 		return accelerometerSamples;
 	}
+	
+	/**
+	 * @return the number of samples the window was recorded with, which is
+	 * the number of samples unless the window was resampled
+	 */
+	public int getRecordedWindowSize() {
+		return recordedWindowSize != 0 ? recordedWindowSize : accelerometerSamples.size();
+	}
+	
+	/**
+	 * @return true if this point is backed by columnar accelerometer data
+	 */
+	public boolean hasAccelerometerData() {
+		return accelerometerData != null;
+	}
+	
+	/**
+	 * Returns the accelerometer samples as primitive columns. For points 
+	 * created from a List of Samples the columns are copied from the list on
+	 * each call.
+	 * 
+	 * @return the accelerometer samples as columnar data
+	 */
+	public AccelerometerData getAccelerometerData() {
+		if(accelerometerData != null) {
+			return accelerometerData;
+		}
+		return AccelerometerData.fromSamples(accelerometerSamples);
+	}
 
+	/**
+	 * Summarizes this point. The samples and access points are counted 
+	 * rather than listed, so the length does not grow with the data.
+	 */
 	@Override
 	public String toString() {
 		return "SensorDataPoint [id=" + id + ", speed=" + speed + ", timezone="
-				+ timezone + ", wifiScan=" + wifiScan
-				+ ", accelerometerSamples=" + accelerometerSamples + "]";
+				+ timezone + ", wifiScan=[time=" + wifiScan.getTime() 
+				+ ", accessPoints=" + (wifiScan.getAccessPoints() == null ? 0 : wifiScan.getAccessPoints().size())
+				+ "], accelerometerSamples=" + accelerometerSamples.size() + "]";
 	}
 
 	@Override
 	public int hashCode() {
-		final int prime = 31;
-		int result = 1;
-		result = prime
-				* result
-				+ ((accelerometerSamples == null) ? 0 : accelerometerSamples
-						.hashCode());
-		result = prime * result + ((id == null) ? 0 : id.hashCode());
-		result = prime * result + ((speed == null) ? 0 : speed.hashCode());
-		result = prime * result
-				+ ((timezone == null) ? 0 : timezone.hashCode());
-		result = prime * result
-				+ ((wifiScan == null) ? 0 : wifiScan.hashCode());
+		if(idIdentity) {
+			return id.hashCode();
+		}
+		
+		// Only columnar data is immutable, so only its hash may be cached
+		int result = accelerometerData != null ? hash : 0;
+		if(result == 0) {
+			final int prime = 31;
+			result = 1;
+			if(accelerometerData != null) {
+				result = prime * result + accelerometerData.hashCode();
+			}
+			else {
+				result = prime
+						* result
+						+ ((accelerometerSamples == null) ? 0 : accelerometerSamples
+								.hashCode());
+			}
+			result = prime * result + ((id == null) ? 0 : id.hashCode());
+			result = prime * result + ((speed == null) ? 0 : speed.hashCode());
+			result = prime * result
+					+ ((timezone == null) ? 0 : timezone.hashCode());
+			result = prime * result
+					+ ((wifiScan == null) ? 0 : wifiScan.hashCode());
+			if(recordedWindowSize != 0) {
+				result = prime * result + recordedWindowSize;
+			}
+			if(accelerometerData != null) {
+				hash = result;
+			}
+		}
 		return result;
 	}
 
@@ -134,7 +326,21 @@ public class SensorDataPoint {
 		if (getClass() != obj.getClass())
 			return false;
 		SensorDataPoint other = (SensorDataPoint) obj;
-		if (accelerometerSamples == null) {
+		if (idIdentity != other.idIdentity)
+			return false;
+		if (idIdentity)
+			return id.equals(other.id);
+		// The id is the cheapest field that tells most points apart
+		if (!id.equals(other.id))
+			return false;
+		if (hash != 0 && other.hash != 0 && hash != other.hash)
+			return false;
+		if (recordedWindowSize != other.recordedWindowSize)
+			return false;
+		if (accelerometerData != null || other.accelerometerData != null) {
+			if (accelerometerData == null || !accelerometerData.equals(other.accelerometerData))
+				return false;
+		} else if (accelerometerSamples == null) {
 			if (other.accelerometerSamples != null)
 				return false;
 		} else if (!accelerometerSamples.equals(other.accelerometerSamples))
@@ -15,25 +15,13 @@
  ******************************************************************************/
 package org.openmhealth.dpu.mobilityclassifier.example;
 
-import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.UUID;
 
-import org.joda.time.DateTimeZone;
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
-import org.openmhealth.dpu.mobilityclassifier.domain.ClassifiedPoint;
 import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
-import org.openmhealth.dpu.mobilityclassifier.service.ClassificationService;
-
-import edu.ucla.cens.mobilityclassifier.AccessPoint;
-import edu.ucla.cens.mobilityclassifier.Sample;
-import edu.ucla.cens.mobilityclassifier.WifiScan;
+import org.openmhealth.dpu.mobilityclassifier.io.SensorDataPointReader;
+import org.openmhealth.dpu.mobilityclassifier.service.ClassificationSession;
 
 /**
  * Example of using the ClassificationService via Java. To run the example:
@@ -45,7 +33,8 @@ import edu.ucla.cens.mobilityclassifier.WifiScan;
  * </ul>
  * 
  * This example classifies mobility points stored as JSON in ./example.json. It
- * outputs a ClassifiedPoint to System.out for each point in example.json.
+ * reads and classifies one point at a time and outputs a ClassifiedPoint to 
+ * System.out for each point in example.json.
  * 
  * @author Joshua Selsky
  */
@@ -53,63 +42,19 @@ public class Example {
 	
 	public static void main(String[] args) throws IOException, JSONException {
 
-		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream("example.json")));
-		String line = in.readLine();
-		StringBuilder jsonStringBuilder = new StringBuilder();
-		
-		while(line != null) {
-			jsonStringBuilder.append(line);
-			line = in.readLine();
-		}
-		
-		in.close();
+		SensorDataPointReader reader = new SensorDataPointReader(new FileInputStream("example.json"));
+		ClassificationSession session = new ClassificationSession();
 		
-		JSONArray array = new JSONArray(jsonStringBuilder.toString());
-		List<SensorDataPoint> sensorDataPoints = new ArrayList<SensorDataPoint>();
-		
-		int length = array.length();
-		for(int i = 0; i < length; i++) {
-			JSONObject object = array.getJSONObject(i);
-			
-			List<Sample> samples = new ArrayList<Sample>();
-			double speed = 0.0D;
-			long time = 0;
-			DateTimeZone timezone = null;
-			List<AccessPoint> accessPoints = new ArrayList<AccessPoint>();
-			
-			JSONArray accelDataArray = object.getJSONArray("accel_data");
-			int numberOfAccelPoints = accelDataArray.length();
+		try {
+			SensorDataPoint point = reader.read();
 			
-			for(int j = 0; j < numberOfAccelPoints; j++) {
-				samples.add(new Sample(
-				    accelDataArray.getJSONObject(j).getDouble("x"),
-				    accelDataArray.getJSONObject(j).getDouble("y"),
-				    accelDataArray.getJSONObject(j).getDouble("z")
-				));
+			while(point != null) {
+				System.out.println(session.classify(point));
+				point = reader.read();
 			}
-			
-			speed = object.getDouble("speed");
-			JSONObject wifiObject = object.getJSONObject("wifi_data");
-			timezone = DateTimeZone.forID(wifiObject.getString("timezone"));
-			time = wifiObject.getLong("time");
-			JSONArray scanArray = wifiObject.getJSONArray("scan");
-			int numberOfScans = scanArray.length();
-			
-			for(int k = 0; k < numberOfScans; k++) {
-				accessPoints.add(new AccessPoint(
-					scanArray.getJSONObject(k).getString("ssid"),
-					scanArray.getJSONObject(k).getInt("strength")
-				));
-			}
-			
-			SensorDataPoint point = new SensorDataPoint(UUID.randomUUID(), speed, timezone, new WifiScan(time, accessPoints), samples);
-			sensorDataPoints.add(point);
 		}
-		
-		List<ClassifiedPoint> classifiedPointList = ClassificationService.classify(sensorDataPoints);
-		
-		for(ClassifiedPoint cp : classifiedPointList) {
-			System.out.println(cp);
+		finally {
+			reader.close();
 		}
 	}
 }
@@ -0,0 +1,264 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.joda.time.DateTimeZone;
+import org.openmhealth.dpu.mobilityclassifier.domain.AccelerometerData;
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+
+import edu.ucla.cens.mobilityclassifier.AccessPoint;
+import edu.ucla.cens.mobilityclassifier.WifiScan;
+
+/**
+ * Reads files written by {@link BinarySensorDataPointWriter}. The file is 
+ * memory-mapped, so opening it only decodes the footer and any point or 
+ * range of points can then be read without parsing the points before it. 
+ * Accelerometer columns are bulk-copied straight from the mapping into the
+ * returned points' {@link AccelerometerData}.
+ * 
+ * Reads are thread-safe. Because a single mapping is used, files are limited
+ * to {@link Integer#MAX_VALUE} bytes. The mapping is released by the garbage
+ * collector rather than by {@link #close()}.
+ */
+public class BinarySensorDataPointReader implements Closeable {
+	private final RandomAccessFile file;
+	private final ByteBuffer buffer;
+	private final LongBuffer offsets;
+	private final int numberOfPoints;
+	private final String[] dictionary;
+	private final DateTimeZone[] timezones;
+	
+	/**
+	 * Opens and maps a file.
+	 * 
+	 * @param file the file to read
+	 * 
+	 * @throws IOException if the file cannot be read, is larger than 
+	 * {@link Integer#MAX_VALUE} bytes, or is not a complete file in a 
+	 * supported version of the format
+	 * 
+	 * @throws IllegalArgumentException if the provided file is null
+	 */
+	public BinarySensorDataPointReader(final File file) throws IOException {
+		if(file == null) {
+			throw new IllegalArgumentException("file is required");
+		}
+		
+		this.file = new RandomAccessFile(file, "r");
+		
+		try {
+			FileChannel channel = this.file.getChannel();
+			long length = channel.size();
+			
+			if(length > Integer.MAX_VALUE) {
+				throw new IOException(file + " is larger than " + Integer.MAX_VALUE + " bytes");
+			}
+			if(length < BinarySensorDataPointWriter.HEADER_LENGTH + BinarySensorDataPointWriter.TRAILER_LENGTH) {
+				throw new IOException(file + " is too short");
+			}
+			
+			this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+			
+			if(buffer.getInt(0) != BinarySensorDataPointWriter.MAGIC) {
+				throw new IOException(file + " is not a sensor data point file");
+			}
+			if(buffer.getShort(4) != BinarySensorDataPointWriter.VERSION) {
+				throw new IOException(file + " has an unsupported version: " + buffer.getShort(4));
+			}
+			if(buffer.getInt((int) length - 4) != BinarySensorDataPointWriter.MAGIC) {
+				throw new IOException(file + " is incomplete");
+			}
+			
+			long footerOffset = buffer.getLong((int) length - BinarySensorDataPointWriter.TRAILER_LENGTH);
+			if(footerOffset < BinarySensorDataPointWriter.HEADER_LENGTH || footerOffset > length - BinarySensorDataPointWriter.TRAILER_LENGTH) {
+				throw new IOException(file + " has a malformed trailer");
+			}
+			
+			ByteBuffer footer = buffer.duplicate();
+			footer.position((int) footerOffset);
+			
+			int dictionarySize = footer.getInt();
+			if(dictionarySize < 0) {
+				throw new IOException(file + " has a malformed dictionary");
+			}
+			this.dictionary = new String[dictionarySize];
+			this.timezones = new DateTimeZone[dictionarySize];
+			for(int i = 0; i < dictionarySize; i++) {
+				dictionary[i] = readUTF(footer);
+			}
+			
+			this.numberOfPoints = footer.getInt();
+			if(numberOfPoints < 0 || numberOfPoints * 8L > footer.remaining() - BinarySensorDataPointWriter.TRAILER_LENGTH) {
+				throw new IOException(file + " has a malformed index");
+			}
+			
+			footer.limit(footer.position() + numberOfPoints * 8);
+			this.offsets = footer.slice().asLongBuffer();
+		}
+		catch(BufferUnderflowException e) {
+			this.file.close();
+			IOException exception = new IOException(file + " has a malformed footer");
+			exception.initCause(e);
+			throw exception;
+		}
+		catch(IOException e) {
+			this.file.close();
+			throw e;
+		}
+	}
+	
+	private static String readUTF(ByteBuffer footer) throws IOException {
+		int length = footer.getShort() & 0xffff;
+		byte[] bytes = new byte[length + 2];
+		bytes[0] = (byte) (length >> 8);
+		bytes[1] = (byte) length;
+		footer.get(bytes, 2, length);
+		
+		return new DataInputStream(new ByteArrayInputStream(bytes)).readUTF();
+	}
+	
+	/**
+	 * @return the number of points in the file
+	 */
+	public int size() {
+		return numberOfPoints;
+	}
+	
+	/**
+	 * Reads a single point.
+	 * 
+	 * @param index the position of the point in the file
+	 * 
+	 * @return the point
+	 * 
+	 * @throws IndexOutOfBoundsException if index is negative or not less than
+	 * {@link #size()}
+	 * 
+	 * @throws IllegalStateException if the record is malformed
+	 */
+	public SensorDataPoint read(int index) {
+		if(index < 0 || index >= numberOfPoints) {
+			throw new IndexOutOfBoundsException("index " + index + " is not in [0, " + numberOfPoints + ")");
+		}
+		
+		ByteBuffer record = buffer.duplicate();
+		record.position((int) offsets.get(index));
+		return read(record);
+	}
+	
+	/**
+	 * Reads a range of consecutive points.
+	 * 
+	 * @param fromIndex the position of the first point, inclusive
+	 * 
+	 * @param toIndex the position of the last point, exclusive
+	 * 
+	 * @return the points in file order
+	 * 
+	 * @throws IndexOutOfBoundsException if the range is not within 
+	 * [0, {@link #size()}] or fromIndex is greater than toIndex
+	 * 
+	 * @throws IllegalStateException if a record is malformed
+	 */
+	public List<SensorDataPoint> read(int fromIndex, int toIndex) {
+		if(fromIndex < 0 || toIndex > numberOfPoints || fromIndex > toIndex) {
+			throw new IndexOutOfBoundsException("[" + fromIndex + ", " + toIndex + ") is not in [0, " + numberOfPoints + ")");
+		}
+		
+		List<SensorDataPoint> points = new ArrayList<SensorDataPoint>(toIndex - fromIndex);
+		if(fromIndex == toIndex) {
+			return points;
+		}
+		
+		// Records are contiguous, so only the first one needs to be looked up
+		ByteBuffer record = buffer.duplicate();
+		record.position((int) offsets.get(fromIndex));
+		for(int i = fromIndex; i < toIndex; i++) {
+			points.add(read(record));
+		}
+		
+		return points;
+	}
+	
+	private SensorDataPoint read(ByteBuffer record) {
+		try {
+			UUID id = new UUID(record.getLong(), record.getLong());
+			double speed = record.getDouble();
+			DateTimeZone timezone = timezone(record.getInt());
+			long time = record.getLong();
+			
+			int numberOfAccessPoints = record.getInt();
+			if(numberOfAccessPoints < 0 || numberOfAccessPoints > record.remaining() / 12) {
+				throw new IllegalStateException("Malformed record at offset " + record.position());
+			}
+			List<AccessPoint> accessPoints = new ArrayList<AccessPoint>(numberOfAccessPoints);
+			for(int i = 0; i < numberOfAccessPoints; i++) {
+				accessPoints.add(new AccessPoint(dictionary[record.getInt()], record.getDouble()));
+			}
+			
+			int numberOfSamples = record.getInt();
+			if(numberOfSamples < 0 || numberOfSamples > record.remaining() / 24) {
+				throw new IllegalStateException("Malformed record at offset " + record.position());
+			}
+			double[] x = new double[numberOfSamples];
+			double[] y = new double[numberOfSamples];
+			double[] z = new double[numberOfSamples];
+			record.asDoubleBuffer().get(x).get(y).get(z);
+			record.position(record.position() + 24 * numberOfSamples);
+			
+			return new SensorDataPoint(id, speed, timezone, new WifiScan(time, accessPoints), AccelerometerData.wrap(x, y, z));
+		}
+		catch(BufferUnderflowException e) {
+			throw new IllegalStateException("Truncated record", e);
+		}
+		catch(ArrayIndexOutOfBoundsException e) {
+			throw new IllegalStateException("Malformed dictionary index", e);
+		}
+	}
+	
+	private DateTimeZone timezone(int dictionaryIndex) {
+		// Racing threads resolve the same zone, so no synchronization is needed
+		DateTimeZone timezone = timezones[dictionaryIndex];
+		
+		if(timezone == null) {
+			timezone = DateTimeZone.forID(dictionary[dictionaryIndex]);
+			timezones[dictionaryIndex] = timezone;
+		}
+		
+		return timezone;
+	}
+	
+	/**
+	 * Closes the file.
+	 */
+	public void close() throws IOException {
+		file.close();
+	}
+}
@@ -0,0 +1,251 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.io;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.openmhealth.dpu.mobilityclassifier.domain.AccelerometerData;
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+
+import edu.ucla.cens.mobilityclassifier.AccessPoint;
+import edu.ucla.cens.mobilityclassifier.WifiScan;
+
+/**
+ * Writes sequences of sensor data points in a compact binary format that can
+ * be read back with random access by {@link BinarySensorDataPointReader}. 
+ * All values are big-endian. A file consists of:
+ * 
+ * <ul>
+ * <li>A header: the magic number {@link #MAGIC} followed by a short 
+ * format version.</li>
+ * <li>One record per point: the id as two longs, the speed as a double, the
+ * timezone as an int dictionary index, the scan time as a long, the number 
+ * of access points as an int followed by an int SSID dictionary index and a
+ * double strength per access point, and the number of accelerometer samples
+ * as an int followed by all x, then all y, then all z values as 
+ * doubles.</li>
+ * <li>A footer: the number of dictionary strings as an int followed by each
+ * string in modified UTF-8 (see {@link java.io.DataOutput#writeUTF(String)}),
+ * then the number of points as an int followed by the long file offset of 
+ * each record.</li>
+ * <li>A trailer: the long file offset of the footer followed by 
+ * {@link #MAGIC}.</li>
+ * </ul>
+ * 
+ * SSIDs and timezone ids share one dictionary, so each distinct string is 
+ * stored once per file. Nothing is readable until {@link #close()} has 
+ * written the footer. Instances are not thread-safe.
+ */
+public class BinarySensorDataPointWriter implements Closeable {
+	/**
+	 * The magic number at the start and end of every file, "MCDP".
+	 */
+	public static final int MAGIC = 0x4D434450;
+	
+	/**
+	 * The version of the format written by this class.
+	 */
+	public static final short VERSION = 1;
+	
+	static final int HEADER_LENGTH = 6;
+	static final int TRAILER_LENGTH = 12;
+	
+	private final DataOutputStream out;
+	private final Map<String, Integer> dictionaryIndexes;
+	private final List<String> dictionary;
+	
+	private long[] offsets;
+	private int numberOfPoints;
+	private long position;
+	private boolean closed;
+	
+	/**
+	 * Creates a writer that creates or replaces a file.
+	 * 
+	 * @param file the file to write
+	 * 
+	 * @throws IOException if the file cannot be opened
+	 */
+	public BinarySensorDataPointWriter(final File file) throws IOException {
+		this(new FileOutputStream(file));
+	}
+	
+	/**
+	 * Creates a writer. The stream is buffered by the writer and closed by
+	 * {@link #close()}.
+	 * 
+	 * @param out the stream to write to
+	 * 
+	 * @throws IOException if the header cannot be written
+	 * 
+	 * @throws IllegalArgumentException if the provided stream is null
+	 */
+	public BinarySensorDataPointWriter(final OutputStream out) throws IOException {
+		if(out == null) {
+			throw new IllegalArgumentException("out is required");
+		}
+		
+		this.out = new DataOutputStream(new BufferedOutputStream(out, 65536));
+		this.dictionaryIndexes = new HashMap<String, Integer>();
+		this.dictionary = new ArrayList<String>();
+		this.offsets = new long[1024];
+		
+		this.out.writeInt(MAGIC);
+		this.out.writeShort(VERSION);
+		this.position = HEADER_LENGTH;
+	}
+	
+	/**
+	 * Appends a point.
+	 * 
+	 * @param point the point to write
+	 * 
+	 * @throws IOException if the point cannot be written
+	 * 
+	 * @throws IllegalArgumentException if the provided point is null
+	 * 
+	 * @throws IllegalStateException if the writer has been closed
+	 */
+	public void write(SensorDataPoint point) throws IOException {
+		if(point == null) {
+			throw new IllegalArgumentException("point is required");
+		}
+		if(closed) {
+			throw new IllegalStateException("The writer is closed");
+		}
+		
+		if(numberOfPoints == offsets.length) {
+			long[] newOffsets = new long[offsets.length * 2];
+			System.arraycopy(offsets, 0, newOffsets, 0, numberOfPoints);
+			offsets = newOffsets;
+		}
+		offsets[numberOfPoints++] = position;
+		
+		UUID id = point.getId();
+		WifiScan wifiScan = point.getWifiScan();
+		List<AccessPoint> accessPoints = wifiScan.getAccessPoints();
+		AccelerometerData accelerometerData = point.getAccelerometerData();
+		int numberOfAccessPoints = accessPoints.size();
+		int numberOfSamples = accelerometerData.size();
+		
+		out.writeLong(id.getMostSignificantBits());
+		out.writeLong(id.getLeastSignificantBits());
+		out.writeDouble(point.getSpeed());
+		out.writeInt(dictionaryIndex(point.getTimezone().getID()));
+		out.writeLong(wifiScan.getTime());
+		
+		out.writeInt(numberOfAccessPoints);
+		for(AccessPoint accessPoint : accessPoints) {
+			out.writeInt(dictionaryIndex(accessPoint.getSsid()));
+			out.writeDouble(accessPoint.getStrength());
+		}
+		
+		out.writeInt(numberOfSamples);
+		for(int i = 0; i < numberOfSamples; i++) {
+			out.writeDouble(accelerometerData.getX(i));
+		}
+		for(int i = 0; i < numberOfSamples; i++) {
+			out.writeDouble(accelerometerData.getY(i));
+		}
+		for(int i = 0; i < numberOfSamples; i++) {
+			out.writeDouble(accelerometerData.getZ(i));
+		}
+		
+		position += 44L + 12L * numberOfAccessPoints + 24L * numberOfSamples;
+	}
+	
+	/**
+	 * Appends points in list order.
+	 * 
+	 * @param points the points to write
+	 * 
+	 * @throws IOException if a point cannot be written
+	 * 
+	 * @throws IllegalArgumentException if the provided list is null or 
+	 * contains null
+	 */
+	public void write(List<SensorDataPoint> points) throws IOException {
+		if(points == null) {
+			throw new IllegalArgumentException("points is required");
+		}
+		
+		for(SensorDataPoint point : points) {
+			write(point);
+		}
+	}
+	
+	/**
+	 * @return the number of points written so far
+	 */
+	public int size() {
+		return numberOfPoints;
+	}
+	
+	private int dictionaryIndex(String value) {
+		Integer index = dictionaryIndexes.get(value);
+		
+		if(index == null) {
+			index = dictionary.size();
+			dictionary.add(value);
+			dictionaryIndexes.put(value, index);
+		}
+		
+		return index;
+	}
+	
+	/**
+	 * Writes the dictionary, the record index, and the trailer, then closes
+	 * the underlying stream.
+	 */
+	public void close() throws IOException {
+		if(closed) {
+			return;
+		}
+		closed = true;
+		
+		try {
+			long footerOffset = position;
+			
+			out.writeInt(dictionary.size());
+			for(String value : dictionary) {
+				out.writeUTF(value);
+			}
+			
+			out.writeInt(numberOfPoints);
+			for(int i = 0; i < numberOfPoints; i++) {
+				out.writeLong(offsets[i]);
+			}
+			
+			out.writeLong(footerOffset);
+			out.writeInt(MAGIC);
+			out.flush();
+		}
+		finally {
+			out.close();
+		}
+	}
+}
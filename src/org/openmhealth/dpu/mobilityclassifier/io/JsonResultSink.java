@@ -0,0 +1,283 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.io;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.UUID;
+
+import org.openmhealth.dpu.mobilityclassifier.domain.ClassifiedPoint;
+import org.openmhealth.dpu.mobilityclassifier.domain.Mode;
+import org.openmhealth.dpu.mobilityclassifier.domain.ResultDetail;
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+import org.openmhealth.dpu.mobilityclassifier.service.ResultSink;
+
+/**
+ * Writes classified points as JSON, either as newline-delimited JSON with one
+ * object per line or as a single JSON array. Each object contains the id, 
+ * the mode, the wifi mode if any, and optionally the average, variance, and
+ * FFT:
+ * 
+ * <pre>
+ * {"id":"...","mode":"walk","wifi_mode":"unknown","average":1.02,"variance":0.3,"fft":[...]}
+ * </pre>
+ * 
+ * Points are encoded directly into a reused byte buffer, which is written to
+ * the underlying stream or channel whenever it fills up and on 
+ * {@link #flush()}, so memory use does not grow with the number of points.
+ * Features are only written for points that kept them (see 
+ * {@link ResultDetail}). Non-finite numbers are written as null.
+ * 
+ * Instances are not thread-safe.
+ */
+public class JsonResultSink implements ResultSink, Flushable, Closeable {
+	private static final int BUFFER_SIZE = 8192;
+	// Large enough for any single value written at once
+	private static final int MAXIMUM_VALUE_LENGTH = 64;
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	
+	private final OutputStream out;
+	private final WritableByteChannel channel;
+	private final boolean ndjson;
+	private final boolean includeFeatures;
+	private final byte[] buffer;
+	private final ByteBuffer byteBuffer;
+	
+	private int position;
+	private int count;
+	private boolean closed;
+	
+	/**
+	 * Creates a sink that writes to a stream.
+	 * 
+	 * @param out the stream to write to
+	 * 
+	 * @param ndjson true to write one object per line, false to write a JSON
+	 * array
+	 * 
+	 * @param includeFeatures true to write the features of points that have
+	 * them
+	 * 
+	 * @throws IllegalArgumentException if the stream is null
+	 */
+	public JsonResultSink(final OutputStream out, final boolean ndjson, final boolean includeFeatures) {
+		this(out, null, ndjson, includeFeatures);
+		
+		if(out == null) {
+			throw new IllegalArgumentException("out is required");
+		}
+	}
+	
+	/**
+	 * Creates a sink that writes to a channel.
+	 * 
+	 * @param channel the channel to write to
+	 * 
+	 * @param ndjson true to write one object per line, false to write a JSON
+	 * array
+	 * 
+	 * @param includeFeatures true to write the features of points that have
+	 * them
+	 * 
+	 * @throws IllegalArgumentException if the channel is null
+	 */
+	public JsonResultSink(final WritableByteChannel channel, final boolean ndjson, final boolean includeFeatures) {
+		this(null, channel, ndjson, includeFeatures);
+		
+		if(channel == null) {
+			throw new IllegalArgumentException("channel is required");
+		}
+	}
+	
+	private JsonResultSink(final OutputStream out, final WritableByteChannel channel, final boolean ndjson, 
+			final boolean includeFeatures) {
+		
+		this.out = out;
+		this.channel = channel;
+		this.ndjson = ndjson;
+		this.includeFeatures = includeFeatures;
+		this.buffer = new byte[BUFFER_SIZE];
+		this.byteBuffer = ByteBuffer.wrap(buffer);
+	}
+	
+	/**
+	 * Encodes a classified point into the buffer.
+	 * 
+	 * @throws IllegalStateException if this sink has been closed
+	 */
+	public void accept(SensorDataPoint sensorDataPoint, ClassifiedPoint classifiedPoint) throws IOException {
+		if(closed) {
+			throw new IllegalStateException("The sink has been closed");
+		}
+		
+		if(! ndjson) {
+			writeAscii(count == 0 ? "[" : ",");
+		}
+		
+		writeAscii("{\"id\":\"");
+		writeUuid(classifiedPoint.getId());
+		writeAscii("\",\"mode\":");
+		writeMode(classifiedPoint.getMode());
+		
+		if(classifiedPoint.getWifiMode() != null) {
+			writeAscii(",\"wifi_mode\":");
+			writeMode(classifiedPoint.getWifiMode());
+		}
+		
+		if(includeFeatures && classifiedPoint.hasFeatures() && classifiedPoint.getResultDetail() != ResultDetail.MODE) {
+			writeAscii(",\"average\":");
+			writeDouble(classifiedPoint.getAverage());
+			writeAscii(",\"variance\":");
+			writeDouble(classifiedPoint.getVariance());
+			writeAscii(",\"fft\":[");
+			double[] fft = classifiedPoint.getFft();
+			for(int i = 0; i < fft.length; i++) {
+				if(i > 0) {
+					writeAscii(",");
+				}
+				writeDouble(fft[i]);
+			}
+			writeAscii("]");
+		}
+		
+		writeAscii(ndjson ? "}\n" : "}");
+		count++;
+	}
+	
+	/**
+	 * @return the number of points written
+	 */
+	public int getCount() {
+		return count;
+	}
+	
+	/**
+	 * Writes the buffered points to the underlying stream or channel and 
+	 * flushes the stream.
+	 */
+	public void flush() throws IOException {
+		drain();
+		if(out != null) {
+			out.flush();
+		}
+	}
+	
+	/**
+	 * Ends the JSON array if one is being written, flushes, and closes the 
+	 * underlying stream or channel.
+	 */
+	public void close() throws IOException {
+		if(closed) {
+			return;
+		}
+		
+		try {
+			if(! ndjson) {
+				writeAscii(count == 0 ? "[]" : "]");
+			}
+			flush();
+		}
+		finally {
+			closed = true;
+			if(out != null) {
+				out.close();
+			}
+			else {
+				channel.close();
+			}
+		}
+	}
+	
+	private void writeMode(Mode mode) throws IOException {
+		writeAscii("\"");
+		writeAscii(mode.getValue());
+		writeAscii("\"");
+	}
+	
+	private void writeDouble(double value) throws IOException {
+		if(Double.isNaN(value) || Double.isInfinite(value)) {
+			writeAscii("null");
+		}
+		else {
+			writeAscii(Double.toString(value));
+		}
+	}
+	
+	private void writeUuid(UUID uuid) throws IOException {
+		ensureCapacity(36);
+		writeHex(uuid.getMostSignificantBits() >>> 32, 8);
+		buffer[position++] = '-';
+		writeHex(uuid.getMostSignificantBits() >>> 16, 4);
+		buffer[position++] = '-';
+		writeHex(uuid.getMostSignificantBits(), 4);
+		buffer[position++] = '-';
+		writeHex(uuid.getLeastSignificantBits() >>> 48, 4);
+		buffer[position++] = '-';
+		writeHex(uuid.getLeastSignificantBits(), 12);
+	}
+	
+	private void writeHex(long value, int digits) {
+		for(int i = digits - 1; i >= 0; i--) {
+			buffer[position + i] = (byte) HEX[(int) (value & 0xf)];
+			value >>>= 4;
+		}
+		position += digits;
+	}
+	
+	/**
+	 * Copies a string that only contains ASCII characters into the buffer.
+	 */
+	private void writeAscii(String value) throws IOException {
+		int length = value.length();
+		ensureCapacity(length);
+		
+		for(int i = 0; i < length; i++) {
+			buffer[position++] = (byte) value.charAt(i);
+		}
+	}
+	
+	private void ensureCapacity(int length) throws IOException {
+		if(length > MAXIMUM_VALUE_LENGTH) {
+			throw new IllegalArgumentException("Cannot write a value of " + length + " characters");
+		}
+		if(position + length > buffer.length) {
+			drain();
+		}
+	}
+	
+	private void drain() throws IOException {
+		if(position == 0) {
+			return;
+		}
+		
+		if(out != null) {
+			out.write(buffer, 0, position);
+		}
+		else {
+			byteBuffer.clear();
+			byteBuffer.limit(position);
+			while(byteBuffer.hasRemaining()) {
+				channel.write(byteBuffer);
+			}
+		}
+		
+		position = 0;
+	}
+}
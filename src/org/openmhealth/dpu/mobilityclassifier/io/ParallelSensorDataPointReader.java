@@ -0,0 +1,393 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+
+/**
+ * Reads the same JSON array or NDJSON input as {@link SensorDataPointReader}
+ * but decodes points on several threads, for large batch files where parsing
+ * costs more than classification. Points are returned in input order, so 
+ * they can be classified by a single session:
+ * 
+ * <pre>
+ * ParallelSensorDataPointReader reader = new ParallelSensorDataPointReader(in, executorService, 256);
+ * session.classify(reader, resultSink);
+ * </pre>
+ * 
+ * The calling thread only splits the input into records. It scans the raw 
+ * bytes for the braces that open and close each top-level object, skipping
+ * braces inside strings; this is safe for UTF-8 because no byte of a 
+ * multi-byte character is an ASCII character. Each record is then parsed 
+ * with org.json and converted on the executor. At most 
+ * maximumPendingRecords records are scanned ahead of the point being 
+ * returned, which bounds memory and keeps every worker busy as long as the
+ * window is a few times the number of threads.
+ * 
+ * A syntax error between records is reported after all points before it 
+ * have been returned. The executor is not shut down. Instances are not 
+ * thread-safe.
+ */
+public class ParallelSensorDataPointReader implements Iterable<SensorDataPoint>, Closeable {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final int BUFFER_SIZE = 64 * 1024;
+	
+	private final InputStream in;
+	private final ExecutorService executorService;
+	private final int maximumPendingRecords;
+	private final ArrayDeque<Future<SensorDataPoint>> pending;
+	
+	private final byte[] buffer;
+	private int position;
+	private int limit;
+	private long bufferOffset;
+	
+	private byte[] record;
+	private int recordLength;
+	
+	private boolean started;
+	private boolean array;
+	private boolean scanned;
+	private JSONException scanFailure;
+	private boolean iterated;
+	
+	/**
+	 * Creates a reader for UTF-8 encoded JSON.
+	 * 
+	 * @param in the stream to read from
+	 * 
+	 * @param executorService the executor that decodes records
+	 * 
+	 * @param maximumPendingRecords the maximum number of records that are 
+	 * scanned ahead of the point being returned
+	 * 
+	 * @throws IllegalArgumentException if the stream or executor is null or
+	 * maximumPendingRecords is not positive
+	 */
+	public ParallelSensorDataPointReader(final InputStream in, final ExecutorService executorService, 
+			final int maximumPendingRecords) {
+		
+		if(in == null) {
+			throw new IllegalArgumentException("in is required");
+		}
+		if(executorService == null) {
+			throw new IllegalArgumentException("executorService is required");
+		}
+		if(maximumPendingRecords <= 0) {
+			throw new IllegalArgumentException("maximumPendingRecords must be positive");
+		}
+		
+		this.in = in;
+		this.executorService = executorService;
+		this.maximumPendingRecords = maximumPendingRecords;
+		this.pending = new ArrayDeque<Future<SensorDataPoint>>(maximumPendingRecords);
+		this.buffer = new byte[BUFFER_SIZE];
+		this.record = new byte[1024];
+	}
+	
+	/**
+	 * Reads the next point.
+	 * 
+	 * @return the next point or null if there are no more points
+	 * 
+	 * @throws JSONException if the input is malformed or cannot be read
+	 * 
+	 * @throws IllegalStateException if the calling thread is interrupted 
+	 * while waiting for a point to be decoded
+	 */
+	public SensorDataPoint read() throws JSONException {
+		fill();
+		
+		Future<SensorDataPoint> next = pending.poll();
+		if(next == null) {
+			if(scanFailure != null) {
+				throw scanFailure;
+			}
+			return null;
+		}
+		
+		try {
+			return next.get();
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for a point to be decoded", e);
+		}
+		catch(ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof JSONException) {
+				throw (JSONException) cause;
+			}
+			if(cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if(cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new JSONException(cause);
+		}
+	}
+	
+	/**
+	 * Scans and submits records until the window is full or the input ends.
+	 */
+	private void fill() {
+		while(! scanned && pending.size() < maximumPendingRecords) {
+			final byte[] bytes;
+			try {
+				bytes = nextRecord();
+			}
+			catch(JSONException e) {
+				scanFailure = e;
+				scanned = true;
+				break;
+			}
+			catch(IOException e) {
+				scanFailure = new JSONException(e);
+				scanned = true;
+				break;
+			}
+			
+			if(bytes == null) {
+				scanned = true;
+				break;
+			}
+			
+			pending.add(executorService.submit(new Callable<SensorDataPoint>() {
+				public SensorDataPoint call() throws JSONException {
+					return SensorDataPointReader.toSensorDataPoint(new JSONObject(new String(bytes, UTF_8)));
+				}
+			}));
+		}
+	}
+	
+	/**
+	 * Returns the bytes of the next top-level object, or null at the end of 
+	 * the input.
+	 */
+	private byte[] nextRecord() throws IOException, JSONException {
+		int c = nextClean();
+		
+		if(! started) {
+			started = true;
+			
+			if(c == '[') {
+				array = true;
+				c = nextClean();
+				if(c == ']') {
+					return finish();
+				}
+			}
+		}
+		else if(array) {
+			if(c == ']') {
+				return finish();
+			}
+			if(c != ',') {
+				throw syntaxError("Expected a ',' or ']'");
+			}
+			c = nextClean();
+		}
+		
+		if(c == -1) {
+			if(array) {
+				throw syntaxError("Expected a ']'");
+			}
+			return null;
+		}
+		if(c != '{') {
+			throw syntaxError("Expected a '{'");
+		}
+		
+		// The brace was just read from the current buffer
+		position--;
+		return scanObject();
+	}
+	
+	/**
+	 * Copies one object, starting at its opening brace, into a new array.
+	 */
+	private byte[] scanObject() throws IOException, JSONException {
+		recordLength = 0;
+		int depth = 0;
+		boolean inString = false;
+		boolean escaped = false;
+		
+		while(true) {
+			if(position == limit && ! refill()) {
+				throw syntaxError("Unterminated object");
+			}
+			
+			int start = position;
+			while(position < limit) {
+				byte b = buffer[position++];
+				
+				if(inString) {
+					if(escaped) {
+						escaped = false;
+					}
+					else if(b == '\\') {
+						escaped = true;
+					}
+					else if(b == '"') {
+						inString = false;
+					}
+				}
+				else if(b == '"') {
+					inString = true;
+				}
+				else if(b == '{' || b == '[') {
+					depth++;
+				}
+				else if((b == '}' || b == ']') && --depth == 0) {
+					append(start, position - start);
+					return Arrays.copyOf(record, recordLength);
+				}
+			}
+			
+			append(start, position - start);
+		}
+	}
+	
+	/**
+	 * Marks the end of a JSON array and checks that nothing follows it.
+	 */
+	private byte[] finish() throws IOException, JSONException {
+		if(nextClean() != -1) {
+			throw syntaxError("Unexpected content after the end of the array");
+		}
+		return null;
+	}
+	
+	/**
+	 * Returns the next byte that is not whitespace, or -1 at the end of the
+	 * input.
+	 */
+	private int nextClean() throws IOException {
+		while(true) {
+			if(position == limit && ! refill()) {
+				return -1;
+			}
+			
+			byte b = buffer[position++];
+			if(b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+				return b;
+			}
+		}
+	}
+	
+	private boolean refill() throws IOException {
+		bufferOffset += limit;
+		position = 0;
+		limit = 0;
+		
+		int read = in.read(buffer);
+		while(read == 0) {
+			read = in.read(buffer);
+		}
+		if(read < 0) {
+			return false;
+		}
+		
+		limit = read;
+		return true;
+	}
+	
+	private void append(int start, int length) {
+		if(recordLength + length > record.length) {
+			record = Arrays.copyOf(record, Math.max(recordLength + length, record.length * 2));
+		}
+		System.arraycopy(buffer, start, record, recordLength, length);
+		recordLength += length;
+	}
+	
+	private JSONException syntaxError(String message) {
+		return new JSONException(message + " at byte " + (bufferOffset + position - 1));
+	}
+	
+	/**
+	 * Returns an iterator over the remaining points. Because the input is 
+	 * consumed as it is read, this method may only be called once. The 
+	 * iterator wraps any JSONException in an IllegalStateException.
+	 * 
+	 * @throws IllegalStateException if this method has already been called
+	 */
+	public Iterator<SensorDataPoint> iterator() {
+		if(iterated) {
+			throw new IllegalStateException("A ParallelSensorDataPointReader may only be iterated once");
+		}
+		iterated = true;
+		
+		return new Iterator<SensorDataPoint>() {
+			private SensorDataPoint next;
+			
+			public boolean hasNext() {
+				if(next == null) {
+					try {
+						next = read();
+					}
+					catch(JSONException e) {
+						throw new IllegalStateException(e);
+					}
+				}
+				return next != null;
+			}
+			
+			public SensorDataPoint next() {
+				if(! hasNext()) {
+					throw new NoSuchElementException();
+				}
+				
+				SensorDataPoint point = next;
+				next = null;
+				return point;
+			}
+			
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+	
+	/**
+	 * Cancels any records still being decoded and closes the underlying 
+	 * stream.
+	 */
+	public void close() throws IOException {
+		for(Future<SensorDataPoint> future : pending) {
+			future.cancel(true);
+		}
+		pending.clear();
+		scanned = true;
+		
+		in.close();
+	}
+}
@@ -0,0 +1,258 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.io;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+
+import org.joda.time.DateTimeZone;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.openmhealth.dpu.mobilityclassifier.domain.AccelerometerData;
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+
+import edu.ucla.cens.mobilityclassifier.AccessPoint;
+import edu.ucla.cens.mobilityclassifier.WifiScan;
+
+/**
+ * Incrementally reads sensor data points stored as JSON in the format of 
+ * example.json. The input may either be a single JSON array of points or
+ * newline-delimited JSON (NDJSON) with one point per line; the format is 
+ * detected from the first character. Only one point is held in memory at a
+ * time, so arbitrarily large inputs may be classified with bounded memory:
+ * 
+ * <pre>
+ * ClassificationSession session = new ClassificationSession();
+ * for(SensorDataPoint point : reader) {
+ *     ClassifiedPoint classifiedPoint = session.classify(point);
+ *     ...
+ * }
+ * </pre>
+ * 
+ * Each point is a JSON object with the keys accel_data (an array of objects
+ * with x, y, and z), speed, and wifi_data (an object with timezone, time, and
+ * scan, an array of objects with ssid and strength). An optional id key 
+ * containing a UUID is used as the point's id, otherwise a random UUID is 
+ * generated.
+ * 
+ * Instances are not thread-safe.
+ */
+public class SensorDataPointReader implements Iterable<SensorDataPoint>, Closeable {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	
+	private final Reader reader;
+	private final JSONTokener tokener;
+	
+	private boolean started;
+	private boolean array;
+	private boolean finished;
+	private boolean iterated;
+	
+	/**
+	 * Creates a reader for UTF-8 encoded JSON.
+	 * 
+	 * @param in the stream to read from
+	 * 
+	 * @throws IllegalArgumentException if the provided stream is null
+	 */
+	public SensorDataPointReader(final InputStream in) {
+		this(in == null ? null : new InputStreamReader(in, UTF_8));
+	}
+	
+	/**
+	 * Creates a reader for JSON.
+	 * 
+	 * @param reader the characters to read from
+	 * 
+	 * @throws IllegalArgumentException if the provided reader is null
+	 */
+	public SensorDataPointReader(final Reader reader) {
+		if(reader == null) {
+			throw new IllegalArgumentException("reader is required");
+		}
+		
+		this.reader = reader instanceof BufferedReader ? reader : new BufferedReader(reader);
+		this.tokener = new JSONTokener(this.reader);
+	}
+	
+	/**
+	 * Reads the next point.
+	 * 
+	 * @return the next point or null if there are no more points
+	 * 
+	 * @throws JSONException if the input is malformed or cannot be read
+	 */
+	public SensorDataPoint read() throws JSONException {
+		if(finished) {
+			return null;
+		}
+		
+		char c = tokener.nextClean();
+		
+		if(! started) {
+			started = true;
+			
+			if(c == '[') {
+				array = true;
+				c = tokener.nextClean();
+				if(c == ']') {
+					return finish();
+				}
+			}
+		}
+		else if(array) {
+			if(c == ']') {
+				return finish();
+			}
+			if(c != ',') {
+				throw tokener.syntaxError("Expected a ',' or ']'");
+			}
+			c = tokener.nextClean();
+		}
+		
+		if(c == 0) {
+			if(array) {
+				throw tokener.syntaxError("Expected a ']'");
+			}
+			finished = true;
+			return null;
+		}
+		if(c != '{') {
+			throw tokener.syntaxError("Expected a '{'");
+		}
+		
+		tokener.back();
+		return toSensorDataPoint(new JSONObject(tokener));
+	}
+	
+	/**
+	 * Marks the end of a JSON array and checks that nothing follows it.
+	 */
+	private SensorDataPoint finish() throws JSONException {
+		finished = true;
+		
+		if(tokener.nextClean() != 0) {
+			throw tokener.syntaxError("Unexpected content after the end of the array");
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Returns an iterator over the remaining points. Because the input is 
+	 * consumed as it is read, this method may only be called once. The 
+	 * iterator wraps any JSONException in an IllegalStateException.
+	 * 
+	 * @throws IllegalStateException if this method has already been called
+	 */
+	public Iterator<SensorDataPoint> iterator() {
+		if(iterated) {
+			throw new IllegalStateException("A SensorDataPointReader may only be iterated once");
+		}
+		iterated = true;
+		
+		return new Iterator<SensorDataPoint>() {
+			private SensorDataPoint next;
+			
+			public boolean hasNext() {
+				if(next == null) {
+					try {
+						next = read();
+					}
+					catch(JSONException e) {
+						throw new IllegalStateException(e);
+					}
+				}
+				return next != null;
+			}
+			
+			public SensorDataPoint next() {
+				if(! hasNext()) {
+					throw new NoSuchElementException();
+				}
+				
+				SensorDataPoint point = next;
+				next = null;
+				return point;
+			}
+			
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+	
+	/**
+	 * Closes the underlying reader.
+	 */
+	public void close() throws IOException {
+		reader.close();
+	}
+	
+	/**
+	 * Converts a single JSON point into a SensorDataPoint backed by columnar
+	 * accelerometer data.
+	 * 
+	 * @param object the JSON representation of a point
+	 * 
+	 * @return the point
+	 * 
+	 * @throws JSONException if a required key is missing or malformed
+	 */
+	public static SensorDataPoint toSensorDataPoint(JSONObject object) throws JSONException {
+		JSONArray accelDataArray = object.getJSONArray("accel_data");
+		int numberOfAccelPoints = accelDataArray.length();
+		double[] x = new double[numberOfAccelPoints];
+		double[] y = new double[numberOfAccelPoints];
+		double[] z = new double[numberOfAccelPoints];
+		
+		for(int j = 0; j < numberOfAccelPoints; j++) {
+			JSONObject accelObject = accelDataArray.getJSONObject(j);
+			x[j] = accelObject.getDouble("x");
+			y[j] = accelObject.getDouble("y");
+			z[j] = accelObject.getDouble("z");
+		}
+		
+		double speed = object.getDouble("speed");
+		JSONObject wifiObject = object.getJSONObject("wifi_data");
+		DateTimeZone timezone = DateTimeZone.forID(wifiObject.getString("timezone"));
+		long time = wifiObject.getLong("time");
+		JSONArray scanArray = wifiObject.getJSONArray("scan");
+		int numberOfScans = scanArray.length();
+		List<AccessPoint> accessPoints = new ArrayList<AccessPoint>(numberOfScans);
+		
+		for(int k = 0; k < numberOfScans; k++) {
+			JSONObject scanObject = scanArray.getJSONObject(k);
+			accessPoints.add(new AccessPoint(scanObject.getString("ssid"), scanObject.getInt("strength")));
+		}
+		
+		UUID id = object.has("id") ? UUID.fromString(object.getString("id")) : UUID.randomUUID();
+		
+		return new SensorDataPoint(id, speed, timezone, new WifiScan(time, accessPoints), AccelerometerData.wrap(x, y, z));
+	}
+}
@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.metrics;
+
+import edu.ucla.cens.mobilityclassifier.Classification;
+
+/**
+ * Receives measurements from the classification pipeline. Implementations 
+ * must be thread-safe because a single instance is normally shared by every
+ * ClassificationSession.
+ * 
+ * Callers only take timestamps when {@link #isEnabled()} returns true, so a
+ * disabled implementation such as {@link NoOpClassificationMetrics} costs a
+ * single method call per point.
+ * 
+ * @see org.openmhealth.dpu.mobilityclassifier.service.ClassificationService#setMetrics(ClassificationMetrics)
+ */
+public interface ClassificationMetrics {
+	
+	/**
+	 * @return true if the pipeline should time and record its work
+	 */
+	boolean isEnabled();
+	
+	/**
+	 * Records the classification of a single point.
+	 * 
+	 * @param classification the result, which must not be modified
+	 * 
+	 * @param cached true if the result was served from a ClassificationCache
+	 * 
+	 * @param wifiOverride true if the wifi comparison replaced the still or 
+	 * drive mode given by the accelerometer features and speed
+	 * 
+	 * @param classificationNanos the time spent obtaining the classification,
+	 * i.e., feature extraction and wifi comparison or the cache lookup
+	 * 
+	 * @param resultNanos the time spent building the result
+	 */
+	void recordPoint(Classification classification, boolean cached, boolean wifiOverride, long classificationNanos, long resultNanos);
+	
+	/**
+	 * Records the classification of a list of points. Each point is also 
+	 * recorded individually.
+	 * 
+	 * @param numberOfPoints the size of the list
+	 * 
+	 * @param validationNanos the time spent validating the list
+	 * 
+	 * @param elapsedNanos the total time spent classifying the list
+	 */
+	void recordBatch(int numberOfPoints, long validationNanos, long elapsedNanos);
+}
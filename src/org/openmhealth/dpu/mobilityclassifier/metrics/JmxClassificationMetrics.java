@@ -0,0 +1,287 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.openmhealth.dpu.mobilityclassifier.domain.Mode;
+
+import edu.ucla.cens.mobilityclassifier.Classification;
+
+/**
+ * Metrics kept in lock-free counters and histograms and exposed as a JMX 
+ * MBean:
+ * 
+ * <pre>
+ * JmxClassificationMetrics metrics = new JmxClassificationMetrics();
+ * metrics.register();
+ * ClassificationService.setMetrics(metrics);
+ * </pre>
+ */
+public class JmxClassificationMetrics implements ClassificationMetrics, JmxClassificationMetricsMBean {
+	/**
+	 * The name the metrics are registered under by {@link #register()}.
+	 */
+	public static final String DEFAULT_OBJECT_NAME = "org.openmhealth.dpu.mobilityclassifier:type=ClassificationMetrics";
+	
+	private final AtomicLong[] modeCounts;
+	private final AtomicLong cachedPoints;
+	private final AtomicLong wifiModeOverrides;
+	private final AtomicLong validationNanos;
+	private final AtomicLong classificationNanos;
+	private final AtomicLong resultNanos;
+	private final AtomicLong maxBatchSize;
+	private final AtomicLong batchedPoints;
+	private final LatencyHistogram pointLatencies;
+	private final LatencyHistogram batchLatencies;
+	
+	private volatile boolean enabled;
+	private ObjectName objectName;
+	
+	/**
+	 * Creates enabled metrics.
+	 */
+	public JmxClassificationMetrics() {
+		this.modeCounts = new AtomicLong[Mode.values().length];
+		for(int i = 0; i < modeCounts.length; i++) {
+			modeCounts[i] = new AtomicLong();
+		}
+		this.cachedPoints = new AtomicLong();
+		this.wifiModeOverrides = new AtomicLong();
+		this.validationNanos = new AtomicLong();
+		this.classificationNanos = new AtomicLong();
+		this.resultNanos = new AtomicLong();
+		this.maxBatchSize = new AtomicLong();
+		this.batchedPoints = new AtomicLong();
+		this.pointLatencies = new LatencyHistogram();
+		this.batchLatencies = new LatencyHistogram();
+		this.enabled = true;
+	}
+	
+	/**
+	 * Registers these metrics with the platform MBean server under 
+	 * {@link #DEFAULT_OBJECT_NAME}.
+	 * 
+	 * @throws JMException if the metrics cannot be registered, e.g., because
+	 * other metrics are already registered under the same name
+	 */
+	public void register() throws JMException {
+		register(new ObjectName(DEFAULT_OBJECT_NAME));
+	}
+	
+	/**
+	 * Registers these metrics with the platform MBean server.
+	 * 
+	 * @param objectName the name to register under
+	 * 
+	 * @throws JMException if the metrics cannot be registered
+	 */
+	public synchronized void register(ObjectName objectName) throws JMException {
+		if(objectName == null) {
+			throw new IllegalArgumentException("objectName is required");
+		}
+		if(this.objectName != null) {
+			throw new IllegalStateException("Already registered as " + this.objectName);
+		}
+		
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		this.objectName = objectName;
+	}
+	
+	/**
+	 * Unregisters these metrics if they are registered.
+	 * 
+	 * @throws JMException if the metrics cannot be unregistered
+	 */
+	public synchronized void unregister() throws JMException {
+		if(objectName != null) {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if(server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+			objectName = null;
+		}
+	}
+	
+	public boolean isEnabled() {
+		return enabled;
+	}
+	
+	/**
+	 * Pauses or resumes recording without unregistering.
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+	
+	public void recordPoint(Classification classification, boolean cached, boolean wifiOverride, 
+			long classificationNanos, long resultNanos) {
+		
+		modeCounts[modeIndex(classification.getMode())].incrementAndGet();
+		if(cached) {
+			cachedPoints.incrementAndGet();
+		}
+		if(wifiOverride) {
+			wifiModeOverrides.incrementAndGet();
+		}
+		
+		this.classificationNanos.addAndGet(classificationNanos);
+		this.resultNanos.addAndGet(resultNanos);
+		pointLatencies.record(classificationNanos + resultNanos);
+	}
+	
+	public void recordBatch(int numberOfPoints, long validationNanos, long elapsedNanos) {
+		this.validationNanos.addAndGet(validationNanos);
+		batchedPoints.addAndGet(numberOfPoints);
+		batchLatencies.record(elapsedNanos);
+		
+		long currentMax = maxBatchSize.get();
+		while(numberOfPoints > currentMax && ! maxBatchSize.compareAndSet(currentMax, numberOfPoints)) {
+			currentMax = maxBatchSize.get();
+		}
+	}
+	
+	/**
+	 * Returns the counter of a mode, mapped as ClassifiedPoint maps it. A 
+	 * missing mode, which neither classifier produces, counts as unknown.
+	 */
+	private static int modeIndex(String mode) {
+		return mode == null ? Mode.UNKNOWN.ordinal() : Mode.forClassifierValue(mode).ordinal();
+	}
+	
+	public long getPointsClassified() {
+		return pointLatencies.getCount();
+	}
+	
+	public long getCachedPoints() {
+		return cachedPoints.get();
+	}
+	
+	public long getBatchesClassified() {
+		return batchLatencies.getCount();
+	}
+	
+	public double getMeanBatchSize() {
+		long batches = batchLatencies.getCount();
+		return batches == 0 ? 0.0D : (double) batchedPoints.get() / batches;
+	}
+	
+	public long getMaxBatchSize() {
+		return maxBatchSize.get();
+	}
+	
+	public long getStillCount() {
+		return modeCounts[Mode.STILL.ordinal()].get();
+	}
+	
+	public long getWalkCount() {
+		return modeCounts[Mode.WALK.ordinal()].get();
+	}
+	
+	public long getRunCount() {
+		return modeCounts[Mode.RUN.ordinal()].get();
+	}
+	
+	public long getDriveCount() {
+		return modeCounts[Mode.DRIVE.ordinal()].get();
+	}
+	
+	public long getUnknownCount() {
+		return modeCounts[Mode.UNKNOWN.ordinal()].get();
+	}
+	
+	public long getWifiModeOverrides() {
+		return wifiModeOverrides.get();
+	}
+	
+	public long getValidationNanos() {
+		return validationNanos.get();
+	}
+	
+	public long getClassificationNanos() {
+		return classificationNanos.get();
+	}
+	
+	public long getResultNanos() {
+		return resultNanos.get();
+	}
+	
+	public double getMeanPointLatency() {
+		return pointLatencies.getMean();
+	}
+	
+	public long getPointLatency50thPercentile() {
+		return pointLatencies.getQuantile(0.5D);
+	}
+	
+	public long getPointLatency99thPercentile() {
+		return pointLatencies.getQuantile(0.99D);
+	}
+	
+	public long getMaxPointLatency() {
+		return pointLatencies.getMax();
+	}
+	
+	public double getMeanBatchLatency() {
+		return batchLatencies.getMean();
+	}
+	
+	public long getBatchLatency50thPercentile() {
+		return batchLatencies.getQuantile(0.5D);
+	}
+	
+	public long getBatchLatency99thPercentile() {
+		return batchLatencies.getQuantile(0.99D);
+	}
+	
+	public long getMaxBatchLatency() {
+		return batchLatencies.getMax();
+	}
+	
+	/**
+	 * @return the per-point latency histogram
+	 */
+	public LatencyHistogram getPointLatencies() {
+		return pointLatencies;
+	}
+	
+	/**
+	 * @return the per-batch latency histogram
+	 */
+	public LatencyHistogram getBatchLatencies() {
+		return batchLatencies;
+	}
+	
+	public void reset() {
+		for(AtomicLong modeCount : modeCounts) {
+			modeCount.set(0);
+		}
+		cachedPoints.set(0);
+		wifiModeOverrides.set(0);
+		validationNanos.set(0);
+		classificationNanos.set(0);
+		resultNanos.set(0);
+		maxBatchSize.set(0);
+		batchedPoints.set(0);
+		pointLatencies.reset();
+		batchLatencies.reset();
+	}
+}
@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.metrics;
+
+/**
+ * The JMX management interface of {@link JmxClassificationMetrics}. Latencies
+ * are in nanoseconds.
+ */
+public interface JmxClassificationMetricsMBean {
+	
+	long getPointsClassified();
+	
+	long getCachedPoints();
+	
+	long getBatchesClassified();
+	
+	double getMeanBatchSize();
+	
+	long getMaxBatchSize();
+	
+	long getStillCount();
+	
+	long getWalkCount();
+	
+	long getRunCount();
+	
+	long getDriveCount();
+	
+	long getUnknownCount();
+	
+	long getWifiModeOverrides();
+	
+	long getValidationNanos();
+	
+	long getClassificationNanos();
+	
+	long getResultNanos();
+	
+	double getMeanPointLatency();
+	
+	long getPointLatency50thPercentile();
+	
+	long getPointLatency99thPercentile();
+	
+	long getMaxPointLatency();
+	
+	double getMeanBatchLatency();
+	
+	long getBatchLatency50thPercentile();
+	
+	long getBatchLatency99thPercentile();
+	
+	long getMaxBatchLatency();
+	
+	void reset();
+}
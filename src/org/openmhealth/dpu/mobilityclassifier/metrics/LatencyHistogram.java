@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non-negative values, typically latencies in 
+ * nanoseconds. Values are counted in power-of-two buckets, so percentiles are
+ * reported as the upper bound of the bucket they fall in and are accurate to
+ * within a factor of two. Recording a value is a few atomic increments and 
+ * does not allocate.
+ */
+public class LatencyHistogram {
+	private static final int NUMBER_OF_BUCKETS = 64;
+	
+	private final AtomicLongArray buckets;
+	private final AtomicLong count;
+	private final AtomicLong sum;
+	private final AtomicLong max;
+	
+	public LatencyHistogram() {
+		this.buckets = new AtomicLongArray(NUMBER_OF_BUCKETS);
+		this.count = new AtomicLong();
+		this.sum = new AtomicLong();
+		this.max = new AtomicLong();
+	}
+	
+	/**
+	 * Records a value. Negative values are recorded as zero.
+	 * 
+	 * @param value the value to record
+	 */
+	public void record(long value) {
+		if(value < 0) {
+			value = 0;
+		}
+		
+		// Bucket b holds values in [2^(b-1), 2^b), bucket 0 holds zero
+		buckets.incrementAndGet(NUMBER_OF_BUCKETS - Long.numberOfLeadingZeros(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		
+		long currentMax = max.get();
+		while(value > currentMax && ! max.compareAndSet(currentMax, value)) {
+			currentMax = max.get();
+		}
+	}
+	
+	public long getCount() {
+		return count.get();
+	}
+	
+	public long getSum() {
+		return sum.get();
+	}
+	
+	public long getMax() {
+		return max.get();
+	}
+	
+	/**
+	 * @return the mean of all values recorded, or zero if none were
+	 */
+	public double getMean() {
+		long n = count.get();
+		return n == 0 ? 0.0D : (double) sum.get() / n;
+	}
+	
+	/**
+	 * Returns an upper bound for the value below which the provided fraction
+	 * of recorded values fall.
+	 * 
+	 * @param quantile a fraction between 0 and 1, e.g., 0.99
+	 * 
+	 * @return the upper bound of the bucket containing the quantile, or zero 
+	 * if no values have been recorded
+	 * 
+	 * @throws IllegalArgumentException if the quantile is not in [0, 1]
+	 */
+	public long getQuantile(double quantile) {
+		if(! (quantile >= 0.0D && quantile <= 1.0D)) {
+			throw new IllegalArgumentException("quantile must be between 0 and 1");
+		}
+		
+		long total = 0;
+		long[] counts = new long[NUMBER_OF_BUCKETS];
+		for(int i = 0; i < NUMBER_OF_BUCKETS; i++) {
+			counts[i] = buckets.get(i);
+			total += counts[i];
+		}
+		if(total == 0) {
+			return 0;
+		}
+		
+		long rank = (long) Math.ceil(quantile * total);
+		long seen = 0;
+		for(int i = 0; i < NUMBER_OF_BUCKETS; i++) {
+			seen += counts[i];
+			if(seen >= rank && counts[i] > 0) {
+				return Math.min((1L << i) - 1, max.get());
+			}
+		}
+		return max.get();
+	}
+	
+	/**
+	 * Forgets all recorded values. Values recorded concurrently with a reset
+	 * may be partially kept.
+	 */
+	public void reset() {
+		for(int i = 0; i < NUMBER_OF_BUCKETS; i++) {
+			buckets.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+	
+	@Override
+	public String toString() {
+		return "LatencyHistogram [count=" + getCount() + ", mean=" + getMean() + ", p50=" + getQuantile(0.5D) 
+				+ ", p99=" + getQuantile(0.99D) + ", max=" + getMax() + "]";
+	}
+}
@@ -0,0 +1,44 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.metrics;
+
+import edu.ucla.cens.mobilityclassifier.Classification;
+
+/**
+ * Metrics that are never recorded. This is the default.
+ */
+public final class NoOpClassificationMetrics implements ClassificationMetrics {
+	/**
+	 * The only instance.
+	 */
+	public static final NoOpClassificationMetrics INSTANCE = new NoOpClassificationMetrics();
+	
+	private NoOpClassificationMetrics() {
+		
+	}
+	
+	public boolean isEnabled() {
+		return false;
+	}
+	
+	public void recordPoint(Classification classification, boolean cached, boolean wifiOverride, long classificationNanos, long resultNanos) {
+		
+	}
+	
+	public void recordBatch(int numberOfPoints, long validationNanos, long elapsedNanos) {
+		
+	}
+}
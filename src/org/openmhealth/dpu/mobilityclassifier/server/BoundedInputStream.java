@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.server;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream that fails once more than a maximum number of bytes have
+ * been read, so an oversized request body is rejected without being 
+ * buffered.
+ */
+class BoundedInputStream extends FilterInputStream {
+	private final long maximumBytes;
+	private long bytesRead;
+	
+	BoundedInputStream(final InputStream in, final long maximumBytes) {
+		super(in);
+		this.maximumBytes = maximumBytes;
+	}
+	
+	@Override
+	public int read() throws IOException {
+		int b = super.read();
+		if(b != -1) {
+			count(1);
+		}
+		return b;
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int n = super.read(b, off, len);
+		if(n > 0) {
+			count(n);
+		}
+		return n;
+	}
+	
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = super.skip(n);
+		count(skipped);
+		return skipped;
+	}
+	
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+	
+	private void count(long n) throws LimitExceededException {
+		bytesRead += n;
+		if(bytesRead > maximumBytes) {
+			throw new LimitExceededException(maximumBytes);
+		}
+	}
+	
+	/**
+	 * Thrown when more than the maximum number of bytes have been read.
+	 */
+	static class LimitExceededException extends IOException {
+		private static final long serialVersionUID = 1L;
+		
+		LimitExceededException(long maximumBytes) {
+			super("The request body is larger than " + maximumBytes + " bytes");
+		}
+	}
+}
@@ -0,0 +1,327 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openmhealth.dpu.mobilityclassifier.domain.ClassifiedPoint;
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+import org.openmhealth.dpu.mobilityclassifier.io.JsonResultSink;
+import org.openmhealth.dpu.mobilityclassifier.io.SensorDataPointReader;
+import org.openmhealth.dpu.mobilityclassifier.service.ClassificationSession;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A standalone HTTP server that classifies mobility points, so one warm JVM 
+ * can serve many clients. To run it:
+ * 
+ * <pre>
+ * java -cp dist/...:lib/... org.openmhealth.dpu.mobilityclassifier.server.ClassificationServer [port]
+ * </pre>
+ * 
+ * Clients POST a JSON array or newline-delimited JSON of points in the format
+ * of example.json to /classify. Each request is one stream and is classified
+ * with its own session. The response is newline-delimited JSON with one 
+ * object per classified point, in request order, sent with chunked encoding.
+ * Connections are kept alive between requests.
+ * 
+ * Requests with at most maximumBatchPoints points are coalesced with other 
+ * small requests that arrive within batchWindowMillis and classified 
+ * together. Larger requests are classified as they are read and each result
+ * is flushed as soon as it is produced. If such a request turns out to be 
+ * malformed or too large after results have been sent, the response ends 
+ * with an object containing only an error key.
+ * 
+ * Bodies larger than maximumRequestBytes are rejected with 413, malformed 
+ * bodies with 400.
+ */
+public class ClassificationServer {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final String CONTENT_TYPE = "application/x-ndjson; charset=utf-8";
+	
+	public static final int DEFAULT_PORT = 8080;
+	public static final long DEFAULT_MAXIMUM_REQUEST_BYTES = 64L * 1024 * 1024;
+	public static final long DEFAULT_BATCH_WINDOW_MILLIS = 2;
+	public static final int DEFAULT_MAXIMUM_BATCH_POINTS = 256;
+	
+	private final HttpServer httpServer;
+	private final ExecutorService workerPool;
+	private final ExecutorService classificationPool;
+	private final RequestBatcher batcher;
+	private final long maximumRequestBytes;
+	private final int maximumBatchPoints;
+	
+	/**
+	 * Creates a server. It does not accept connections until it is started.
+	 * 
+	 * @param address the address to listen on
+	 * 
+	 * @param workerThreads the number of threads reading requests and 
+	 * writing responses
+	 * 
+	 * @param maximumRequestBytes the largest request body accepted
+	 * 
+	 * @param batchWindowMillis how long a small request may wait to be 
+	 * coalesced with others
+	 * 
+	 * @param maximumBatchPoints the largest request that is coalesced, and 
+	 * the most points coalesced into one batch
+	 * 
+	 * @throws IllegalArgumentException if the address is null or any limit
+	 * is not positive
+	 * 
+	 * @throws IOException if the address cannot be bound
+	 */
+	public ClassificationServer(final InetSocketAddress address, final int workerThreads, final long maximumRequestBytes,
+			final long batchWindowMillis, final int maximumBatchPoints) throws IOException {
+		
+		if(address == null) {
+			throw new IllegalArgumentException("address is required");
+		}
+		if(workerThreads <= 0) {
+			throw new IllegalArgumentException("workerThreads must be positive");
+		}
+		if(maximumRequestBytes <= 0) {
+			throw new IllegalArgumentException("maximumRequestBytes must be positive");
+		}
+		if(batchWindowMillis < 0) {
+			throw new IllegalArgumentException("batchWindowMillis must not be negative");
+		}
+		if(maximumBatchPoints <= 0) {
+			throw new IllegalArgumentException("maximumBatchPoints must be positive");
+		}
+		
+		this.maximumRequestBytes = maximumRequestBytes;
+		this.maximumBatchPoints = maximumBatchPoints;
+		this.workerPool = Executors.newFixedThreadPool(workerThreads, new NamedThreadFactory("mobility-server-worker"));
+		this.classificationPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), 
+				new NamedThreadFactory("mobility-server-classifier"));
+		this.batcher = new RequestBatcher(classificationPool, batchWindowMillis, maximumBatchPoints);
+		
+		this.httpServer = HttpServer.create(address, 0);
+		this.httpServer.setExecutor(workerPool);
+		this.httpServer.createContext("/classify", new ClassifyHandler());
+	}
+	
+	/**
+	 * Starts accepting connections.
+	 */
+	public void start() {
+		httpServer.start();
+	}
+	
+	/**
+	 * Stops the server, waiting up to the provided number of seconds for 
+	 * in-flight requests to finish.
+	 * 
+	 * @param delaySeconds the maximum time to wait
+	 */
+	public void stop(int delaySeconds) {
+		httpServer.stop(delaySeconds);
+		batcher.stop();
+		workerPool.shutdownNow();
+		classificationPool.shutdownNow();
+	}
+	
+	/**
+	 * @return the address the server is bound to
+	 */
+	public InetSocketAddress getAddress() {
+		return httpServer.getAddress();
+	}
+	
+	/**
+	 * Runs a server on the port given as the first argument or 8080. The 
+	 * system properties mobility.server.workers, 
+	 * mobility.server.maximumRequestBytes, mobility.server.batchWindowMillis,
+	 * and mobility.server.maximumBatchPoints override the defaults.
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		int workers = Integer.getInteger("mobility.server.workers", 2 * Runtime.getRuntime().availableProcessors());
+		long maximumRequestBytes = Long.getLong("mobility.server.maximumRequestBytes", DEFAULT_MAXIMUM_REQUEST_BYTES);
+		long batchWindowMillis = Long.getLong("mobility.server.batchWindowMillis", DEFAULT_BATCH_WINDOW_MILLIS);
+		int maximumBatchPoints = Integer.getInteger("mobility.server.maximumBatchPoints", DEFAULT_MAXIMUM_BATCH_POINTS);
+		
+		ClassificationServer server = new ClassificationServer(new InetSocketAddress(port), workers, maximumRequestBytes,
+				batchWindowMillis, maximumBatchPoints);
+		server.start();
+		System.out.println("Classifying at http://" + server.getAddress().getHostName() + ":" + server.getAddress().getPort() + "/classify");
+	}
+	
+	private final class ClassifyHandler implements HttpHandler {
+		
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				if(! "POST".equals(exchange.getRequestMethod())) {
+					exchange.getResponseHeaders().set("Allow", "POST");
+					sendError(exchange, 405, "Only POST is supported");
+					return;
+				}
+				
+				String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+				if(contentLength != null) {
+					try {
+						if(Long.parseLong(contentLength) > maximumRequestBytes) {
+							sendError(exchange, 413, "The request body is larger than " + maximumRequestBytes + " bytes");
+							return;
+						}
+					}
+					catch(NumberFormatException e) {
+						sendError(exchange, 400, "Invalid Content-Length");
+						return;
+					}
+				}
+				
+				classify(exchange);
+			}
+			finally {
+				exchange.close();
+			}
+		}
+		
+		private void classify(HttpExchange exchange) throws IOException {
+			SensorDataPointReader reader = 
+				new SensorDataPointReader(new BoundedInputStream(exchange.getRequestBody(), maximumRequestBytes));
+			List<SensorDataPoint> sensorDataPoints = new ArrayList<SensorDataPoint>();
+			boolean complete = false;
+			
+			// Read up to a batch worth of points to decide whether the 
+			// request is small enough to be coalesced
+			try {
+				while(sensorDataPoints.size() <= maximumBatchPoints) {
+					SensorDataPoint sensorDataPoint = reader.read();
+					if(sensorDataPoint == null) {
+						complete = true;
+						break;
+					}
+					sensorDataPoints.add(sensorDataPoint);
+				}
+			}
+			catch(JSONException e) {
+				sendError(exchange, e.getCause() instanceof BoundedInputStream.LimitExceededException ? 413 : 400, e.getMessage());
+				return;
+			}
+			catch(IllegalArgumentException e) {
+				sendError(exchange, 400, e.getMessage());
+				return;
+			}
+			
+			if(complete) {
+				List<ClassifiedPoint> classifiedPoints;
+				try {
+					classifiedPoints = batcher.classify(sensorDataPoints);
+				}
+				catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					sendError(exchange, 503, "The server is stopping");
+					return;
+				}
+				catch(RuntimeException e) {
+					sendError(exchange, 500, String.valueOf(e.getMessage()));
+					return;
+				}
+				
+				JsonResultSink sink = startResponse(exchange);
+				for(int i = 0; i < classifiedPoints.size(); i++) {
+					sink.accept(sensorDataPoints.get(i), classifiedPoints.get(i));
+				}
+				sink.flush();
+				return;
+			}
+			
+			JsonResultSink sink = startResponse(exchange);
+			ClassificationSession session = new ClassificationSession();
+			
+			// The status has been sent, so failures from here on are reported
+			// by a trailing error object
+			String error = null;
+			try {
+				for(SensorDataPoint sensorDataPoint : sensorDataPoints) {
+					sink.accept(sensorDataPoint, session.classify(sensorDataPoint));
+				}
+				sink.flush();
+				
+				SensorDataPoint sensorDataPoint = reader.read();
+				while(sensorDataPoint != null) {
+					sink.accept(sensorDataPoint, session.classify(sensorDataPoint));
+					sink.flush();
+					sensorDataPoint = reader.read();
+				}
+			}
+			catch(JSONException e) {
+				error = e.getMessage();
+			}
+			catch(RuntimeException e) {
+				error = String.valueOf(e.getMessage());
+			}
+			
+			if(error != null) {
+				OutputStream out = exchange.getResponseBody();
+				out.write((error(error) + "\n").getBytes(UTF_8));
+				out.flush();
+			}
+		}
+	}
+	
+	private static JsonResultSink startResponse(HttpExchange exchange) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+		exchange.sendResponseHeaders(200, 0);
+		return new JsonResultSink(exchange.getResponseBody(), true, true);
+	}
+	
+	private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+		byte[] body = (error(message) + "\n").getBytes(UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.flush();
+	}
+	
+	private static String error(String message) {
+		return "{\"error\":" + JSONObject.quote(message) + "}";
+	}
+	
+	private static final class NamedThreadFactory implements ThreadFactory {
+		private final String prefix;
+		private final AtomicInteger count = new AtomicInteger();
+		
+		private NamedThreadFactory(final String prefix) {
+			this.prefix = prefix;
+		}
+		
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.server;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.openmhealth.dpu.mobilityclassifier.domain.ClassifiedPoint;
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+import org.openmhealth.dpu.mobilityclassifier.service.ClassificationService;
+
+/**
+ * Coalesces small requests that arrive within a short window into one call
+ * to {@link ClassificationService#classifyAll(Map, ExecutorService)}. Each
+ * request is classified with its own session, so coalescing never changes a
+ * result; it only amortizes the hand-off to the classification threads over
+ * many requests.
+ */
+class RequestBatcher {
+	private final ExecutorService executorService;
+	private final long windowNanos;
+	private final int maximumPoints;
+	private final BlockingQueue<PendingRequest> queue;
+	private final Thread dispatcher;
+	
+	private volatile boolean stopped;
+	
+	/**
+	 * @param executorService the executor classifyAll runs requests on
+	 * 
+	 * @param windowMillis how long to wait for more requests after the first
+	 * request of a batch arrives
+	 * 
+	 * @param maximumPoints dispatch a batch early once it has this many points
+	 */
+	RequestBatcher(final ExecutorService executorService, final long windowMillis, final int maximumPoints) {
+		this.executorService = executorService;
+		this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+		this.maximumPoints = maximumPoints;
+		this.queue = new LinkedBlockingQueue<PendingRequest>();
+		this.dispatcher = new Thread(new Runnable() {
+			public void run() {
+				dispatch();
+			}
+		}, "mobility-request-batcher");
+		this.dispatcher.setDaemon(true);
+		this.dispatcher.start();
+	}
+	
+	/**
+	 * Classifies a request, waiting for the batch it was coalesced into.
+	 * 
+	 * @throws InterruptedException if interrupted while waiting
+	 * 
+	 * @throws IllegalStateException if the batcher has been stopped
+	 * 
+	 * @throws RuntimeException if classification failed
+	 */
+	List<ClassifiedPoint> classify(List<SensorDataPoint> sensorDataPoints) throws InterruptedException {
+		if(stopped) {
+			throw new IllegalStateException("The request batcher has been stopped");
+		}
+		
+		PendingRequest request = new PendingRequest(sensorDataPoints);
+		queue.add(request);
+		if(stopped && queue.remove(request)) {
+			// the dispatcher may have drained the queue before this request
+			throw new IllegalStateException("The request batcher has been stopped");
+		}
+		request.done.await();
+		
+		if(request.failure != null) {
+			throw request.failure;
+		}
+		return request.result;
+	}
+	
+	/**
+	 * Stops dispatching. Requests that have not been dispatched fail.
+	 */
+	void stop() {
+		stopped = true;
+		dispatcher.interrupt();
+	}
+	
+	private void dispatch() {
+		List<PendingRequest> batch = new ArrayList<PendingRequest>();
+		
+		try {
+			while(! stopped) {
+				PendingRequest first = queue.take();
+				batch.add(first);
+				int numberOfPoints = first.sensorDataPoints.size();
+				long deadline = System.nanoTime() + windowNanos;
+				
+				while(numberOfPoints < maximumPoints) {
+					long remaining = deadline - System.nanoTime();
+					PendingRequest next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+					if(next == null) {
+						break;
+					}
+					batch.add(next);
+					numberOfPoints += next.sensorDataPoints.size();
+				}
+				
+				classifyBatch(batch);
+				batch.clear();
+			}
+		}
+		catch(InterruptedException e) {
+			// stopped
+		}
+		finally {
+			stopped = true;
+			queue.drainTo(batch);
+			for(PendingRequest request : batch) {
+				request.fail(new IllegalStateException("The request batcher has been stopped"));
+			}
+		}
+	}
+	
+	private void classifyBatch(List<PendingRequest> batch) {
+		Map<PendingRequest, List<SensorDataPoint>> sensorDataPoints = new IdentityHashMap<PendingRequest, List<SensorDataPoint>>();
+		for(PendingRequest request : batch) {
+			sensorDataPoints.put(request, request.sensorDataPoints);
+		}
+		
+		try {
+			Map<PendingRequest, List<ClassifiedPoint>> results = ClassificationService.classifyAll(sensorDataPoints, executorService);
+			for(PendingRequest request : batch) {
+				request.succeed(results.get(request));
+			}
+		}
+		catch(RuntimeException e) {
+			for(PendingRequest request : batch) {
+				request.fail(e);
+			}
+		}
+	}
+	
+	private static final class PendingRequest {
+		private final List<SensorDataPoint> sensorDataPoints;
+		private final CountDownLatch done = new CountDownLatch(1);
+		private List<ClassifiedPoint> result;
+		private RuntimeException failure;
+		
+		private PendingRequest(final List<SensorDataPoint> sensorDataPoints) {
+			this.sensorDataPoints = sensorDataPoints;
+		}
+		
+		private void succeed(List<ClassifiedPoint> result) {
+			this.result = result;
+			done.countDown();
+		}
+		
+		private void fail(RuntimeException failure) {
+			this.failure = failure;
+			done.countDown();
+		}
+	}
+}
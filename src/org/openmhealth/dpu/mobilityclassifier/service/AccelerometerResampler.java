@@ -0,0 +1,217 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.service;
+
+import org.openmhealth.dpu.mobilityclassifier.domain.AccelerometerData;
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+
+/**
+ * Reduces each accelerometer window to a fixed number of samples before it 
+ * is classified, so that the cost of classifying a point no longer grows 
+ * with the sampling rate of the device that recorded it. 
+ * 
+ * A window of n samples is decimated to targetSize samples spread evenly 
+ * over the same time span. Each output sample is a weighted sum of the input
+ * samples around its position: a Hann-windowed sinc low-pass filter with its
+ * cutoff at the output's Nyquist frequency, so frequencies the shorter 
+ * window cannot represent are removed instead of aliasing into the FFT 
+ * features. Weights are normalized to sum to one, which keeps constant 
+ * signals such as gravity exact, including at the window's edges. The 
+ * classifier's FFT bins count cycles per window, so each bin still measures
+ * the same frequency as long as targetSize is well above twice the highest 
+ * bin, 10. 
+ * 
+ * The bins do not keep their scale by themselves. The classifier's 
+ * Goertzel power is not normalized by the window size, so a sinusoid of 
+ * amplitude a in bin k has a power of about (a n / 2)^2 and every bin 
+ * shrinks by a factor of (targetSize / n)^2, while the walk/run threshold on
+ * the third bin stays fixed. A resampled point therefore keeps the size its
+ * window was recorded with, and {@link MobilityClassifierEngine} multiplies 
+ * its FFT terms by (n / targetSize)^2 before the walk/run decision. Average 
+ * and variance are unaffected. Use ResamplingDriftReport with a validation 
+ * set of real windows to measure the remaining drift before enabling a 
+ * resampler.
+ * 
+ * Windows with at most targetSize samples are not changed. The filter 
+ * weights for the most recent input size are cached, so resampling a stream
+ * of equally sized windows costs a few multiply-adds per input sample and 
+ * allocates only the output arrays. Instances are not thread-safe.
+ * 
+ * @see ClassificationSession#setResampler(AccelerometerResampler)
+ */
+public class AccelerometerResampler {
+	// Zero crossings of the sinc on each side of an output sample
+	private static final int LOBES = 4;
+	
+	private final int targetSize;
+	
+	private int kernelInputSize;
+	private int[] firstTaps;
+	private int[] tapOffsets;
+	private double[] weights;
+	
+	private double[] scratchX;
+	private double[] scratchY;
+	private double[] scratchZ;
+	
+	/**
+	 * Creates a resampler.
+	 * 
+	 * @param targetSize the number of samples each longer window is reduced 
+	 * to
+	 * 
+	 * @throws IllegalArgumentException if targetSize is 10 or less, as the
+	 * classifier does not compute features for such short windows
+	 */
+	public AccelerometerResampler(final int targetSize) {
+		if(targetSize <= 10) {
+			throw new IllegalArgumentException("targetSize must be greater than 10");
+		}
+		
+		this.targetSize = targetSize;
+		this.kernelInputSize = -1;
+		this.scratchX = new double[0];
+		this.scratchY = new double[0];
+		this.scratchZ = new double[0];
+	}
+	
+	public int getTargetSize() {
+		return targetSize;
+	}
+	
+	/**
+	 * Returns a point whose window has at most targetSize samples.
+	 * 
+	 * @param sensorDataPoint the point to resample
+	 * 
+	 * @return the provided point if its window is short enough, otherwise a
+	 * new point with the same id, speed, timezone, and wifi scan that 
+	 * remembers the size of the original window
+	 * 
+	 * @throws IllegalArgumentException if the point is null
+	 */
+	public SensorDataPoint resample(SensorDataPoint sensorDataPoint) {
+		if(sensorDataPoint == null) {
+			throw new IllegalArgumentException("sensorDataPoint is required");
+		}
+		
+		AccelerometerData data = sensorDataPoint.getAccelerometerData();
+		int size = data.size();
+		if(size <= targetSize) {
+			return sensorDataPoint;
+		}
+		
+		if(scratchX.length < size) {
+			scratchX = new double[size];
+			scratchY = new double[size];
+			scratchZ = new double[size];
+		}
+		for(int i = 0; i < size; i++) {
+			scratchX[i] = data.getX(i);
+			scratchY[i] = data.getY(i);
+			scratchZ[i] = data.getZ(i);
+		}
+		
+		double[] x = new double[targetSize];
+		double[] y = new double[targetSize];
+		double[] z = new double[targetSize];
+		resample(scratchX, size, x);
+		resample(scratchY, size, y);
+		resample(scratchZ, size, z);
+		
+		return sensorDataPoint.withResampledData(AccelerometerData.wrap(x, y, z));
+	}
+	
+	/**
+	 * Low-pass filters and decimates one axis.
+	 * 
+	 * @param input the samples to resample
+	 * 
+	 * @param inputSize the number of samples in input to use, more than 
+	 * targetSize
+	 * 
+	 * @param output receives targetSize samples
+	 * 
+	 * @throws IllegalArgumentException if inputSize is not more than 
+	 * targetSize or exceeds the input, or the output is too short
+	 */
+	public void resample(double[] input, int inputSize, double[] output) {
+		if(inputSize <= targetSize || inputSize > input.length) {
+			throw new IllegalArgumentException("inputSize must be more than targetSize and at most input.length");
+		}
+		if(output.length < targetSize) {
+			throw new IllegalArgumentException("output must hold targetSize samples");
+		}
+		
+		if(inputSize != kernelInputSize) {
+			buildKernel(inputSize);
+		}
+		
+		for(int j = 0; j < targetSize; j++) {
+			int tap = firstTaps[j];
+			double sum = 0.0D;
+			for(int w = tapOffsets[j], end = tapOffsets[j + 1]; w < end; w++) {
+				sum += weights[w] * input[tap++];
+			}
+			output[j] = sum;
+		}
+	}
+	
+	/**
+	 * Computes the normalized filter weights of every output sample for 
+	 * windows of the provided size.
+	 */
+	private void buildKernel(int inputSize) {
+		double ratio = (double) inputSize / targetSize;
+		double halfWidth = LOBES * ratio;
+		
+		firstTaps = new int[targetSize];
+		tapOffsets = new int[targetSize + 1];
+		weights = new double[targetSize * ((int) Math.ceil(2 * halfWidth) + 1)];
+		
+		int w = 0;
+		for(int j = 0; j < targetSize; j++) {
+			// The centre of output sample j in input sample coordinates
+			double centre = (j + 0.5D) * ratio - 0.5D;
+			int first = Math.max(0, (int) Math.ceil(centre - halfWidth));
+			int last = Math.min(inputSize - 1, (int) Math.floor(centre + halfWidth));
+			
+			firstTaps[j] = first;
+			tapOffsets[j] = w;
+			
+			double total = 0.0D;
+			for(int i = first; i <= last; i++) {
+				double distance = i - centre;
+				double weight = sinc(distance / ratio) * 0.5D * (1.0D + Math.cos(Math.PI * distance / halfWidth));
+				weights[w++] = weight;
+				total += weight;
+			}
+			for(int k = tapOffsets[j]; k < w; k++) {
+				weights[k] /= total;
+			}
+		}
+		tapOffsets[targetSize] = w;
+		
+		kernelInputSize = inputSize;
+	}
+	
+	private static double sinc(double x) {
+		if(x == 0.0D) {
+			return 1.0D;
+		}
+		return Math.sin(Math.PI * x) / (Math.PI * x);
+	}
+}
@@ -0,0 +1,356 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.openmhealth.dpu.mobilityclassifier.domain.ClassifiedPoint;
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+
+/**
+ * An asynchronous facade for classifying many independent streams, e.g., one
+ * per user or device. Callers hand off a batch and immediately receive a 
+ * Future, optionally with a {@link ClassificationCallback}, and the batch is
+ * classified on the provided executor.
+ * 
+ * Each stream has its own {@link ClassificationSession}, so the previous wifi
+ * scan and mode are chained across batches. Batches of the same stream are 
+ * classified one at a time in submission order; batches of different streams
+ * are classified concurrently.
+ * 
+ * The number of points that have been submitted but not yet classified is 
+ * bounded. When a batch would exceed the bound, submit either blocks until 
+ * enough points have been classified or rejects the batch, so a burst of 
+ * large batches cannot exhaust the heap.
+ * 
+ * Any ExecutorService may be used, e.g., a fixed pool or, on a JDK that 
+ * supports them, a virtual-thread-per-task executor. The executor is owned by
+ * the caller.
+ */
+public class AsyncClassificationService {
+	private final ExecutorService executorService;
+	private final int maximumPendingPoints;
+	private final boolean blockWhenFull;
+	private final Semaphore pendingPoints;
+	private final ConcurrentMap<String, Stream> streams;
+	
+	/**
+	 * Creates an asynchronous classification service.
+	 * 
+	 * @param executorService the executor to classify batches on
+	 * 
+	 * @param maximumPendingPoints the maximum number of submitted points that
+	 * may be waiting or being classified at once
+	 * 
+	 * @param blockWhenFull true if submit should wait when the bound would be
+	 * exceeded, false if it should throw a RejectedExecutionException
+	 * 
+	 * @throws IllegalArgumentException if the executor is null or 
+	 * maximumPendingPoints is not positive
+	 */
+	public AsyncClassificationService(final ExecutorService executorService, final int maximumPendingPoints,
+			final boolean blockWhenFull) {
+		
+		if(executorService == null) {
+			throw new IllegalArgumentException("executorService is required");
+		}
+		if(maximumPendingPoints <= 0) {
+			throw new IllegalArgumentException("maximumPendingPoints must be positive");
+		}
+		
+		this.executorService = executorService;
+		this.maximumPendingPoints = maximumPendingPoints;
+		this.blockWhenFull = blockWhenFull;
+		this.pendingPoints = new Semaphore(maximumPendingPoints, true);
+		this.streams = new ConcurrentHashMap<String, Stream>();
+	}
+	
+	/**
+	 * Submits the next batch of a stream.
+	 * 
+	 * @see #submit(String, List, ClassificationCallback)
+	 */
+	public Future<List<ClassifiedPoint>> submit(String streamId, List<SensorDataPoint> sensorDataPoints) {
+		return submit(streamId, sensorDataPoints, null);
+	}
+	
+	/**
+	 * Submits the next batch of a stream. The batch is copied, so the caller
+	 * may reuse the list.
+	 * 
+	 * @param streamId identifies the stream the batch belongs to
+	 * 
+	 * @param sensorDataPoints the next points of the stream in order
+	 * 
+	 * @param callback notified when the batch has been classified, or null
+	 * 
+	 * @return a Future for the classified points in batch order
+	 * 
+	 * @throws IllegalArgumentException if the stream id or list is null, the
+	 * list contains null, or the list is larger than the maximum number of 
+	 * pending points
+	 * 
+	 * @throws RejectedExecutionException if the bound on pending points would
+	 * be exceeded and this service does not block, if the calling thread is 
+	 * interrupted while blocked, or if the executor rejects the batch
+	 */
+	public Future<List<ClassifiedPoint>> submit(final String streamId, List<SensorDataPoint> sensorDataPoints, 
+			final ClassificationCallback callback) {
+		
+		if(streamId == null) {
+			throw new IllegalArgumentException("streamId is required");
+		}
+		if(sensorDataPoints == null) {
+			throw new IllegalArgumentException("sensorDataPoints is required");
+		}
+		
+		final int numberOfPoints = sensorDataPoints.size();
+		if(numberOfPoints > maximumPendingPoints) {
+			throw new IllegalArgumentException("sensorDataPoints is larger than the maximum of " + maximumPendingPoints + " pending points");
+		}
+		
+		// Checked on the copy, which is cheaper to scan than an arbitrary list
+		final SensorDataPoint[] batch = sensorDataPoints.toArray(new SensorDataPoint[numberOfPoints]);
+		for(SensorDataPoint sensorDataPoint : batch) {
+			if(sensorDataPoint == null) {
+				throw new IllegalArgumentException("sensorDataPoints contains null");
+			}
+		}
+		
+		acquire(numberOfPoints);
+		
+		while(true) {
+			Stream stream = streams.get(streamId);
+			if(stream == null) {
+				Stream newStream = new Stream();
+				stream = streams.putIfAbsent(streamId, newStream);
+				if(stream == null) {
+					stream = newStream;
+				}
+			}
+			
+			final Stream target = stream;
+			BatchTask task = new BatchTask(streamId, callback, new Batch(target.session, batch));
+			
+			synchronized(target) {
+				if(target.removed) {
+					// endStream removed it after we looked it up
+					continue;
+				}
+				
+				target.tasks.add(task);
+				if(! target.scheduled) {
+					target.scheduled = true;
+					try {
+						executorService.execute(target);
+					}
+					catch(RejectedExecutionException e) {
+						target.scheduled = false;
+						target.tasks.remove(task);
+						// The exception is the only report; cancelling the 
+						// task would also notify the callback
+						task.batch.release();
+						throw e;
+					}
+				}
+			}
+			
+			return task;
+		}
+	}
+	
+	private void acquire(int numberOfPoints) {
+		if(blockWhenFull) {
+			try {
+				pendingPoints.acquire(numberOfPoints);
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RejectedExecutionException("Interrupted while waiting for pending points to be classified");
+			}
+		}
+		else if(! pendingPoints.tryAcquire(numberOfPoints)) {
+			throw new RejectedExecutionException("More than " + maximumPendingPoints + " points are pending");
+		}
+	}
+	
+	/**
+	 * Ends a stream. Batches already submitted are still classified, after 
+	 * which the stream's session is discarded. A later batch with the same 
+	 * id starts a new stream.
+	 * 
+	 * @param streamId identifies the stream
+	 */
+	public void endStream(String streamId) {
+		Stream stream = streams.remove(streamId);
+		
+		if(stream != null) {
+			synchronized(stream) {
+				stream.removed = true;
+			}
+		}
+	}
+	
+	/**
+	 * @return the number of points submitted but not yet classified
+	 */
+	public int getPendingPoints() {
+		return maximumPendingPoints - pendingPoints.availablePermits();
+	}
+	
+	/**
+	 * @return the number of streams with a session
+	 */
+	public int getNumberOfStreams() {
+		return streams.size();
+	}
+	
+	/**
+	 * A stream's session and its queue of batches. Running a stream 
+	 * classifies its oldest batch and, if more are queued, reschedules it so
+	 * a busy stream cannot monopolize a thread.
+	 */
+	private final class Stream implements Runnable {
+		private final ClassificationSession session;
+		private final Queue<BatchTask> tasks;
+		private boolean scheduled;
+		private boolean removed;
+		
+		private Stream() {
+			this.session = new ClassificationSession();
+			this.tasks = new ArrayDeque<BatchTask>();
+		}
+		
+		public void run() {
+			BatchTask task;
+			synchronized(this) {
+				task = tasks.poll();
+			}
+			
+			try {
+				if(task != null) {
+					task.run();
+				}
+			}
+			finally {
+				reschedule();
+			}
+		}
+		
+		private synchronized void reschedule() {
+			if(tasks.isEmpty()) {
+				scheduled = false;
+			}
+			else {
+				try {
+					executorService.execute(this);
+				}
+				catch(RejectedExecutionException e) {
+					scheduled = false;
+					BatchTask queued;
+					while((queued = tasks.poll()) != null) {
+						queued.cancel(false);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Classifies a batch with its stream's session. The batch's pending 
+	 * points are released exactly once, either when it has been classified
+	 * or when it is cancelled before it runs.
+	 */
+	private final class Batch implements Callable<List<ClassifiedPoint>> {
+		private final ClassificationSession session;
+		private final SensorDataPoint[] sensorDataPoints;
+		private final AtomicBoolean released;
+		
+		private Batch(final ClassificationSession session, final SensorDataPoint[] sensorDataPoints) {
+			this.session = session;
+			this.sensorDataPoints = sensorDataPoints;
+			this.released = new AtomicBoolean();
+		}
+		
+		public List<ClassifiedPoint> call() {
+			try {
+				List<ClassifiedPoint> classifiedPoints = new ArrayList<ClassifiedPoint>(sensorDataPoints.length);
+				for(SensorDataPoint sensorDataPoint : sensorDataPoints) {
+					classifiedPoints.add(session.classify(sensorDataPoint));
+				}
+				return classifiedPoints;
+			}
+			finally {
+				release();
+			}
+		}
+		
+		private void release() {
+			if(released.compareAndSet(false, true)) {
+				pendingPoints.release(sensorDataPoints.length);
+			}
+		}
+	}
+	
+	/**
+	 * A batch that notifies its callback once it has completed, failed, or 
+	 * been cancelled.
+	 */
+	private final class BatchTask extends FutureTask<List<ClassifiedPoint>> {
+		private final String streamId;
+		private final ClassificationCallback callback;
+		private final Batch batch;
+		
+		private BatchTask(final String streamId, final ClassificationCallback callback, final Batch batch) {
+			super(batch);
+			this.streamId = streamId;
+			this.callback = callback;
+			this.batch = batch;
+		}
+		
+		@Override
+		protected void done() {
+			batch.release();
+			
+			if(callback == null) {
+				return;
+			}
+			
+			try {
+				callback.onSuccess(streamId, get());
+			}
+			catch(ExecutionException e) {
+				callback.onFailure(streamId, e.getCause());
+			}
+			catch(Exception e) {
+				callback.onFailure(streamId, e);
+			}
+		}
+	}
+}
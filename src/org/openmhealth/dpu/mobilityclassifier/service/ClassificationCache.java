@@ -0,0 +1,316 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.openmhealth.dpu.mobilityclassifier.domain.AccelerometerData;
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+
+import edu.ucla.cens.mobilityclassifier.AccessPoint;
+import edu.ucla.cens.mobilityclassifier.Classification;
+import edu.ucla.cens.mobilityclassifier.Sample;
+import edu.ucla.cens.mobilityclassifier.WifiScan;
+
+/**
+ * A bounded cache of classifications for points that are delivered more than
+ * once. Entries are keyed on the point's id, a 64-bit fingerprint of its 
+ * content, and a fingerprint of the context it was classified in, i.e., the
+ * previous wifi scan and previous mode. A redelivered point is therefore 
+ * only served from the cache if it would be classified identically.
+ * 
+ * The cache holds at most a fixed number of entries, evicting the least 
+ * recently used one when full, and optionally expires entries a fixed time 
+ * after they were added. Cached Classifications are shared between all 
+ * callers that hit the same entry and must not be modified.
+ * 
+ * Instances are thread-safe and may be shared by many sessions. 
+ * 
+ * @see ClassificationSession#setCache(ClassificationCache)
+ */
+public class ClassificationCache {
+	private static final long SEED = 0xcbf29ce484222325L;
+	private static final long MIX_MULTIPLIER = 0x9e3779b97f4a7c15L;
+	
+	private final int maximumEntries;
+	private final long timeToLiveNanos;
+	private final LinkedHashMap<Key, CachedClassification> entries;
+	
+	private long hits;
+	private long misses;
+	private long evictions;
+	
+	/**
+	 * Creates a cache whose entries never expire.
+	 * 
+	 * @param maximumEntries the maximum number of classifications to hold
+	 * 
+	 * @throws IllegalArgumentException if maximumEntries is not positive
+	 */
+	public ClassificationCache(final int maximumEntries) {
+		this(maximumEntries, 0);
+	}
+	
+	/**
+	 * Creates a cache.
+	 * 
+	 * @param maximumEntries the maximum number of classifications to hold
+	 * 
+	 * @param timeToLiveMillis how long an entry may be served after it was 
+	 * added, or zero if entries never expire
+	 * 
+	 * @throws IllegalArgumentException if maximumEntries is not positive or 
+	 * timeToLiveMillis is negative
+	 */
+	public ClassificationCache(final int maximumEntries, final long timeToLiveMillis) {
+		if(maximumEntries <= 0) {
+			throw new IllegalArgumentException("maximumEntries must be positive");
+		}
+		if(timeToLiveMillis < 0) {
+			throw new IllegalArgumentException("timeToLiveMillis must not be negative");
+		}
+		
+		this.maximumEntries = maximumEntries;
+		this.timeToLiveNanos = timeToLiveMillis * 1000000L;
+		this.entries = new LinkedHashMap<Key, CachedClassification>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, CachedClassification> eldest) {
+				if(size() > ClassificationCache.this.maximumEntries) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+	
+	/**
+	 * Creates the cache key of a point classified after the provided scan and
+	 * mode. This reads every sample of the point, which is still much cheaper
+	 * than classifying it. The mode is keyed as the classifier carries it, so
+	 * previous modes it treats alike, e.g., "walk", "still", and null, share
+	 * entries.
+	 */
+	Key key(SensorDataPoint sensorDataPoint, WifiScan previousWifiScan, String previousMode) {
+		long context = SEED;
+		context = mix(context, MobilityClassifierEngine.carriedMode(previousMode).hashCode());
+		context = mix(context, previousWifiScan == null ? 0 : fingerprint(previousWifiScan));
+		
+		return new Key(sensorDataPoint.getId(), fingerprint(sensorDataPoint), context);
+	}
+	
+	/**
+	 * Returns the classification cached under the provided key, or null if 
+	 * there is none or it has expired.
+	 */
+	synchronized Classification get(Key key) {
+		CachedClassification entry = entries.get(key);
+		
+		if(entry != null && timeToLiveNanos > 0 && System.nanoTime() - entry.created > timeToLiveNanos) {
+			entries.remove(key);
+			evictions++;
+			entry = null;
+		}
+		
+		if(entry == null) {
+			misses++;
+			return null;
+		}
+		
+		hits++;
+		return entry.classification;
+	}
+	
+	/**
+	 * Caches a classification, evicting the least recently used entry if the
+	 * cache is full.
+	 */
+	synchronized void put(Key key, Classification classification) {
+		entries.put(key, new CachedClassification(classification, System.nanoTime()));
+	}
+	
+	/**
+	 * Removes all expired entries. Expired entries are otherwise only removed
+	 * when they are looked up or are the least recently used.
+	 */
+	public synchronized void removeExpired() {
+		if(timeToLiveNanos == 0) {
+			return;
+		}
+		
+		long now = System.nanoTime();
+		Iterator<CachedClassification> iterator = entries.values().iterator();
+		while(iterator.hasNext()) {
+			if(now - iterator.next().created > timeToLiveNanos) {
+				iterator.remove();
+				evictions++;
+			}
+		}
+	}
+	
+	/**
+	 * Removes all entries. The counters are not reset.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+	}
+	
+	/**
+	 * @return the number of entries currently cached
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+	
+	public int getMaximumEntries() {
+		return maximumEntries;
+	}
+	
+	/**
+	 * @return the number of lookups that returned a cached classification
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+	
+	/**
+	 * @return the number of lookups that found no usable classification
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+	
+	/**
+	 * @return the number of entries removed because the cache was full or 
+	 * they had expired
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+	
+	@Override
+	public synchronized String toString() {
+		return "ClassificationCache [size=" + entries.size() + ", maximumEntries=" + maximumEntries 
+				+ ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + "]";
+	}
+	
+	private static long fingerprint(SensorDataPoint sensorDataPoint) {
+		long fingerprint = SEED;
+		fingerprint = mix(fingerprint, Double.doubleToLongBits(sensorDataPoint.getSpeed()));
+		fingerprint = mix(fingerprint, sensorDataPoint.getTimezone().getID().hashCode());
+		fingerprint = mix(fingerprint, fingerprint(sensorDataPoint.getWifiScan()));
+		
+		if(sensorDataPoint.hasAccelerometerData()) {
+			AccelerometerData data = sensorDataPoint.getAccelerometerData();
+			int size = data.size();
+			
+			fingerprint = mix(fingerprint, size);
+			fingerprint = mix(fingerprint, sensorDataPoint.getRecordedWindowSize());
+			for(int i = 0; i < size; i++) {
+				fingerprint = mix(fingerprint, Double.doubleToLongBits(data.getX(i)));
+				fingerprint = mix(fingerprint, Double.doubleToLongBits(data.getY(i)));
+				fingerprint = mix(fingerprint, Double.doubleToLongBits(data.getZ(i)));
+			}
+		}
+		else {
+			List<Sample> samples = sensorDataPoint.getAccelerometerSamples();
+			
+			fingerprint = mix(fingerprint, samples.size());
+			for(Sample sample : samples) {
+				fingerprint = mix(fingerprint, Double.doubleToLongBits(sample.getX()));
+				fingerprint = mix(fingerprint, Double.doubleToLongBits(sample.getY()));
+				fingerprint = mix(fingerprint, Double.doubleToLongBits(sample.getZ()));
+			}
+		}
+		
+		return fingerprint;
+	}
+	
+	private static long fingerprint(WifiScan wifiScan) {
+		List<AccessPoint> accessPoints = wifiScan.getAccessPoints();
+		long fingerprint = SEED;
+		
+		fingerprint = mix(fingerprint, wifiScan.getTime());
+		fingerprint = mix(fingerprint, accessPoints.size());
+		for(AccessPoint accessPoint : accessPoints) {
+			fingerprint = mix(fingerprint, accessPoint.getSsid().hashCode());
+			fingerprint = mix(fingerprint, Double.doubleToLongBits(accessPoint.getStrength()));
+		}
+		
+		return fingerprint;
+	}
+	
+	/**
+	 * Folds a value into a running hash with one multiply and one xor-shift.
+	 */
+	private static long mix(long hash, long value) {
+		hash = (hash ^ value) * MIX_MULTIPLIER;
+		return hash ^ (hash >>> 29);
+	}
+	
+	/**
+	 * Identifies a point's classification in its context.
+	 */
+	static final class Key {
+		private final UUID id;
+		private final long content;
+		private final long context;
+		
+		private Key(final UUID id, final long content, final long context) {
+			this.id = id;
+			this.content = content;
+			this.context = context;
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + (int) (content ^ (content >>> 32));
+			result = prime * result + (int) (context ^ (context >>> 32));
+			result = prime * result + id.hashCode();
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (obj == null)
+				return false;
+			if (getClass() != obj.getClass())
+				return false;
+			Key other = (Key) obj;
+			return content == other.content && context == other.context && id.equals(other.id);
+		}
+	}
+	
+	private static final class CachedClassification {
+		private final Classification classification;
+		private final long created;
+		
+		private CachedClassification(final Classification classification, final long created) {
+			this.classification = classification;
+			this.created = created;
+		}
+	}
+}
@@ -0,0 +1,46 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.service;
+
+import java.util.List;
+
+import org.openmhealth.dpu.mobilityclassifier.domain.ClassifiedPoint;
+
+/**
+ * Notified when a batch submitted to an {@link AsyncClassificationService} 
+ * has been classified. Callbacks run on the thread that classified the batch
+ * and should return quickly.
+ */
+public interface ClassificationCallback {
+	
+	/**
+	 * Called with the classified points of a batch.
+	 * 
+	 * @param streamId the stream the batch was submitted to
+	 * 
+	 * @param classifiedPoints the classified points in batch order
+	 */
+	void onSuccess(String streamId, List<ClassifiedPoint> classifiedPoints);
+	
+	/**
+	 * Called if a batch could not be classified or was cancelled.
+	 * 
+	 * @param streamId the stream the batch was submitted to
+	 * 
+	 * @param cause the reason
+	 */
+	void onFailure(String streamId, Throwable cause);
+}
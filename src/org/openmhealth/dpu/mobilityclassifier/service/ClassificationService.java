@@ -15,14 +15,24 @@
  ******************************************************************************/
 package org.openmhealth.dpu.mobilityclassifier.service;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.openmhealth.dpu.mobilityclassifier.domain.ClassifiedPoint;
+import org.openmhealth.dpu.mobilityclassifier.domain.ResultDetail;
 import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+import org.openmhealth.dpu.mobilityclassifier.metrics.ClassificationMetrics;
+import org.openmhealth.dpu.mobilityclassifier.metrics.NoOpClassificationMetrics;
 
-import edu.ucla.cens.mobilityclassifier.Classification;
-import edu.ucla.cens.mobilityclassifier.MobilityClassifier;
 import edu.ucla.cens.mobilityclassifier.WifiScan;
 
 /**
@@ -31,6 +41,11 @@ import edu.ucla.cens.mobilityclassifier.WifiScan;
  * @author Joshua Selsky
  */
 public class ClassificationService {
+	// Chunks of classifyParallel; more chunks than threads balance the load
+	private static final int MINIMUM_CHUNK_SIZE = 256;
+	private static final int CHUNKS_PER_PROCESSOR = 4;
+	
+	private static volatile ClassificationMetrics metrics = NoOpClassificationMetrics.INSTANCE;
 	
 	/**
 	 * Prevent direct instantiation as this class has no instance state.
@@ -39,46 +54,344 @@ public class ClassificationService {
 		
 	}
 	
+	/**
+	 * @return the metrics new sessions record to
+	 */
+	public static ClassificationMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * Sets the metrics that sessions created from now on, including those 
+	 * created by this class, record to. Metrics are disabled by default.
+	 * 
+	 * @param metrics the metrics to record to, or null to disable metrics
+	 */
+	public static void setMetrics(ClassificationMetrics metrics) {
+		ClassificationService.metrics = metrics == null ? NoOpClassificationMetrics.INSTANCE : metrics;
+	}
+	
 	/**
 	 * Iterates through the provided list and classifies the mobility mode for 
-	 * each list item.
+	 * each list item. Use a {@link ClassificationSession} to classify a stream
+	 * incrementally.
 	 * 
 	 * @param sensorDataPoints the data points to classify
 	 * 
 	 * @return a list of ClassifiedPoints. The list will be in the same order
 	 * as the provided list.
 	 * 
-	 * @throws IllegalArgumentException if the provided list is null 
+	 * @throws IllegalArgumentException if the provided list is null or 
+	 * contains null
 	 */
 	public static List<ClassifiedPoint> classify(List<SensorDataPoint> sensorDataPoints) {
+		// The session validates the list
+		return new ClassificationSession().classify(sensorDataPoints);
+	}
+	
+	/**
+	 * Classifies the provided list, keeping only the requested detail of 
+	 * each classification.
+	 * 
+	 * @param sensorDataPoints the data points to classify
+	 * 
+	 * @param resultDetail how much of each classification to keep
+	 * 
+	 * @return a list of ClassifiedPoints in the same order as the provided 
+	 * list
+	 * 
+	 * @throws IllegalArgumentException if the provided list is null or 
+	 * contains null, or if the detail is null
+	 */
+	public static List<ClassifiedPoint> classify(List<SensorDataPoint> sensorDataPoints, ResultDetail resultDetail) {
+		ClassificationSession session = new ClassificationSession();
+		session.setResultDetail(resultDetail);
+		return session.classify(sensorDataPoints);
+	}
+	
+	/**
+	 * Classifies the provided points as one stream, handing each result to 
+	 * the sink as soon as it is produced.
+	 * 
+	 * @see ClassificationSession#classify(Iterable, ResultSink)
+	 */
+	public static int classify(Iterable<SensorDataPoint> sensorDataPoints, ResultSink resultSink) throws IOException {
+		return new ClassificationSession().classify(sensorDataPoints, resultSink);
+	}
+	
+	/**
+	 * Classifies the sensor data of many independent users concurrently using
+	 * a pool with one thread per available processor. The pool is shut down 
+	 * before this method returns.
+	 * 
+	 * @param sensorDataPointsByUser the data points to classify keyed by user
+	 * 
+	 * @return a map containing a list of ClassifiedPoints for each user. The 
+	 * map iterates in the same order as the provided map and each list is 
+	 * identical to what {@link #classify(List)} returns for that user.
+	 * 
+	 * @throws IllegalArgumentException if the provided map is null or if any
+	 * of its lists are null or contain null
+	 * 
+	 * @see #classifyAll(Map, ExecutorService)
+	 */
+	public static <K> Map<K, List<ClassifiedPoint>> classifyAll(Map<K, List<SensorDataPoint>> sensorDataPointsByUser) {
+		int numberOfThreads = Runtime.getRuntime().availableProcessors();
+		if(sensorDataPointsByUser != null && sensorDataPointsByUser.size() < numberOfThreads) {
+			numberOfThreads = Math.max(1, sensorDataPointsByUser.size());
+		}
+		
+		ExecutorService executorService = Executors.newFixedThreadPool(numberOfThreads);
+		try {
+			return classifyAll(sensorDataPointsByUser, executorService);
+		}
+		finally {
+			executorService.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Classifies the sensor data of many independent users concurrently using
+	 * the provided executor. Each user's list is classified by exactly one
+	 * task so the previous wifi scan and previous mode are chained strictly in
+	 * list order within a user. Users never share state, so any number of
+	 * them may be in flight at once. The executor is not shut down.
+	 * 
+	 * @param sensorDataPointsByUser the data points to classify keyed by user
+	 * 
+	 * @param executorService the executor to run the per-user tasks on
+	 * 
+	 * @return a map containing a list of ClassifiedPoints for each user. The 
+	 * map iterates in the same order as the provided map and each list is 
+	 * identical to what {@link #classify(List)} returns for that user.
+	 * 
+	 * @throws IllegalArgumentException if the provided map or executor is 
+	 * null or if any of the map's lists are null or contain null
+	 * 
+	 * @throws IllegalStateException if the calling thread is interrupted 
+	 * while waiting for results
+	 */
+	public static <K> Map<K, List<ClassifiedPoint>> classifyAll(Map<K, List<SensorDataPoint>> sensorDataPointsByUser, 
+			ExecutorService executorService) {
+		
+		if(sensorDataPointsByUser == null) {
+			throw new IllegalArgumentException("sensorDataPointsByUser is required");
+		}
+		if(executorService == null) {
+			throw new IllegalArgumentException("executorService is required");
+		}
+		for(Map.Entry<K, List<SensorDataPoint>> entry : sensorDataPointsByUser.entrySet()) {
+			if(entry.getValue() == null) {
+				throw new IllegalArgumentException("sensorDataPoints for " + entry.getKey() + " is null");
+			}
+			if(entry.getValue().contains(null)) {
+				throw new IllegalArgumentException("sensorDataPoints for " + entry.getKey() + " contains null");
+			}
+		}
+		
+		Map<K, Future<List<ClassifiedPoint>>> futures = new LinkedHashMap<K, Future<List<ClassifiedPoint>>>();
+		
+		try {
+			for(Map.Entry<K, List<SensorDataPoint>> entry : sensorDataPointsByUser.entrySet()) {
+				final List<SensorDataPoint> sensorDataPoints = entry.getValue();
+				
+				futures.put(entry.getKey(), executorService.submit(new Callable<List<ClassifiedPoint>>() {
+					public List<ClassifiedPoint> call() {
+						return classify(sensorDataPoints);
+					}
+				}));
+			}
+			
+			Map<K, List<ClassifiedPoint>> classifiedPointsByUser = new LinkedHashMap<K, List<ClassifiedPoint>>();
+			
+			for(Map.Entry<K, Future<List<ClassifiedPoint>>> entry : futures.entrySet()) {
+				classifiedPointsByUser.put(entry.getKey(), entry.getValue().get());
+			}
+			
+			futures.clear();
+			return classifiedPointsByUser;
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for classification results", e);
+		}
+		catch(ExecutionException e) {
+			throw failure(e);
+		}
+		finally {
+			// Only non-empty if an exception is propagating
+			for(Future<List<ClassifiedPoint>> future : futures.values()) {
+				future.cancel(true);
+			}
+		}
+	}
+	
+	/**
+	 * Classifies one long stream on a pool with one thread per available 
+	 * processor. The pool is shut down before this method returns.
+	 * 
+	 * @see #classifyParallel(List, ExecutorService)
+	 */
+	public static List<ClassifiedPoint> classifyParallel(List<SensorDataPoint> sensorDataPoints) {
+		ExecutorService executorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		try {
+			return classifyParallel(sensorDataPoints, executorService);
+		}
+		finally {
+			executorService.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Classifies one long stream concurrently, e.g., a month of data uploaded
+	 * by a single device, with exactly the same results as 
+	 * {@link #classify(List)}. The executor is not shut down.
+	 * 
+	 * @see #classifyParallel(List, WifiScan, String, ExecutorService)
+	 */
+	public static List<ClassifiedPoint> classifyParallel(List<SensorDataPoint> sensorDataPoints, 
+			ExecutorService executorService) {
+		
+		return classifyParallel(sensorDataPoints, null, null, executorService);
+	}
+	
+	/**
+	 * Classifies one long stream concurrently with exactly the same results
+	 * as a {@link ClassificationSession} created with the provided previous 
+	 * wifi scan and mode.
+	 * 
+	 * The list is split into chunks that are classified in parallel. The only
+	 * state carried from one point to the next is the previous wifi scan, 
+	 * which is known at every chunk boundary, and the previous mode, which is
+	 * not. Each chunk is therefore classified speculatively as if the 
+	 * previous mode were unknown. Afterwards a sequential pass checks each 
+	 * boundary and, where the speculation was wrong, reclassifies the chunk's
+	 * points only until their modes agree with the speculative ones again. 
+	 * The classifier only carries over the modes "STILL" and "DRIVE", which 
+	 * it never produces itself, so the speculation can only be wrong if the
+	 * provided previous mode is one of them, and the speedup is close to
+	 * linear. The executor is not shut down.
+	 * 
+	 * @param sensorDataPoints the data points to classify
+	 * 
+	 * @param previousWifiScan the wifi scan of the point before the list, or
+	 * null
+	 * 
+	 * @param previousMode the mode of the point before the list, or null
+	 * 
+	 * @param executorService the executor to classify the chunks on
+	 * 
+	 * @return a list of ClassifiedPoints in the same order as the provided 
+	 * list
+	 * 
+	 * @throws IllegalArgumentException if the provided list is null or 
+	 * contains null, or if the executor is null
+	 * 
+	 * @throws IllegalStateException if the calling thread is interrupted 
+	 * while waiting for results
+	 */
+	public static List<ClassifiedPoint> classifyParallel(final List<SensorDataPoint> sensorDataPoints, 
+			final WifiScan previousWifiScan, final String previousMode, ExecutorService executorService) {
+		
 		if(sensorDataPoints == null) {
 			throw new IllegalArgumentException("sensorDataPoints is required");
 		}
+		if(executorService == null) {
+			throw new IllegalArgumentException("executorService is required");
+		}
 		if(sensorDataPoints.contains(null)) {
 			throw new IllegalArgumentException("sensorDataPoints contains null");
 		}
 		
-		List<ClassifiedPoint> classifiedPoints = new ArrayList<ClassifiedPoint>();
-
-		// This could be an instance variable because it is stateless
-		MobilityClassifier mobilityClassifier = new MobilityClassifier();
+		int size = sensorDataPoints.size();
+		int numberOfChunks = Math.min(size / MINIMUM_CHUNK_SIZE, CHUNKS_PER_PROCESSOR * Runtime.getRuntime().availableProcessors());
+		if(numberOfChunks < 2) {
+			return new ClassificationSession(previousWifiScan, previousMode).classify(sensorDataPoints);
+		}
 		
-		WifiScan previousWifiScan = null;
-		String previousMode = null;
+		final SensorDataPoint[] points = sensorDataPoints.toArray(new SensorDataPoint[size]);
+		final ClassifiedPoint[] classifiedPoints = new ClassifiedPoint[size];
+		final int[] starts = new int[numberOfChunks + 1];
+		for(int i = 0; i <= numberOfChunks; i++) {
+			starts[i] = (int) ((long) size * i / numberOfChunks);
+		}
+		
+		List<Future<?>> futures = new ArrayList<Future<?>>(numberOfChunks);
 		
-		for(SensorDataPoint sensorDataPoint : sensorDataPoints) {
-			Classification classification = mobilityClassifier.classify(sensorDataPoint.getAccelerometerSamples(),
-					                                                    sensorDataPoint.getSpeed(),
-					                                                    sensorDataPoint.getWifiScan(),
-					                                                    previousWifiScan,
-					                                                    previousMode);
+		try {
+			for(int i = 0; i < numberOfChunks; i++) {
+				final int start = starts[i];
+				final int end = starts[i + 1];
+				
+				futures.add(executorService.submit(new Runnable() {
+					public void run() {
+						// The previous scan is exact; the previous mode is a guess
+						ClassificationSession session = start == 0 
+							? new ClassificationSession(previousWifiScan, previousMode)
+							: new ClassificationSession(points[start - 1].getWifiScan(), null);
+						for(int j = start; j < end; j++) {
+							classifiedPoints[j] = session.classify(points[j]);
+						}
+					}
+				}));
+			}
 			
-			previousWifiScan = sensorDataPoint.getWifiScan();
-			previousMode = classification.getMode();
+			for(Future<?> future : futures) {
+				future.get();
+			}
 			
-			classifiedPoints.add(new ClassifiedPoint(sensorDataPoint.getId(), classification));
+			futures.clear();
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for classification results", e);
+		}
+		catch(ExecutionException e) {
+			throw failure(e);
+		}
+		finally {
+			for(Future<?> future : futures) {
+				future.cancel(true);
+			}
+		}
+		
+		// Fix up each boundary in order, so the previous chunk is final
+		String guessedMode = MobilityClassifierEngine.carriedMode(null);
+		for(int i = 1; i < numberOfChunks; i++) {
+			int start = starts[i];
+			String boundaryMode = classifiedPoints[start - 1].getClassification().getMode();
+			
+			if(MobilityClassifierEngine.carriedMode(boundaryMode).equals(guessedMode)) {
+				continue;
+			}
+			
+			ClassificationSession session = new ClassificationSession(points[start - 1].getWifiScan(), boundaryMode);
+			for(int j = start; j < starts[i + 1]; j++) {
+				String speculativeMode = classifiedPoints[j].getClassification().getMode();
+				classifiedPoints[j] = session.classify(points[j]);
+				
+				String mode = classifiedPoints[j].getClassification().getMode();
+				if(MobilityClassifierEngine.carriedMode(mode).equals(MobilityClassifierEngine.carriedMode(speculativeMode))) {
+					// The rest of the chunk saw the same state
+					break;
+				}
+			}
 		}
 		
-		return classifiedPoints;
+		return new ArrayList<ClassifiedPoint>(Arrays.asList(classifiedPoints));
+	}
+	
+	/**
+	 * Returns the cause of a failed task, or throws it if it is an Error.
+	 */
+	private static RuntimeException failure(ExecutionException e) {
+		Throwable cause = e.getCause();
+		if(cause instanceof RuntimeException) {
+			return (RuntimeException) cause;
+		}
+		if(cause instanceof Error) {
+			throw (Error) cause;
+		}
+		return new IllegalStateException("Classification failed", cause);
 	}
 }
@@ -0,0 +1,473 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openmhealth.dpu.mobilityclassifier.domain.ClassifiedPoint;
+import org.openmhealth.dpu.mobilityclassifier.domain.ResultDetail;
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+import org.openmhealth.dpu.mobilityclassifier.metrics.ClassificationMetrics;
+
+import edu.ucla.cens.mobilityclassifier.AccessPoint;
+import edu.ucla.cens.mobilityclassifier.Classification;
+import edu.ucla.cens.mobilityclassifier.MobilityClassifier;
+import edu.ucla.cens.mobilityclassifier.WifiScan;
+
+/**
+ * A stateful, incremental mobility classifier for a single stream of sensor 
+ * data points. The session remembers the previous wifi scan and mobility mode
+ * between calls so points may be supplied one at a time or in small batches 
+ * and are classified exactly as if the whole stream had been passed to 
+ * {@link ClassificationService#classify(List)} at once.
+ * 
+ * The carry-over state can be captured with {@link #snapshot()} and later
+ * restored with {@link #restore(byte[])}, e.g., to resume a stream in another
+ * process.
+ * 
+ * Instances are not thread-safe; each stream should use its own session.
+ */
+public class ClassificationSession {
+	private static final byte SNAPSHOT_VERSION = 1;
+	
+	private final MobilityClassifier mobilityClassifier;
+	
+	private WifiScan previousWifiScan;
+	private String previousMode;
+	private ClassificationCache cache;
+	private ClassificationMetrics metrics;
+	private ResultDetail resultDetail;
+	private MobilityClassifierEngine engine;
+	private AccelerometerResampler resampler;
+	
+	/**
+	 * Creates a session for a new stream.
+	 */
+	public ClassificationSession() {
+		this(null, null);
+	}
+	
+	/**
+	 * Creates a session that continues a stream whose last classified point
+	 * had the provided wifi scan and mode.
+	 * 
+	 * @param previousWifiScan the wifi scan of the last point classified, or 
+	 * null if no point has been classified
+	 * 
+	 * @param previousMode the mode of the last point classified, or null if 
+	 * no point has been classified
+	 */
+	public ClassificationSession(final WifiScan previousWifiScan, final String previousMode) {
+		this.mobilityClassifier = new MobilityClassifier();
+		this.previousWifiScan = previousWifiScan;
+		this.previousMode = previousMode;
+		this.metrics = ClassificationService.getMetrics();
+		this.resultDetail = ResultDetail.FULL;
+	}
+	
+	/**
+	 * Classifies the next point in the stream.
+	 * 
+	 * @param sensorDataPoint the data point to classify
+	 * 
+	 * @return the classified point
+	 * 
+	 * @throws IllegalArgumentException if the provided point is null
+	 */
+	public ClassifiedPoint classify(SensorDataPoint sensorDataPoint) {
+		if(sensorDataPoint == null) {
+			throw new IllegalArgumentException("sensorDataPoint is required");
+		}
+		
+		boolean timed = metrics.isEnabled();
+		long startNanos = timed ? System.nanoTime() : 0;
+		
+		if(resampler != null) {
+			sensorDataPoint = resampler.resample(sensorDataPoint);
+		}
+		
+		ClassificationCache.Key key = null;
+		Classification classification = null;
+		
+		if(cache != null) {
+			key = cache.key(sensorDataPoint, previousWifiScan, previousMode);
+			classification = cache.get(key);
+		}
+		
+		boolean cached = classification != null;
+		if(! cached) {
+			if(engine != null) {
+				classification = engine.classify(sensorDataPoint, previousWifiScan, previousMode);
+			}
+			else {
+				classification = mobilityClassifier.classify(sensorDataPoint.getAccelerometerSamples(),
+				                                             sensorDataPoint.getSpeed(),
+				                                             sensorDataPoint.getWifiScan(),
+				                                             previousWifiScan,
+				                                             previousMode);
+			}
+			
+			if(cache != null) {
+				cache.put(key, classification);
+			}
+		}
+		
+		previousWifiScan = sensorDataPoint.getWifiScan();
+		previousMode = classification.getMode();
+		
+		long classifiedNanos = timed ? System.nanoTime() : 0;
+		ClassifiedPoint classifiedPoint = new ClassifiedPoint(sensorDataPoint.getId(), classification, resultDetail);
+		
+		if(timed) {
+			boolean wifiOverride = MobilityClassifierEngine.isWifiOverride(classification, sensorDataPoint.getSpeed());
+			metrics.recordPoint(classification, cached, wifiOverride, classifiedNanos - startNanos, System.nanoTime() - classifiedNanos);
+		}
+		
+		return classifiedPoint;
+	}
+	
+	/**
+	 * Classifies the next points in the stream.
+	 * 
+	 * @param sensorDataPoints the data points to classify
+	 * 
+	 * @return a list of ClassifiedPoints. The list will be in the same order
+	 * as the provided list.
+	 * 
+	 * @throws IllegalArgumentException if the provided list is null or 
+	 * contains null
+	 */
+	public List<ClassifiedPoint> classify(List<SensorDataPoint> sensorDataPoints) {
+		boolean timed = metrics.isEnabled();
+		long startNanos = timed ? System.nanoTime() : 0;
+		
+		if(sensorDataPoints == null) {
+			throw new IllegalArgumentException("sensorDataPoints is required");
+		}
+		if(sensorDataPoints.contains(null)) {
+			throw new IllegalArgumentException("sensorDataPoints contains null");
+		}
+		
+		long validatedNanos = timed ? System.nanoTime() : 0;
+		List<ClassifiedPoint> classifiedPoints = new ArrayList<ClassifiedPoint>(sensorDataPoints.size());
+		
+		for(SensorDataPoint sensorDataPoint : sensorDataPoints) {
+			classifiedPoints.add(classify(sensorDataPoint));
+		}
+		
+		if(timed) {
+			metrics.recordBatch(classifiedPoints.size(), validatedNanos - startNanos, System.nanoTime() - startNanos);
+		}
+		
+		return classifiedPoints;
+	}
+	
+	/**
+	 * Classifies the next points in the stream and hands each result to the
+	 * provided sink as soon as it is produced. Unlike 
+	 * {@link #classify(List)}, no result list is built, so arbitrarily long
+	 * streams, e.g., from a {@link org.openmhealth.dpu.mobilityclassifier.io.SensorDataPointReader},
+	 * are classified with bounded memory.
+	 * 
+	 * @param sensorDataPoints the data points to classify
+	 * 
+	 * @param resultSink receives each point and its result in order
+	 * 
+	 * @return the number of points classified
+	 * 
+	 * @throws IllegalArgumentException if either parameter is null or a
+	 * point is null
+	 * 
+	 * @throws IOException if the sink fails
+	 */
+	public int classify(Iterable<SensorDataPoint> sensorDataPoints, ResultSink resultSink) throws IOException {
+		if(sensorDataPoints == null) {
+			throw new IllegalArgumentException("sensorDataPoints is required");
+		}
+		if(resultSink == null) {
+			throw new IllegalArgumentException("resultSink is required");
+		}
+		
+		boolean timed = metrics.isEnabled();
+		long startNanos = timed ? System.nanoTime() : 0;
+		int count = 0;
+		
+		for(SensorDataPoint sensorDataPoint : sensorDataPoints) {
+			resultSink.accept(sensorDataPoint, classify(sensorDataPoint));
+			count++;
+		}
+		
+		if(timed) {
+			metrics.recordBatch(count, 0, System.nanoTime() - startNanos);
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * @return the wifi scan of the last point classified, or null if no point
+	 * has been classified
+	 */
+	public WifiScan getPreviousWifiScan() {
+		return previousWifiScan;
+	}
+	
+	/**
+	 * @return the mode of the last point classified, or null if no point has
+	 * been classified
+	 */
+	public String getPreviousMode() {
+		return previousMode;
+	}
+	
+	/**
+	 * @return the cache consulted before classifying a point, or null if 
+	 * none is used
+	 */
+	public ClassificationCache getCache() {
+		return cache;
+	}
+	
+	/**
+	 * Sets a cache to consult before classifying each point. Points that are
+	 * redelivered with the same id, content, and previous scan and mode are 
+	 * then answered from the cache without invoking the MobilityClassifier.
+	 * The cache may be shared by many sessions.
+	 * 
+	 * @param cache the cache to use, or null to classify every point
+	 */
+	public void setCache(ClassificationCache cache) {
+		this.cache = cache;
+	}
+	
+	/**
+	 * @return the metrics this session records to
+	 */
+	public ClassificationMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * Sets the metrics this session records to. Sessions record to 
+	 * {@link ClassificationService#getMetrics()} as of their creation by 
+	 * default.
+	 * 
+	 * @param metrics the metrics to record to
+	 * 
+	 * @throws IllegalArgumentException if the provided metrics are null
+	 */
+	public void setMetrics(ClassificationMetrics metrics) {
+		if(metrics == null) {
+			throw new IllegalArgumentException("metrics is required");
+		}
+		
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * @return how much of each classification the ClassifiedPoints keep
+	 */
+	public ResultDetail getResultDetail() {
+		return resultDetail;
+	}
+	
+	/**
+	 * Sets how much of each classification the ClassifiedPoints keep. The
+	 * default is {@link ResultDetail#FULL}; {@link ResultDetail#MODE} keeps
+	 * only the modes and greatly reduces the memory used by large result 
+	 * lists.
+	 * 
+	 * @param resultDetail the detail to keep
+	 * 
+	 * @throws IllegalArgumentException if the provided detail is null
+	 */
+	public void setResultDetail(ResultDetail resultDetail) {
+		if(resultDetail == null) {
+			throw new IllegalArgumentException("resultDetail is required");
+		}
+		
+		this.resultDetail = resultDetail;
+	}
+	
+	/**
+	 * @return the in-tree engine this session classifies with, or null if it
+	 * uses the library's MobilityClassifier
+	 */
+	public MobilityClassifierEngine getEngine() {
+		return engine;
+	}
+	
+	/**
+	 * Sets an in-tree engine to classify with instead of the library's 
+	 * MobilityClassifier. The engine produces identical classifications 
+	 * without boxing each sample; in cascade mode the classifications have no
+	 * FFT, so such a session should not share a cache with sessions that need
+	 * one. An engine is not thread-safe and must not be shared with sessions
+	 * used by other threads.
+	 * 
+	 * @param engine the engine to use, or null to use the library
+	 * 
+	 * @throws IllegalStateException if the engine is null and the session 
+	 * has a resampler
+	 */
+	public void setEngine(MobilityClassifierEngine engine) {
+		if(engine == null && resampler != null) {
+			throw new IllegalStateException("A session with a resampler requires an engine");
+		}
+		
+		this.engine = engine;
+	}
+	
+	/**
+	 * @return the resampler applied to each point before it is classified, 
+	 * or null if points are classified as they are
+	 */
+	public AccelerometerResampler getResampler() {
+		return resampler;
+	}
+	
+	/**
+	 * Sets a resampler that reduces each point's window to a fixed number of
+	 * samples before it is classified, bounding the cost of points from 
+	 * devices with high sampling rates. The FFT features of a resampled point
+	 * shrink by the square of the size reduction, which only the in-tree 
+	 * engine undoes, so the session must classify with an engine; see 
+	 * {@link AccelerometerResampler}. A resampler is not thread-safe and must
+	 * not be shared with sessions used by other threads.
+	 * 
+	 * @param resampler the resampler to use, or null to classify points as 
+	 * they are
+	 * 
+	 * @throws IllegalStateException if the resampler is not null and the 
+	 * session has no engine
+	 */
+	public void setResampler(AccelerometerResampler resampler) {
+		if(resampler != null && engine == null) {
+			throw new IllegalStateException("A resampler requires an engine; call setEngine first");
+		}
+		
+		this.resampler = resampler;
+	}
+	
+	/**
+	 * Forgets the carry-over state so the next point starts a new stream.
+	 */
+	public void reset() {
+		previousWifiScan = null;
+		previousMode = null;
+	}
+	
+	/**
+	 * Serializes the carry-over state of this session. The blob contains only
+	 * the previous mode and the previous wifi scan, so its size is independent
+	 * of how many points have been classified.
+	 * 
+	 * @return a compact binary representation of this session's state
+	 */
+	public byte[] snapshot() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		
+		try {
+			out.writeByte(SNAPSHOT_VERSION);
+			
+			out.writeBoolean(previousMode != null);
+			if(previousMode != null) {
+				out.writeUTF(previousMode);
+			}
+			
+			out.writeBoolean(previousWifiScan != null);
+			if(previousWifiScan != null) {
+				List<AccessPoint> accessPoints = previousWifiScan.getAccessPoints();
+				
+				out.writeLong(previousWifiScan.getTime());
+				out.writeInt(accessPoints.size());
+				for(AccessPoint accessPoint : accessPoints) {
+					out.writeUTF(accessPoint.getSsid());
+					out.writeDouble(accessPoint.getStrength());
+				}
+			}
+			
+			out.flush();
+		}
+		catch(IOException e) {
+			// ByteArrayOutputStream does not throw IOExceptions
+			throw new IllegalStateException(e);
+		}
+		
+		return bytes.toByteArray();
+	}
+	
+	/**
+	 * Creates a session from state previously captured by {@link #snapshot()}.
+	 * 
+	 * @param snapshot the serialized session state
+	 * 
+	 * @return a session that continues the stream the snapshot was taken from
+	 * 
+	 * @throws IllegalArgumentException if the snapshot is null or malformed
+	 */
+	public static ClassificationSession restore(byte[] snapshot) {
+		if(snapshot == null) {
+			throw new IllegalArgumentException("snapshot is required");
+		}
+		
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(snapshot));
+		
+		try {
+			byte version = in.readByte();
+			if(version != SNAPSHOT_VERSION) {
+				throw new IllegalArgumentException("Unsupported snapshot version: " + version);
+			}
+			
+			String previousMode = null;
+			if(in.readBoolean()) {
+				previousMode = in.readUTF();
+			}
+			
+			WifiScan previousWifiScan = null;
+			if(in.readBoolean()) {
+				long time = in.readLong();
+				int numberOfAccessPoints = in.readInt();
+				if(numberOfAccessPoints < 0) {
+					throw new IllegalArgumentException("snapshot is malformed");
+				}
+				
+				List<AccessPoint> accessPoints = new ArrayList<AccessPoint>(Math.min(numberOfAccessPoints, 256));
+				for(int i = 0; i < numberOfAccessPoints; i++) {
+					accessPoints.add(new AccessPoint(in.readUTF(), in.readDouble()));
+				}
+				
+				previousWifiScan = new WifiScan(time, accessPoints);
+			}
+			
+			if(in.read() != -1) {
+				throw new IllegalArgumentException("snapshot is malformed");
+			}
+			
+			return new ClassificationSession(previousWifiScan, previousMode);
+		}
+		catch(IOException e) {
+			throw new IllegalArgumentException("snapshot is malformed", e);
+		}
+	}
+}
@@ -0,0 +1,235 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.service;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.List;
+
+import org.openmhealth.dpu.mobilityclassifier.domain.AccelerometerData;
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+
+/**
+ * Extracts the classifier's features from many accelerometer windows at 
+ * once: the average and variance of the magnitudes and the ten Goertzel 
+ * terms returned by Classification.getFft(). Windows are passed as primitive
+ * columns, and the features of window w are written to features[w * 
+ * FEATURES_PER_WINDOW] onwards, in the order average, variance, and FFT 
+ * terms one to ten.
+ * 
+ * {@link #create()} returns a kernel that uses the JDK's incubating Vector 
+ * API if the optional vector classes are on the classpath and the JVM was 
+ * started with <code>--add-modules jdk.incubator.vector</code>, and a 
+ * {@link ScalarFeatureKernel} otherwise. Setting the system property 
+ * mobility.vector.disabled to true always selects the scalar kernel.
+ * 
+ * The scalar kernel reproduces the 1.2.9 MobilityClassifier bit for bit. A
+ * vectorized kernel sums the magnitudes in a different order, so its 
+ * features may differ from the library's by a relative {@link #TOLERANCE}; 
+ * a mode can therefore only differ for a window whose variance or third FFT
+ * term is that close to a threshold of the decision tree.
+ * 
+ * Instances are not thread-safe; each thread should create its own kernel.
+ */
+public abstract class FeatureKernel {
+	public static final int FEATURES_PER_WINDOW = 12;
+	public static final int AVERAGE = 0;
+	public static final int VARIANCE = 1;
+	public static final int FFT = 2;
+	public static final int NUMBER_OF_FFT_TERMS = 10;
+	
+	/**
+	 * The largest relative difference between a feature extracted by any 
+	 * kernel and the library's, for windows of up to 10,000 samples.
+	 */
+	public static final double TOLERANCE = 1e-9D;
+	
+	private static final String VECTOR_KERNEL = "org.openmhealth.dpu.mobilityclassifier.vector.VectorFeatureKernel";
+	private static final Constructor<? extends FeatureKernel> PREFERRED_KERNEL = preferredKernel();
+	
+	private double[] scratchX = new double[0];
+	private double[] scratchY = new double[0];
+	private double[] scratchZ = new double[0];
+	private int[] scratchOffsets = new int[0];
+	private int[] scratchSizes = new int[0];
+	
+	/**
+	 * Creates the fastest kernel available in this JVM.
+	 */
+	public static FeatureKernel create() {
+		try {
+			return PREFERRED_KERNEL.newInstance();
+		}
+		catch(InstantiationException e) {
+			throw new IllegalStateException(e);
+		}
+		catch(IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+		catch(InvocationTargetException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+	
+	/**
+	 * Loads the vector kernel and checks that it works, falling back to the 
+	 * scalar kernel if the classes or the incubator module are missing.
+	 */
+	private static Constructor<? extends FeatureKernel> preferredKernel() {
+		if(! Boolean.getBoolean("mobility.vector.disabled")) {
+			try {
+				Constructor<? extends FeatureKernel> kernel = 
+					Class.forName(VECTOR_KERNEL).asSubclass(FeatureKernel.class).getDeclaredConstructor();
+				kernel.newInstance().extract(new double[11], new double[11], new double[11], 
+					new int[] { 0 }, new int[] { 11 }, 1, new double[FEATURES_PER_WINDOW]);
+				return kernel;
+			}
+			catch(ClassNotFoundException e) {
+				// The vector classes are not on the classpath
+			}
+			catch(NoSuchMethodException e) {
+				// Not a kernel this version can create
+			}
+			catch(InstantiationException e) {
+				// Not a kernel this version can create
+			}
+			catch(IllegalAccessException e) {
+				// Not a kernel this version can create
+			}
+			catch(InvocationTargetException e) {
+				// The kernel failed to initialize
+			}
+			catch(ClassCastException e) {
+				// Not a FeatureKernel
+			}
+			catch(LinkageError e) {
+				// The jdk.incubator.vector module is not available
+			}
+		}
+		
+		try {
+			return ScalarFeatureKernel.class.getDeclaredConstructor();
+		}
+		catch(NoSuchMethodException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * @return true if this kernel uses SIMD instructions
+	 */
+	public abstract boolean isVectorized();
+	
+	/**
+	 * Extracts the features of windows stored in shared columns.
+	 * 
+	 * @param x the x axis of all windows
+	 * 
+	 * @param y the y axis of all windows
+	 * 
+	 * @param z the z axis of all windows
+	 * 
+	 * @param offsets the index of each window's first sample in the columns
+	 * 
+	 * @param sizes the number of samples in each window, which must be 
+	 * positive
+	 * 
+	 * @param count the number of windows
+	 * 
+	 * @param features receives FEATURES_PER_WINDOW values per window
+	 * 
+	 * @throws IllegalArgumentException if a window is empty or lies outside 
+	 * the columns, or the features array is too short
+	 */
+	public abstract void extract(double[] x, double[] y, double[] z, int[] offsets, int[] sizes, int count, 
+			double[] features);
+	
+	/**
+	 * Extracts the features of the windows of the provided points. The 
+	 * samples are first copied into columns that are reused between calls.
+	 * 
+	 * @param sensorDataPoints the points, each with at least one sample
+	 * 
+	 * @param features receives FEATURES_PER_WINDOW values per point
+	 * 
+	 * @throws IllegalArgumentException if the list is null or contains null,
+	 * a point has no samples, or the features array is too short
+	 */
+	public void extract(List<SensorDataPoint> sensorDataPoints, double[] features) {
+		if(sensorDataPoints == null) {
+			throw new IllegalArgumentException("sensorDataPoints is required");
+		}
+		
+		int count = sensorDataPoints.size();
+		if(scratchSizes.length < count) {
+			scratchOffsets = new int[count];
+			scratchSizes = new int[count];
+		}
+		
+		int total = 0;
+		for(int w = 0; w < count; w++) {
+			SensorDataPoint sensorDataPoint = sensorDataPoints.get(w);
+			if(sensorDataPoint == null) {
+				throw new IllegalArgumentException("sensorDataPoints contains null");
+			}
+			scratchOffsets[w] = total;
+			scratchSizes[w] = sensorDataPoint.hasAccelerometerData() 
+				? sensorDataPoint.getAccelerometerData().size() : sensorDataPoint.getAccelerometerSamples().size();
+			total += scratchSizes[w];
+		}
+		
+		if(scratchX.length < total) {
+			scratchX = new double[total];
+			scratchY = new double[total];
+			scratchZ = new double[total];
+		}
+		for(int w = 0; w < count; w++) {
+			AccelerometerData data = sensorDataPoints.get(w).getAccelerometerData();
+			int offset = scratchOffsets[w];
+			for(int i = 0; i < scratchSizes[w]; i++) {
+				scratchX[offset + i] = data.getX(i);
+				scratchY[offset + i] = data.getY(i);
+				scratchZ[offset + i] = data.getZ(i);
+			}
+		}
+		
+		extract(scratchX, scratchY, scratchZ, scratchOffsets, scratchSizes, count, features);
+	}
+	
+	/**
+	 * Validates the arguments of {@link #extract(double[], double[], double[], int[], int[], int, double[])}.
+	 */
+	protected static void checkWindows(double[] x, double[] y, double[] z, int[] offsets, int[] sizes, int count, 
+			double[] features) {
+		
+		if(x == null || y == null || z == null || offsets == null || sizes == null || features == null) {
+			throw new IllegalArgumentException("columns, offsets, sizes, and features are required");
+		}
+		if(count < 0 || count > offsets.length || count > sizes.length) {
+			throw new IllegalArgumentException("count must be between 0 and the number of offsets and sizes");
+		}
+		if(features.length < (long) count * FEATURES_PER_WINDOW) {
+			throw new IllegalArgumentException("features must hold FEATURES_PER_WINDOW values per window");
+		}
+		
+		int length = Math.min(x.length, Math.min(y.length, z.length));
+		for(int w = 0; w < count; w++) {
+			if(sizes[w] <= 0 || offsets[w] < 0 || (long) offsets[w] + sizes[w] > length) {
+				throw new IllegalArgumentException("window " + w + " is empty or outside the columns");
+			}
+		}
+	}
+}
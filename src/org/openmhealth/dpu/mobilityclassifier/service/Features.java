@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.service;
+
+/**
+ * The feature arithmetic of the 1.2.9 MobilityClassifier: magnitudes in g, 
+ * their average and variance, and Goertzel power. Every expression is 
+ * evaluated in the same order as the library, so the results are bit-for-bit
+ * identical to it. Shared by {@link MobilityClassifierEngine} and 
+ * {@link ScalarFeatureKernel}.
+ */
+final class Features {
+	private static final double GRAVITY = 9.80665D;
+	private static final double TWO_PI = 6.283185307179586D;
+	
+	/**
+	 * Prevent instantiation as this class only contains static helpers.
+	 */
+	private Features() {
+		
+	}
+	
+	/**
+	 * @return the magnitude of a sample in g
+	 */
+	static double magnitude(double x, double y, double z) {
+		double sum = 0.0D;
+		sum += Math.pow(x / GRAVITY, 2.0D);
+		sum += Math.pow(y / GRAVITY, 2.0D);
+		sum += Math.pow(z / GRAVITY, 2.0D);
+		return Math.sqrt(sum);
+	}
+	
+	/**
+	 * @return the average of the first n magnitudes
+	 */
+	static double average(double[] magnitudes, int n) {
+		double sum = 0.0D;
+		for(int i = 0; i < n; i++) {
+			sum += magnitudes[i];
+		}
+		return sum / n;
+	}
+	
+	/**
+	 * @return the population variance of the first n magnitudes
+	 */
+	static double variance(double[] magnitudes, int n, double average) {
+		double sum = 0.0D;
+		for(int i = 0; i < n; i++) {
+			sum += Math.pow(magnitudes[i] - average, 2.0D);
+		}
+		return sum / n;
+	}
+	
+	/**
+	 * @return the Goertzel power of the first n magnitudes at k cycles per 
+	 * window. It is not normalized by n.
+	 */
+	static double goertzel(double[] magnitudes, int n, double k) {
+		double size = n;
+		double coefficient = 2.0D * Math.cos(TWO_PI * k / size);
+		double s1 = 0.0D;
+		double s2 = 0.0D;
+		
+		for(int i = 0; i < n; i++) {
+			double s = magnitudes[i] + coefficient * s1 - s2;
+			s2 = s1;
+			s1 = s;
+		}
+		
+		return s2 * s2 + s1 * s1 - coefficient * s2 * s1;
+	}
+}
@@ -0,0 +1,291 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openmhealth.dpu.mobilityclassifier.domain.AccelerometerData;
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+
+import edu.ucla.cens.mobilityclassifier.Classification;
+import edu.ucla.cens.mobilityclassifier.MobilityClassifier;
+import edu.ucla.cens.mobilityclassifier.Sample;
+import edu.ucla.cens.mobilityclassifier.WifiScan;
+
+/**
+ * A reimplementation of the 1.2.9 MobilityClassifier that produces 
+ * bit-for-bit identical Classifications. The library boxes every magnitude 
+ * into an ArrayList and runs all ten Goertzel passes before its decision 
+ * tree. This engine computes the magnitudes into a reused primitive array, 
+ * evaluates every expression in the same order as the library so the 
+ * floating point results are identical, and compares wifi scans with a 
+ * {@link WifiScanComparator}. Apart from the returned Classification, 
+ * nothing is allocated per point.
+ * 
+ * The decision tree only looks at the variance, the speed, and the third FFT
+ * term. In cascade mode the engine stops as soon as these decide the mode: a
+ * window whose variance is at or below the still threshold is still or drive
+ * depending only on the speed, and any other window only needs the third 
+ * Goertzel pass. Modes, wifi modes, averages, and variances are still 
+ * identical to the library's, but the Classification's FFT is null.
+ * 
+ * The FFT terms are Goertzel powers that grow with the square of the number
+ * of samples. For a point whose window was resampled by an 
+ * {@link AccelerometerResampler}, every term is multiplied by the square of
+ * the ratio of the recorded to the resampled window size, so the terms and
+ * the walk/run decision are on the scale of the recorded window.
+ * 
+ * Instances are not thread-safe; each stream should use its own engine.
+ */
+public class MobilityClassifierEngine {
+	private static final String STILL = "still";
+	private static final String WALK = "walk";
+	private static final String RUN = "run";
+	private static final String DRIVE = "drive";
+	private static final String UNKNOWN = "unknown";
+	
+	private static final int MINIMUM_SAMPLES = 10;
+	private static final int NUMBER_OF_FFT_TERMS = 10;
+	private static final double STILL_VARIANCE_THRESHOLD = 0.016791D;
+	private static final double DRIVE_SPEED_THRESHOLD = 0.791462D;
+	private static final double WALK_FFT_THRESHOLD = 16.840921D;
+	// The FFT term the decision tree looks at; fft.get(2) is the k = 3 pass
+	private static final int DECISIVE_FFT_TERM = 3;
+	
+	private final boolean cascade;
+	private final WifiScanComparator wifiScanComparator;
+	private double[] magnitudes;
+	
+	/**
+	 * Creates an engine that extracts every feature, like the library.
+	 */
+	public MobilityClassifierEngine() {
+		this(false);
+	}
+	
+	/**
+	 * Creates an engine.
+	 * 
+	 * @param cascade true to stop computing features as soon as the mode is
+	 * decided, in which case the Classifications have no FFT
+	 */
+	public MobilityClassifierEngine(final boolean cascade) {
+		this.cascade = cascade;
+		this.wifiScanComparator = new WifiScanComparator();
+		this.magnitudes = new double[128];
+	}
+	
+	public boolean isCascade() {
+		return cascade;
+	}
+	
+	/**
+	 * Classifies a point, reading columnar accelerometer data directly if the
+	 * point has it. The FFT terms of a resampled point are rescaled to the 
+	 * window size it was recorded with.
+	 * 
+	 * @param sensorDataPoint the point to classify
+	 * 
+	 * @param previousWifiScan the scan of the previous point in the stream, 
+	 * or null
+	 * 
+	 * @param previousMode the mode of the previous point in the stream, or 
+	 * null
+	 * 
+	 * @return the classification
+	 * 
+	 * @throws IllegalArgumentException if the point is null
+	 */
+	public Classification classify(SensorDataPoint sensorDataPoint, WifiScan previousWifiScan, String previousMode) {
+		if(sensorDataPoint == null) {
+			throw new IllegalArgumentException("sensorDataPoint is required");
+		}
+		
+		int n = sensorDataPoint.hasAccelerometerData()
+			? computeMagnitudes(sensorDataPoint.getAccelerometerData())
+			: computeMagnitudes(sensorDataPoint.getAccelerometerSamples());
+		
+		double fftScale = 1.0D;
+		int recordedWindowSize = sensorDataPoint.getRecordedWindowSize();
+		if(recordedWindowSize != n) {
+			double ratio = (double) recordedWindowSize / n;
+			fftScale = ratio * ratio;
+		}
+		
+		return classify(n, fftScale, sensorDataPoint.getSpeed(), sensorDataPoint.getWifiScan(), previousWifiScan, previousMode);
+	}
+	
+	/**
+	 * Classifies a window of samples with the same arguments as 
+	 * MobilityClassifier.classify.
+	 * 
+	 * @return the classification
+	 * 
+	 * @throws IllegalArgumentException if the samples are null
+	 */
+	public Classification classify(List<Sample> samples, Double speed, WifiScan currentWifiScan, 
+			WifiScan previousWifiScan, String previousMode) {
+		
+		if(samples == null) {
+			throw new IllegalArgumentException("samples is required");
+		}
+		
+		return classify(computeMagnitudes(samples), 1.0D, speed, currentWifiScan, previousWifiScan, previousMode);
+	}
+	
+	/**
+	 * Classifies the first n magnitudes, multiplying each FFT term by 
+	 * fftScale. Multiplying by 1 is exact, so unscaled results are identical
+	 * to the library's.
+	 */
+	private Classification classify(int n, double fftScale, Double speed, WifiScan currentWifiScan, 
+			WifiScan previousWifiScan, String previousMode) {
+		
+		String carriedMode = carriedMode(previousMode);
+		
+		Classification classification = new Classification();
+		
+		if(n <= MINIMUM_SAMPLES) {
+			classification.setHasFeatures(false);
+			classification.setMode(STILL);
+			return classification;
+		}
+		
+		String wifiMode = UNKNOWN;
+		if(currentWifiScan != null) {
+			wifiMode = wifiScanComparator.compare(currentWifiScan, previousWifiScan, carriedMode);
+		}
+		classification.setWifiMode(wifiMode);
+		
+		double average = Features.average(magnitudes, n);
+		double variance = Features.variance(magnitudes, n, average);
+		
+		String mode;
+		List<Double> fft = null;
+		
+		if(cascade) {
+			if(variance <= STILL_VARIANCE_THRESHOLD) {
+				mode = stillOrDrive(speed);
+			}
+			else {
+				mode = walkOrRun(Features.goertzel(magnitudes, n, DECISIVE_FFT_TERM) * fftScale);
+			}
+		}
+		else {
+			fft = new ArrayList<Double>(NUMBER_OF_FFT_TERMS);
+			for(int k = 1; k <= NUMBER_OF_FFT_TERMS; k++) {
+				fft.add(Features.goertzel(magnitudes, n, k) * fftScale);
+			}
+			
+			mode = variance <= STILL_VARIANCE_THRESHOLD 
+				? stillOrDrive(speed) : walkOrRun(fft.get(DECISIVE_FFT_TERM - 1));
+		}
+		
+		if(MobilityClassifier.wifiChecking && ! wifiMode.equals(UNKNOWN) && (mode.equals(DRIVE) || mode.equals(STILL))) {
+			mode = wifiMode;
+		}
+		
+		classification.setMode(mode);
+		classification.setAverage(average);
+		classification.setVariance(variance);
+		classification.setFft(fft);
+		classification.setHasFeatures(true);
+		return classification;
+	}
+	
+	/**
+	 * Returns the previous mode as the library sees it. The library only 
+	 * carries over the upper case modes "STILL" and "DRIVE", which it never
+	 * produces itself, and treats every other mode as "unknown". Two previous
+	 * modes with the same carried mode lead to identical classifications.
+	 * 
+	 * @param previousMode the mode of the previous point, or null
+	 * 
+	 * @return the carried mode
+	 */
+	static String carriedMode(String previousMode) {
+		return previousMode != null && (previousMode.equals("STILL") || previousMode.equals("DRIVE")) 
+			? previousMode : UNKNOWN;
+	}
+	
+	/**
+	 * Returns whether the wifi comparison replaced the mode the features 
+	 * gave. The features only give still or drive when the variance is at or
+	 * below the still threshold, and then the speed alone decides between 
+	 * them, so the mode before the override is recomputed from the variance
+	 * and speed. This works for classifications from the engine, the 
+	 * library, and a ClassificationCache alike.
+	 * 
+	 * @param classification the classification of a point
+	 * 
+	 * @param speed the speed of the point
+	 * 
+	 * @return true if the mode is the wifi mode and differs from the mode of
+	 * the features alone
+	 */
+	static boolean isWifiOverride(Classification classification, Double speed) {
+		if(! MobilityClassifier.wifiChecking || ! classification.hasFeatures()) {
+			return false;
+		}
+		
+		String wifiMode = classification.getWifiMode();
+		if(wifiMode == null || wifiMode.equals(UNKNOWN) || classification.getVariance().doubleValue() > STILL_VARIANCE_THRESHOLD) {
+			return false;
+		}
+		
+		return ! wifiMode.equals(stillOrDrive(speed));
+	}
+	
+	private static String stillOrDrive(Double speed) {
+		double value = speed.doubleValue();
+		return value <= DRIVE_SPEED_THRESHOLD || Double.isNaN(value) ? STILL : DRIVE;
+	}
+	
+	private static String walkOrRun(double fftTerm) {
+		return fftTerm <= WALK_FFT_THRESHOLD ? WALK : RUN;
+	}
+	
+	private int computeMagnitudes(AccelerometerData accelerometerData) {
+		int n = accelerometerData.size();
+		double[] magnitudes = ensureCapacity(n);
+		
+		for(int i = 0; i < n; i++) {
+			magnitudes[i] = Features.magnitude(accelerometerData.getX(i), accelerometerData.getY(i), accelerometerData.getZ(i));
+		}
+		
+		return n;
+	}
+	
+	private int computeMagnitudes(List<Sample> samples) {
+		int n = samples.size();
+		double[] magnitudes = ensureCapacity(n);
+		
+		int i = 0;
+		for(Sample sample : samples) {
+			magnitudes[i++] = Features.magnitude(sample.getX(), sample.getY(), sample.getZ());
+		}
+		
+		return n;
+	}
+	
+	private double[] ensureCapacity(int n) {
+		if(magnitudes.length < n) {
+			magnitudes = new double[Math.max(n, 2 * magnitudes.length)];
+		}
+		return magnitudes;
+	}
+}
@@ -0,0 +1,218 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.service;
+
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.UUID;
+
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+
+/**
+ * Restores the time order of a stream of points that arrive late, out of 
+ * order, or more than once, e.g., from mobile uploads, before they are 
+ * classified. A session chains each point to the previous one, so it must 
+ * see every point once and in order:
+ * 
+ * <pre>
+ * ReorderBuffer buffer = new ReorderBuffer(sessionSink, 300000L, 10000, 100000);
+ * for(SensorDataPoint sensorDataPoint : upload) {
+ *     buffer.accept(sensorDataPoint);
+ * }
+ * buffer.flush();
+ * </pre>
+ * 
+ * Points are ordered by wifi scan time and then by id. The watermark is the
+ * latest time seen minus maximumLatenessMillis; every point at or before the
+ * watermark is released to the sink, so a point is held for at most the 
+ * lateness after a later point arrives. A point that arrives after a later
+ * point has already been released cannot be placed and is dropped and 
+ * counted. If more than capacity points are held, the earliest is released
+ * early, which bounds memory when the lateness is generous.
+ * 
+ * Duplicates are detected by id. The ids of held points are always kept, 
+ * as are the ids of the most recently released maximumRememberedIds points;
+ * a duplicate of an older point is still dropped as late unless it is later
+ * than every released point.
+ * 
+ * Instances are not thread-safe.
+ */
+public class ReorderBuffer implements SensorDataPointSink {
+	private static final Comparator<SensorDataPoint> ORDER = new Comparator<SensorDataPoint>() {
+		public int compare(SensorDataPoint first, SensorDataPoint second) {
+			long firstTime = first.getWifiScan().getTime();
+			long secondTime = second.getWifiScan().getTime();
+			if(firstTime != secondTime) {
+				return firstTime < secondTime ? -1 : 1;
+			}
+			return first.getId().compareTo(second.getId());
+		}
+	};
+	
+	private final SensorDataPointSink sink;
+	private final long maximumLatenessMillis;
+	private final int capacity;
+	private final int maximumRememberedIds;
+	
+	private final PriorityQueue<SensorDataPoint> pending;
+	private final Set<UUID> pendingIds;
+	private final LinkedHashMap<UUID, Boolean> releasedIds;
+	
+	private long latestTime;
+	private SensorDataPoint lastReleased;
+	
+	private long duplicates;
+	private long lateDrops;
+	private long forcedReleases;
+	
+	/**
+	 * Creates a buffer.
+	 * 
+	 * @param sink receives the points in order
+	 * 
+	 * @param maximumLatenessMillis how far behind the latest point a point 
+	 * may arrive and still be placed in order
+	 * 
+	 * @param capacity the maximum number of points held
+	 * 
+	 * @param maximumRememberedIds the number of released ids kept to detect 
+	 * duplicates, in addition to the ids of held points
+	 * 
+	 * @throws IllegalArgumentException if the sink is null, 
+	 * maximumLatenessMillis is negative, or capacity or maximumRememberedIds
+	 * is not positive
+	 */
+	public ReorderBuffer(final SensorDataPointSink sink, final long maximumLatenessMillis, final int capacity, 
+			final int maximumRememberedIds) {
+		
+		if(sink == null) {
+			throw new IllegalArgumentException("sink is required");
+		}
+		if(maximumLatenessMillis < 0) {
+			throw new IllegalArgumentException("maximumLatenessMillis must not be negative");
+		}
+		if(capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		if(maximumRememberedIds <= 0) {
+			throw new IllegalArgumentException("maximumRememberedIds must be positive");
+		}
+		
+		this.sink = sink;
+		this.maximumLatenessMillis = maximumLatenessMillis;
+		this.capacity = capacity;
+		this.maximumRememberedIds = maximumRememberedIds;
+		this.pending = new PriorityQueue<SensorDataPoint>(Math.min(capacity, 1024) + 1, ORDER);
+		this.pendingIds = new HashSet<UUID>();
+		this.releasedIds = new LinkedHashMap<UUID, Boolean>(16, 0.75f) {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<UUID, Boolean> eldest) {
+				return size() > ReorderBuffer.this.maximumRememberedIds;
+			}
+		};
+		this.latestTime = Long.MIN_VALUE;
+	}
+	
+	/**
+	 * Adds a point and releases every point at or before the new watermark.
+	 * 
+	 * @throws IllegalArgumentException if the point is null
+	 */
+	public void accept(SensorDataPoint sensorDataPoint) {
+		if(sensorDataPoint == null) {
+			throw new IllegalArgumentException("sensorDataPoint is required");
+		}
+		
+		if(pendingIds.contains(sensorDataPoint.getId()) || releasedIds.containsKey(sensorDataPoint.getId())) {
+			duplicates++;
+			return;
+		}
+		if(lastReleased != null && ORDER.compare(sensorDataPoint, lastReleased) <= 0) {
+			lateDrops++;
+			return;
+		}
+		
+		pendingIds.add(sensorDataPoint.getId());
+		pending.add(sensorDataPoint);
+		
+		long time = sensorDataPoint.getWifiScan().getTime();
+		if(time > latestTime) {
+			latestTime = time;
+		}
+		
+		long watermark = latestTime - maximumLatenessMillis;
+		while(! pending.isEmpty() && pending.peek().getWifiScan().getTime() <= watermark) {
+			release();
+		}
+		while(pending.size() > capacity) {
+			release();
+			forcedReleases++;
+		}
+	}
+	
+	/**
+	 * Releases every held point, e.g., at the end of an upload. Ids are 
+	 * still remembered, so later duplicates are dropped.
+	 */
+	public void flush() {
+		while(! pending.isEmpty()) {
+			release();
+		}
+	}
+	
+	/**
+	 * @return the number of points held
+	 */
+	public int getPendingPoints() {
+		return pending.size();
+	}
+	
+	/**
+	 * @return the number of points dropped because their id was seen before
+	 */
+	public long getDuplicates() {
+		return duplicates;
+	}
+	
+	/**
+	 * @return the number of points dropped because a later point had already
+	 * been released
+	 */
+	public long getLateDrops() {
+		return lateDrops;
+	}
+	
+	/**
+	 * @return the number of points released before the watermark passed them
+	 * because the buffer was full
+	 */
+	public long getForcedReleases() {
+		return forcedReleases;
+	}
+	
+	private void release() {
+		lastReleased = pending.poll();
+		pendingIds.remove(lastReleased.getId());
+		releasedIds.put(lastReleased.getId(), Boolean.TRUE);
+		sink.accept(lastReleased);
+	}
+}
@@ -0,0 +1,41 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.service;
+
+import java.io.IOException;
+
+import org.openmhealth.dpu.mobilityclassifier.domain.ClassifiedPoint;
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+
+/**
+ * Receives each classified point as soon as it is produced, so a stream can
+ * be classified without holding its results in memory.
+ * 
+ * @see ClassificationSession#classify(Iterable, ResultSink)
+ */
+public interface ResultSink {
+	
+	/**
+	 * Accepts the next classified point of a stream.
+	 * 
+	 * @param sensorDataPoint the point that was classified
+	 * 
+	 * @param classifiedPoint the result
+	 * 
+	 * @throws IOException if the result cannot be written
+	 */
+	void accept(SensorDataPoint sensorDataPoint, ClassifiedPoint classifiedPoint) throws IOException;
+}
@@ -0,0 +1,56 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.service;
+
+/**
+ * Extracts features one sample at a time with exactly the arithmetic of the
+ * 1.2.9 MobilityClassifier, so the features are identical to the library's.
+ * This kernel runs on any Java version.
+ */
+public class ScalarFeatureKernel extends FeatureKernel {
+	private double[] magnitudes = new double[128];
+	
+	@Override
+	public boolean isVectorized() {
+		return false;
+	}
+	
+	@Override
+	public void extract(double[] x, double[] y, double[] z, int[] offsets, int[] sizes, int count, double[] features) {
+		checkWindows(x, y, z, offsets, sizes, count, features);
+		
+		for(int w = 0; w < count; w++) {
+			int n = sizes[w];
+			int offset = offsets[w];
+			if(magnitudes.length < n) {
+				magnitudes = new double[Math.max(n, 2 * magnitudes.length)];
+			}
+			
+			for(int i = 0; i < n; i++) {
+				magnitudes[i] = Features.magnitude(x[offset + i], y[offset + i], z[offset + i]);
+			}
+			
+			int base = w * FEATURES_PER_WINDOW;
+			double average = Features.average(magnitudes, n);
+			features[base + AVERAGE] = average;
+			features[base + VARIANCE] = Features.variance(magnitudes, n, average);
+			
+			for(int k = 1; k <= NUMBER_OF_FFT_TERMS; k++) {
+				features[base + FFT + k - 1] = Features.goertzel(magnitudes, n, k);
+			}
+		}
+	}
+}
@@ -0,0 +1,32 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.service;
+
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+
+/**
+ * Receives sensor data points as a stage of a pipeline produces them, e.g., 
+ * a session classifying each point as it arrives.
+ */
+public interface SensorDataPointSink {
+	
+	/**
+	 * Accepts the next point.
+	 * 
+	 * @param sensorDataPoint the point
+	 */
+	void accept(SensorDataPoint sensorDataPoint);
+}
@@ -0,0 +1,225 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.service;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.ucla.cens.mobilityclassifier.AccessPoint;
+import edu.ucla.cens.mobilityclassifier.WifiScan;
+
+/**
+ * Determines the wifi mode of a point by comparing its scan with the previous
+ * scan in the stream, producing exactly the same result as the comparison 
+ * inside the 1.2.9 MobilityClassifier. Instead of building and scanning 
+ * Lists of SSID Strings for every point, SSIDs are interned to ints and each
+ * scan is reduced once to a sorted int array of the SSIDs that take part in
+ * the comparison. The two arrays are then compared with a single merge pass.
+ * 
+ * The most recently encoded scan is remembered, so in a stream where each 
+ * point's previous scan is the last point's scan every scan is encoded only
+ * once. A scan compared with itself, or with a scan containing exactly the
+ * same SSIDs, is resolved without a merge.
+ * 
+ * Instances are not thread-safe; each stream should use its own comparator.
+ */
+public class WifiScanComparator {
+	private static final String STILL = "still";
+	private static final String DRIVE = "drive";
+	private static final String UNKNOWN = "unknown";
+	
+	private static final long MAXIMUM_SCAN_AGE_MILLIS = 480000L;
+	private static final double STRONG_SIGNAL_THRESHOLD = -50.0D;
+	private static final double DRIVE_OVERLAP_RATIO = 1.0D / 3.0D;
+	private static final int MAXIMUM_DICTIONARY_SIZE = 1 << 16;
+	
+	private final Map<String, Integer> dictionary;
+	private int[] scratch;
+	
+	private WifiScan lastScan;
+	private int[] lastSsids;
+	
+	/**
+	 * Creates a comparator with an empty SSID dictionary.
+	 */
+	public WifiScanComparator() {
+		this.dictionary = new HashMap<String, Integer>();
+		this.scratch = new int[32];
+	}
+	
+	/**
+	 * Compares a scan with the previous scan in the stream.
+	 * 
+	 * @param currentWifiScan the scan of the point being classified
+	 * 
+	 * @param previousWifiScan the scan of the previous point, or null if 
+	 * there is none
+	 * 
+	 * @param previousMode the mode to return if both scans were taken at the
+	 * same time. The MobilityClassifier passes "unknown" unless the previous
+	 * mode was "STILL" or "DRIVE".
+	 * 
+	 * @return "drive" if less than a third of the SSIDs are shared, "still" 
+	 * if more are shared, and "unknown" if there is no previous scan, it is 
+	 * more than eight minutes older than the current scan, or neither scan 
+	 * has usable SSIDs
+	 * 
+	 * @throws IllegalArgumentException if the current scan is null
+	 */
+	public String compare(WifiScan currentWifiScan, WifiScan previousWifiScan, String previousMode) {
+		if(currentWifiScan == null) {
+			throw new IllegalArgumentException("currentWifiScan is required");
+		}
+		
+		if(previousWifiScan == null) {
+			return UNKNOWN;
+		}
+		
+		long currentTime = currentWifiScan.getTime();
+		long previousTime = previousWifiScan.getTime();
+		
+		if(previousTime == currentTime) {
+			return previousMode;
+		}
+		if(previousTime < currentTime - MAXIMUM_SCAN_AGE_MILLIS) {
+			return UNKNOWN;
+		}
+		
+		if(dictionary.size() > MAXIMUM_DICTIONARY_SIZE) {
+			// Keep long-running streams with ever-changing SSIDs bounded. Ids
+			// only need to be consistent between the two scans compared.
+			dictionary.clear();
+			lastScan = null;
+			lastSsids = null;
+		}
+		
+		int[] previousSsids = encode(previousWifiScan);
+		int[] currentSsids = encode(currentWifiScan);
+		
+		int same;
+		int total;
+		
+		if(currentSsids == previousSsids || Arrays.equals(currentSsids, previousSsids)) {
+			same = currentSsids.length;
+			total = currentSsids.length;
+		}
+		else {
+			same = 0;
+			total = currentSsids.length;
+			
+			// Both arrays are sorted. Every occurrence of an SSID in the 
+			// current scan counts as shared if the previous scan has it, and
+			// every occurrence in the previous scan only counts towards the 
+			// total if the current scan lacks it.
+			int i = 0;
+			int j = 0;
+			while(i < currentSsids.length || j < previousSsids.length) {
+				int ssid = i < currentSsids.length ? currentSsids[i] : previousSsids[j];
+				if(j < previousSsids.length && previousSsids[j] < ssid) {
+					ssid = previousSsids[j];
+				}
+				
+				int currentCount = 0;
+				while(i < currentSsids.length && currentSsids[i] == ssid) {
+					currentCount++;
+					i++;
+				}
+				int previousCount = 0;
+				while(j < previousSsids.length && previousSsids[j] == ssid) {
+					previousCount++;
+					j++;
+				}
+				
+				if(previousCount > 0) {
+					same += currentCount;
+				}
+				if(currentCount == 0) {
+					total += previousCount;
+				}
+			}
+		}
+		
+		if(total > 0 && (double) same / (double) total < DRIVE_OVERLAP_RATIO) {
+			return DRIVE;
+		}
+		if(total > 0) {
+			return STILL;
+		}
+		return UNKNOWN;
+	}
+	
+	/**
+	 * Returns the sorted ids of the SSIDs used for comparison: those with a
+	 * strength below -50 or, if there are none, those below the scan's 
+	 * average strength, computed with the MobilityClassifier's truncating
+	 * integer arithmetic.
+	 */
+	private int[] encode(WifiScan wifiScan) {
+		if(wifiScan == lastScan) {
+			return lastSsids;
+		}
+		
+		List<AccessPoint> accessPoints = wifiScan.getAccessPoints();
+		int numberOfAccessPoints = accessPoints.size();
+		if(scratch.length < numberOfAccessPoints) {
+			scratch = new int[Math.max(numberOfAccessPoints, scratch.length * 2)];
+		}
+		
+		int strengthTotal = 0;
+		int strengthCount = 0;
+		int size = 0;
+		
+		for(int i = 0; i < numberOfAccessPoints; i++) {
+			double strength = accessPoints.get(i).getStrength();
+			strengthTotal = (int) (strengthTotal + strength);
+			strengthCount++;
+			
+			if(strength < STRONG_SIGNAL_THRESHOLD) {
+				scratch[size++] = intern(accessPoints.get(i).getSsid());
+			}
+		}
+		
+		if(size == 0 && strengthCount > 0) {
+			double averageStrength = strengthTotal / strengthCount;
+			
+			for(int i = 0; i < numberOfAccessPoints; i++) {
+				if(accessPoints.get(i).getStrength() < averageStrength) {
+					scratch[size++] = intern(accessPoints.get(i).getSsid());
+				}
+			}
+		}
+		
+		int[] ssids = Arrays.copyOf(scratch, size);
+		Arrays.sort(ssids);
+		
+		lastScan = wifiScan;
+		lastSsids = ssids;
+		return ssids;
+	}
+	
+	private int intern(String ssid) {
+		Integer id = dictionary.get(ssid);
+		
+		if(id == null) {
+			id = dictionary.size();
+			dictionary.put(ssid, id);
+		}
+		
+		return id;
+	}
+}
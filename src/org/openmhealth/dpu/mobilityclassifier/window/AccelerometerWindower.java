@@ -0,0 +1,481 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.window;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.UUID;
+
+import org.joda.time.DateTimeZone;
+import org.openmhealth.dpu.mobilityclassifier.domain.AccelerometerData;
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+import org.openmhealth.dpu.mobilityclassifier.service.SensorDataPointSink;
+
+import edu.ucla.cens.mobilityclassifier.WifiScan;
+
+/**
+ * Cuts a continuous stream of timestamped accelerometer samples into windows
+ * and joins each window with the nearest speed sample and wifi scan, which
+ * arrive as separate, sparser events. The result is a stream of 
+ * SensorDataPoints handed to a {@link SensorDataPointSink}.
+ * 
+ * Windows are either a fixed number of samples or a fixed duration, and 
+ * overlap when the hop is shorter than the window. Samples are appended to a
+ * preallocated primitive ring buffer and copied exactly once more, into the
+ * arrays of the window that owns them, so no per-sample objects are created.
+ * 
+ * A completed window is held back until a speed sample and a scan at or after
+ * its midpoint have arrived, or until the accelerometer stream has moved more
+ * than maximumJoinMillis past its midpoint, so the nearest event on either 
+ * side can be chosen. Only events within maximumJoinMillis of the midpoint 
+ * are joined. A window without a nearby speed gets a speed of NaN. A window
+ * without a nearby scan reuses the scan of the previous emitted window, 
+ * which the classifier treats as a repeated scan and so carries the previous
+ * wifi result, or, for the first window, the nearest scan seen at any 
+ * distance. No scan is made up: an empty scan would compare as a complete 
+ * change of access points, i.e., drive, against the real scans around it. 
+ * Windows released before any scan has arrived are therefore skipped and 
+ * counted.
+ * 
+ * Samples must arrive in time order; earlier samples are dropped and 
+ * counted. Speed samples and scans may arrive in any order, and the most 
+ * recent {@value #JOIN_CAPACITY} of each are considered.
+ * 
+ * Instances are not thread-safe.
+ */
+public class AccelerometerWindower {
+	static final int JOIN_CAPACITY = 64;
+	
+	private final SensorDataPointSink sink;
+	private final DateTimeZone timezone;
+	private final long maximumJoinMillis;
+	
+	// Either count or time based
+	private final boolean timeBased;
+	private final int windowSize;
+	private final int hopSize;
+	private final long windowMillis;
+	private final long hopMillis;
+	
+	// The sample ring buffer
+	private final long[] times;
+	private final double[] x;
+	private final double[] y;
+	private final double[] z;
+	private int head;
+	private int size;
+	
+	private final long[] speedTimes;
+	private final double[] speeds;
+	private int speedCount;
+	private final WifiScan[] wifiScans;
+	private int wifiScanCount;
+	
+	private final Queue<Window> pending;
+	
+	private long windowStart;
+	private int samplesUntilWindow;
+	private boolean started;
+	private long lastSampleTime = Long.MIN_VALUE;
+	private long lastSpeedTime = Long.MIN_VALUE;
+	private long lastWifiScanTime = Long.MIN_VALUE;
+	private long droppedSamples;
+	private long windows;
+	private long skippedWindows;
+	private WifiScan lastEmittedWifiScan;
+	
+	private AccelerometerWindower(final boolean timeBased, final int windowSize, final int hopSize, final long windowMillis,
+			final long hopMillis, final int capacity, final long maximumJoinMillis, final DateTimeZone timezone, 
+			final SensorDataPointSink sink) {
+		
+		if(maximumJoinMillis < 0) {
+			throw new IllegalArgumentException("maximumJoinMillis must not be negative");
+		}
+		if(timezone == null) {
+			throw new IllegalArgumentException("timezone is required");
+		}
+		if(sink == null) {
+			throw new IllegalArgumentException("sink is required");
+		}
+		
+		this.timeBased = timeBased;
+		this.windowSize = windowSize;
+		this.hopSize = hopSize;
+		this.windowMillis = windowMillis;
+		this.hopMillis = hopMillis;
+		this.maximumJoinMillis = maximumJoinMillis;
+		this.timezone = timezone;
+		this.sink = sink;
+		
+		this.times = new long[capacity];
+		this.x = new double[capacity];
+		this.y = new double[capacity];
+		this.z = new double[capacity];
+		this.speedTimes = new long[JOIN_CAPACITY];
+		this.speeds = new double[JOIN_CAPACITY];
+		this.wifiScans = new WifiScan[JOIN_CAPACITY];
+		this.pending = new ArrayDeque<Window>();
+		this.samplesUntilWindow = windowSize;
+	}
+	
+	/**
+	 * Creates a windower that emits a window of windowSize samples every 
+	 * hopSize samples.
+	 * 
+	 * @param windowSize the number of samples in each window
+	 * 
+	 * @param hopSize the number of samples between the starts of consecutive
+	 * windows; windows overlap if this is less than windowSize
+	 * 
+	 * @param maximumJoinMillis how far a speed sample or scan may be from a
+	 * window's midpoint to be joined with it
+	 * 
+	 * @param timezone the timezone of the emitted points
+	 * 
+	 * @param sink receives the emitted points
+	 * 
+	 * @throws IllegalArgumentException if a size is not positive, 
+	 * maximumJoinMillis is negative, or the timezone or sink is null
+	 */
+	public static AccelerometerWindower bySampleCount(int windowSize, int hopSize, long maximumJoinMillis, 
+			DateTimeZone timezone, SensorDataPointSink sink) {
+		
+		if(windowSize <= 0) {
+			throw new IllegalArgumentException("windowSize must be positive");
+		}
+		if(hopSize <= 0) {
+			throw new IllegalArgumentException("hopSize must be positive");
+		}
+		
+		return new AccelerometerWindower(false, windowSize, hopSize, 0, 0, windowSize, maximumJoinMillis, timezone, sink);
+	}
+	
+	/**
+	 * Creates a windower that emits the samples of [start, start + 
+	 * windowMillis) every hopMillis. Empty windows are skipped.
+	 * 
+	 * @param windowMillis the duration of each window
+	 * 
+	 * @param hopMillis the time between the starts of consecutive windows; 
+	 * windows overlap if this is less than windowMillis
+	 * 
+	 * @param capacity the size of the sample ring buffer, which must hold at 
+	 * least one window of samples. If it fills up, the oldest samples are 
+	 * dropped and counted.
+	 * 
+	 * @param maximumJoinMillis how far a speed sample or scan may be from a
+	 * window's midpoint to be joined with it
+	 * 
+	 * @param timezone the timezone of the emitted points
+	 * 
+	 * @param sink receives the emitted points
+	 * 
+	 * @throws IllegalArgumentException if a duration or the capacity is not 
+	 * positive, maximumJoinMillis is negative, or the timezone or sink is null
+	 */
+	public static AccelerometerWindower byDuration(long windowMillis, long hopMillis, int capacity, long maximumJoinMillis, 
+			DateTimeZone timezone, SensorDataPointSink sink) {
+		
+		if(windowMillis <= 0) {
+			throw new IllegalArgumentException("windowMillis must be positive");
+		}
+		if(hopMillis <= 0) {
+			throw new IllegalArgumentException("hopMillis must be positive");
+		}
+		if(capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		
+		return new AccelerometerWindower(true, 0, 0, windowMillis, hopMillis, capacity, maximumJoinMillis, timezone, sink);
+	}
+	
+	/**
+	 * Adds the next accelerometer sample, emitting any windows it completes.
+	 * 
+	 * @param time the time of the sample in milliseconds since the epoch
+	 * 
+	 * @param sampleX the x axis
+	 * 
+	 * @param sampleY the y axis
+	 * 
+	 * @param sampleZ the z axis
+	 */
+	public void addSample(long time, double sampleX, double sampleY, double sampleZ) {
+		if(time < lastSampleTime) {
+			droppedSamples++;
+			return;
+		}
+		lastSampleTime = time;
+		
+		if(timeBased) {
+			if(! started) {
+				started = true;
+				windowStart = time;
+			}
+			
+			while(time >= windowStart + windowMillis) {
+				evictBeforeWindow();
+				if(size == 0) {
+					// Skip the empty windows of a gap in one step, to the 
+					// first window that ends after this sample
+					windowStart += ((time - windowStart - windowMillis) / hopMillis + 1) * hopMillis;
+					break;
+				}
+				
+				cutWindow(size, windowStart + windowMillis / 2);
+				windowStart += hopMillis;
+			}
+			
+			// A sample between windows, when the hop is longer than the 
+			// window, belongs to none of them
+			if(time < windowStart) {
+				release(false);
+				return;
+			}
+			evictBeforeWindow();
+			
+			if(size == times.length) {
+				removeOldest();
+				droppedSamples++;
+			}
+			append(time, sampleX, sampleY, sampleZ);
+		}
+		else {
+			if(size == times.length) {
+				removeOldest();
+			}
+			append(time, sampleX, sampleY, sampleZ);
+			
+			if(--samplesUntilWindow == 0) {
+				// The ring holds exactly the last windowSize samples
+				if(size == windowSize) {
+					cutWindow(size, times[head] + (time - times[head]) / 2);
+				}
+				samplesUntilWindow = hopSize;
+			}
+		}
+		
+		release(false);
+	}
+	
+	/**
+	 * Adds a speed sample.
+	 * 
+	 * @param time the time of the sample in milliseconds since the epoch
+	 * 
+	 * @param speed the speed
+	 */
+	public void addSpeed(long time, double speed) {
+		int index = speedCount++ % JOIN_CAPACITY;
+		speedTimes[index] = time;
+		speeds[index] = speed;
+		lastSpeedTime = Math.max(lastSpeedTime, time);
+		
+		release(false);
+	}
+	
+	/**
+	 * Adds a wifi scan.
+	 * 
+	 * @param wifiScan the scan
+	 * 
+	 * @throws IllegalArgumentException if the scan or its time is null
+	 */
+	public void addWifiScan(WifiScan wifiScan) {
+		if(wifiScan == null) {
+			throw new IllegalArgumentException("wifiScan is required");
+		}
+		if(wifiScan.getTime() == null) {
+			throw new IllegalArgumentException("wifiScan has no time");
+		}
+		
+		wifiScans[wifiScanCount++ % JOIN_CAPACITY] = wifiScan;
+		lastWifiScanTime = Math.max(lastWifiScanTime, wifiScan.getTime());
+		
+		release(false);
+	}
+	
+	/**
+	 * Ends the stream. A time based windower emits the samples of its 
+	 * current, partial window. All held back windows are joined with the 
+	 * events seen so far and emitted. Samples that have not completed a count
+	 * based window are discarded.
+	 */
+	public void flush() {
+		if(timeBased) {
+			evictBeforeWindow();
+			if(size > 0) {
+				cutWindow(size, windowStart + windowMillis / 2);
+			}
+		}
+		size = 0;
+		samplesUntilWindow = windowSize;
+		started = false;
+		
+		release(true);
+	}
+	
+	/**
+	 * @return the number of samples dropped because they arrived out of 
+	 * order or overflowed the ring buffer
+	 */
+	public long getDroppedSamples() {
+		return droppedSamples;
+	}
+	
+	/**
+	 * @return the number of windows cut so far
+	 */
+	public long getWindows() {
+		return windows;
+	}
+	
+	/**
+	 * @return the number of windows skipped because no scan had arrived 
+	 * when they were released
+	 */
+	public long getSkippedWindows() {
+		return skippedWindows;
+	}
+	
+	private void evictBeforeWindow() {
+		while(size > 0 && times[head] < windowStart) {
+			removeOldest();
+		}
+	}
+	
+	private void append(long time, double sampleX, double sampleY, double sampleZ) {
+		int index = head + size;
+		if(index >= times.length) {
+			index -= times.length;
+		}
+		
+		times[index] = time;
+		x[index] = sampleX;
+		y[index] = sampleY;
+		z[index] = sampleZ;
+		size++;
+	}
+	
+	private void removeOldest() {
+		head = head + 1 == times.length ? 0 : head + 1;
+		size--;
+	}
+	
+	/**
+	 * Copies the oldest n samples of the ring into a new window.
+	 */
+	private void cutWindow(int n, long time) {
+		double[] windowX = new double[n];
+		double[] windowY = new double[n];
+		double[] windowZ = new double[n];
+		
+		// The samples are in at most two contiguous runs
+		int first = Math.min(n, times.length - head);
+		System.arraycopy(x, head, windowX, 0, first);
+		System.arraycopy(y, head, windowY, 0, first);
+		System.arraycopy(z, head, windowZ, 0, first);
+		System.arraycopy(x, 0, windowX, first, n - first);
+		System.arraycopy(y, 0, windowY, first, n - first);
+		System.arraycopy(z, 0, windowZ, first, n - first);
+		
+		pending.add(new Window(time, AccelerometerData.wrap(windowX, windowY, windowZ)));
+		windows++;
+	}
+	
+	/**
+	 * Emits the held back windows whose joins can no longer improve.
+	 */
+	private void release(boolean force) {
+		Window window = pending.peek();
+		
+		while(window != null) {
+			boolean ready = force
+				|| (lastSpeedTime >= window.time && lastWifiScanTime >= window.time)
+				|| lastSampleTime - window.time > maximumJoinMillis;
+			
+			if(! ready) {
+				return;
+			}
+			
+			pending.poll();
+			WifiScan wifiScan = nearestWifiScan(window.time);
+			if(wifiScan == null) {
+				skippedWindows++;
+			}
+			else {
+				lastEmittedWifiScan = wifiScan;
+				sink.accept(new SensorDataPoint(UUID.randomUUID(), nearestSpeed(window.time), timezone, 
+						wifiScan, window.accelerometerData));
+			}
+			window = pending.peek();
+		}
+	}
+	
+	private double nearestSpeed(long time) {
+		double speed = Double.NaN;
+		long nearest = maximumJoinMillis;
+		
+		for(int i = 0, n = Math.min(speedCount, JOIN_CAPACITY); i < n; i++) {
+			long distance = Math.abs(speedTimes[i] - time);
+			if(distance < nearest || (distance == nearest && Double.isNaN(speed))) {
+				nearest = distance;
+				speed = speeds[i];
+			}
+		}
+		
+		return speed;
+	}
+	
+	/**
+	 * Returns the nearest scan within maximumJoinMillis, else the scan of the
+	 * previous emitted window, else the nearest scan at any distance, or null
+	 * if there are no scans.
+	 */
+	private WifiScan nearestWifiScan(long time) {
+		WifiScan wifiScan = null;
+		WifiScan nearestAtAnyDistance = null;
+		long nearest = maximumJoinMillis;
+		long nearestDistance = Long.MAX_VALUE;
+		
+		for(int i = 0, n = Math.min(wifiScanCount, JOIN_CAPACITY); i < n; i++) {
+			long distance = Math.abs(wifiScans[i].getTime() - time);
+			if(distance < nearest || (distance == nearest && wifiScan == null)) {
+				nearest = distance;
+				wifiScan = wifiScans[i];
+			}
+			if(distance < nearestDistance) {
+				nearestDistance = distance;
+				nearestAtAnyDistance = wifiScans[i];
+			}
+		}
+		
+		if(wifiScan != null) {
+			return wifiScan;
+		}
+		return lastEmittedWifiScan != null ? lastEmittedWifiScan : nearestAtAnyDistance;
+	}
+	
+	private static final class Window {
+		private final long time;
+		private final AccelerometerData accelerometerData;
+		
+		private Window(final long time, final AccelerometerData accelerometerData) {
+			this.time = time;
+			this.accelerometerData = accelerometerData;
+		}
+	}
+}
@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.openmhealth.dpu.mobilityclassifier.domain.AccelerometerData;
+import org.openmhealth.dpu.mobilityclassifier.domain.ClassifiedPoint;
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+import org.openmhealth.dpu.mobilityclassifier.service.ClassificationService;
+
+import edu.ucla.cens.mobilityclassifier.Sample;
+
+/**
+ * Tests the columnar accelerometer representation.
+ */
+public class AccelerometerDataTests extends TestCase {
+	
+	/**
+	 * Tests an attempt to create columns of different lengths
+	 */
+	@Test
+	public void testMismatchedColumns() {
+		try {
+			new AccelerometerData(new double[2], new double[2], new double[1]);
+			
+			fail("AccelerometerData allowed columns of different lengths");
+		}
+		catch(IllegalArgumentException e) {
+			// expected behavior
+		}
+	}
+	
+	/**
+	 * Tests that the Sample view reads back the columns
+	 */
+	@Test
+	public void testSampleListView() {
+		AccelerometerData data = new AccelerometerData(new double[] { 1, 2 }, new double[] { 3, 4 }, new double[] { 5, 6 });
+		List<Sample> samples = data.asSampleList();
+		
+		assertEquals(2, samples.size());
+		assertEquals(2.0D, samples.get(1).getX());
+		assertEquals(4.0D, samples.get(1).getY());
+		assertEquals(6.0D, samples.get(1).getZ());
+		assertEquals(data, AccelerometerData.fromSamples(samples));
+		
+		try {
+			samples.add(new Sample(0, 0, 0));
+			
+			fail("AccelerometerData.asSampleList is modifiable");
+		}
+		catch(UnsupportedOperationException e) {
+			// expected behavior
+		}
+	}
+	
+	/**
+	 * Tests that a view of a range of larger arrays behaves like a copy of 
+	 * the range and does not read outside it
+	 */
+	@Test
+	public void testRangeView() {
+		double[] x = { 0, 1, 2, 0 };
+		double[] y = { 0, 3, 4, 0 };
+		double[] z = { 0, 5, 6, 0 };
+		AccelerometerData view = AccelerometerData.wrap(x, y, z, 1, 2);
+		AccelerometerData copy = new AccelerometerData(new double[] { 1, 2 }, new double[] { 3, 4 }, new double[] { 5, 6 });
+		
+		assertEquals(2, view.size());
+		assertEquals(2.0D, view.getX(1));
+		assertEquals(copy, view);
+		assertEquals(view, copy);
+		assertEquals(copy.hashCode(), view.hashCode());
+		assertEquals(copy, AccelerometerData.fromSamples(view.asSampleList()));
+		assertFalse(view.equals(AccelerometerData.wrap(x, y, z, 0, 2)));
+		
+		try {
+			view.getX(2);
+			
+			fail("AccelerometerData read outside its range");
+		}
+		catch(IndexOutOfBoundsException e) {
+			// expected behavior
+		}
+		
+		try {
+			AccelerometerData.wrap(x, y, z, 3, 2);
+			
+			fail("AccelerometerData.wrap allowed a range outside the arrays");
+		}
+		catch(IllegalArgumentException e) {
+			// expected behavior
+		}
+	}
+	
+	/**
+	 * Tests value and id identity of points and that toString does not list
+	 * the samples
+	 */
+	@Test
+	public void testPointIdentity() {
+		SensorDataPoint point = SensorDataPointFixtures.trace(1, 1).get(0);
+		SensorDataPoint same = new SensorDataPoint(point.getId(), point.getSpeed(), point.getTimezone(), 
+				point.getWifiScan(), point.getAccelerometerSamples());
+		SensorDataPoint other = new SensorDataPoint(point.getId(), point.getSpeed() + 1, point.getTimezone(), 
+				point.getWifiScan(), point.getAccelerometerSamples());
+		
+		assertEquals(point, same);
+		assertEquals(point.hashCode(), same.hashCode());
+		assertFalse(same.equals(other));
+		
+		assertFalse(point.hasIdIdentity());
+		assertTrue(point.withIdIdentity().hasIdIdentity());
+		assertEquals(point.withIdIdentity(), other.withIdIdentity());
+		assertEquals(point.getId().hashCode(), other.withIdIdentity().hashCode());
+		assertFalse(point.equals(point.withIdIdentity()));
+		assertSame(point.getAccelerometerSamples(), point.withIdIdentity().getAccelerometerSamples());
+		
+		// A point backed by a caller's list follows changes to the list
+		List<Sample> samples = new ArrayList<Sample>(point.getAccelerometerSamples());
+		SensorDataPoint mutable = new SensorDataPoint(point.getId(), point.getSpeed(), point.getTimezone(), 
+				point.getWifiScan(), samples);
+		int hashCode = mutable.hashCode();
+		samples.add(new Sample(1, 2, 3));
+		assertFalse(mutable.equals(same));
+		assertFalse(hashCode == mutable.hashCode());
+		
+		assertTrue(point.toString().contains("accelerometerSamples=" + point.getAccelerometerSamples().size() + "]"));
+		assertTrue(point.toString().length() < 200);
+	}
+	
+	/**
+	 * Tests that points backed by columns classify identically to points 
+	 * backed by Samples
+	 */
+	@Test
+	public void testColumnarPointsClassifyIdentically() {
+		List<SensorDataPoint> sensorDataPoints = SensorDataPointFixtures.trace(3, 40);
+		List<SensorDataPoint> columnarPoints = new ArrayList<SensorDataPoint>();
+		
+		for(SensorDataPoint point : sensorDataPoints) {
+			SensorDataPoint columnarPoint = new SensorDataPoint(point.getId(), point.getSpeed(), point.getTimezone(), 
+					point.getWifiScan(), point.getAccelerometerData());
+			
+			assertTrue(columnarPoint.hasAccelerometerData());
+			assertEquals(columnarPoint, new SensorDataPoint(point.getId(), point.getSpeed(), point.getTimezone(), 
+					point.getWifiScan(), point.getAccelerometerData()));
+			columnarPoints.add(columnarPoint);
+		}
+		
+		List<ClassifiedPoint> expected = ClassificationService.classify(sensorDataPoints);
+		List<ClassifiedPoint> actual = ClassificationService.classify(columnarPoints);
+		
+		for(int i = 0; i < expected.size(); i++) {
+			SensorDataPointFixtures.assertSameClassification(expected.get(i).getClassification(), actual.get(i).getClassification());
+		}
+	}
+}
@@ -0,0 +1,201 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import junit.framework.TestCase;
+
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+import org.openmhealth.dpu.mobilityclassifier.domain.AccelerometerData;
+import org.openmhealth.dpu.mobilityclassifier.domain.ClassifiedPoint;
+import org.openmhealth.dpu.mobilityclassifier.domain.Mode;
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+import org.openmhealth.dpu.mobilityclassifier.service.AccelerometerResampler;
+import org.openmhealth.dpu.mobilityclassifier.service.ClassificationService;
+import org.openmhealth.dpu.mobilityclassifier.service.ClassificationSession;
+import org.openmhealth.dpu.mobilityclassifier.service.MobilityClassifierEngine;
+
+import edu.ucla.cens.mobilityclassifier.AccessPoint;
+import edu.ucla.cens.mobilityclassifier.WifiScan;
+
+/**
+ * Tests decimating accelerometer windows.
+ */
+public class AccelerometerResamplerTests extends TestCase {
+	
+	/**
+	 * Tests that a constant signal such as gravity is kept exactly, including
+	 * at the edges of the window
+	 */
+	@Test
+	public void testConstantKept() {
+		double[] input = new double[200];
+		Arrays.fill(input, 9.80665D);
+		double[] output = new double[32];
+		
+		new AccelerometerResampler(32).resample(input, input.length, output);
+		
+		for(double value : output) {
+			assertEquals(9.80665D, value, 1e-12D);
+		}
+	}
+	
+	/**
+	 * Tests that a slow signal passes the filter and a fast one, which the 
+	 * shorter window could not represent, is removed instead of aliased
+	 */
+	@Test
+	public void testAntiAliasing() {
+		AccelerometerResampler resampler = new AccelerometerResampler(64);
+		double[] slow = new double[512];
+		double[] fast = new double[512];
+		for(int i = 0; i < 512; i++) {
+			slow[i] = Math.sin(2 * Math.PI * 3 * i / 512);
+			fast[i] = Math.sin(2 * Math.PI * 200 * i / 512);
+		}
+		
+		double[] output = new double[64];
+		resampler.resample(slow, slow.length, output);
+		for(int j = 8; j < 56; j++) {
+			// Output sample j is centred on input sample 8j + 3.5
+			assertEquals(Math.sin(2 * Math.PI * 3 * (8 * j + 3.5D) / 512), output[j], 0.01D);
+		}
+		
+		resampler.resample(fast, fast.length, output);
+		for(double value : output) {
+			assertTrue(Math.abs(value) < 0.05D);
+		}
+	}
+	
+	/**
+	 * Tests that short windows are not changed and long windows keep the 
+	 * point's other fields
+	 */
+	@Test
+	public void testResamplePoint() {
+		AccelerometerResampler resampler = new AccelerometerResampler(16);
+		SensorDataPoint shortPoint = point(16);
+		SensorDataPoint longPoint = point(100);
+		
+		assertSame(shortPoint, resampler.resample(shortPoint));
+		
+		SensorDataPoint resampled = resampler.resample(longPoint);
+		assertEquals(16, resampled.getAccelerometerData().size());
+		assertEquals(longPoint.getId(), resampled.getId());
+		assertSame(longPoint.getWifiScan(), resampled.getWifiScan());
+		assertEquals(longPoint.getSpeed(), resampled.getSpeed());
+		assertEquals(100, resampled.getRecordedWindowSize());
+		assertEquals(16, shortPoint.getRecordedWindowSize());
+	}
+	
+	/**
+	 * Tests that a session with a resampler classifies most points of a trace
+	 * like a session without one
+	 */
+	@Test
+	public void testModeDrift() {
+		List<SensorDataPoint> sensorDataPoints = SensorDataPointFixtures.trace(22, 400);
+		List<ClassifiedPoint> expected = ClassificationService.classify(sensorDataPoints);
+		
+		List<ClassifiedPoint> actual = resamplingSession(32).classify(sensorDataPoints);
+		
+		int same = 0;
+		for(int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).getId(), actual.get(i).getId());
+			if(expected.get(i).getMode() == actual.get(i).getMode()) {
+				same++;
+			}
+		}
+		assertTrue("Only " + same + " of " + expected.size() + " modes agree", same >= 0.95D * expected.size());
+	}
+	
+	/**
+	 * Tests that the engine rescales the FFT features of a resampled window,
+	 * so a window near the walk/run threshold is still run after resampling
+	 * from 512 to 32 samples
+	 */
+	@Test
+	public void testFftScaleKeepsWalkRunBoundary() {
+		int size = 512;
+		double[] x = new double[size];
+		double[] y = new double[size];
+		double[] z = new double[size];
+		for(int i = 0; i < size; i++) {
+			z[i] = 9.80665D * (1 + 0.05D * Math.sin(2 * Math.PI * 3 * i / size) + 0.3D * Math.sin(2 * Math.PI * 7 * i / size));
+		}
+		SensorDataPoint point = new SensorDataPoint(UUID.randomUUID(), 1.0D, DateTimeZone.UTC, 
+			new WifiScan(0L, Collections.<AccessPoint>emptyList()), AccelerometerData.wrap(x, y, z));
+		
+		ClassifiedPoint original = new ClassificationSession().classify(point);
+		ClassifiedPoint resampled = resamplingSession(32).classify(point);
+		
+		assertEquals(Mode.RUN, original.getMode());
+		assertEquals(Mode.RUN, resampled.getMode());
+		assertEquals(163.84D, original.getFft()[2], 0.5D);
+		assertEquals(original.getFft()[2], resampled.getFft()[2], 0.05D * original.getFft()[2]);
+		assertEquals(original.getVariance(), resampled.getVariance(), 0.01D * original.getVariance());
+	}
+	
+	/**
+	 * Tests that a resampler requires the engine, which rescales the FFT 
+	 * features, and that the engine cannot be removed while a resampler is 
+	 * set
+	 */
+	@Test
+	public void testResamplerRequiresEngine() {
+		try {
+			new ClassificationSession().setResampler(new AccelerometerResampler(32));
+			
+			fail("ClassificationSession accepted a resampler without an engine");
+		}
+		catch(IllegalStateException e) {
+			// expected behavior
+		}
+		
+		try {
+			resamplingSession(32).setEngine(null);
+			
+			fail("ClassificationSession removed the engine of a session with a resampler");
+		}
+		catch(IllegalStateException e) {
+			// expected behavior
+		}
+	}
+	
+	private static ClassificationSession resamplingSession(int targetSize) {
+		ClassificationSession session = new ClassificationSession();
+		session.setEngine(new MobilityClassifierEngine());
+		session.setResampler(new AccelerometerResampler(targetSize));
+		return session;
+	}
+	
+	private static SensorDataPoint point(int size) {
+		double[] x = new double[size];
+		double[] y = new double[size];
+		double[] z = new double[size];
+		for(int i = 0; i < size; i++) {
+			z[i] = 9.80665D + Math.sin(i);
+		}
+		
+		return new SensorDataPoint(UUID.randomUUID(), 1.0D, DateTimeZone.UTC, 
+			new WifiScan(0L, Collections.<AccessPoint>emptyList()), AccelerometerData.wrap(x, y, z));
+	}
+}
@@ -0,0 +1,225 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+import org.openmhealth.dpu.mobilityclassifier.domain.AccelerometerData;
+import org.openmhealth.dpu.mobilityclassifier.domain.ClassifiedPoint;
+import org.openmhealth.dpu.mobilityclassifier.domain.Mode;
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+import org.openmhealth.dpu.mobilityclassifier.service.ClassificationSession;
+import org.openmhealth.dpu.mobilityclassifier.service.SensorDataPointSink;
+import org.openmhealth.dpu.mobilityclassifier.window.AccelerometerWindower;
+
+import edu.ucla.cens.mobilityclassifier.AccessPoint;
+import edu.ucla.cens.mobilityclassifier.WifiScan;
+
+/**
+ * Tests cutting raw accelerometer streams into windows.
+ */
+public class AccelerometerWindowerTests extends TestCase {
+	
+	/**
+	 * Tests overlapping windows of a fixed number of samples without any 
+	 * speed samples and with one distant scan
+	 */
+	@Test
+	public void testSampleCountWindows() {
+		CollectingSink sink = new CollectingSink();
+		AccelerometerWindower windower = AccelerometerWindower.bySampleCount(4, 2, 0, DateTimeZone.UTC, sink);
+		WifiScan scan = new WifiScan(-60000L, Arrays.asList(new AccessPoint("a", -60)));
+		windower.addWifiScan(scan);
+		
+		for(int i = 0; i < 11; i++) {
+			windower.addSample(i * 10, i, -i, 2 * i);
+		}
+		windower.flush();
+		
+		assertEquals(4, sink.points.size());
+		for(int w = 0; w < 4; w++) {
+			SensorDataPoint point = sink.points.get(w);
+			AccelerometerData data = point.getAccelerometerData();
+			
+			assertEquals(4, data.size());
+			for(int i = 0; i < 4; i++) {
+				assertEquals((double) 2 * w + i, data.getX(i));
+				assertEquals((double) -(2 * w + i), data.getY(i));
+				assertEquals((double) 2 * (2 * w + i), data.getZ(i));
+			}
+			
+			assertTrue(Double.isNaN(point.getSpeed()));
+			assertSame(scan, point.getWifiScan());
+		}
+	}
+	
+	/**
+	 * Tests that samples between windows are in none of them when the hop is
+	 * longer than the window
+	 */
+	@Test
+	public void testHopLongerThanWindow() {
+		CollectingSink sink = new CollectingSink();
+		AccelerometerWindower windower = AccelerometerWindower.byDuration(2, 5, 16, 1000, DateTimeZone.UTC, sink);
+		windower.addWifiScan(new WifiScan(0L, Arrays.asList(new AccessPoint("a", -60))));
+		
+		for(int t = 0; t < 12; t++) {
+			windower.addSample(t, t, t, t);
+		}
+		// After a gap, a sample after the end of a window starts the next one
+		windower.addSample(23, 23, 23, 23);
+		windower.addSample(25, 25, 25, 25);
+		windower.flush();
+		
+		assertEquals(4, sink.points.size());
+		assertWindow(sink.points.get(0), 0, 1);
+		assertWindow(sink.points.get(1), 5, 6);
+		assertWindow(sink.points.get(2), 10, 11);
+		assertWindow(sink.points.get(3), 25);
+	}
+	
+	/**
+	 * Tests that a still window without a nearby scan between two scans of 
+	 * the same access points is not classified as drive
+	 */
+	@Test
+	public void testWindowWithoutNearbyScan() {
+		CollectingSink sink = new CollectingSink();
+		AccelerometerWindower windower = AccelerometerWindower.byDuration(10000, 10000, 1024, 5000, DateTimeZone.UTC, sink);
+		List<AccessPoint> accessPoints = Arrays.asList(new AccessPoint("home", -60), new AccessPoint("office", -70));
+		
+		windower.addWifiScan(new WifiScan(5000L, accessPoints));
+		windower.addWifiScan(new WifiScan(25000L, accessPoints));
+		for(int t = 0; t < 30000; t += 100) {
+			windower.addSpeed(t, 0.0);
+			windower.addSample(t, 0.0, 0.0, 1.0);
+		}
+		windower.flush();
+		
+		assertEquals(3, sink.points.size());
+		assertSame(sink.points.get(0).getWifiScan(), sink.points.get(1).getWifiScan());
+		
+		List<ClassifiedPoint> classifiedPoints = new ClassificationSession(null, "STILL").classify(sink.points);
+		for(ClassifiedPoint classifiedPoint : classifiedPoints) {
+			assertEquals(Mode.STILL, classifiedPoint.getMode());
+		}
+	}
+	
+	/**
+	 * Tests that windows released before any scan has arrived are skipped
+	 */
+	@Test
+	public void testWindowsBeforeFirstScanSkipped() {
+		CollectingSink sink = new CollectingSink();
+		AccelerometerWindower windower = AccelerometerWindower.bySampleCount(2, 2, 0, DateTimeZone.UTC, sink);
+		
+		for(int i = 0; i < 4; i++) {
+			windower.addSample(i, i, i, i);
+		}
+		windower.addWifiScan(new WifiScan(10L, Arrays.asList(new AccessPoint("a", -60))));
+		for(int i = 4; i < 8; i++) {
+			windower.addSample(i, i, i, i);
+		}
+		windower.flush();
+		
+		assertEquals(2, windower.getSkippedWindows());
+		assertEquals(2, sink.points.size());
+	}
+	
+	private static void assertWindow(SensorDataPoint point, double... xs) {
+		AccelerometerData data = point.getAccelerometerData();
+		
+		assertEquals(xs.length, data.size());
+		for(int i = 0; i < xs.length; i++) {
+			assertEquals(xs[i], data.getX(i));
+		}
+	}
+	
+	/**
+	 * Tests time based windows joined with the nearest speed sample and scan
+	 */
+	@Test
+	public void testDurationWindowsJoinNearestEvents() {
+		CollectingSink sink = new CollectingSink();
+		AccelerometerWindower windower = AccelerometerWindower.byDuration(200, 100, 64, 1000, DateTimeZone.UTC, sink);
+		WifiScan first = new WifiScan(0L, Arrays.asList(new AccessPoint("a", -60)));
+		WifiScan second = new WifiScan(600L, Arrays.asList(new AccessPoint("b", -60)));
+		
+		windower.addSpeed(0, 0.0);
+		windower.addWifiScan(first);
+		for(int t = 0; t < 1000; t += 10) {
+			if(t == 500) {
+				windower.addSpeed(500, 5.0);
+			}
+			if(t == 600) {
+				windower.addWifiScan(second);
+			}
+			windower.addSample(t, t, t, t);
+		}
+		windower.addSpeed(1000, 10.0);
+		windower.flush();
+		
+		assertEquals(9, sink.points.size());
+		assertEquals(9, windower.getWindows());
+		assertEquals(0, windower.getDroppedSamples());
+		
+		for(int w = 0; w < 9; w++) {
+			SensorDataPoint point = sink.points.get(w);
+			AccelerometerData data = point.getAccelerometerData();
+			long midpoint = w * 100 + 100;
+			
+			assertEquals(20, data.size());
+			assertEquals(w * 100.0, data.getX(0));
+			assertEquals(w * 100.0 + 190, data.getX(19));
+			assertEquals(midpoint < 250 ? 0.0 : midpoint < 750 ? 5.0 : 10.0, point.getSpeed());
+			// Ties go to the earlier scan
+			assertSame(midpoint <= 300 ? first : second, point.getWifiScan());
+		}
+	}
+	
+	/**
+	 * Tests that samples arriving out of order are dropped
+	 */
+	@Test
+	public void testOutOfOrderSamplesDropped() {
+		CollectingSink sink = new CollectingSink();
+		AccelerometerWindower windower = AccelerometerWindower.bySampleCount(2, 2, 0, DateTimeZone.UTC, sink);
+		windower.addWifiScan(new WifiScan(0L, Arrays.asList(new AccessPoint("a", -60))));
+		
+		windower.addSample(10, 1, 1, 1);
+		windower.addSample(5, 2, 2, 2);
+		windower.addSample(20, 3, 3, 3);
+		windower.flush();
+		
+		assertEquals(1, windower.getDroppedSamples());
+		assertEquals(1, sink.points.size());
+		assertEquals(3.0, sink.points.get(0).getAccelerometerData().getX(1));
+	}
+	
+	private static final class CollectingSink implements SensorDataPointSink {
+		private final List<SensorDataPoint> points = new ArrayList<SensorDataPoint>();
+		
+		public void accept(SensorDataPoint sensorDataPoint) {
+			points.add(sensorDataPoint);
+		}
+	}
+}
@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.openmhealth.dpu.mobilityclassifier.domain.ClassifiedPoint;
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+import org.openmhealth.dpu.mobilityclassifier.service.AsyncClassificationService;
+import org.openmhealth.dpu.mobilityclassifier.service.ClassificationCallback;
+import org.openmhealth.dpu.mobilityclassifier.service.ClassificationSession;
+
+/**
+ * Tests asynchronous classification of independent streams.
+ */
+public class AsyncClassificationServiceTests extends TestCase {
+	
+	/**
+	 * Tests that batches of a stream are chained like a single session and 
+	 * that streams do not share state
+	 */
+	@Test
+	public void testStreamsMatchSessions() throws Exception {
+		List<SensorDataPoint> first = SensorDataPointFixtures.trace(31, 24);
+		List<SensorDataPoint> second = SensorDataPointFixtures.trace(37, 24);
+		List<ClassifiedPoint> expectedFirst = new ClassificationSession().classify(first);
+		List<ClassifiedPoint> expectedSecond = new ClassificationSession().classify(second);
+		
+		ExecutorService executorService = Executors.newFixedThreadPool(4);
+		try {
+			AsyncClassificationService service = new AsyncClassificationService(executorService, 100, true);
+			List<Future<List<ClassifiedPoint>>> firstFutures = new ArrayList<Future<List<ClassifiedPoint>>>();
+			List<Future<List<ClassifiedPoint>>> secondFutures = new ArrayList<Future<List<ClassifiedPoint>>>();
+			
+			for(int i = 0; i < 24; i += 6) {
+				firstFutures.add(service.submit("first", first.subList(i, i + 6)));
+				secondFutures.add(service.submit("second", second.subList(i, i + 6)));
+			}
+			
+			assertSameClassifications(expectedFirst, firstFutures);
+			assertSameClassifications(expectedSecond, secondFutures);
+			assertEquals(0, service.getPendingPoints());
+			assertEquals(2, service.getNumberOfStreams());
+			
+			service.endStream("first");
+			assertEquals(1, service.getNumberOfStreams());
+		}
+		finally {
+			executorService.shutdownNow();
+		}
+	}
+	
+	private void assertSameClassifications(List<ClassifiedPoint> expected, List<Future<List<ClassifiedPoint>>> futures) 
+			throws Exception {
+		
+		List<ClassifiedPoint> actual = new ArrayList<ClassifiedPoint>();
+		for(Future<List<ClassifiedPoint>> future : futures) {
+			actual.addAll(future.get());
+		}
+		
+		assertEquals(expected.size(), actual.size());
+		for(int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).getId(), actual.get(i).getId());
+			SensorDataPointFixtures.assertSameClassification(expected.get(i).getClassification(), actual.get(i).getClassification());
+		}
+	}
+	
+	/**
+	 * Tests that a batch exceeding the bound on pending points is rejected
+	 * and that the callback is notified
+	 */
+	@Test
+	public void testRejectWhenFull() throws Exception {
+		List<SensorDataPoint> sensorDataPoints = SensorDataPointFixtures.trace(41, 8);
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch notified = new CountDownLatch(1);
+		final List<ClassifiedPoint> results = new ArrayList<ClassifiedPoint>();
+		
+		ExecutorService executorService = Executors.newSingleThreadExecutor();
+		try {
+			executorService.execute(new Runnable() {
+				public void run() {
+					try {
+						blocked.await();
+					}
+					catch(InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+			
+			AsyncClassificationService service = new AsyncClassificationService(executorService, 6, false);
+			service.submit("stream", sensorDataPoints.subList(0, 4), new ClassificationCallback() {
+				public void onSuccess(String streamId, List<ClassifiedPoint> classifiedPoints) {
+					results.addAll(classifiedPoints);
+					notified.countDown();
+				}
+				
+				public void onFailure(String streamId, Throwable cause) {
+					notified.countDown();
+				}
+			});
+			assertEquals(4, service.getPendingPoints());
+			
+			try {
+				service.submit("stream", sensorDataPoints.subList(4, 8));
+				fail("Expected a RejectedExecutionException");
+			}
+			catch(RejectedExecutionException e) {
+				// expected
+			}
+			
+			blocked.countDown();
+			notified.await();
+			assertEquals(4, results.size());
+			
+			try {
+				service.submit("stream", sensorDataPoints);
+				fail("Expected an IllegalArgumentException");
+			}
+			catch(IllegalArgumentException e) {
+				// expected
+			}
+		}
+		finally {
+			executorService.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Tests that a batch the executor rejects is only reported by the 
+	 * exception, not also to the callback, and releases its pending points
+	 */
+	@Test
+	public void testExecutorRejects() throws Exception {
+		List<SensorDataPoint> sensorDataPoints = SensorDataPointFixtures.trace(43, 4);
+		final List<Throwable> failures = new ArrayList<Throwable>();
+		
+		ExecutorService executorService = Executors.newSingleThreadExecutor();
+		executorService.shutdown();
+		
+		AsyncClassificationService service = new AsyncClassificationService(executorService, 10, false);
+		try {
+			service.submit("stream", sensorDataPoints, new ClassificationCallback() {
+				public void onSuccess(String streamId, List<ClassifiedPoint> classifiedPoints) {
+					fail("A rejected batch was reported as classified");
+				}
+				
+				public void onFailure(String streamId, Throwable cause) {
+					failures.add(cause);
+				}
+			});
+			fail("Expected a RejectedExecutionException");
+		}
+		catch(RejectedExecutionException e) {
+			// expected
+		}
+		
+		assertTrue(failures.isEmpty());
+		assertEquals(0, service.getPendingPoints());
+	}
+}
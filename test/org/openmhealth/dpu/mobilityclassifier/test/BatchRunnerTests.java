@@ -0,0 +1,292 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import junit.framework.TestCase;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.junit.Test;
+import org.openmhealth.dpu.mobilityclassifier.batch.BatchRunner;
+import org.openmhealth.dpu.mobilityclassifier.batch.CheckpointManifest;
+import org.openmhealth.dpu.mobilityclassifier.batch.CheckpointManifest.Entry;
+import org.openmhealth.dpu.mobilityclassifier.batch.CheckpointManifest.Status;
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+import org.openmhealth.dpu.mobilityclassifier.io.JsonResultSink;
+import org.openmhealth.dpu.mobilityclassifier.io.SensorDataPointReader;
+import org.openmhealth.dpu.mobilityclassifier.service.ClassificationSession;
+
+/**
+ * Tests classifying directories of files with checkpoints.
+ */
+public class BatchRunnerTests extends TestCase {
+	private static final int REPEATS = 5;
+	
+	private File root;
+	private File input;
+	
+	@Override
+	protected void setUp() throws IOException, JSONException {
+		root = File.createTempFile("batch", "");
+		root.delete();
+		root.mkdir();
+		
+		input = new File(root, "in");
+		new File(input, "alice").mkdirs();
+		new File(input, "bob").mkdirs();
+		
+		// The example points with fixed ids, as an array and repeated as NDJSON
+		JSONArray points = new JSONArray(new JSONTokener(new InputStreamReader(new FileInputStream("example.json"), "UTF-8")));
+		JSONArray monday = new JSONArray();
+		StringBuilder tuesday = new StringBuilder();
+		for(int i = 0; i < REPEATS; i++) {
+			for(int j = 0; j < points.length(); j++) {
+				JSONObject point = points.getJSONObject(j);
+				point.put("id", new UUID(i, j).toString());
+				if(i == 0) {
+					monday.put(new JSONObject(point.toString()));
+				}
+				tuesday.append(point.toString()).append('\n');
+			}
+		}
+		write(monday.toString().getBytes("UTF-8"), new File(input, "alice/monday.json"));
+		write(tuesday.toString().getBytes("UTF-8"), new File(input, "bob/tuesday.ndjson"));
+	}
+	
+	@Override
+	protected void tearDown() {
+		delete(root);
+	}
+	
+	/**
+	 * Tests that every file is classified like a single session would 
+	 * classify it and that a rerun skips all of them
+	 */
+	@Test
+	public void testRunAndRerun() throws IOException, InterruptedException, JSONException {
+		File output = new File(root, "out");
+		
+		BatchRunner.Summary summary = new BatchRunner(input, output, 2, 7).run();
+		assertEquals(2, summary.getCompleted());
+		assertEquals(0, summary.getSkipped());
+		assertEquals(0, summary.getFailed());
+		assertEquals(10 + 10 * REPEATS, summary.getPoints());
+		
+		assertEquals(new String(expected(new File(input, "alice/monday.json"), -1), "UTF-8"), 
+				read(new File(output, "alice/monday.json" + BatchRunner.OUTPUT_SUFFIX)));
+		assertEquals(new String(expected(new File(input, "bob/tuesday.ndjson"), -1), "UTF-8"), 
+				read(new File(output, "bob/tuesday.ndjson" + BatchRunner.OUTPUT_SUFFIX)));
+		assertFalse(new File(output, "bob/tuesday.ndjson" + BatchRunner.PART_SUFFIX).exists());
+		
+		CheckpointManifest manifest = new CheckpointManifest(new File(output, BatchRunner.MANIFEST_NAME));
+		try {
+			assertEquals(2, manifest.size());
+			assertEquals(Status.COMPLETED, manifest.get("bob/tuesday.ndjson").getStatus());
+			assertEquals(10 * REPEATS, manifest.get("bob/tuesday.ndjson").getPoints());
+		}
+		finally {
+			manifest.close();
+		}
+		
+		summary = new BatchRunner(input, output, 2, 7).run();
+		assertEquals(0, summary.getCompleted());
+		assertEquals(2, summary.getSkipped());
+		assertEquals(0, summary.getPoints());
+	}
+	
+	/**
+	 * Tests that an interrupted file is resumed from its checkpoint, 
+	 * discarding output written after it, and ends up identical to an 
+	 * uninterrupted run
+	 */
+	@Test
+	public void testResumeFromCheckpoint() throws IOException, InterruptedException, JSONException {
+		File output = new File(root, "out");
+		File tuesday = new File(input, "bob/tuesday.ndjson");
+		int checkpointed = 21;
+		
+		ClassificationSession session = new ClassificationSession();
+		session.classify(readPoints(tuesday).subList(0, checkpointed));
+		
+		byte[] partial = expected(tuesday, checkpointed);
+		ByteArrayOutputStream part = new ByteArrayOutputStream();
+		part.write(partial);
+		part.write("{\"id\":\"written after the checkpoint".getBytes("UTF-8"));
+		new File(output, "bob").mkdirs();
+		write(part.toByteArray(), new File(output, "bob/tuesday.ndjson" + BatchRunner.PART_SUFFIX));
+		
+		CheckpointManifest manifest = new CheckpointManifest(new File(output, BatchRunner.MANIFEST_NAME));
+		try {
+			manifest.record(new Entry("bob/tuesday.ndjson", tuesday.length(), tuesday.lastModified(), 
+					Status.IN_PROGRESS, checkpointed, partial.length, session.snapshot()));
+		}
+		finally {
+			manifest.close();
+		}
+		
+		BatchRunner.Summary summary = new BatchRunner(input, output, 1, 5).run();
+		assertEquals(2, summary.getCompleted());
+		assertEquals(10 + 10 * REPEATS - checkpointed, summary.getPoints());
+		assertEquals(new String(expected(tuesday, -1), "UTF-8"), 
+				read(new File(output, "bob/tuesday.ndjson" + BatchRunner.OUTPUT_SUFFIX)));
+	}
+	
+	/**
+	 * Tests that a malformed file is recorded as failed without affecting 
+	 * the others
+	 */
+	@Test
+	public void testFailedFile() throws IOException, InterruptedException {
+		write("{\"accel_data\":".getBytes("UTF-8"), new File(input, "carol.json"));
+		File output = new File(root, "out");
+		
+		BatchRunner.Summary summary = new BatchRunner(input, output, 2, 7).run();
+		assertEquals(2, summary.getCompleted());
+		assertEquals(1, summary.getFailed());
+		assertFalse(new File(output, "carol.json" + BatchRunner.OUTPUT_SUFFIX).exists());
+		
+		CheckpointManifest manifest = new CheckpointManifest(new File(output, BatchRunner.MANIFEST_NAME));
+		try {
+			assertEquals(Status.FAILED, manifest.get("carol.json").getStatus());
+		}
+		finally {
+			manifest.close();
+		}
+	}
+	
+	/**
+	 * Tests that a truncated last line of the manifest is ignored
+	 */
+	@Test
+	public void testTruncatedManifest() throws IOException {
+		File file = new File(root, BatchRunner.MANIFEST_NAME);
+		byte[] snapshot = new ClassificationSession().snapshot();
+		
+		CheckpointManifest manifest = new CheckpointManifest(file);
+		try {
+			manifest.record(new Entry("a\tb.json", 10, 20, Status.IN_PROGRESS, 3, 40, snapshot));
+			manifest.record(new Entry("a\tb.json", 10, 20, Status.COMPLETED, 5, 60, snapshot));
+		}
+		finally {
+			manifest.close();
+		}
+		
+		RandomAccessFile journal = new RandomAccessFile(file, "rw");
+		try {
+			journal.setLength(journal.length() - 3);
+		}
+		finally {
+			journal.close();
+		}
+		
+		manifest = new CheckpointManifest(file);
+		try {
+			Entry entry = manifest.get("a\tb.json");
+			assertEquals(Status.IN_PROGRESS, entry.getStatus());
+			assertEquals(3, entry.getPoints());
+			assertEquals(40, entry.getOutputBytes());
+		}
+		finally {
+			manifest.close();
+		}
+	}
+	
+	/**
+	 * Classifies a file in one session, returning the NDJSON for the first
+	 * count points, or all of them if count is negative.
+	 */
+	private static byte[] expected(File file, int count) throws IOException, JSONException {
+		List<SensorDataPoint> points = readPoints(file);
+		if(count >= 0) {
+			points = points.subList(0, count);
+		}
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		JsonResultSink sink = new JsonResultSink(bytes, true, true);
+		new ClassificationSession().classify(points, sink);
+		sink.close();
+		return bytes.toByteArray();
+	}
+	
+	private static List<SensorDataPoint> readPoints(File file) throws IOException, JSONException {
+		List<SensorDataPoint> points = new ArrayList<SensorDataPoint>();
+		SensorDataPointReader reader = new SensorDataPointReader(new FileInputStream(file));
+		try {
+			for(SensorDataPoint point : reader) {
+				points.add(point);
+			}
+		}
+		finally {
+			reader.close();
+		}
+		return points;
+	}
+	
+	private static String read(File file) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		copy(new FileInputStream(file), bytes);
+		return new String(bytes.toByteArray(), "UTF-8");
+	}
+	
+	private static void write(byte[] bytes, File file) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(bytes);
+		}
+		finally {
+			out.close();
+		}
+	}
+	
+	private static void copy(InputStream in, OutputStream out) throws IOException {
+		try {
+			byte[] buffer = new byte[8192];
+			int read;
+			while((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+		}
+		finally {
+			in.close();
+			out.close();
+		}
+	}
+	
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if(children != null) {
+			for(File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
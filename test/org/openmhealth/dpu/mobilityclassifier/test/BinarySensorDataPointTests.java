@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+import org.openmhealth.dpu.mobilityclassifier.io.BinarySensorDataPointReader;
+import org.openmhealth.dpu.mobilityclassifier.io.BinarySensorDataPointWriter;
+import org.openmhealth.dpu.mobilityclassifier.io.SensorDataPointReader;
+
+/**
+ * Tests the binary columnar storage format.
+ */
+public class BinarySensorDataPointTests extends TestCase {
+	
+	/**
+	 * Tests that points written to a file are read back unchanged, both 
+	 * individually and by range
+	 */
+	@Test
+	public void testRoundTrip() throws IOException {
+		List<SensorDataPoint> points = new ArrayList<SensorDataPoint>();
+		points.addAll(SensorDataPointFixtures.trace(5, 30));
+		
+		SensorDataPointReader jsonReader = new SensorDataPointReader(new FileInputStream("example.json"));
+		try {
+			for(SensorDataPoint point : jsonReader) {
+				points.add(point);
+			}
+		}
+		finally {
+			jsonReader.close();
+		}
+		
+		File file = File.createTempFile("points", ".bin");
+		file.deleteOnExit();
+		
+		BinarySensorDataPointWriter writer = new BinarySensorDataPointWriter(file);
+		writer.write(points);
+		writer.close();
+		
+		BinarySensorDataPointReader reader = new BinarySensorDataPointReader(file);
+		try {
+			assertEquals(points.size(), reader.size());
+			
+			for(int i = points.size() - 1; i >= 0; i--) {
+				SensorDataPointFixtures.assertSamePoint(points.get(i), reader.read(i));
+			}
+			
+			List<SensorDataPoint> range = reader.read(28, 33);
+			assertEquals(5, range.size());
+			for(int i = 0; i < range.size(); i++) {
+				SensorDataPointFixtures.assertSamePoint(points.get(28 + i), range.get(i));
+			}
+			
+			assertTrue(reader.read(3, 3).isEmpty());
+		}
+		finally {
+			reader.close();
+			file.delete();
+		}
+	}
+	
+	/**
+	 * Tests an attempt to read a file whose footer was never written
+	 */
+	@Test
+	public void testIncompleteFile() throws IOException {
+		File file = File.createTempFile("points", ".bin");
+		file.deleteOnExit();
+		
+		BinarySensorDataPointWriter writer = new BinarySensorDataPointWriter(file);
+		writer.write(SensorDataPointFixtures.trace(5, 3));
+		writer.close();
+		
+		RandomAccessFile truncated = new RandomAccessFile(file, "rw");
+		truncated.setLength(truncated.length() - 1);
+		truncated.close();
+		
+		try {
+			new BinarySensorDataPointReader(file);
+			
+			fail("BinarySensorDataPointReader allowed a truncated file");
+		}
+		catch(IOException e) {
+			// expected behavior
+		}
+		finally {
+			file.delete();
+		}
+	}
+}
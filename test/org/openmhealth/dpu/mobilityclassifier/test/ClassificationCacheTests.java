@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.test;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.openmhealth.dpu.mobilityclassifier.domain.ClassifiedPoint;
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+import org.openmhealth.dpu.mobilityclassifier.service.ClassificationCache;
+import org.openmhealth.dpu.mobilityclassifier.service.ClassificationSession;
+
+import edu.ucla.cens.mobilityclassifier.WifiScan;
+
+/**
+ * Tests caching the classifications of redelivered points.
+ */
+public class ClassificationCacheTests extends TestCase {
+	
+	/**
+	 * Tests that redelivering a stream is answered from the cache
+	 */
+	@Test
+	public void testRedeliveredPointsHit() {
+		List<SensorDataPoint> sensorDataPoints = SensorDataPointFixtures.trace(23, 20);
+		ClassificationCache cache = new ClassificationCache(100);
+		
+		ClassificationSession session = new ClassificationSession();
+		session.setCache(cache);
+		List<ClassifiedPoint> first = session.classify(sensorDataPoints);
+		
+		assertEquals(0, cache.getHits());
+		assertEquals(20, cache.getMisses());
+		assertEquals(20, cache.size());
+		
+		ClassificationSession retry = new ClassificationSession();
+		retry.setCache(cache);
+		List<ClassifiedPoint> second = retry.classify(sensorDataPoints);
+		
+		assertEquals(20, cache.getHits());
+		for(int i = 0; i < first.size(); i++) {
+			assertSame(first.get(i).getClassification(), second.get(i).getClassification());
+		}
+	}
+	
+	/**
+	 * Tests that previous modes the classifier treats alike share an entry
+	 * and that a carried mode does not
+	 */
+	@Test
+	public void testEquivalentPreviousModesHit() {
+		List<SensorDataPoint> sensorDataPoints = SensorDataPointFixtures.trace(31, 2);
+		WifiScan previousWifiScan = sensorDataPoints.get(0).getWifiScan();
+		SensorDataPoint point = sensorDataPoints.get(1);
+		ClassificationCache cache = new ClassificationCache(100);
+		
+		for(String previousMode : new String[] { "walk", "run", null, "still", "unknown" }) {
+			ClassificationSession session = new ClassificationSession(previousWifiScan, previousMode);
+			session.setCache(cache);
+			session.classify(point);
+		}
+		
+		assertEquals(4, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		
+		ClassificationSession carried = new ClassificationSession(previousWifiScan, "STILL");
+		carried.setCache(cache);
+		carried.classify(point);
+		
+		assertEquals(2, cache.getMisses());
+	}
+	
+	/**
+	 * Tests that a point delivered in a different context is not served from
+	 * the cache
+	 */
+	@Test
+	public void testDifferentContextMisses() {
+		List<SensorDataPoint> sensorDataPoints = SensorDataPointFixtures.trace(29, 3);
+		ClassificationCache cache = new ClassificationCache(100);
+		
+		ClassificationSession session = new ClassificationSession();
+		session.setCache(cache);
+		session.classify(sensorDataPoints.get(0));
+		session.classify(sensorDataPoints.get(2));
+		
+		ClassificationSession other = new ClassificationSession();
+		other.setCache(cache);
+		other.classify(sensorDataPoints.get(1));
+		other.classify(sensorDataPoints.get(2));
+		
+		assertEquals(0, cache.getHits());
+		assertEquals(4, cache.getMisses());
+	}
+	
+	/**
+	 * Tests that the least recently used entries are evicted
+	 */
+	@Test
+	public void testEviction() {
+		List<SensorDataPoint> sensorDataPoints = SensorDataPointFixtures.trace(31, 10);
+		ClassificationCache cache = new ClassificationCache(4);
+		
+		ClassificationSession session = new ClassificationSession();
+		session.setCache(cache);
+		session.classify(sensorDataPoints);
+		
+		assertEquals(4, cache.size());
+		assertEquals(6, cache.getEvictions());
+	}
+}
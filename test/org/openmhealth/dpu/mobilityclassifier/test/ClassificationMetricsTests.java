@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.test;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.openmhealth.dpu.mobilityclassifier.domain.ClassifiedPoint;
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+import org.openmhealth.dpu.mobilityclassifier.metrics.JmxClassificationMetrics;
+import org.openmhealth.dpu.mobilityclassifier.metrics.LatencyHistogram;
+import org.openmhealth.dpu.mobilityclassifier.metrics.NoOpClassificationMetrics;
+import org.openmhealth.dpu.mobilityclassifier.service.ClassificationService;
+
+import edu.ucla.cens.mobilityclassifier.Classification;
+import edu.ucla.cens.mobilityclassifier.MobilityClassifier;
+
+/**
+ * Tests recording classification metrics.
+ */
+public class ClassificationMetricsTests extends TestCase {
+	
+	@Override
+	protected void tearDown() {
+		ClassificationService.setMetrics(null);
+	}
+	
+	/**
+	 * Tests that batches, points, and modes are counted and exposed via JMX
+	 */
+	@Test
+	public void testJmxMetrics() throws JMException {
+		JmxClassificationMetrics metrics = new JmxClassificationMetrics();
+		metrics.register();
+		
+		try {
+			ClassificationService.setMetrics(metrics);
+			
+			List<SensorDataPoint> sensorDataPoints = SensorDataPointFixtures.trace(37, 40);
+			List<ClassifiedPoint> classifiedPoints = ClassificationService.classify(sensorDataPoints);
+			ClassificationService.classify(sensorDataPoints.subList(0, 10));
+			
+			int walks = 0;
+			for(ClassifiedPoint classifiedPoint : classifiedPoints.subList(10, 40)) {
+				if("walk".equals(classifiedPoint.getClassification().getMode())) {
+					walks++;
+				}
+			}
+			for(ClassifiedPoint classifiedPoint : classifiedPoints.subList(0, 10)) {
+				if("walk".equals(classifiedPoint.getClassification().getMode())) {
+					walks += 2;
+				}
+			}
+			
+			assertEquals(50, metrics.getPointsClassified());
+			assertEquals(2, metrics.getBatchesClassified());
+			assertEquals(40, metrics.getMaxBatchSize());
+			assertEquals(25.0D, metrics.getMeanBatchSize());
+			assertEquals(50, metrics.getStillCount() + metrics.getWalkCount() + metrics.getRunCount() 
+					+ metrics.getDriveCount() + metrics.getUnknownCount());
+			assertTrue(metrics.getPointLatency99thPercentile() > 0);
+			
+			ObjectName name = new ObjectName(JmxClassificationMetrics.DEFAULT_OBJECT_NAME);
+			assertEquals(Long.valueOf(50), ManagementFactory.getPlatformMBeanServer().getAttribute(name, "PointsClassified"));
+			assertEquals(walks, metrics.getWalkCount());
+		}
+		finally {
+			metrics.unregister();
+		}
+	}
+	
+	/**
+	 * Tests that wifi mode overrides are only counted when the wifi mode 
+	 * replaced a different mode, not whenever the mode equals the wifi mode
+	 */
+	@Test
+	public void testWifiModeOverrides() {
+		List<SensorDataPoint> sensorDataPoints = SensorDataPointFixtures.trace(41, 200);
+		
+		List<ClassifiedPoint> featureModes;
+		MobilityClassifier.wifiChecking = false;
+		try {
+			featureModes = ClassificationService.classify(sensorDataPoints);
+		}
+		finally {
+			MobilityClassifier.wifiChecking = true;
+		}
+		
+		JmxClassificationMetrics metrics = new JmxClassificationMetrics();
+		ClassificationService.setMetrics(metrics);
+		List<ClassifiedPoint> classifiedPoints = ClassificationService.classify(sensorDataPoints);
+		
+		int overrides = 0;
+		int agreements = 0;
+		for(int i = 0; i < classifiedPoints.size(); i++) {
+			ClassifiedPoint classifiedPoint = classifiedPoints.get(i);
+			if(classifiedPoint.getMode() != featureModes.get(i).getMode()) {
+				overrides++;
+			}
+			else if(classifiedPoint.getMode() == classifiedPoint.getWifiMode()) {
+				agreements++;
+			}
+		}
+		
+		assertTrue(overrides > 0);
+		assertTrue(agreements > 0);
+		assertEquals(overrides, metrics.getWifiModeOverrides());
+	}
+	
+	/**
+	 * Tests that modes are counted as ClassifiedPoint maps them, ignoring
+	 * case and treating unrecognised modes as unknown
+	 */
+	@Test
+	public void testModeCountsMatchResults() {
+		JmxClassificationMetrics metrics = new JmxClassificationMetrics();
+		
+		for(String mode : new String[] { "still", "STILL", "DRIVE", "walk", "bike" }) {
+			Classification classification = new Classification();
+			classification.setMode(mode);
+			metrics.recordPoint(classification, false, false, 0, 0);
+		}
+		
+		assertEquals(2, metrics.getStillCount());
+		assertEquals(1, metrics.getDriveCount());
+		assertEquals(1, metrics.getWalkCount());
+		assertEquals(1, metrics.getUnknownCount());
+	}
+	
+	/**
+	 * Tests that metrics are disabled by default
+	 */
+	@Test
+	public void testDisabledByDefault() {
+		assertSame(NoOpClassificationMetrics.INSTANCE, ClassificationService.getMetrics());
+		assertFalse(ClassificationService.getMetrics().isEnabled());
+	}
+	
+	/**
+	 * Tests histogram quantiles
+	 */
+	@Test
+	public void testLatencyHistogram() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getQuantile(0.99D));
+		
+		for(int i = 0; i < 99; i++) {
+			histogram.record(100);
+		}
+		histogram.record(100000);
+		
+		assertEquals(100, histogram.getCount());
+		assertEquals(100000, histogram.getMax());
+		assertEquals(127, histogram.getQuantile(0.5D));
+		assertEquals(127, histogram.getQuantile(0.99D));
+		assertEquals(100000, histogram.getQuantile(1.0D));
+	}
+}
@@ -0,0 +1,222 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.junit.Test;
+import org.openmhealth.dpu.mobilityclassifier.domain.ClassifiedPoint;
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+import org.openmhealth.dpu.mobilityclassifier.io.SensorDataPointReader;
+import org.openmhealth.dpu.mobilityclassifier.metrics.ClassificationMetrics;
+import org.openmhealth.dpu.mobilityclassifier.server.ClassificationServer;
+import org.openmhealth.dpu.mobilityclassifier.service.ClassificationService;
+import org.openmhealth.dpu.mobilityclassifier.service.ClassificationSession;
+
+import edu.ucla.cens.mobilityclassifier.Classification;
+
+/**
+ * Tests classifying points over HTTP.
+ */
+public class ClassificationServerTests extends TestCase {
+	private ClassificationServer server;
+	
+	@Override
+	protected void setUp() throws Exception {
+		server = new ClassificationServer(new InetSocketAddress("127.0.0.1", 0), 2, 64 * 1024, 2, 4);
+		server.start();
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		server.stop(0);
+		ClassificationService.setMetrics(null);
+	}
+	
+	/**
+	 * Tests that a request larger than a batch is streamed back with the 
+	 * same results as a session
+	 */
+	@Test
+	public void testStreamedRequest() throws Exception {
+		byte[] body = read(new FileInputStream("example.json"));
+		
+		assertEquals(expectedModes(body), post(body));
+	}
+	
+	/**
+	 * Tests that small NDJSON requests are coalesced and still classified 
+	 * independently
+	 */
+	@Test
+	public void testSmallRequests() throws Exception {
+		JSONArray points = new JSONArray(new JSONTokener(new FileReader("example.json")));
+		
+		for(int i = 0; i < points.length(); i += 2) {
+			StringBuilder builder = new StringBuilder();
+			for(int j = i; j < Math.min(points.length(), i + 2); j++) {
+				builder.append(points.getJSONObject(j)).append('\n');
+			}
+			byte[] body = builder.toString().getBytes("UTF-8");
+			
+			assertEquals(expectedModes(body), post(body));
+		}
+	}
+	
+	/**
+	 * Tests that malformed and oversized requests are rejected
+	 */
+	@Test
+	public void testRejectedRequests() throws Exception {
+		assertEquals(400, status("{\"accel_data\": [".getBytes("UTF-8")));
+		assertEquals(413, status(new byte[64 * 1024 + 1]));
+	}
+	
+	/**
+	 * Tests that a failure while a request is being streamed back ends the 
+	 * response with an error object
+	 */
+	@Test
+	public void testStreamedFailure() throws Exception {
+		byte[] body = read(new FileInputStream("example.json"));
+		
+		// Sessions created from now on fail on their seventh point
+		ClassificationService.setMetrics(new ClassificationMetrics() {
+			private int points;
+			
+			public boolean isEnabled() {
+				return true;
+			}
+			
+			public synchronized void recordPoint(Classification classification, boolean cached, boolean wifiOverride, 
+					long classificationNanos, long resultNanos) {
+				
+				if(++points == 7) {
+					throw new IllegalStateException("metrics failed");
+				}
+			}
+			
+			public void recordBatch(int numberOfPoints, long validationNanos, long elapsedNanos) {
+				
+			}
+		});
+		
+		HttpURLConnection connection = open(body);
+		assertEquals(200, connection.getResponseCode());
+		
+		List<String> lines = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), "UTF-8"));
+		try {
+			String line = reader.readLine();
+			while(line != null) {
+				lines.add(line);
+				line = reader.readLine();
+			}
+		}
+		finally {
+			reader.close();
+		}
+		
+		assertEquals(7, lines.size());
+		assertEquals("metrics failed", new JSONObject(lines.get(6)).getString("error"));
+	}
+	
+	private List<String> expectedModes(byte[] body) throws Exception {
+		ClassificationSession session = new ClassificationSession();
+		List<String> modes = new ArrayList<String>();
+		
+		for(SensorDataPoint sensorDataPoint : new SensorDataPointReader(new ByteArrayInputStream(body))) {
+			ClassifiedPoint classifiedPoint = session.classify(sensorDataPoint);
+			modes.add(classifiedPoint.getClassification().getMode());
+		}
+		
+		return modes;
+	}
+	
+	private List<String> post(byte[] body) throws Exception {
+		HttpURLConnection connection = open(body);
+		assertEquals(200, connection.getResponseCode());
+		
+		List<String> modes = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), "UTF-8"));
+		try {
+			String line = reader.readLine();
+			while(line != null) {
+				modes.add(new JSONObject(line).getString("mode"));
+				line = reader.readLine();
+			}
+		}
+		finally {
+			reader.close();
+		}
+		
+		return modes;
+	}
+	
+	private int status(byte[] body) throws Exception {
+		HttpURLConnection connection = open(body);
+		int status = connection.getResponseCode();
+		connection.disconnect();
+		return status;
+	}
+	
+	private HttpURLConnection open(byte[] body) throws IOException {
+		URL url = new URL("http", "127.0.0.1", server.getAddress().getPort(), "/classify");
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		connection.setFixedLengthStreamingMode(body.length);
+		
+		OutputStream out = connection.getOutputStream();
+		out.write(body);
+		out.close();
+		
+		return connection;
+	}
+	
+	private static byte[] read(InputStream in) throws IOException {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int n;
+			while((n = in.read(buffer)) != -1) {
+				out.write(buffer, 0, n);
+			}
+			return out.toByteArray();
+		}
+		finally {
+			in.close();
+		}
+	}
+}
@@ -17,8 +17,12 @@ package org.openmhealth.dpu.mobilityclassifier.test;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import junit.framework.TestCase;
 
@@ -27,6 +31,7 @@ import org.junit.Test;
 import org.openmhealth.dpu.mobilityclassifier.domain.ClassifiedPoint;
 import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
 import org.openmhealth.dpu.mobilityclassifier.service.ClassificationService;
+import org.openmhealth.dpu.mobilityclassifier.service.ClassificationSession;
 
 import edu.ucla.cens.mobilityclassifier.AccessPoint;
 import edu.ucla.cens.mobilityclassifier.Sample;
@@ -120,4 +125,106 @@ public class ClassificationServiceTests extends TestCase {
 		
 		System.out.println(classifiedPointList.get(0).toString());
 	}
+	
+	/**
+	 * Tests an attempt to classify a null map of users
+	 */
+	@Test
+	public void testClassifyAllNullMap() {
+		try {
+			ClassificationService.classifyAll(null);
+			
+			fail("ClassificationService.classifyAll allows a null argument");
+		}
+		catch(IllegalArgumentException e) {
+			// expected behavior
+		}
+	}
+	
+	/**
+	 * Tests that classifying many users at once gives the same output as 
+	 * classifying each user on its own
+	 */
+	@Test
+	public void testClassifyAllMatchesClassify() {
+		Map<String, List<SensorDataPoint>> sensorDataPointsByUser = new LinkedHashMap<String, List<SensorDataPoint>>();
+		for(int i = 0; i < 16; i++) {
+			sensorDataPointsByUser.put("user" + i, SensorDataPointFixtures.trace(i, 40 + i));
+		}
+		
+		Map<String, List<ClassifiedPoint>> classifiedPointsByUser = ClassificationService.classifyAll(sensorDataPointsByUser);
+		
+		assertEquals(new ArrayList<String>(sensorDataPointsByUser.keySet()), new ArrayList<String>(classifiedPointsByUser.keySet()));
+		
+		for(Map.Entry<String, List<SensorDataPoint>> entry : sensorDataPointsByUser.entrySet()) {
+			List<ClassifiedPoint> expected = ClassificationService.classify(entry.getValue());
+			List<ClassifiedPoint> actual = classifiedPointsByUser.get(entry.getKey());
+			
+			assertEquals(expected.size(), actual.size());
+			for(int i = 0; i < expected.size(); i++) {
+				assertEquals(expected.get(i).getId(), actual.get(i).getId());
+				SensorDataPointFixtures.assertSameClassification(expected.get(i).getClassification(), actual.get(i).getClassification());
+			}
+		}
+	}
+	
+	/**
+	 * Tests that classifying one long stream in parallel chunks gives the 
+	 * same output as classifying it sequentially
+	 */
+	@Test
+	public void testClassifyParallelMatchesClassify() {
+		List<SensorDataPoint> sensorDataPoints = SensorDataPointFixtures.trace(17, 1500);
+		
+		ExecutorService executorService = Executors.newFixedThreadPool(3);
+		try {
+			assertSameClassifiedPoints(ClassificationService.classify(sensorDataPoints), 
+				ClassificationService.classifyParallel(sensorDataPoints, executorService));
+		}
+		finally {
+			executorService.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Tests that a wrong guess of the mode carried into a chunk is fixed up.
+	 * All points share one scan, so the "STILL" mode passed in is carried 
+	 * through the whole stream and every chunk but the first starts with the
+	 * wrong mode.
+	 */
+	@Test
+	public void testClassifyParallelFixesCarriedMode() {
+		List<AccessPoint> accessPoints = new ArrayList<AccessPoint>();
+		accessPoints.add(new AccessPoint("test", -80.0D));
+		WifiScan wifiScan = new WifiScan(1000L, accessPoints);
+		
+		List<SensorDataPoint> sensorDataPoints = new ArrayList<SensorDataPoint>();
+		for(int i = 0; i < 1200; i++) {
+			List<Sample> samples = new ArrayList<Sample>();
+			for(int j = 0; j < 16; j++) {
+				samples.add(new Sample(0.0D, 0.0D, 9.80665D + (j % 2) * 0.01D));
+			}
+			sensorDataPoints.add(new SensorDataPoint(UUID.randomUUID(), 0.0D, DateTimeZone.UTC, wifiScan, samples));
+		}
+		
+		List<ClassifiedPoint> expected = new ClassificationSession(wifiScan, "STILL").classify(sensorDataPoints);
+		assertEquals("STILL", expected.get(expected.size() - 1).getClassification().getMode());
+		
+		ExecutorService executorService = Executors.newFixedThreadPool(2);
+		try {
+			assertSameClassifiedPoints(expected, 
+				ClassificationService.classifyParallel(sensorDataPoints, wifiScan, "STILL", executorService));
+		}
+		finally {
+			executorService.shutdownNow();
+		}
+	}
+	
+	private static void assertSameClassifiedPoints(List<ClassifiedPoint> expected, List<ClassifiedPoint> actual) {
+		assertEquals(expected.size(), actual.size());
+		for(int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).getId(), actual.get(i).getId());
+			SensorDataPointFixtures.assertSameClassification(expected.get(i).getClassification(), actual.get(i).getClassification());
+		}
+	}
 }
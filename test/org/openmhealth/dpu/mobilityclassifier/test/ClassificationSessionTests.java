@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.openmhealth.dpu.mobilityclassifier.domain.ClassifiedPoint;
+import org.openmhealth.dpu.mobilityclassifier.domain.Mode;
+import org.openmhealth.dpu.mobilityclassifier.domain.ResultDetail;
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+import org.openmhealth.dpu.mobilityclassifier.service.ClassificationService;
+import org.openmhealth.dpu.mobilityclassifier.service.ClassificationSession;
+
+import edu.ucla.cens.mobilityclassifier.Classification;
+
+/**
+ * Tests incremental classification with ClassificationSession.
+ */
+public class ClassificationSessionTests extends TestCase {
+	
+	/**
+	 * Tests that classifying one point at a time gives the same output as
+	 * classifying the whole list
+	 */
+	@Test
+	public void testIncrementalMatchesBatch() {
+		List<SensorDataPoint> sensorDataPoints = SensorDataPointFixtures.trace(7, 60);
+		List<ClassifiedPoint> expected = ClassificationService.classify(sensorDataPoints);
+		
+		ClassificationSession session = new ClassificationSession();
+		for(int i = 0; i < sensorDataPoints.size(); i++) {
+			ClassifiedPoint actual = session.classify(sensorDataPoints.get(i));
+			
+			assertEquals(expected.get(i).getId(), actual.getId());
+			SensorDataPointFixtures.assertSameClassification(expected.get(i).getClassification(), actual.getClassification());
+		}
+	}
+	
+	/**
+	 * Tests that a list containing null is rejected before any of its points
+	 * change the session
+	 */
+	@Test
+	public void testListWithNullLeavesSessionUnchanged() {
+		List<SensorDataPoint> sensorDataPoints = SensorDataPointFixtures.trace(5, 20);
+		ClassificationSession session = new ClassificationSession();
+		session.classify(sensorDataPoints.subList(0, 10));
+		byte[] snapshot = session.snapshot();
+		
+		List<SensorDataPoint> badList = new ArrayList<SensorDataPoint>(sensorDataPoints.subList(10, 20));
+		badList.add(5, null);
+		try {
+			session.classify(badList);
+			
+			fail("ClassificationSession.classify allowed a list containing null items.");
+		}
+		catch(IllegalArgumentException e) {
+			// expected behavior
+		}
+		
+		assertTrue(Arrays.equals(snapshot, session.snapshot()));
+	}
+	
+	/**
+	 * Tests that a session restored from a snapshot continues the stream as if
+	 * it had never been interrupted
+	 */
+	@Test
+	public void testSnapshotAndRestore() {
+		List<SensorDataPoint> sensorDataPoints = SensorDataPointFixtures.trace(11, 60);
+		List<ClassifiedPoint> expected = ClassificationService.classify(sensorDataPoints);
+		
+		ClassificationSession session = new ClassificationSession();
+		assertNotNull(ClassificationSession.restore(session.snapshot()));
+		
+		session.classify(sensorDataPoints.subList(0, 25));
+		
+		ClassificationSession restored = ClassificationSession.restore(session.snapshot());
+		assertEquals(session.getPreviousMode(), restored.getPreviousMode());
+		assertEquals(session.getPreviousWifiScan().getTime(), restored.getPreviousWifiScan().getTime());
+		
+		List<ClassifiedPoint> actual = restored.classify(sensorDataPoints.subList(25, sensorDataPoints.size()));
+		for(int i = 0; i < actual.size(); i++) {
+			SensorDataPointFixtures.assertSameClassification(expected.get(25 + i).getClassification(), actual.get(i).getClassification());
+		}
+	}
+	
+	/**
+	 * Tests an attempt to restore a malformed snapshot
+	 */
+	@Test
+	public void testRestoreMalformedSnapshot() {
+		try {
+			ClassificationSession.restore(new byte[] { 1, 1 });
+			
+			fail("ClassificationSession.restore allowed a truncated snapshot");
+		}
+		catch(IllegalArgumentException e) {
+			// expected behavior
+		}
+	}
+	
+	/**
+	 * Tests that compact results keep the modes and, for FEATURES, rebuild an
+	 * identical classification
+	 */
+	@Test
+	public void testResultDetail() {
+		List<SensorDataPoint> sensorDataPoints = SensorDataPointFixtures.trace(43, 30);
+		List<ClassifiedPoint> full = ClassificationService.classify(sensorDataPoints);
+		List<ClassifiedPoint> features = ClassificationService.classify(sensorDataPoints, ResultDetail.FEATURES);
+		List<ClassifiedPoint> modes = ClassificationService.classify(sensorDataPoints, ResultDetail.MODE);
+		
+		for(int i = 0; i < full.size(); i++) {
+			ClassifiedPoint expected = full.get(i);
+			Mode mode = Mode.forClassifierValue(expected.getClassification().getMode());
+			
+			assertEquals(mode, expected.getMode());
+			assertEquals(mode, features.get(i).getMode());
+			assertEquals(mode, modes.get(i).getMode());
+			assertEquals(expected.getWifiMode(), modes.get(i).getWifiMode());
+			assertEquals(expected.getId(), modes.get(i).getId());
+			SensorDataPointFixtures.assertSameClassification(expected.getClassification(), features.get(i).getClassification());
+			
+			if(expected.hasFeatures()) {
+				assertEquals(expected.getVariance(), features.get(i).getVariance());
+				assertTrue(Arrays.equals(expected.getFft(), features.get(i).getFft()));
+				assertNull(modes.get(i).getClassification().getFft());
+				
+				try {
+					modes.get(i).getAverage();
+					fail("Expected an IllegalStateException");
+				}
+				catch(IllegalStateException e) {
+					// expected behavior
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Tests that a mode this version does not know is kept as UNKNOWN, with
+	 * the original string still available from the full classification
+	 */
+	@Test
+	public void testUnrecognisedModeIsUnknown() {
+		Classification classification = new Classification();
+		classification.setMode("bike");
+		classification.setWifiMode("drive");
+		
+		ClassifiedPoint full = new ClassifiedPoint(UUID.randomUUID(), classification);
+		assertEquals(Mode.UNKNOWN, full.getMode());
+		assertEquals(Mode.DRIVE, full.getWifiMode());
+		assertEquals("bike", full.getClassification().getMode());
+		
+		ClassifiedPoint modes = new ClassifiedPoint(UUID.randomUUID(), classification, ResultDetail.MODE);
+		assertEquals(Mode.UNKNOWN, modes.getMode());
+		
+		classification.setWifiMode("Teleport");
+		assertEquals(Mode.UNKNOWN, new ClassifiedPoint(UUID.randomUUID(), classification).getWifiMode());
+	}
+}
@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import junit.framework.TestCase;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+import org.junit.Test;
+import org.openmhealth.dpu.mobilityclassifier.aggregation.DailySummaryAggregator;
+import org.openmhealth.dpu.mobilityclassifier.aggregation.DailySummarySink;
+import org.openmhealth.dpu.mobilityclassifier.domain.AccelerometerData;
+import org.openmhealth.dpu.mobilityclassifier.domain.ClassifiedPoint;
+import org.openmhealth.dpu.mobilityclassifier.domain.DailySummary;
+import org.openmhealth.dpu.mobilityclassifier.domain.Mode;
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+
+import edu.ucla.cens.mobilityclassifier.AccessPoint;
+import edu.ucla.cens.mobilityclassifier.Classification;
+import edu.ucla.cens.mobilityclassifier.WifiScan;
+
+/**
+ * Tests summarizing classified points per local day.
+ */
+public class DailySummaryAggregatorTests extends TestCase {
+	private static final DateTimeZone NEW_YORK = DateTimeZone.forID("America/New_York");
+	private static final DateTimeZone TOKYO = DateTimeZone.forID("Asia/Tokyo");
+	private static final DateTimeZone LOS_ANGELES = DateTimeZone.forID("America/Los_Angeles");
+	private static final long HALF_HOUR = 30L * 60L * 1000L;
+	private static final long HOUR = 2L * HALF_HOUR;
+	
+	/**
+	 * Tests that the day clocks are moved forward is 23 hours long
+	 */
+	@Test
+	public void testSpringForward() throws Exception {
+		long start = new DateTime(2012, 3, 10, 22, 0, NEW_YORK).getMillis();
+		long end = new DateTime(2012, 3, 12, 1, 0, NEW_YORK).getMillis();
+		
+		List<DailySummary> summaries = summarize(start, end, HOUR);
+		
+		assertEquals(3, summaries.size());
+		assertDay(summaries.get(0), new LocalDate(2012, 3, 10), 2 * HOUR, 4);
+		assertDay(summaries.get(1), new LocalDate(2012, 3, 11), 23 * HOUR, 46);
+		assertDay(summaries.get(2), new LocalDate(2012, 3, 12), HOUR, 3);
+	}
+	
+	/**
+	 * Tests that the day clocks are moved back is 25 hours long
+	 */
+	@Test
+	public void testFallBack() throws Exception {
+		long start = new DateTime(2012, 11, 3, 23, 0, NEW_YORK).getMillis();
+		long end = new DateTime(2012, 11, 5, 0, 0, NEW_YORK).getMillis();
+		
+		List<DailySummary> summaries = summarize(start, end, HOUR);
+		
+		assertEquals(3, summaries.size());
+		assertDay(summaries.get(0), new LocalDate(2012, 11, 3), HOUR, 2);
+		assertDay(summaries.get(1), new LocalDate(2012, 11, 4), 25 * HOUR, 50);
+		assertDay(summaries.get(2), new LocalDate(2012, 11, 5), 0, 1);
+	}
+	
+	/**
+	 * Tests that a point counts towards at most the maximum gap, attributed
+	 * to its own mode
+	 */
+	@Test
+	public void testGapCapped() throws Exception {
+		long start = new DateTime(2012, 6, 1, 8, 0, NEW_YORK).getMillis();
+		
+		final List<DailySummary> summaries = new ArrayList<DailySummary>();
+		DailySummaryAggregator aggregator = newAggregator(summaries, HOUR);
+		
+		accept(aggregator, start, "walk");
+		accept(aggregator, start + HALF_HOUR, "drive");
+		accept(aggregator, start + 5 * HOUR, "still");
+		aggregator.flush();
+		
+		assertEquals(1, summaries.size());
+		DailySummary summary = summaries.get(0);
+		assertEquals(HALF_HOUR, summary.getDurationMillis(Mode.WALK));
+		assertEquals(HOUR, summary.getDurationMillis(Mode.DRIVE));
+		assertEquals(0, summary.getDurationMillis(Mode.STILL));
+		assertEquals(1, summary.getCount(Mode.STILL));
+		assertEquals(3, summary.getNumberOfPoints());
+	}
+	
+	/**
+	 * Tests that returning to an ended date by flying west merges into that
+	 * date's summary instead of emitting a second one
+	 */
+	@Test
+	public void testWestwardTimezoneChange() throws Exception {
+		final List<DailySummary> summaries = new ArrayList<DailySummary>();
+		DailySummaryAggregator aggregator = newAggregator(summaries, HOUR);
+		
+		// June 1 22:00 to June 2 01:00 in Tokyo, then June 1 09:30 to 23:00
+		// in Los Angeles
+		long time = new DateTime(2012, 6, 1, 22, 0, TOKYO).getMillis();
+		long landed = new DateTime(2012, 6, 2, 1, 0, TOKYO).getMillis();
+		for(; time <= landed; time += HALF_HOUR) {
+			accept(aggregator, time, "still", TOKYO);
+		}
+		long end = new DateTime(2012, 6, 1, 23, 0, LOS_ANGELES).getMillis();
+		for(; time <= end; time += HALF_HOUR) {
+			accept(aggregator, time, "still", LOS_ANGELES);
+		}
+		assertEquals(0, summaries.size());
+		
+		// June 1 has now ended in every timezone
+		accept(aggregator, new DateTime(2012, 6, 2, 6, 0, LOS_ANGELES).getMillis(), "still", LOS_ANGELES);
+		assertEquals(1, summaries.size());
+		
+		aggregator.flush();
+		assertEquals(2, summaries.size());
+		
+		DailySummary first = summaries.get(0);
+		assertEquals(new LocalDate(2012, 6, 1), first.getDate());
+		assertEquals(LOS_ANGELES, first.getTimezone());
+		assertEquals(2 * HOUR + 27 * HALF_HOUR + HOUR, first.getDurationMillis(Mode.STILL));
+		assertEquals(4 + 28, first.getNumberOfPoints());
+		
+		DailySummary second = summaries.get(1);
+		assertEquals(new LocalDate(2012, 6, 2), second.getDate());
+		assertEquals(3 * HALF_HOUR, second.getDurationMillis(Mode.STILL));
+		assertEquals(3 + 1, second.getNumberOfPoints());
+	}
+	
+	/**
+	 * Tests that points out of time order are rejected
+	 */
+	@Test
+	public void testOutOfOrder() throws Exception {
+		DailySummaryAggregator aggregator = newAggregator(new ArrayList<DailySummary>(), HOUR);
+		accept(aggregator, HOUR, "still");
+		
+		try {
+			accept(aggregator, 0, "still");
+			
+			fail("DailySummaryAggregator accepted a point earlier than the previous one");
+		}
+		catch(IllegalArgumentException e) {
+			// expected behavior
+		}
+	}
+	
+	private List<DailySummary> summarize(long start, long end, long maximumGapMillis) throws Exception {
+		List<DailySummary> summaries = new ArrayList<DailySummary>();
+		DailySummaryAggregator aggregator = newAggregator(summaries, maximumGapMillis);
+		
+		for(long time = start; time <= end; time += HALF_HOUR) {
+			accept(aggregator, time, "still");
+		}
+		aggregator.flush();
+		
+		assertEquals(summaries.size(), aggregator.getSummaries());
+		return summaries;
+	}
+	
+	private DailySummaryAggregator newAggregator(final List<DailySummary> summaries, long maximumGapMillis) {
+		return new DailySummaryAggregator("user", new DailySummarySink() {
+			public void accept(DailySummary dailySummary) {
+				summaries.add(dailySummary);
+			}
+		}, maximumGapMillis);
+	}
+	
+	private void accept(DailySummaryAggregator aggregator, long time, String mode) throws Exception {
+		accept(aggregator, time, mode, NEW_YORK);
+	}
+	
+	private void accept(DailySummaryAggregator aggregator, long time, String mode, DateTimeZone timezone) throws Exception {
+		SensorDataPoint sensorDataPoint = new SensorDataPoint(UUID.randomUUID(), 0.0, timezone, 
+			new WifiScan(time, Collections.<AccessPoint>emptyList()), 
+			new AccelerometerData(new double[0], new double[0], new double[0]));
+		
+		Classification classification = new Classification();
+		classification.setMode(mode);
+		
+		aggregator.accept(sensorDataPoint, new ClassifiedPoint(sensorDataPoint.getId(), classification));
+	}
+	
+	private void assertDay(DailySummary summary, LocalDate date, long durationMillis, int numberOfPoints) {
+		assertEquals("user", summary.getUserId());
+		assertEquals(date, summary.getDate());
+		assertEquals(NEW_YORK, summary.getTimezone());
+		assertEquals(durationMillis, summary.getDurationMillis(Mode.STILL));
+		assertEquals(durationMillis, summary.getTotalDurationMillis());
+		assertEquals(numberOfPoints, summary.getNumberOfPoints());
+	}
+}
@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import junit.framework.TestCase;
+
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+import org.openmhealth.dpu.mobilityclassifier.aggregation.EpisodeAggregator;
+import org.openmhealth.dpu.mobilityclassifier.aggregation.MobilityEpisodeSink;
+import org.openmhealth.dpu.mobilityclassifier.domain.AccelerometerData;
+import org.openmhealth.dpu.mobilityclassifier.domain.ClassifiedPoint;
+import org.openmhealth.dpu.mobilityclassifier.domain.MobilityEpisode;
+import org.openmhealth.dpu.mobilityclassifier.domain.Mode;
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+
+import edu.ucla.cens.mobilityclassifier.AccessPoint;
+import edu.ucla.cens.mobilityclassifier.Classification;
+import edu.ucla.cens.mobilityclassifier.WifiScan;
+
+/**
+ * Tests merging classified points into episodes.
+ */
+public class EpisodeAggregatorTests extends TestCase {
+	private static final String[] MODES = {
+		"still", "still", "still", "walk", "still", "still", "drive", "drive", "drive", "walk", "run", "run" 
+	};
+	
+	/**
+	 * Tests that single-point blips are absorbed into the surrounding episode
+	 */
+	@Test
+	public void testBlipsAbsorbed() throws Exception {
+		List<MobilityEpisode> episodes = aggregate(1, false);
+		
+		assertEquals(4, episodes.size());
+		assertEpisode(episodes.get(0), Mode.STILL, 0, 5, 6);
+		assertEpisode(episodes.get(1), Mode.DRIVE, 6, 8, 3);
+		assertEpisode(episodes.get(2), Mode.WALK, 9, 9, 1);
+		assertEpisode(episodes.get(3), Mode.RUN, 10, 11, 2);
+		assertTrue(Double.isNaN(episodes.get(0).getMeanAverage()));
+	}
+	
+	/**
+	 * Tests that every change of mode starts an episode without smoothing and
+	 * that features are summarized
+	 */
+	@Test
+	public void testWithoutSmoothing() throws Exception {
+		List<MobilityEpisode> episodes = aggregate(0, true);
+		
+		assertEquals(6, episodes.size());
+		assertEpisode(episodes.get(0), Mode.STILL, 0, 2, 3);
+		assertEpisode(episodes.get(1), Mode.WALK, 3, 3, 1);
+		assertEpisode(episodes.get(2), Mode.STILL, 4, 5, 2);
+		assertEpisode(episodes.get(5), Mode.RUN, 10, 11, 2);
+		
+		// Each point's average is its index and its variance twice that
+		assertEquals(1.0, episodes.get(0).getMeanAverage());
+		assertEquals(2.0, episodes.get(0).getMeanVariance());
+		assertEquals(10.5, episodes.get(5).getMeanAverage());
+	}
+	
+	private List<MobilityEpisode> aggregate(int maximumBlipLength, boolean summarizeFeatures) throws Exception {
+		final List<MobilityEpisode> episodes = new ArrayList<MobilityEpisode>();
+		EpisodeAggregator aggregator = new EpisodeAggregator(new MobilityEpisodeSink() {
+			public void accept(MobilityEpisode mobilityEpisode) {
+				episodes.add(mobilityEpisode);
+			}
+		}, maximumBlipLength, summarizeFeatures);
+		
+		for(int i = 0; i < MODES.length; i++) {
+			SensorDataPoint sensorDataPoint = new SensorDataPoint(UUID.randomUUID(), 0.0, DateTimeZone.UTC, 
+				new WifiScan(i * 60000L, Collections.<AccessPoint>emptyList()), 
+				new AccelerometerData(new double[0], new double[0], new double[0]));
+			
+			Classification classification = new Classification();
+			classification.setMode(MODES[i]);
+			classification.setAverage((double) i);
+			classification.setVariance(2.0 * i);
+			classification.setHasFeatures(true);
+			
+			aggregator.accept(sensorDataPoint, new ClassifiedPoint(sensorDataPoint.getId(), classification));
+		}
+		aggregator.flush();
+		
+		assertEquals(episodes.size(), aggregator.getEpisodes());
+		return episodes;
+	}
+	
+	private void assertEpisode(MobilityEpisode episode, Mode mode, int first, int last, int numberOfPoints) {
+		assertEquals(mode, episode.getMode());
+		assertEquals(first * 60000L, episode.getStartTime());
+		assertEquals(last * 60000L, episode.getEndTime());
+		assertEquals(numberOfPoints, episode.getNumberOfPoints());
+	}
+}
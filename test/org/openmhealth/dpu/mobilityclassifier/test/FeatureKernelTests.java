@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+import org.openmhealth.dpu.mobilityclassifier.service.FeatureKernel;
+import org.openmhealth.dpu.mobilityclassifier.service.ScalarFeatureKernel;
+
+import edu.ucla.cens.mobilityclassifier.Classification;
+import edu.ucla.cens.mobilityclassifier.MobilityClassifier;
+
+/**
+ * Tests batch feature extraction against the MobilityClassifier. Run with 
+ * the vector classes and the jdk.incubator.vector module, e.g., by 
+ * "ant test-vector", to test the vectorized kernel as well.
+ */
+public class FeatureKernelTests extends TestCase {
+	
+	/**
+	 * Tests that the scalar kernel's features are identical to the library's
+	 */
+	@Test
+	public void testScalarKernelMatchesLibrary() {
+		assertFeatures(new ScalarFeatureKernel(), 0.0D);
+	}
+	
+	/**
+	 * Tests that the preferred kernel's features are within the stated 
+	 * tolerance of the library's
+	 */
+	@Test
+	public void testPreferredKernelMatchesLibrary() {
+		FeatureKernel kernel = FeatureKernel.create();
+		// The vector kernel is only found with src-vector on the classpath
+		// and the incubator module added, e.g., by ant test-vector
+		if(kernel.isVectorized()) {
+			assertEquals("org.openmhealth.dpu.mobilityclassifier.vector.VectorFeatureKernel", kernel.getClass().getName());
+		}
+		else {
+			assertEquals(ScalarFeatureKernel.class, kernel.getClass());
+		}
+		
+		assertFeatures(kernel, FeatureKernel.TOLERANCE);
+	}
+	
+	/**
+	 * Tests an attempt to extract the features of an empty window
+	 */
+	@Test
+	public void testEmptyWindow() {
+		try {
+			FeatureKernel.create().extract(new double[1], new double[1], new double[1], new int[] { 0 }, new int[] { 0 }, 1, 
+				new double[FeatureKernel.FEATURES_PER_WINDOW]);
+			
+			fail("FeatureKernel allowed an empty window");
+		}
+		catch(IllegalArgumentException e) {
+			// expected behavior
+		}
+	}
+	
+	private static void assertFeatures(FeatureKernel kernel, double tolerance) {
+		// The library has no features for windows of 10 samples or fewer
+		List<SensorDataPoint> sensorDataPoints = new ArrayList<SensorDataPoint>();
+		for(SensorDataPoint sensorDataPoint : SensorDataPointFixtures.trace(23, 300)) {
+			if(sensorDataPoint.getAccelerometerSamples().size() > 10) {
+				sensorDataPoints.add(sensorDataPoint);
+			}
+		}
+		
+		double[] features = new double[sensorDataPoints.size() * FeatureKernel.FEATURES_PER_WINDOW];
+		kernel.extract(sensorDataPoints, features);
+		
+		MobilityClassifier mobilityClassifier = new MobilityClassifier();
+		for(int w = 0; w < sensorDataPoints.size(); w++) {
+			SensorDataPoint sensorDataPoint = sensorDataPoints.get(w);
+			Classification classification = mobilityClassifier.classify(sensorDataPoint.getAccelerometerSamples(), 
+				sensorDataPoint.getSpeed(), sensorDataPoint.getWifiScan(), null, null);
+			
+			int base = w * FeatureKernel.FEATURES_PER_WINDOW;
+			assertClose(classification.getAverage(), features[base + FeatureKernel.AVERAGE], tolerance);
+			assertClose(classification.getVariance(), features[base + FeatureKernel.VARIANCE], tolerance);
+			for(int k = 0; k < FeatureKernel.NUMBER_OF_FFT_TERMS; k++) {
+				assertClose(classification.getFft().get(k), features[base + FeatureKernel.FFT + k], tolerance);
+			}
+		}
+	}
+	
+	private static void assertClose(double expected, double actual, double tolerance) {
+		if(tolerance == 0.0D) {
+			assertEquals(Double.doubleToLongBits(expected), Double.doubleToLongBits(actual));
+		}
+		else {
+			assertEquals(expected, actual, Math.abs(expected) * tolerance);
+		}
+	}
+}
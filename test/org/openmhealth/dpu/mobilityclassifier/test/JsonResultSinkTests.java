@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.openmhealth.dpu.mobilityclassifier.domain.ClassifiedPoint;
+import org.openmhealth.dpu.mobilityclassifier.domain.ResultDetail;
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+import org.openmhealth.dpu.mobilityclassifier.io.JsonResultSink;
+import org.openmhealth.dpu.mobilityclassifier.service.ClassificationService;
+import org.openmhealth.dpu.mobilityclassifier.service.ClassificationSession;
+
+/**
+ * Tests streaming classified points to JSON.
+ */
+public class JsonResultSinkTests extends TestCase {
+	
+	/**
+	 * Tests that NDJSON written to a stream contains every point with its 
+	 * features
+	 */
+	@Test
+	public void testNdjson() throws Exception {
+		List<SensorDataPoint> sensorDataPoints = SensorDataPointFixtures.trace(47, 40);
+		List<ClassifiedPoint> expected = ClassificationService.classify(sensorDataPoints);
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JsonResultSink sink = new JsonResultSink(out, true, true);
+		assertEquals(40, ClassificationService.classify(sensorDataPoints, sink));
+		sink.close();
+		
+		List<JSONObject> objects = new ArrayList<JSONObject>();
+		BufferedReader reader = new BufferedReader(new StringReader(out.toString("UTF-8")));
+		String line = reader.readLine();
+		while(line != null) {
+			objects.add(new JSONObject(line));
+			line = reader.readLine();
+		}
+		
+		assertSameResults(expected, objects, true);
+	}
+	
+	/**
+	 * Tests that a JSON array written to a channel omits features that were
+	 * not kept
+	 */
+	@Test
+	public void testArrayToChannel() throws Exception {
+		List<SensorDataPoint> sensorDataPoints = SensorDataPointFixtures.trace(53, 300);
+		List<ClassifiedPoint> expected = ClassificationService.classify(sensorDataPoints);
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JsonResultSink sink = new JsonResultSink(Channels.newChannel(out), false, true);
+		ClassificationSession session = new ClassificationSession();
+		session.setResultDetail(ResultDetail.MODE);
+		session.classify(sensorDataPoints, sink);
+		sink.close();
+		
+		JSONArray array = new JSONArray(out.toString("UTF-8"));
+		List<JSONObject> objects = new ArrayList<JSONObject>();
+		for(int i = 0; i < array.length(); i++) {
+			objects.add(array.getJSONObject(i));
+		}
+		
+		assertSameResults(expected, objects, false);
+	}
+	
+	/**
+	 * Tests that an empty stream is an empty JSON array
+	 */
+	@Test
+	public void testEmptyArray() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JsonResultSink sink = new JsonResultSink(out, false, true);
+		ClassificationService.classify(Collections.<SensorDataPoint>emptyList(), sink);
+		sink.close();
+		
+		assertEquals("[]", out.toString("UTF-8"));
+	}
+	
+	private void assertSameResults(List<ClassifiedPoint> expected, List<JSONObject> objects, boolean features) 
+			throws Exception {
+		
+		assertEquals(expected.size(), objects.size());
+		
+		for(int i = 0; i < expected.size(); i++) {
+			ClassifiedPoint classifiedPoint = expected.get(i);
+			JSONObject object = objects.get(i);
+			
+			assertEquals(classifiedPoint.getId().toString(), object.getString("id"));
+			assertEquals(classifiedPoint.getMode().getValue(), object.getString("mode"));
+			assertEquals(classifiedPoint.getWifiMode() == null ? null : classifiedPoint.getWifiMode().getValue(), 
+					object.optString("wifi_mode", null));
+			assertEquals(features && classifiedPoint.hasFeatures(), object.has("fft"));
+			
+			if(object.has("fft")) {
+				assertEquals(classifiedPoint.getAverage(), object.getDouble("average"));
+				assertEquals(classifiedPoint.getVariance(), object.getDouble("variance"));
+				JSONArray fft = object.getJSONArray("fft");
+				double[] expectedFft = classifiedPoint.getFft();
+				assertEquals(expectedFft.length, fft.length());
+				for(int j = 0; j < expectedFft.length; j++) {
+					assertEquals(expectedFft[j], fft.getDouble(j));
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.test;
+
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.openmhealth.dpu.mobilityclassifier.domain.AccelerometerData;
+import org.openmhealth.dpu.mobilityclassifier.domain.ClassifiedPoint;
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+import org.openmhealth.dpu.mobilityclassifier.io.SensorDataPointReader;
+import org.openmhealth.dpu.mobilityclassifier.service.ClassificationSession;
+import org.openmhealth.dpu.mobilityclassifier.service.MobilityClassifierEngine;
+
+import edu.ucla.cens.mobilityclassifier.AccessPoint;
+import edu.ucla.cens.mobilityclassifier.Classification;
+import edu.ucla.cens.mobilityclassifier.MobilityClassifier;
+import edu.ucla.cens.mobilityclassifier.Sample;
+import edu.ucla.cens.mobilityclassifier.WifiScan;
+
+/**
+ * Golden tests comparing the in-tree engine with the library's 
+ * MobilityClassifier.
+ */
+public class MobilityClassifierEngineTests extends TestCase {
+	
+	/**
+	 * Tests that generated list-backed and columnar traces classify 
+	 * identically
+	 */
+	@Test
+	public void testGeneratedTracesMatchLibrary() {
+		for(long seed = 1; seed <= 8; seed++) {
+			List<SensorDataPoint> sensorDataPoints = SensorDataPointFixtures.trace(seed, 60);
+			List<SensorDataPoint> columnar = new ArrayList<SensorDataPoint>();
+			for(SensorDataPoint sensorDataPoint : sensorDataPoints) {
+				columnar.add(new SensorDataPoint(sensorDataPoint.getId(), sensorDataPoint.getSpeed(), sensorDataPoint.getTimezone(), 
+						sensorDataPoint.getWifiScan(), sensorDataPoint.getAccelerometerData()));
+			}
+			
+			assertMatchesLibrary(sensorDataPoints);
+			assertMatchesLibrary(columnar);
+		}
+	}
+	
+	/**
+	 * Tests that example.json classifies identically
+	 */
+	@Test
+	public void testExampleMatchesLibrary() throws Exception {
+		List<SensorDataPoint> sensorDataPoints = new ArrayList<SensorDataPoint>();
+		SensorDataPointReader reader = new SensorDataPointReader(new FileInputStream("example.json"));
+		try {
+			for(SensorDataPoint sensorDataPoint : reader) {
+				sensorDataPoints.add(sensorDataPoint);
+			}
+		}
+		finally {
+			reader.close();
+		}
+		
+		assertMatchesLibrary(sensorDataPoints);
+	}
+	
+	/**
+	 * Tests the library's corner cases: short windows, missing scans, scans
+	 * taken at the same time, carried over upper case modes, scans without
+	 * strong signals, and a NaN speed
+	 */
+	@Test
+	public void testCornerCasesMatchLibrary() {
+		Random random = new Random(59);
+		MobilityClassifier library = new MobilityClassifier();
+		MobilityClassifierEngine engine = new MobilityClassifierEngine();
+		
+		List<AccessPoint> weak = Arrays.asList(new AccessPoint("a", -45), new AccessPoint("b", -49), new AccessPoint("c", -10));
+		List<AccessPoint> strong = Arrays.asList(new AccessPoint("a", -70), new AccessPoint("d", -80));
+		WifiScan first = new WifiScan(1000L, weak);
+		WifiScan second = new WifiScan(61000L, strong);
+		WifiScan stale = new WifiScan(1000000L, strong);
+		WifiScan empty = new WifiScan(121000L, Collections.<AccessPoint>emptyList());
+		
+		WifiScan[][] scans = {
+			{ null, null }, { first, null }, { first, first }, { second, first }, { first, second }, 
+			{ stale, second }, { empty, second }, { second, empty }
+		};
+		String[] previousModes = { null, "still", "STILL", "DRIVE", "unknown" };
+		Double[] speeds = { 0.0, 0.5, 5.0, Double.NaN };
+		int[] sizes = { 0, 10, 11, 32 };
+		
+		for(WifiScan[] pair : scans) {
+			for(String previousMode : previousModes) {
+				for(Double speed : speeds) {
+					for(int size : sizes) {
+						List<Sample> samples = new ArrayList<Sample>();
+						double amplitude = random.nextBoolean() ? 0.01 : 5.0;
+						for(int i = 0; i < size; i++) {
+							samples.add(new Sample(random.nextGaussian() * amplitude, random.nextGaussian() * amplitude, 
+									9.8 + random.nextGaussian() * amplitude));
+						}
+						
+						SensorDataPointFixtures.assertSameClassification(
+								library.classify(samples, speed, pair[0], pair[1], previousMode), 
+								engine.classify(samples, speed, pair[0], pair[1], previousMode));
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Tests that cascade mode decides the same modes without an FFT
+	 */
+	@Test
+	public void testCascadeMatchesModes() {
+		List<SensorDataPoint> sensorDataPoints = SensorDataPointFixtures.trace(61, 200);
+		List<ClassifiedPoint> expected = new ClassificationSession().classify(sensorDataPoints);
+		
+		ClassificationSession session = new ClassificationSession();
+		session.setEngine(new MobilityClassifierEngine(true));
+		List<ClassifiedPoint> actual = session.classify(sensorDataPoints);
+		
+		for(int i = 0; i < expected.size(); i++) {
+			Classification expectedClassification = expected.get(i).getClassification();
+			Classification actualClassification = actual.get(i).getClassification();
+			
+			assertEquals(expectedClassification.getMode(), actualClassification.getMode());
+			assertEquals(expectedClassification.getWifiMode(), actualClassification.getWifiMode());
+			assertEquals(expectedClassification.getAverage(), actualClassification.getAverage());
+			assertEquals(expectedClassification.getVariance(), actualClassification.getVariance());
+			assertEquals(expectedClassification.hasFeatures(), actualClassification.hasFeatures());
+			assertNull(actualClassification.getFft());
+		}
+	}
+	
+	private void assertMatchesLibrary(List<SensorDataPoint> sensorDataPoints) {
+		List<ClassifiedPoint> expected = new ClassificationSession().classify(sensorDataPoints);
+		
+		ClassificationSession session = new ClassificationSession();
+		session.setEngine(new MobilityClassifierEngine());
+		List<ClassifiedPoint> actual = session.classify(sensorDataPoints);
+		
+		assertEquals(expected.size(), actual.size());
+		for(int i = 0; i < expected.size(); i++) {
+			SensorDataPointFixtures.assertSameClassification(expected.get(i).getClassification(), actual.get(i).getClassification());
+		}
+	}
+}
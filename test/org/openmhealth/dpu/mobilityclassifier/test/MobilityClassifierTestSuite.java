@@ -36,6 +36,25 @@ public class MobilityClassifierTestSuite {
 		
 		TestSuite suite = new TestSuite(MobilityClassifierTestSuite.class.getName());
 		suite.addTestSuite(ClassificationServiceTests.class);
+		suite.addTestSuite(ClassificationSessionTests.class);
+		suite.addTestSuite(AccelerometerDataTests.class);
+		suite.addTestSuite(SensorDataPointReaderTests.class);
+		suite.addTestSuite(BinarySensorDataPointTests.class);
+		suite.addTestSuite(WifiScanComparatorTests.class);
+		suite.addTestSuite(ClassificationCacheTests.class);
+		suite.addTestSuite(ClassificationMetricsTests.class);
+		suite.addTestSuite(AsyncClassificationServiceTests.class);
+		suite.addTestSuite(ClassificationServerTests.class);
+		suite.addTestSuite(JsonResultSinkTests.class);
+		suite.addTestSuite(AccelerometerWindowerTests.class);
+		suite.addTestSuite(EpisodeAggregatorTests.class);
+		suite.addTestSuite(DailySummaryAggregatorTests.class);
+		suite.addTestSuite(ReorderBufferTests.class);
+		suite.addTestSuite(ParallelSensorDataPointReaderTests.class);
+		suite.addTestSuite(AccelerometerResamplerTests.class);
+		suite.addTestSuite(FeatureKernelTests.class);
+		suite.addTestSuite(MobilityClassifierEngineTests.class);
+		suite.addTestSuite(BatchRunnerTests.class);
 		return suite;
 	}
 }
@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONTokener;
+import org.junit.Test;
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+import org.openmhealth.dpu.mobilityclassifier.io.ParallelSensorDataPointReader;
+import org.openmhealth.dpu.mobilityclassifier.io.SensorDataPointReader;
+
+/**
+ * Tests decoding JSON points on several threads.
+ */
+public class ParallelSensorDataPointReaderTests extends TestCase {
+	// The SSID contains braces, brackets, an escaped quote, and a non-ASCII 
+	// character, none of which may end a record
+	private static final String POINT = "{\"accel_data\":[{\"x\":0.1,\"y\":0.2,\"z\":9.8},{\"x\":0,\"y\":0,\"z\":9.7}],"
+			+ "\"speed\":1.5,\"wifi_data\":{\"timezone\":\"UTC\",\"time\":1331258104686,"
+			+ "\"scan\":[{\"ssid\":\"café }]{[ \\\"x\\\\\",\"strength\":-58}]}}";
+	
+	private ExecutorService executorService;
+	
+	@Override
+	protected void setUp() {
+		executorService = Executors.newFixedThreadPool(3);
+	}
+	
+	@Override
+	protected void tearDown() {
+		executorService.shutdownNow();
+	}
+	
+	/**
+	 * Tests that the example JSON array is read exactly like the sequential
+	 * reader reads it
+	 */
+	@Test
+	public void testReadExampleArray() throws IOException, JSONException {
+		// Give the example's points ids so both readers return the same ones
+		JSONArray points = new JSONArray(new JSONTokener(new FileReader("example.json")));
+		for(int i = 0; i < points.length(); i++) {
+			points.getJSONObject(i).put("id", UUID.randomUUID().toString());
+		}
+		String json = points.toString();
+		
+		List<SensorDataPoint> expected = readAll(new SensorDataPointReader(new StringReader(json)));
+		List<SensorDataPoint> actual = readAll(new ParallelSensorDataPointReader(
+			new ByteArrayInputStream(json.getBytes("UTF-8")), executorService, 4));
+		
+		assertEquals(10, actual.size());
+		for(int i = 0; i < expected.size(); i++) {
+			SensorDataPointFixtures.assertSamePoint(expected.get(i), actual.get(i));
+		}
+	}
+	
+	/**
+	 * Tests that a long NDJSON input spanning many buffers is returned in 
+	 * order and that strings are not mistaken for structure
+	 */
+	@Test
+	public void testReadNdjsonInOrder() throws IOException, JSONException {
+		StringBuilder builder = new StringBuilder();
+		List<UUID> ids = new ArrayList<UUID>();
+		for(int i = 0; i < 2000; i++) {
+			UUID id = UUID.randomUUID();
+			ids.add(id);
+			builder.append("{\"id\":\"").append(id).append("\",").append(POINT.substring(1)).append("\r\n");
+		}
+		String json = builder.toString();
+		
+		List<SensorDataPoint> expected = readAll(new SensorDataPointReader(new StringReader(json)));
+		List<SensorDataPoint> actual = readAll(new ParallelSensorDataPointReader(
+			new ByteArrayInputStream(json.getBytes("UTF-8")), executorService, 16));
+		
+		assertEquals(ids.size(), actual.size());
+		for(int i = 0; i < ids.size(); i++) {
+			assertEquals(ids.get(i), actual.get(i).getId());
+			SensorDataPointFixtures.assertSamePoint(expected.get(i), actual.get(i));
+		}
+		assertEquals("café }]{[ \"x\\", actual.get(0).getWifiScan().getAccessPoints().get(0).getSsid());
+	}
+	
+	/**
+	 * Tests that a syntax error is reported after the points before it
+	 */
+	@Test
+	public void testSyntaxErrorAfterPoints() throws Exception {
+		String json = "[" + POINT + ",\n" + POINT + " " + POINT + "]";
+		ParallelSensorDataPointReader reader = new ParallelSensorDataPointReader(
+			new ByteArrayInputStream(json.getBytes("UTF-8")), executorService, 8);
+		
+		assertNotNull(reader.read());
+		assertNotNull(reader.read());
+		try {
+			reader.read();
+			
+			fail("ParallelSensorDataPointReader allowed a missing ','");
+		}
+		catch(JSONException e) {
+			// expected behavior
+		}
+	}
+	
+	/**
+	 * Tests reading an empty array
+	 */
+	@Test
+	public void testReadEmptyArray() throws JSONException {
+		assertNull(new ParallelSensorDataPointReader(new ByteArrayInputStream(" [ ] ".getBytes()), executorService, 1).read());
+	}
+	
+	private static List<SensorDataPoint> readAll(Iterable<SensorDataPoint> reader) throws IOException {
+		List<SensorDataPoint> points = new ArrayList<SensorDataPoint>();
+		for(SensorDataPoint point : reader) {
+			points.add(point);
+		}
+		return points;
+	}
+}
@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import junit.framework.TestCase;
+
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+import org.openmhealth.dpu.mobilityclassifier.domain.AccelerometerData;
+import org.openmhealth.dpu.mobilityclassifier.domain.ClassifiedPoint;
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+import org.openmhealth.dpu.mobilityclassifier.service.ClassificationService;
+import org.openmhealth.dpu.mobilityclassifier.service.ClassificationSession;
+import org.openmhealth.dpu.mobilityclassifier.service.ReorderBuffer;
+import org.openmhealth.dpu.mobilityclassifier.service.SensorDataPointSink;
+
+import edu.ucla.cens.mobilityclassifier.AccessPoint;
+import edu.ucla.cens.mobilityclassifier.WifiScan;
+
+/**
+ * Tests restoring the order of late, shuffled and duplicated points.
+ */
+public class ReorderBufferTests extends TestCase {
+	
+	/**
+	 * Tests that a locally shuffled stream with duplicates is classified 
+	 * exactly like the ordered stream
+	 */
+	@Test
+	public void testShuffledWithDuplicates() {
+		List<SensorDataPoint> ordered = SensorDataPointFixtures.trace(19, 300);
+		
+		// Each point arrives up to five minutes late, and some arrive twice
+		Random random = new Random(19);
+		List<SensorDataPoint> arrivals = new ArrayList<SensorDataPoint>(ordered);
+		for(int i = 0; i + 5 < arrivals.size(); i += 5) {
+			Collections.shuffle(arrivals.subList(i, i + 5), random);
+		}
+		for(int i = arrivals.size() - 1; i >= 0; i -= 7) {
+			arrivals.add(i + 3 < arrivals.size() ? i + 3 : i, arrivals.get(i));
+		}
+		
+		final ClassificationSession session = new ClassificationSession();
+		final List<ClassifiedPoint> classifiedPoints = new ArrayList<ClassifiedPoint>();
+		ReorderBuffer buffer = new ReorderBuffer(new SensorDataPointSink() {
+			public void accept(SensorDataPoint sensorDataPoint) {
+				classifiedPoints.add(session.classify(sensorDataPoint));
+			}
+		}, 5 * 60000L, 1000, 1000);
+		
+		for(SensorDataPoint sensorDataPoint : arrivals) {
+			buffer.accept(sensorDataPoint);
+		}
+		buffer.flush();
+		
+		List<ClassifiedPoint> expected = ClassificationService.classify(ordered);
+		assertEquals(expected.size(), classifiedPoints.size());
+		for(int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).getId(), classifiedPoints.get(i).getId());
+			SensorDataPointFixtures.assertSameClassification(expected.get(i).getClassification(), classifiedPoints.get(i).getClassification());
+		}
+		
+		assertEquals(arrivals.size() - ordered.size(), buffer.getDuplicates());
+		assertEquals(0, buffer.getLateDrops());
+		assertEquals(0, buffer.getPendingPoints());
+	}
+	
+	/**
+	 * Tests that points are released once the watermark passes them and that
+	 * points behind released ones are dropped
+	 */
+	@Test
+	public void testWatermark() {
+		List<SensorDataPoint> released = new ArrayList<SensorDataPoint>();
+		ReorderBuffer buffer = new ReorderBuffer(collector(released), 1000, 100, 100);
+		
+		buffer.accept(point(500));
+		buffer.accept(point(0));
+		assertEquals(0, released.size());
+		
+		buffer.accept(point(2000));
+		assertEquals(2, released.size());
+		assertEquals(0L, released.get(0).getWifiScan().getTime().longValue());
+		assertEquals(500L, released.get(1).getWifiScan().getTime().longValue());
+		
+		buffer.accept(point(400));
+		buffer.accept(point(1500));
+		assertEquals(1, buffer.getLateDrops());
+		assertEquals(2, buffer.getPendingPoints());
+		
+		buffer.flush();
+		assertEquals(4, released.size());
+		assertEquals(1500L, released.get(2).getWifiScan().getTime().longValue());
+		assertEquals(2000L, released.get(3).getWifiScan().getTime().longValue());
+	}
+	
+	/**
+	 * Tests that a full buffer releases its earliest point early
+	 */
+	@Test
+	public void testCapacity() {
+		List<SensorDataPoint> released = new ArrayList<SensorDataPoint>();
+		ReorderBuffer buffer = new ReorderBuffer(collector(released), Long.MAX_VALUE / 2, 2, 100);
+		
+		buffer.accept(point(300));
+		buffer.accept(point(100));
+		buffer.accept(point(200));
+		
+		assertEquals(1, released.size());
+		assertEquals(100L, released.get(0).getWifiScan().getTime().longValue());
+		assertEquals(1, buffer.getForcedReleases());
+		assertEquals(2, buffer.getPendingPoints());
+	}
+	
+	/**
+	 * Tests that a duplicate of a held point is dropped even after more 
+	 * points than maximumRememberedIds arrived
+	 */
+	@Test
+	public void testDuplicateOfHeldPoint() {
+		List<SensorDataPoint> released = new ArrayList<SensorDataPoint>();
+		ReorderBuffer buffer = new ReorderBuffer(collector(released), 10000, 100, 2);
+		
+		SensorDataPoint first = point(0);
+		buffer.accept(first);
+		for(int i = 1; i <= 5; i++) {
+			buffer.accept(point(i * 100));
+		}
+		buffer.accept(first);
+		
+		assertEquals(1, buffer.getDuplicates());
+		assertEquals(6, buffer.getPendingPoints());
+		
+		buffer.flush();
+		assertEquals(6, released.size());
+		assertSame(first, released.get(0));
+		
+		buffer.accept(point(900));
+		buffer.accept(first);
+		assertEquals(1, buffer.getLateDrops());
+	}
+	
+	private static SensorDataPointSink collector(final List<SensorDataPoint> released) {
+		return new SensorDataPointSink() {
+			public void accept(SensorDataPoint sensorDataPoint) {
+				released.add(sensorDataPoint);
+			}
+		};
+	}
+	
+	private static SensorDataPoint point(long time) {
+		return new SensorDataPoint(UUID.randomUUID(), 0.0, DateTimeZone.UTC, 
+			new WifiScan(time, Collections.<AccessPoint>emptyList()), 
+			new AccelerometerData(new double[0], new double[0], new double[0]));
+	}
+}
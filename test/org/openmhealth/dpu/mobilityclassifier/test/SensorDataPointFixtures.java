@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import junit.framework.Assert;
+
+import org.joda.time.DateTimeZone;
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+
+import edu.ucla.cens.mobilityclassifier.AccessPoint;
+import edu.ucla.cens.mobilityclassifier.Classification;
+import edu.ucla.cens.mobilityclassifier.Sample;
+import edu.ucla.cens.mobilityclassifier.WifiScan;
+
+/**
+ * Deterministic synthetic sensor data and assertions shared by the tests.
+ */
+public class SensorDataPointFixtures {
+	private static final double GRAVITY = 9.80665D;
+	private static final String[] SSIDS = { "home", "office", "cafe", "library", "gym", "bus", "train", "lab" };
+	
+	/**
+	 * Prevent instantiation as this class only contains static helpers.
+	 */
+	private SensorDataPointFixtures() {
+		
+	}
+	
+	/**
+	 * Generates a time-ordered trace that cycles through still, walking, 
+	 * running and driving-like windows. Consecutive scans are one minute 
+	 * apart and are often identical so the wifi comparison is exercised.
+	 * 
+	 * @param seed the seed for the pseudo-random generator
+	 * 
+	 * @param numberOfPoints the number of points to generate
+	 * 
+	 * @return the generated trace
+	 */
+	public static List<SensorDataPoint> trace(long seed, int numberOfPoints) {
+		Random random = new Random(seed);
+		List<SensorDataPoint> points = new ArrayList<SensorDataPoint>(numberOfPoints);
+		long time = 1330000000000L + random.nextInt(1000000);
+		List<AccessPoint> accessPoints = accessPoints(random);
+		
+		for(int i = 0; i < numberOfPoints; i++) {
+			int activity = (i / 5) % 4;
+			
+			if(random.nextInt(3) == 0) {
+				accessPoints = accessPoints(random);
+			}
+			
+			points.add(new SensorDataPoint(UUID.randomUUID(), 
+					activity == 3 ? 10 + random.nextDouble() * 20 : random.nextDouble(),
+					DateTimeZone.UTC,
+					new WifiScan(time, accessPoints),
+					samples(random, activity, i % 7 == 6 ? 5 : 64)));
+			
+			time += 60000L;
+		}
+		
+		return points;
+	}
+	
+	private static List<AccessPoint> accessPoints(Random random) {
+		List<AccessPoint> accessPoints = new ArrayList<AccessPoint>();
+		int numberOfAccessPoints = random.nextInt(5);
+		
+		for(int i = 0; i < numberOfAccessPoints; i++) {
+			accessPoints.add(new AccessPoint(SSIDS[random.nextInt(SSIDS.length)], -30 - random.nextInt(60)));
+		}
+		
+		return accessPoints;
+	}
+	
+	private static List<Sample> samples(Random random, int activity, int numberOfSamples) {
+		double amplitude = new double[] { 0.01D, 3.0D, 9.0D, 0.05D }[activity];
+		double cycles = new double[] { 1.0D, 4.0D, 3.0D, 9.0D }[activity];
+		List<Sample> samples = new ArrayList<Sample>(numberOfSamples);
+		
+		for(int i = 0; i < numberOfSamples; i++) {
+			double wave = amplitude * Math.sin(2 * Math.PI * cycles * i / numberOfSamples);
+			samples.add(new Sample(random.nextGaussian() * amplitude / 10, 
+					random.nextGaussian() * amplitude / 10, 
+					GRAVITY + wave));
+		}
+		
+		return samples;
+	}
+	
+	/**
+	 * Asserts that two classifications have identical modes and features.
+	 * Classification does not implement equals.
+	 */
+	public static void assertSameClassification(Classification expected, Classification actual) {
+		Assert.assertEquals(expected.getMode(), actual.getMode());
+		Assert.assertEquals(expected.getWifiMode(), actual.getWifiMode());
+		Assert.assertEquals(expected.getAverage(), actual.getAverage());
+		Assert.assertEquals(expected.getVariance(), actual.getVariance());
+		Assert.assertEquals(expected.getFft(), actual.getFft());
+		Assert.assertEquals(expected.hasFeatures(), actual.hasFeatures());
+	}
+	
+	/**
+	 * Asserts that two points have identical ids, fields, and samples, 
+	 * comparing each access point's SSID and strength. WifiScan and 
+	 * AccessPoint do not implement equals.
+	 */
+	public static void assertSamePoint(SensorDataPoint expected, SensorDataPoint actual) {
+		Assert.assertEquals(expected.getId(), actual.getId());
+		Assert.assertEquals(expected.getSpeed(), actual.getSpeed());
+		Assert.assertEquals(expected.getTimezone(), actual.getTimezone());
+		Assert.assertEquals(expected.getAccelerometerData(), actual.getAccelerometerData());
+		
+		WifiScan expectedScan = expected.getWifiScan();
+		WifiScan actualScan = actual.getWifiScan();
+		Assert.assertEquals(expectedScan.getTime(), actualScan.getTime());
+		Assert.assertEquals(expectedScan.getAccessPoints().size(), actualScan.getAccessPoints().size());
+		for(int i = 0; i < expectedScan.getAccessPoints().size(); i++) {
+			AccessPoint expectedAccessPoint = expectedScan.getAccessPoints().get(i);
+			AccessPoint actualAccessPoint = actualScan.getAccessPoints().get(i);
+			Assert.assertEquals(expectedAccessPoint.getSsid(), actualAccessPoint.getSsid());
+			Assert.assertEquals(expectedAccessPoint.getStrength(), actualAccessPoint.getStrength());
+		}
+	}
+}
@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.test;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.json.JSONException;
+import org.junit.Test;
+import org.openmhealth.dpu.mobilityclassifier.domain.SensorDataPoint;
+import org.openmhealth.dpu.mobilityclassifier.io.SensorDataPointReader;
+
+/**
+ * Tests incremental JSON ingest.
+ */
+public class SensorDataPointReaderTests extends TestCase {
+	private static final String POINT = "{\"accel_data\":[{\"x\":0.1,\"y\":0.2,\"z\":9.8},{\"x\":0,\"y\":0,\"z\":9.7}],"
+			+ "\"speed\":1.5,\"wifi_data\":{\"timezone\":\"UTC\",\"time\":1331258104686,"
+			+ "\"scan\":[{\"ssid\":\"home\",\"strength\":-58}]}}";
+	
+	/**
+	 * Tests reading the example JSON array
+	 */
+	@Test
+	public void testReadExampleArray() throws IOException, JSONException {
+		SensorDataPointReader reader = new SensorDataPointReader(new FileInputStream("example.json"));
+		List<SensorDataPoint> points = new ArrayList<SensorDataPoint>();
+		
+		try {
+			for(SensorDataPoint point : reader) {
+				points.add(point);
+			}
+		}
+		finally {
+			reader.close();
+		}
+		
+		assertEquals(10, points.size());
+		assertEquals(33, points.get(0).getAccelerometerData().size());
+		assertEquals(0.06810174137353897D, points.get(0).getAccelerometerData().getX(0));
+		assertEquals(Long.valueOf(1331258104686L), points.get(0).getWifiScan().getTime());
+		assertEquals(18, points.get(0).getWifiScan().getAccessPoints().size());
+		assertEquals("America/Los_Angeles", points.get(0).getTimezone().getID());
+	}
+	
+	/**
+	 * Tests reading newline-delimited JSON
+	 */
+	@Test
+	public void testReadNdjson() throws JSONException {
+		String id = "0b8c1ba4-90d1-4d6f-9a4a-2b51a6e6b8e1";
+		String withId = "{\"id\":\"" + id + "\"," + POINT.substring(1);
+		SensorDataPointReader reader = new SensorDataPointReader(new StringReader(POINT + "\n" + withId + "\n\n"));
+		
+		SensorDataPoint first = reader.read();
+		SensorDataPoint second = reader.read();
+		
+		assertNotNull(first);
+		assertEquals(1.5D, first.getSpeed());
+		assertEquals(id, second.getId().toString());
+		assertNull(reader.read());
+		assertNull(reader.read());
+	}
+	
+	/**
+	 * Tests reading an empty array
+	 */
+	@Test
+	public void testReadEmptyArray() throws JSONException {
+		assertNull(new SensorDataPointReader(new StringReader(" [ ] ")).read());
+	}
+	
+	/**
+	 * Tests an attempt to read an unterminated array
+	 */
+	@Test
+	public void testReadUnterminatedArray() throws JSONException {
+		SensorDataPointReader reader = new SensorDataPointReader(new StringReader("[" + POINT + ","));
+		assertNotNull(reader.read());
+		
+		try {
+			reader.read();
+			
+			fail("SensorDataPointReader allowed an unterminated array");
+		}
+		catch(JSONException e) {
+			// expected behavior
+		}
+	}
+}
@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.dpu.mobilityclassifier.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.openmhealth.dpu.mobilityclassifier.service.WifiScanComparator;
+
+import edu.ucla.cens.mobilityclassifier.AccessPoint;
+import edu.ucla.cens.mobilityclassifier.MobilityClassifier;
+import edu.ucla.cens.mobilityclassifier.Sample;
+import edu.ucla.cens.mobilityclassifier.WifiScan;
+
+/**
+ * Tests that WifiScanComparator agrees with the MobilityClassifier.
+ */
+public class WifiScanComparatorTests extends TestCase {
+	
+	/**
+	 * Tests random streams of scans, including duplicate SSIDs, scans with 
+	 * only strong signals, empty scans, repeated scans, and gaps
+	 */
+	@Test
+	public void testMatchesMobilityClassifier() {
+		Random random = new Random(17);
+		MobilityClassifier mobilityClassifier = new MobilityClassifier();
+		WifiScanComparator comparator = new WifiScanComparator();
+		List<Sample> samples = new ArrayList<Sample>();
+		for(int i = 0; i < 16; i++) {
+			samples.add(new Sample(0, 0, 9.8));
+		}
+		
+		WifiScan previousWifiScan = null;
+		long time = 1331258104686L;
+		
+		for(int i = 0; i < 5000; i++) {
+			WifiScan wifiScan;
+			
+			int shape = random.nextInt(10);
+			if(shape == 0 && previousWifiScan != null) {
+				wifiScan = previousWifiScan;
+			}
+			else if(shape == 1 && previousWifiScan != null) {
+				wifiScan = new WifiScan(time, new ArrayList<AccessPoint>(previousWifiScan.getAccessPoints()));
+			}
+			else {
+				int numberOfAccessPoints = random.nextInt(8);
+				boolean strongOnly = random.nextInt(4) == 0;
+				List<AccessPoint> accessPoints = new ArrayList<AccessPoint>();
+				
+				for(int j = 0; j < numberOfAccessPoints; j++) {
+					double strength = strongOnly ? -1 - random.nextInt(49) : -20 - random.nextInt(70) - random.nextDouble();
+					accessPoints.add(new AccessPoint("ap" + random.nextInt(10), strength));
+				}
+				wifiScan = new WifiScan(time, accessPoints);
+			}
+			
+			String previousMode = new String[] { null, "still", "STILL", "DRIVE", "walk" }[random.nextInt(5)];
+			String expected = mobilityClassifier.classify(samples, 0.0D, wifiScan, previousWifiScan, previousMode).getWifiMode();
+			String normalizedPreviousMode = "STILL".equals(previousMode) || "DRIVE".equals(previousMode) ? previousMode : "unknown";
+			
+			assertEquals("scan " + i, expected, comparator.compare(wifiScan, previousWifiScan, normalizedPreviousMode));
+			
+			previousWifiScan = wifiScan;
+			int step = random.nextInt(10);
+			time += step == 0 ? 0 : step == 1 ? 600000L : 60000L;
+		}
+	}
+}